@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.csw.feature.AbstractFeatureCollection;
 import org.geoserver.csw.feature.MemoryFeatureCollection;
 import org.geoserver.csw.records.CSWRecordDescriptor;
@@ -36,6 +37,7 @@ class CatalogStoreFeatureCollection extends AbstractFeatureCollection<FeatureTyp
     protected Catalog catalog;
     protected CatalogStoreMapping mapping;
     protected RecordDescriptor rd;
+    protected List<ResourceInfo> resources;
 
     /**
      * Create new CatalogStoreFeatureCollection
@@ -58,11 +60,36 @@ class CatalogStoreFeatureCollection extends AbstractFeatureCollection<FeatureTyp
         this.rd = rd;
     }
 
+    /**
+     * Create new CatalogStoreFeatureCollection over resources already selected, filtered and sorted
+     * 
+     * @param resources The resources
+     * @param mapping The Mapping
+     * @param rd Record Descriptor
+     */
+    public CatalogStoreFeatureCollection(List<ResourceInfo> resources, CatalogStoreMapping mapping, RecordDescriptor rd) {
+        super(CSWRecordDescriptor.RECORD_TYPE);
+        this.resources = resources;
+        this.mapping = mapping;
+        this.rd = rd;
+    }
+
     @Override
     protected Iterator<Feature> openIterator() {
+        if (resources != null) {
+            return new CatalogStoreFeatureIterator(resources.iterator(), mapping, rd);
+        }
         return new CatalogStoreFeatureIterator(offset, count, sortOrder, filter, catalog, mapping, rd);
     }
 
+    @Override
+    public int size() {
+        if (resources != null) {
+            return resources.size();
+        }
+        return super.size();
+    }
+
     @Override
     protected void closeIterator(Iterator<Feature> close) {
     	
@@ -45,6 +45,19 @@ class CatalogStoreFeatureIterator implements Iterator<Feature> {
         builder = new GenericRecordBuilder(recordDescriptor);
     }
 
+    /**
+     * Create new CatalogStoreFeatureIterator over resources already selected
+     * 
+     * @param resources The resources
+     * @param mapping The Mapping
+     * @param recordDescriptor Record Descriptor
+     */
+    public CatalogStoreFeatureIterator(Iterator<ResourceInfo> resources, CatalogStoreMapping mapping, RecordDescriptor recordDescriptor) {
+        layerIt = resources;
+        this.mapping = mapping;
+        builder = new GenericRecordBuilder(recordDescriptor);
+    }
+
     @Override
     public boolean hasNext() {
         return layerIt.hasNext();
@@ -0,0 +1,783 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.csw.store.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.csw.store.internal.CatalogStoreMapping.CatalogStoreMappingElement;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+import org.opengis.filter.spatial.BBOX;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * In memory index of the records of the Internal Catalog Store for one mapping, kept up to date
+ * by listening to the catalog events.
+ * <p>
+ * For each mapping element the index holds the terms found in the values and the records
+ * containing them, the distinct values (answering GetDomain) and a rank of the records by value
+ * (answering the sorts). A further "AnyText" field collects the terms of all the elements, and
+ * the bounding boxes are held in an STR-tree.
+ * </p>
+ * <p>
+ * The index is used to prune the records a filter has to be evaluated against: the candidates
+ * it returns are a superset of the records matching the filter, that is then evaluated on each
+ * candidate as before. Parts of a filter the index knows nothing about simply do not prune.
+ * </p>
+ * <p>
+ * Resources are indexed again when modified. Changes to other catalog objects might change the
+ * values of the mapping elements (e.g. the name of a workspace), in that case the whole index is
+ * built again the next time it is used.
+ * </p>
+ */
+class CatalogStoreIndex implements CatalogListener {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogStoreIndex.class);
+
+    static final FilterFactory2 ff = CommonFactoryFinder.getFilterFactory2();
+
+    /**
+     * The field of the terms of all the mapping elements
+     */
+    static final String ANY_TEXT = "AnyText";
+
+    /**
+     * The property bounding box filters are unmapped to, see {@link CSWUnmappingFilterVisitor}
+     */
+    static final String BOUNDING_BOX = "boundingBox";
+
+    static final PropertyName BOUNDING_BOX_PROPERTY = ff.property(BOUNDING_BOX);
+
+    protected Catalog catalog;
+
+    protected CatalogStoreMapping mapping;
+
+    /**
+     * The mapping element keys, by the expression of the element
+     */
+    protected Map<Expression, String> fields = new IdentityHashMap<Expression, String>();
+
+    /**
+     * The records, by resource id
+     */
+    protected Map<String, Record> records = new LinkedHashMap<String, Record>();
+
+    /**
+     * The ids of the records containing each term, by field
+     */
+    protected Map<String, Map<String, Set<String>>> terms = new HashMap<String, Map<String, Set<String>>>();
+
+    /**
+     * The number of records having each distinct value, by field
+     */
+    protected Map<String, Map<String, Integer>> values = new HashMap<String, Map<String, Integer>>();
+
+    /**
+     * Fields having more than one value in a record
+     */
+    protected Set<String> multiValued = new HashSet<String>();
+
+    /**
+     * Fields having values other than strings
+     */
+    protected Set<String> notStrings = new HashSet<String>();
+
+    /**
+     * The records having a bounding box, by coordinate reference system
+     */
+    protected Map<CoordinateReferenceSystem, Set<String>> crsRecords = new HashMap<CoordinateReferenceSystem, Set<String>>();
+
+    /**
+     * The records whose bounding box could not be computed
+     */
+    protected Set<String> unbounded = new HashSet<String>();
+
+    /**
+     * Built when first needed after a change, an STR-tree cannot be modified once queried
+     */
+    protected STRtree tree;
+
+    /**
+     * Rank of the records for each sorted field, built when first needed after a change
+     */
+    protected Map<String, Map<String, Integer>> ranks = new HashMap<String, Map<String, Integer>>();
+
+    protected long sequence;
+
+    protected boolean stale = true;
+
+    public CatalogStoreIndex(Catalog catalog, CatalogStoreMapping mapping) {
+        this.catalog = catalog;
+        this.mapping = mapping;
+        for (CatalogStoreMappingElement element : mapping.elements()) {
+            fields.put(element.getContent(), element.getKey());
+        }
+    }
+
+    /**
+     * Returns the resources matching the filter, in the order requested, or null if the index
+     * cannot sort as requested
+     *
+     * @param filter The unmapped filter
+     * @param sortBy The sort order, on the record properties
+     * @param unmapper Unmaps the sort properties
+     * @param recordMapping The mapping the records are built with
+     */
+    public List<ResourceInfo> getRecords(Filter filter, SortBy[] sortBy,
+            CSWUnmappingFilterVisitor unmapper, CatalogStoreMapping recordMapping) {
+        // the fields to sort on, properties missing from the records are null in all of them
+        final List<Map<String, Integer>> sortRanks = new ArrayList<Map<String, Integer>>();
+        final List<Boolean> ascending = new ArrayList<Boolean>();
+        if (sortBy != null) {
+            for (SortBy sort : sortBy) {
+                if (sort == SortBy.NATURAL_ORDER || sort == SortBy.REVERSE_ORDER) {
+                    return null;
+                }
+                String field = getField(sort.getPropertyName(), unmapper);
+                if (field == null || !isString(field)) {
+                    // numbers and dates would be ranked by their text
+                    return null;
+                }
+                if (recordMapping.getElement(field) != null) {
+                    sortRanks.add(getRanks(field));
+                    ascending.add(sort.getSortOrder() != SortOrder.DESCENDING);
+                }
+            }
+        }
+
+        List<ResourceInfo> result = new ArrayList<ResourceInfo>();
+        for (String id : getCandidates(filter)) {
+            ResourceInfo resource = catalog.getFacade().getResource(id, ResourceInfo.class);
+            if (resource != null && filter.evaluate(resource)) {
+                result.add(resource);
+            }
+        }
+
+        if (!sortRanks.isEmpty()) {
+            Collections.sort(result, new Comparator<ResourceInfo>() {
+
+                @Override
+                public int compare(ResourceInfo r1, ResourceInfo r2) {
+                    for (int i = 0; i < sortRanks.size(); i++) {
+                        int result = rank(sortRanks.get(i), r1) - rank(sortRanks.get(i), r2);
+                        if (result != 0) {
+                            return ascending.get(i) ? result : -result;
+                        }
+                    }
+                    return 0;
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Returns the distinct values of a property, sorted, or null if the index cannot provide
+     * them
+     */
+    public synchronized List<String> getDomain(PropertyName property,
+            CSWUnmappingFilterVisitor unmapper) {
+        String field = getField(property, unmapper);
+        if (field == null) {
+            return null;
+        }
+        check();
+        Map<String, Integer> fieldValues = values.get(field);
+        return fieldValues == null ? new ArrayList<String>() : new ArrayList<String>(
+                fieldValues.keySet());
+    }
+
+    /**
+     * Returns the ids of the records that might match the filter, in catalog order
+     */
+    synchronized List<String> getCandidates(Filter filter) {
+        check();
+        Set<String> candidates = candidates(filter);
+        List<Record> sorted;
+        if (candidates == null) {
+            sorted = new ArrayList<Record>(records.values());
+        } else {
+            sorted = new ArrayList<Record>(candidates.size());
+            for (String id : candidates) {
+                sorted.add(records.get(id));
+            }
+        }
+        Collections.sort(sorted);
+        List<String> result = new ArrayList<String>(sorted.size());
+        for (Record record : sorted) {
+            result.add(record.id);
+        }
+        return result;
+    }
+
+    /**
+     * The key of the mapping element a record property is unmapped to, or null if the property
+     * is not mapped to a single valued element
+     */
+    String getField(PropertyName property, CSWUnmappingFilterVisitor unmapper) {
+        Object unmapped;
+        try {
+            unmapped = property.accept(unmapper, null);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String field = fields.get(unmapped);
+        synchronized (this) {
+            check();
+            return field == null || multiValued.contains(field) ? null : field;
+        }
+    }
+
+    /**
+     * True if the field only has string values, which can be ranked by their text
+     */
+    synchronized boolean isString(String field) {
+        check();
+        return !notStrings.contains(field);
+    }
+
+    synchronized Map<String, Integer> getRanks(String field) {
+        check();
+        Map<String, Integer> result = ranks.get(field);
+        if (result == null) {
+            List<Record> sorted = new ArrayList<Record>(records.values());
+            final String key = field;
+            Collections.sort(sorted, new Comparator<Record>() {
+
+                @Override
+                public int compare(Record r1, Record r2) {
+                    String v1 = r1.getValue(key);
+                    String v2 = r2.getValue(key);
+                    if (v1 == null) {
+                        return v2 == null ? 0 : -1;
+                    } else if (v2 == null) {
+                        return 1;
+                    }
+                    return v1.compareTo(v2);
+                }
+            });
+            // equal values get the same rank
+            result = new HashMap<String, Integer>();
+            int rank = 0;
+            String previous = null;
+            for (int i = 0; i < sorted.size(); i++) {
+                String value = sorted.get(i).getValue(field);
+                if (i > 0 && (value == null ? previous != null : !value.equals(previous))) {
+                    rank++;
+                }
+                result.put(sorted.get(i).id, rank);
+                previous = value;
+            }
+            ranks.put(field, result);
+        }
+        return result;
+    }
+
+    static int rank(Map<String, Integer> ranks, ResourceInfo resource) {
+        Integer rank = ranks.get(resource.getId());
+        return rank == null ? -1 : rank;
+    }
+
+    /**
+     * Returns a superset of the records matching the filter, or null if the index does not
+     * restrict them
+     */
+    Set<String> candidates(Filter filter) {
+        if (filter == Filter.EXCLUDE) {
+            return new HashSet<String>();
+        } else if (filter instanceof And) {
+            Set<String> result = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Set<String> candidates = candidates(child);
+                if (candidates != null) {
+                    if (result == null) {
+                        result = new HashSet<String>(candidates);
+                    } else {
+                        result.retainAll(candidates);
+                    }
+                }
+            }
+            return result;
+        } else if (filter instanceof Or) {
+            Set<String> result = new HashSet<String>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                Set<String> candidates = candidates(child);
+                if (candidates == null) {
+                    return null;
+                }
+                result.addAll(candidates);
+            }
+            return result;
+        } else if (filter instanceof PropertyIsLike) {
+            PropertyIsLike like = (PropertyIsLike) filter;
+            return likeCandidates(getField(like.getExpression()), like);
+        } else if (filter instanceof PropertyIsEqualTo) {
+            BinaryComparisonOperator equal = (BinaryComparisonOperator) filter;
+            if (equal.getExpression2() instanceof Literal) {
+                return equalCandidates(getField(equal.getExpression1()),
+                        ((Literal) equal.getExpression2()).getValue());
+            } else if (equal.getExpression1() instanceof Literal) {
+                return equalCandidates(getField(equal.getExpression2()),
+                        ((Literal) equal.getExpression1()).getValue());
+            }
+        } else if (filter instanceof BBOX) {
+            return bboxCandidates((BBOX) filter);
+        }
+        return null;
+    }
+
+    String getField(Expression expression) {
+        if (expression instanceof RecordTextFunction) {
+            return ANY_TEXT;
+        }
+        return fields.get(expression);
+    }
+
+    /**
+     * The records having, for each run of letters and digits of the pattern, a term containing
+     * it
+     */
+    Set<String> likeCandidates(String field, PropertyIsLike like) {
+        if (field == null) {
+            return null;
+        }
+        String pattern = like.getLiteral();
+        String wildCard = like.getWildCard();
+        String singleChar = like.getSingleChar();
+        String escape = like.getEscape();
+
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < pattern.length();) {
+            if (escape != null && escape.length() > 0 && pattern.startsWith(escape, i)
+                    && i + escape.length() < pattern.length()) {
+                i += escape.length();
+                literal.append(pattern.charAt(i++));
+            } else if (wildCard != null && wildCard.length() > 0
+                    && pattern.startsWith(wildCard, i)) {
+                literal.append(' ');
+                i += wildCard.length();
+            } else if (singleChar != null && singleChar.length() > 0
+                    && pattern.startsWith(singleChar, i)) {
+                literal.append(' ');
+                i += singleChar.length();
+            } else {
+                literal.append(pattern.charAt(i++));
+            }
+        }
+
+        Map<String, Set<String>> fieldTerms = terms.get(field);
+        Set<String> result = null;
+        for (String run : tokenize(literal.toString())) {
+            Set<String> containing = new HashSet<String>();
+            if (fieldTerms != null) {
+                for (Map.Entry<String, Set<String>> term : fieldTerms.entrySet()) {
+                    if (term.getKey().contains(run)) {
+                        containing.addAll(term.getValue());
+                    }
+                }
+            }
+            if (result == null) {
+                result = containing;
+            } else {
+                result.retainAll(containing);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The records having all the terms of the value. Only string values are compared, others
+     * might be converted before being compared.
+     */
+    Set<String> equalCandidates(String field, Object value) {
+        if (field == null || field == ANY_TEXT || !(value instanceof String)
+                || notStrings.contains(field)) {
+            return null;
+        }
+        Map<String, Set<String>> fieldTerms = terms.get(field);
+        Set<String> result = null;
+        for (String term : tokenize((String) value)) {
+            Set<String> containing = fieldTerms == null ? null : fieldTerms.get(term);
+            if (containing == null) {
+                return new HashSet<String>();
+            }
+            if (result == null) {
+                result = new HashSet<String>(containing);
+            } else {
+                result.retainAll(containing);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The records whose bounding box intersects the one of the filter. Bounding boxes are
+     * compared as they are, so records in another coordinate reference system are always
+     * candidates.
+     */
+    @SuppressWarnings("unchecked")
+    Set<String> bboxCandidates(BBOX bbox) {
+        if (!(bbox.getExpression1() instanceof PropertyName)
+                || !BOUNDING_BOX.equals(((PropertyName) bbox.getExpression1())
+                        .getPropertyName()) || bbox.getExpression2() != null
+                && !(bbox.getExpression2() instanceof Literal)) {
+            return null;
+        }
+        BoundingBox bounds = bbox.getBounds();
+        if (bounds == null) {
+            return null;
+        }
+
+        if (tree == null) {
+            tree = new STRtree();
+            for (Record record : records.values()) {
+                if (record.envelope != null) {
+                    tree.insert(record.envelope, record.id);
+                }
+            }
+        }
+        Set<String> result = new HashSet<String>(tree.query(new Envelope(bounds.getMinX(),
+                bounds.getMaxX(), bounds.getMinY(), bounds.getMaxY())));
+        result.addAll(unbounded);
+
+        CoordinateReferenceSystem crs = bounds.getCoordinateReferenceSystem();
+        if (crs != null) {
+            for (Map.Entry<CoordinateReferenceSystem, Set<String>> e : crsRecords.entrySet()) {
+                if (e.getKey() == null || !CRS.equalsIgnoreMetadata(crs, e.getKey())) {
+                    result.addAll(e.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits a text in lower case runs of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<String>();
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            if (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                result.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the index again if the catalog changed in ways the index cannot follow
+     */
+    void check() {
+        if (stale) {
+            clear();
+            CloseableIterator<ResourceInfo> it = catalog.getFacade().list(ResourceInfo.class,
+                    Filter.INCLUDE, null, null);
+            try {
+                while (it.hasNext()) {
+                    add(it.next());
+                }
+            } finally {
+                it.close();
+            }
+            stale = false;
+        }
+    }
+
+    void clear() {
+        records.clear();
+        terms.clear();
+        values.clear();
+        multiValued.clear();
+        notStrings.clear();
+        crsRecords.clear();
+        unbounded.clear();
+        changed();
+    }
+
+    void changed() {
+        tree = null;
+        ranks.clear();
+    }
+
+    void add(ResourceInfo resource) {
+        add(resource, sequence++);
+    }
+
+    void add(ResourceInfo resource, long position) {
+        Record record = new Record(resource.getId(), position);
+        for (CatalogStoreMappingElement element : mapping.elements()) {
+            Object value;
+            try {
+                value = element.getContent().evaluate(resource);
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to evaluate " + element.getKey(), e);
+                value = null;
+            }
+            if (value instanceof Collection) {
+                if (((Collection) value).size() > 1) {
+                    multiValued.add(element.getKey());
+                }
+                for (Object item : (Collection) value) {
+                    addValue(record, element.getKey(), item);
+                }
+            } else if (value != null) {
+                addValue(record, element.getKey(), value);
+            }
+        }
+
+        try {
+            Object bounds = BOUNDING_BOX_PROPERTY.evaluate(resource);
+            if (bounds instanceof ReferencedEnvelope) {
+                record.envelope = new Envelope((ReferencedEnvelope) bounds);
+                record.crs = ((ReferencedEnvelope) bounds).getCoordinateReferenceSystem();
+            } else if (bounds instanceof Geometry) {
+                record.envelope = ((Geometry) bounds).getEnvelopeInternal();
+                Object crs = ((Geometry) bounds).getUserData();
+                record.crs = crs instanceof CoordinateReferenceSystem ? (CoordinateReferenceSystem) crs
+                        : null;
+            } else if (bounds instanceof BoundingBox) {
+                BoundingBox bbox = (BoundingBox) bounds;
+                record.envelope = new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(),
+                        bbox.getMaxY());
+                record.crs = ((BoundingBox) bounds).getCoordinateReferenceSystem();
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to compute the bounding box of " + resource.getId(), e);
+        }
+        if (record.envelope == null || record.envelope.isNull()) {
+            record.envelope = null;
+            unbounded.add(record.id);
+        } else {
+            get(crsRecords, record.crs).add(record.id);
+        }
+
+        records.put(record.id, record);
+        changed();
+    }
+
+    void addValue(Record record, String field, Object value) {
+        if (!(value instanceof String)) {
+            notStrings.add(field);
+        }
+        String text = value.toString();
+        record.getValues(field).add(text);
+        Map<String, Integer> fieldValues = values.get(field);
+        if (fieldValues == null) {
+            fieldValues = new TreeMap<String, Integer>();
+            values.put(field, fieldValues);
+        }
+        Integer count = fieldValues.get(text);
+        fieldValues.put(text, count == null ? 1 : count + 1);
+
+        // filters might see the value converted rather than its string representation
+        List<String> tokens = tokenize(text);
+        String converted = Converters.convert(value, String.class);
+        if (converted != null && !converted.equals(text)) {
+            tokens.addAll(tokenize(converted));
+        }
+        for (String token : tokens) {
+            addTerm(field, token, record);
+            addTerm(ANY_TEXT, token, record);
+        }
+    }
+
+    void addTerm(String field, String term, Record record) {
+        Map<String, Set<String>> fieldTerms = terms.get(field);
+        if (fieldTerms == null) {
+            fieldTerms = new HashMap<String, Set<String>>();
+            terms.put(field, fieldTerms);
+        }
+        if (get(fieldTerms, term).add(record.id)) {
+            record.terms.add(new String[] { field, term });
+        }
+    }
+
+    Record remove(String id) {
+        Record record = records.remove(id);
+        if (record == null) {
+            return null;
+        }
+        for (String[] term : record.terms) {
+            Map<String, Set<String>> fieldTerms = terms.get(term[0]);
+            Set<String> ids = fieldTerms.get(term[1]);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                fieldTerms.remove(term[1]);
+            }
+        }
+        for (Map.Entry<String, List<String>> e : record.values.entrySet()) {
+            Map<String, Integer> fieldValues = values.get(e.getKey());
+            for (String value : e.getValue()) {
+                int count = fieldValues.get(value);
+                if (count == 1) {
+                    fieldValues.remove(value);
+                } else {
+                    fieldValues.put(value, count - 1);
+                }
+            }
+        }
+        if (record.envelope == null) {
+            unbounded.remove(id);
+        } else {
+            Set<String> ids = crsRecords.get(record.crs);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                crsRecords.remove(record.crs);
+            }
+        }
+        changed();
+        return record;
+    }
+
+    static <K> Set<String> get(Map<K, Set<String>> map, K key) {
+        Set<String> result = map.get(key);
+        if (result == null) {
+            result = new LinkedHashSet<String>();
+            map.put(key, result);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        if (!stale && event.getSource() instanceof ResourceInfo) {
+            add((ResourceInfo) event.getSource());
+        }
+    }
+
+    @Override
+    public synchronized void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        if (!stale && event.getSource() instanceof ResourceInfo) {
+            remove(event.getSource().getId());
+        }
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // wait for the changes to be applied
+    }
+
+    @Override
+    public synchronized void handlePostModifyEvent(CatalogPostModifyEvent event)
+            throws CatalogException {
+        if (stale) {
+            return;
+        }
+        if (event.getSource() instanceof ResourceInfo) {
+            // keep the position of the resource in the catalog order
+            Record record = remove(event.getSource().getId());
+            if (record == null) {
+                add((ResourceInfo) event.getSource());
+            } else {
+                add((ResourceInfo) event.getSource(), record.sequence);
+            }
+        } else {
+            stale = true;
+        }
+    }
+
+    @Override
+    public synchronized void reloaded() {
+        stale = true;
+    }
+
+    /**
+     * The indexed values of a resource
+     */
+    static class Record implements Comparable<Record> {
+
+        final String id;
+
+        /**
+         * Position of the record in the catalog order
+         */
+        final long sequence;
+
+        final Map<String, List<String>> values = new HashMap<String, List<String>>();
+
+        /**
+         * The field and term pairs indexing this record
+         */
+        final List<String[]> terms = new ArrayList<String[]>();
+
+        Envelope envelope;
+
+        CoordinateReferenceSystem crs;
+
+        Record(String id, long sequence) {
+            this.id = id;
+            this.sequence = sequence;
+        }
+
+        List<String> getValues(String field) {
+            List<String> result = values.get(field);
+            if (result == null) {
+                result = new ArrayList<String>(1);
+                values.put(field, result);
+            }
+            return result;
+        }
+
+        String getValue(String field) {
+            List<String> result = values.get(field);
+            return result == null || result.isEmpty() ? null : result.get(0);
+        }
+
+        @Override
+        public int compareTo(Record other) {
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -15,7 +15,8 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.platform.GeoServerResourceLoader;
 
 /**
- * Internal Catalog Store that automatically loads mappings from mapping files in GeoServer Data Directory.
+ * Internal Catalog Store that automatically loads mappings from mapping files in GeoServer Data Directory,
+ * and indexes the records of each mapping.
  * 
  * @author Niels Charlier
  *
@@ -38,6 +39,7 @@ public class GeoServerInternalCatalogStore extends InternalCatalogStore {
             properties.load(in);
             in.close();
             addMapping (f.getName(), CatalogStoreMapping.parse(new HashMap<String, String>((Map) properties)));
+            addIndex(f.getName());
         }
     }       
     
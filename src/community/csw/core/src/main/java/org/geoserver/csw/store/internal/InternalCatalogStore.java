@@ -5,14 +5,23 @@
 package org.geoserver.csw.store.internal;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.opengis.cat.csw20.ElementSetType;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.catalog.util.CloseableIteratorAdapter;
 import org.geoserver.csw.feature.MemoryFeatureCollection;
 import org.geoserver.csw.feature.sort.ComplexComparatorFactory;
 import org.geoserver.csw.records.CSWRecordDescriptor;
@@ -43,6 +52,8 @@ public class InternalCatalogStore extends AbstractCatalogStore {
 
     protected Map<String, CatalogStoreMapping> mappings = new HashMap<String, CatalogStoreMapping>();
 
+    protected Map<String, CatalogStoreIndex> indexes = new HashMap<String, CatalogStoreIndex>();
+
     public InternalCatalogStore(Catalog catalog) {
         support(CSWRecordDescriptor.getInstance());
         support(MetaDataDescriptor.getInstance());
@@ -60,6 +71,18 @@ public class InternalCatalogStore extends AbstractCatalogStore {
         mappings.put(typeName, mapping);
     }
 
+    /**
+     * Indexes the records of a mapping, the index is kept up to date listening to the catalog
+     * events and used to answer GetRecords and GetDomain
+     * 
+     * @param typeName record type name of the mapping
+     */
+    public void addIndex(String typeName) {
+        CatalogStoreIndex index = new CatalogStoreIndex(catalog, mappings.get(typeName));
+        catalog.addListener(index);
+        indexes.put(typeName, index);
+    }
+
     @Override
     public FeatureCollection getRecordsInternal(RecordDescriptor rd, Query q, Transaction t) throws IOException {
 
@@ -71,10 +94,10 @@ public class InternalCatalogStore extends AbstractCatalogStore {
         }
 
         Filter unmapped = Filter.INCLUDE;
+        CSWUnmappingFilterVisitor unmapper = new CSWUnmappingFilterVisitor(mapping, rd);
         // unmap filter
         if (q.getFilter() != null && q.getFilter() != Filter.INCLUDE) {
             Filter filter = q.getFilter();
-            CSWUnmappingFilterVisitor unmapper = new CSWUnmappingFilterVisitor(mapping, rd);
             unmapped = (Filter) filter.accept(unmapper, null);
         }
                
@@ -84,7 +107,24 @@ public class InternalCatalogStore extends AbstractCatalogStore {
 
         FeatureCollection records;
         
-        if (q.getSortBy() != null && q.getSortBy().length > 0) {
+        CatalogStoreIndex index = indexes.get(q.getTypeName());
+        List<ResourceInfo> resources = null;
+        if (index != null) {
+            resources = index.getRecords(unmapped, q.getSortBy(), unmapper, mapping);
+        }
+
+        if (resources != null) {
+            // page through the whole result, already sorted
+            int count = resources.size();
+            int endIndex = count;
+            if (startIndex >= count) {
+                endIndex = startIndex = 0;
+            } else if (q.getMaxFeatures() < count - startIndex) {
+                endIndex = startIndex + q.getMaxFeatures();
+            }
+            records = new CatalogStoreFeatureCollection(resources.subList(startIndex, endIndex),
+                    mapping, rd);
+        } else if (q.getSortBy() != null && q.getSortBy().length > 0) {
             records = new CatalogStoreFeatureCollection(startIndex,
                     Integer.MAX_VALUE, null, unmapped, catalog, mapping, rd);
             
@@ -107,6 +147,34 @@ public class InternalCatalogStore extends AbstractCatalogStore {
         return records;
     }
 
+    @Override
+    public CloseableIterator<String> getDomain(Name typeName, Name attributeName)
+            throws IOException {
+        CatalogStoreIndex index = indexes.get(typeName.getLocalPart());
+        RecordDescriptor rd = descriptorByType.get(typeName.getLocalPart());
+        if (index != null && rd != null
+                && rd.translateProperty(attributeName).evaluate(rd.getFeatureType()) != null) {
+            CSWUnmappingFilterVisitor unmapper = new CSWUnmappingFilterVisitor(
+                    mappings.get(typeName.getLocalPart()), rd);
+            List<String> domain = index.getDomain(translateProperty(rd, attributeName), unmapper);
+            if (domain != null) {
+                // same conversion as the records
+                Set<String> values = new HashSet<String>();
+                for (String value : domain) {
+                    try {
+                        values.add(new String(value.getBytes("ISO-8859-1"), "UTF-8"));
+                    } catch (UnsupportedEncodingException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                List<String> result = new ArrayList<String>(values);
+                Collections.sort(result);
+                return new CloseableIteratorAdapter<String>(result.iterator());
+            }
+        }
+        return super.getDomain(typeName, attributeName);
+    }
+
     @Override
     public PropertyName translateProperty(RecordDescriptor rd, Name name) {
         return rd.translateProperty(name);
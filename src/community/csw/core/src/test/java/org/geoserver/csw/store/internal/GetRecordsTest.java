@@ -2,8 +2,19 @@ package org.geoserver.csw.store.internal;
 
 import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
 import static org.custommonkey.xmlunit.XMLAssert.assertXpathExists;
+import static org.junit.Assert.assertEquals;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.XpathEngine;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geotools.csw.CSWConfiguration;
@@ -204,4 +215,94 @@ public class GetRecordsTest extends CSWInternalTestSupport {
         checkOws10Exception(d);
     }
 
+    @Test
+    public void testSortedPaging() throws Exception {
+        String request = "csw?service=CSW&version=2.0.2&request=GetRecords&typeNames=csw:Record"
+                + "&resultType=results&elementSetName=brief&sortBy=dc:title:D";
+        List<String> titles = getTitles(getAsDOM(request + "&maxRecords=100"), 29);
+        List<String> sorted = new ArrayList<String>(titles);
+        Collections.sort(sorted, Collections.reverseOrder());
+        assertEquals(sorted, titles);
+
+        // the page is taken from the sorted records
+        Document d = getAsDOM(request + "&startPosition=11&maxRecords=5");
+        assertXpathEvaluatesTo("29", "//csw:SearchResults/@numberOfRecordsMatched", d);
+        assertXpathEvaluatesTo("5", "//csw:SearchResults/@numberOfRecordsReturned", d);
+        assertXpathEvaluatesTo("16", "//csw:SearchResults/@nextRecord", d);
+        assertEquals(titles.subList(10, 15), getTitles(d, 5));
+    }
+
+    @Test
+    public void testIndexFollowsCatalog() throws Exception {
+        String request = "csw?service=CSW&version=2.0.2&request=GetRecords&typeNames=csw:Record"
+                + "&resultType=results&elementSetName=brief&constraint=dc:title like 'Indexed%25'";
+        Document d = getAsDOM(request);
+        assertXpathEvaluatesTo("0", "//csw:SearchResults/@numberOfRecordsMatched", d);
+
+        ResourceInfo lakes = getCatalog().getLayerByName("Lakes").getResource();
+        String title = lakes.getTitle();
+        lakes.setTitle("Indexed Lakes");
+        getCatalog().save(lakes);
+        try {
+            d = getAsDOM(request);
+            assertXpathEvaluatesTo("1", "//csw:SearchResults/@numberOfRecordsMatched", d);
+            assertXpathExists("//csw:BriefRecord[dc:title='Indexed Lakes']", d);
+        } finally {
+            lakes.setTitle(title);
+            getCatalog().save(lakes);
+        }
+
+        d = getAsDOM(request);
+        assertXpathEvaluatesTo("0", "//csw:SearchResults/@numberOfRecordsMatched", d);
+    }
+
+    @Test
+    public void testSortByDate() throws Exception {
+        // a monday and a later friday, their text would sort the other way around
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2013, Calendar.MARCH, 4);
+        Date monday = calendar.getTime();
+        calendar.set(2014, Calendar.JANUARY, 3);
+        Date friday = calendar.getTime();
+
+        ResourceInfo forests = getCatalog().getLayerByName("Forests").getResource();
+        ResourceInfo lakes = getCatalog().getLayerByName("Lakes").getResource();
+        Serializable forestsMetadata = forests.getMetadata().get("csw");
+        setDate(forests, monday);
+        setDate(lakes, friday);
+        try {
+            String request = "csw?service=CSW&version=2.0.2&request=GetRecords&typeNames=csw:Record"
+                    + "&resultType=results&elementSetName=brief"
+                    + "&constraint=dc:title = 'Forests' OR dc:title = 'Lakes'";
+            Document d = getAsDOM(request + "&sortBy=dc:date:A");
+            assertXpathEvaluatesTo("2", "//csw:SearchResults/@numberOfRecordsMatched", d);
+            assertEquals(Arrays.asList("Forests", "Lakes"), getTitles(d, 2));
+
+            d = getAsDOM(request + "&sortBy=dc:date:D");
+            assertEquals(Arrays.asList("Lakes", "Forests"), getTitles(d, 2));
+        } finally {
+            forests.getMetadata().put("csw", forestsMetadata);
+            getCatalog().save(forests);
+            lakes.getMetadata().remove("csw");
+            getCatalog().save(lakes);
+        }
+    }
+
+    void setDate(ResourceInfo resource, Date date) {
+        HashMap<String, Object> cswMetadata = new HashMap<String, Object>();
+        cswMetadata.put("date", date);
+        resource.getMetadata().put("csw", cswMetadata);
+        getCatalog().save(resource);
+    }
+
+    List<String> getTitles(Document d, int count) throws Exception {
+        List<String> titles = new ArrayList<String>();
+        XpathEngine xpath = XMLUnit.newXpathEngine();
+        for (int i = 1; i <= count; i++) {
+            titles.add(xpath.evaluate("//csw:BriefRecord[" + i + "]/dc:title", d));
+        }
+        return titles;
+    }
+
 }
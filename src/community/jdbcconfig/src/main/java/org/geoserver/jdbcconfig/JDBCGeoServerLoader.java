@@ -54,6 +54,9 @@ public class JDBCGeoServerLoader extends DefaultGeoServerLoader {
 
         ConfigDatabase configDatabase = ((JDBCCatalogFacade) catalogFacade).getConfigDatabase();
 
+        configDatabase.setBinaryBlobs(config.isBinaryBlobs());
+        configDatabase.getChangeLog().setPollInterval(config.getChangePollInterval());
+
         URL initScript = config.isInitDb() ? config.getInitScript() : null;
         configDatabase.initDb(initScript);
 
@@ -0,0 +1,308 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jdbcconfig.internal;
+
+import static org.geoserver.jdbcconfig.internal.DbUtils.logStatement;
+import static org.geoserver.jdbcconfig.internal.DbUtils.params;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.support.DatabaseMetaDataCallback;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import com.google.common.cache.Cache;
+
+/**
+ * Log of the ids of the objects added, modified or removed, kept in the {@code object_change}
+ * table, used to evict from the cache the objects changed by the other GeoServer instances
+ * sharing the same database.
+ * <p>
+ * Each change gets an increasing sequence number, and every {@link #setPollInterval(long) poll
+ * interval} the first lookup reads the changes past the last one seen, in batches of
+ * {@link #BATCH_SIZE} sequence numbers, evicting only the changed ids. Since a transaction may
+ * commit after another one that got a greater sequence number, the holes in the sequence are
+ * checked again for {@link #GAP_TIMEOUT} milliseconds. Changes older than {@link #RETENTION}
+ * milliseconds are deleted, an instance that did not poll for longer than that evicts all its
+ * cached objects instead.
+ * </p>
+ * <p>
+ * If the table does not exist, for databases created before it was introduced, the change log
+ * is disabled.
+ * </p>
+ */
+public class ConfigChangeLog {
+
+    static final Logger LOGGER = Logging.getLogger(ConfigChangeLog.class);
+
+    static final String TABLE = "object_change";
+
+    /**
+     * Number of sequence numbers read per query
+     */
+    static final int BATCH_SIZE = 1000;
+
+    /**
+     * Time a hole in the sequence is checked for a late change
+     */
+    static final long GAP_TIMEOUT = 60 * 1000;
+
+    /**
+     * Maximum number of holes tracked, past it the whole cache is evicted
+     */
+    static final int MAX_GAPS = 1000;
+
+    /**
+     * Time the changes are kept in the table
+     */
+    static final long RETENTION = 60 * 60 * 1000;
+
+    static final long PRUNE_INTERVAL = 10 * 60 * 1000;
+
+    private final DataSource dataSource;
+
+    private final NamedParameterJdbcOperations template;
+
+    private final Cache<String, ?> cache;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile boolean enabled;
+
+    private volatile long pollInterval = 1000;
+
+    private volatile long lastPoll;
+
+    private long lastSeq;
+
+    private long lastPrune;
+
+    /**
+     * The holes in the sequence, mapped to the time they were found
+     */
+    private final SortedMap<Long, Long> gaps = new TreeMap<Long, Long>();
+
+    public ConfigChangeLog(DataSource dataSource, NamedParameterJdbcOperations template,
+            Cache<String, ?> cache) {
+        this.dataSource = dataSource;
+        this.template = template;
+        this.cache = cache;
+    }
+
+    /**
+     * Milliseconds between two polls of the change table, defaults to 1000
+     */
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts tracking the changes made after the last one in the table
+     *
+     * @return whether the change table exists
+     */
+    public boolean init() {
+        lock.lock();
+        try {
+            enabled = tableExists();
+            if (enabled) {
+                lastSeq = maxSeq();
+                gaps.clear();
+                lastPoll = lastPrune = System.currentTimeMillis();
+            } else {
+                LOGGER.warning("Table " + TABLE + " not found in the catalog database, the "
+                        + "changes made by other GeoServer instances sharing it won't be noticed");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return enabled;
+    }
+
+    private boolean tableExists() {
+        try {
+            return (Boolean) JdbcUtils.extractDatabaseMetaData(dataSource,
+                    new DatabaseMetaDataCallback() {
+                        @Override
+                        public Object processMetaData(DatabaseMetaData md) throws SQLException {
+                            for (String name : new String[] { TABLE, TABLE.toUpperCase() }) {
+                                ResultSet tables = md.getTables(null, null, name, null);
+                                try {
+                                    if (tables.next()) {
+                                        return Boolean.TRUE;
+                                    }
+                                } finally {
+                                    tables.close();
+                                }
+                            }
+                            return Boolean.FALSE;
+                        }
+                    });
+        } catch (MetaDataAccessException e) {
+            LOGGER.log(Level.WARNING, "Unable to look up table " + TABLE, e);
+            return false;
+        }
+    }
+
+    /**
+     * Records a change to the object with the given id, to be called in the transaction making
+     * the change
+     */
+    public void record(final String id) {
+        if (!enabled) {
+            return;
+        }
+        String sql = "insert into object_change (id, changed) values (:id, :changed)";
+        Map<String, ?> params = params("id", id, "changed", System.currentTimeMillis());
+        logStatement(sql, params);
+        template.update(sql, params);
+    }
+
+    /**
+     * Polls the changes if the poll interval elapsed since the last poll, unless another thread
+     * is already doing it
+     */
+    public void pollIfDue() {
+        if (!enabled || System.currentTimeMillis() - lastPoll < pollInterval) {
+            return;
+        }
+        if (lock.tryLock()) {
+            try {
+                if (System.currentTimeMillis() - lastPoll >= pollInterval) {
+                    pollInternal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Evicts from the cache the objects changed since the last poll
+     */
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            pollInternal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pollInternal() {
+        final long now = System.currentTimeMillis();
+        if (now - lastPoll > RETENTION) {
+            // changes may have been pruned before we could see them
+            LOGGER.fine("Change log not polled for too long, evicting all cached objects");
+            cache.invalidateAll();
+            lastSeq = maxSeq();
+            gaps.clear();
+        } else {
+            pollGaps(now);
+            final long maxSeq = maxSeq();
+            while (lastSeq < maxSeq) {
+                final long to = Math.min(lastSeq + BATCH_SIZE, maxSeq);
+                String sql = "select seq, id from object_change where seq > :from and seq <= :to "
+                        + "order by seq";
+                Map<String, ?> params = params("from", lastSeq, "to", to);
+                logStatement(sql, params);
+                final long[] expected = { lastSeq + 1 };
+                template.query(sql, params, new RowCallbackHandler() {
+                    @Override
+                    public void processRow(ResultSet rs) throws SQLException {
+                        long seq = rs.getLong(1);
+                        for (long s = expected[0]; s < seq && gaps.size() <= MAX_GAPS; s++) {
+                            gaps.put(s, now);
+                        }
+                        expected[0] = seq + 1;
+                        cache.invalidate(rs.getString(2));
+                    }
+                });
+                for (long s = expected[0]; s <= to && gaps.size() <= MAX_GAPS; s++) {
+                    gaps.put(s, now);
+                }
+                lastSeq = to;
+            }
+            if (gaps.size() > MAX_GAPS) {
+                LOGGER.fine("Too many holes in the change log sequence, evicting all cached objects");
+                cache.invalidateAll();
+                gaps.clear();
+            }
+        }
+        lastPoll = now;
+        if (now - lastPrune > PRUNE_INTERVAL) {
+            prune(now);
+        }
+    }
+
+    /**
+     * Looks up the changes committed late in the holes of the sequence
+     */
+    private void pollGaps(final long now) {
+        for (Iterator<Long> it = gaps.values().iterator(); it.hasNext();) {
+            if (now - it.next() > GAP_TIMEOUT) {
+                it.remove();
+            }
+        }
+        if (gaps.isEmpty()) {
+            return;
+        }
+        List<Long> seqs = new ArrayList<Long>(gaps.keySet());
+        String sql = "select seq, id from object_change where seq in (:seqs)";
+        Map<String, ?> params = Collections.singletonMap("seqs", seqs);
+        logStatement(sql, params);
+        template.query(sql, params, new RowCallbackHandler() {
+            @Override
+            public void processRow(ResultSet rs) throws SQLException {
+                gaps.remove(rs.getLong(1));
+                cache.invalidate(rs.getString(2));
+            }
+        });
+    }
+
+    private void prune(final long now) {
+        String sql = "delete from object_change where changed < :cutoff";
+        Map<String, ?> params = params("cutoff", now - RETENTION);
+        logStatement(sql, params);
+        int deleted = template.update(sql, params);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Pruned " + deleted + " entries from the change log");
+        }
+        lastPrune = now;
+    }
+
+    private long maxSeq() {
+        return template.queryForLong("select max(seq) from object_change",
+                Collections.<String, Object> emptyMap());
+    }
+}
@@ -12,9 +12,10 @@ import static org.geoserver.jdbcconfig.internal.DbUtils.params;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -67,6 +68,7 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.expression.PropertyName;
 import org.opengis.filter.sort.SortBy;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -112,6 +114,8 @@ public class ConfigDatabase {
 
     private InfoRowMapper<Info> configRowMapper;
 
+    private ConfigChangeLog changeLog;
+
     /**
      * Protected default constructor needed by spring-jdbc instrumentation
      */
@@ -138,6 +142,7 @@ public class ConfigDatabase {
             cacheProvider = DefaultCacheProvider.findProvider();
         }
         cache = cacheProvider.getCache("catalog");
+        changeLog = new ConfigChangeLog(dataSource, template, cache);
     }
 
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = Exception.class)
@@ -146,6 +151,46 @@ public class ConfigDatabase {
             runInitScript(initScript);
         }
         dbMappings.initDb(template);
+        migrateBlobs();
+        changeLog.init();
+    }
+
+    /**
+     * Rewrites the blobs not in the format new blobs are written in, e.g. after switching to the
+     * binary format
+     */
+    void migrateBlobs() {
+        String sql = "select oid from object where blob " + (binding.isBinary() ? "not " : "")
+                + "like :prefix";
+        Map<String, ?> params = params("prefix", XStreamInfoSerialBinding.BINARY_PREFIX + "%");
+        logStatement(sql, params);
+        List<Integer> oids = template.queryForList(sql, params, Integer.class);
+        if (oids.isEmpty()) {
+            return;
+        }
+        LOGGER.info("Converting " + oids.size() + " catalog blobs to "
+                + (binding.isBinary() ? "binary" : "XML") + " format");
+
+        final int batchSize = 500;
+        for (int i = 0; i < oids.size(); i += batchSize) {
+            List<Integer> batch = oids.subList(i, Math.min(i + batchSize, oids.size()));
+            final List<Map<String, ?>> updates = new ArrayList<Map<String, ?>>(batch.size());
+            template.query("select oid, blob from object where oid in (:oids)",
+                    params("oids", batch), new RowCallbackHandler() {
+                        @Override
+                        public void processRow(ResultSet rs) throws SQLException {
+                            String blob = rs.getString(2);
+                            String converted = binding.convert(blob);
+                            if (converted != blob) {
+                                updates.add(params("oid", rs.getInt(1), "blob", converted));
+                            }
+                        }
+                    });
+            if (!updates.isEmpty()) {
+                template.batchUpdate("update object set blob = :blob where oid = :oid",
+                        updates.toArray(new Map[updates.size()]));
+            }
+        }
     }
 
     private void runInitScript(URL initScript) throws IOException {
@@ -178,6 +223,22 @@ public class ConfigDatabase {
     public GeoServer getGeoServer() {
         return geoServer;
     }
+
+    /**
+     * Sets whether new blobs are written in the binary format, existing blobs are converted by
+     * {@link #initDb(URL)}
+     */
+    public void setBinaryBlobs(boolean binary) {
+        binding.setBinary(binary);
+    }
+
+    public boolean isBinaryBlobs() {
+        return binding.isBinary();
+    }
+
+    public ConfigChangeLog getChangeLog() {
+        return changeLog;
+    }
     
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
 
@@ -302,9 +363,7 @@ public class ConfigDatabase {
 
         final String id = info.getId();
 
-        byte[] value = binding.objectToEntry(info);
-
-        final String blob = new String(value);
+        final String blob = binding.objectToBlob(info);
         final Class<T> interf = ClassMappings.fromImpl(info.getClass()).getInterface();
         final Integer typeId = dbMappings.getTypeId(interf);
 
@@ -320,6 +379,7 @@ public class ConfigDatabase {
             key = keyHolder.getKey();
         }
         addAttributes(info, key);
+        changeLog.record(id);
 
         cache.put(id, info);
         return getById(id, interf);
@@ -529,6 +589,7 @@ public class ConfigDatabase {
         }
         final int relatedPropCount = template.update(deleteRelatedProperties, params("oid", oid));
         LOGGER.fine("Removed " + relatedPropCount + " related properties of " + info.getId());
+        changeLog.record(info.getId());
 
         cache.invalidate(info.getId());
     }
@@ -565,19 +626,14 @@ public class ConfigDatabase {
 
         // get the object's internal id
         final Integer objectId = findObjectId(info);
-        final String blob;
-        try {
-            byte[] value = binding.objectToEntry(info);
-            blob = new String(value, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw Throwables.propagate(e);
-        }
+        final String blob = binding.objectToBlob(info);
         String updateStatement = "update object set blob = :blob where oid = :oid";
         params = params("blob", blob, "oid", objectId);
         logStatement(updateStatement, params);
         template.update(updateStatement, params);
 
         updateQueryableProperties(oldObject, objectId, changedProperties);
+        changeLog.record(id);
 
         cache.invalidate(id);
         Class<T> clazz = ClassMappings.fromImpl(oldObject.getClass()).getInterface();
@@ -701,6 +757,7 @@ public class ConfigDatabase {
 
     public <T extends Info> T getById(final String id, final Class<T> type) {
         Assert.notNull(id, "id");
+        changeLog.pollIfDue();
 
         Info info = null;
         try {
@@ -4,8 +4,6 @@
  */
 package org.geoserver.jdbcconfig.internal;
 
-import java.io.ByteArrayInputStream;
-import java.io.UnsupportedEncodingException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -14,8 +12,6 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.lob.DefaultLobHandler;
 import org.springframework.jdbc.support.lob.LobHandler;
 
-import com.google.common.base.Throwables;
-
 public final class InfoRowMapper<T extends Info> implements RowMapper<T> {
 
     private final Class<T> type;
@@ -45,14 +41,7 @@ public final class InfoRowMapper<T extends Info> implements RowMapper<T> {
     @Override
     public T mapRow(final ResultSet rs, final int rowNum) throws SQLException {
         // InputStream binaryStream = lobHandler.getBlobAsBinaryStream(rs, colNum);
-        String xml = rs.getString(colNum);
-        ByteArrayInputStream in;
-        try {
-            byte[] bytes = xml.getBytes("UTF-8");
-            in = new ByteArrayInputStream(bytes);
-        } catch (UnsupportedEncodingException e) {
-            throw Throwables.propagate(e);
-        }
-        return binding.entryToObject(in, type);
+        String blob = rs.getString(colNum);
+        return binding.blobToObject(blob, type);
     }
 }
@@ -75,6 +75,21 @@ public class JDBCConfigProperties extends Properties {
         setProperty("import", String.valueOf(imprt));
     }
 
+    /**
+     * Whether the catalog blobs are stored in the binary format rather than XML, the
+     * {@code blobFormat} property, {@code xml} by default
+     */
+    public boolean isBinaryBlobs() {
+        return "binary".equalsIgnoreCase(getProperty("blobFormat", "xml"));
+    }
+
+    /**
+     * Milliseconds between two polls of the catalog changes made by other GeoServer instances
+     */
+    public long getChangePollInterval() {
+        return Long.parseLong(getProperty("changePollInterval", "1000"));
+    }
+
     public void save() throws IOException {
         factory.saveConfig(this);
     }
@@ -4,29 +4,77 @@
  */
 package org.geoserver.jdbcconfig.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.apache.commons.codec.binary.Base64;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.Info;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Throwables;
+import com.ning.compress.lzf.LZFDecoder;
+import com.ning.compress.lzf.LZFEncoder;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import com.thoughtworks.xstream.io.copy.HierarchicalStreamCopier;
+import com.thoughtworks.xstream.io.xml.XppDriver;
 
 /**
- * @param <T>
+ * Converts the config objects to the blobs stored in the database and back.
+ * <p>
+ * Blobs are stored either as XML or, when {@link #setBinary(boolean) binary} is set, in the
+ * XStream binary format, LZF compressed and Base64 encoded to fit in the text blob column, which
+ * is several times smaller and faster to parse. The format of each blob is recognized on read,
+ * binary blobs start with {@link #BINARY_PREFIX} while XML ones always start with {@code <}, so
+ * both can live in the same database, and {@link #convert(String)} translates a blob from a
+ * format to the other without going through the config object.
+ * </p>
  */
 public class XStreamInfoSerialBinding {
 
+    static final Logger LOGGER = Logging.getLogger(XStreamInfoSerialBinding.class);
+
+    /**
+     * Prefix of the blobs in binary format
+     */
+    public static final String BINARY_PREFIX = "#xsb:";
+
     private final XStreamPersister xstreamPersister;
 
+    private final XppDriver xmlDriver = new XppDriver();
+
+    private boolean binary;
+
     public XStreamInfoSerialBinding(final XStreamPersisterFactory xspf) {
         this.xstreamPersister = xspf.createXMLPersister();
         this.xstreamPersister.setLoggingLevel(Level.WARNING);
     }
 
+    /**
+     * Whether new blobs are written in the binary format, defaults to {@code false}
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
     public <T extends Info> T entryToObject(InputStream in, Class<T> target) {
         // try {
         // in = new LZFInputStream(in);
@@ -62,6 +110,112 @@ public class XStreamInfoSerialBinding {
         }
     }
 
+    /**
+     * Returns the blob for the given object, in the binary format if {@link #isBinary()}, falling
+     * back on XML for the objects that can't be written in binary
+     */
+    public String objectToBlob(final Info info) {
+        if (binary) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BinaryStreamWriter writer = new BinaryStreamWriter(out);
+                xstream().marshal(XStreamPersister.unwrapProxies(info), writer);
+                writer.close();
+                return encode(out.toByteArray());
+            } catch (RuntimeException e) {
+                // e.g. strings longer than 64k
+                LOGGER.log(Level.FINE, "Can't write " + info.getId() + " in binary format", e);
+            }
+        }
+        try {
+            return new String(objectToEntry(info), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Parses a blob, in either format
+     */
+    public <T extends Info> T blobToObject(final String blob, Class<T> target) {
+        if (isBinary(blob)) {
+            HierarchicalStreamReader reader = binaryReader(blob);
+            try {
+                return target.cast(xstream().unmarshal(reader));
+            } finally {
+                reader.close();
+            }
+        }
+        try {
+            return entryToObject(new ByteArrayInputStream(blob.getBytes("UTF-8")), target);
+        } catch (UnsupportedEncodingException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return whether the blob is in the binary format
+     */
+    public boolean isBinary(final String blob) {
+        return blob.startsWith(BINARY_PREFIX);
+    }
+
+    /**
+     * Converts the blob to the format new blobs are written in, returns the blob unchanged if it
+     * already is in that format or can't be converted
+     */
+    public String convert(final String blob) {
+        if (binary == isBinary(blob)) {
+            return blob;
+        }
+        if (binary) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                HierarchicalStreamWriter writer = new BinaryStreamWriter(out);
+                copy(xmlDriver.createReader(new StringReader(blob)), writer);
+                return encode(out.toByteArray());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Can't convert blob to binary format", e);
+                return blob;
+            }
+        }
+        StringWriter out = new StringWriter();
+        copy(binaryReader(blob), xmlDriver.createWriter(out));
+        return out.toString();
+    }
+
+    private void copy(HierarchicalStreamReader reader, HierarchicalStreamWriter writer) {
+        try {
+            new HierarchicalStreamCopier().copy(reader, writer);
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+
+    private String encode(byte[] bytes) {
+        try {
+            return BINARY_PREFIX + new String(Base64.encodeBase64(LZFEncoder.encode(bytes)),
+                    "US-ASCII");
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private HierarchicalStreamReader binaryReader(final String blob) {
+        try {
+            byte[] compressed = Base64.decodeBase64(blob.substring(BINARY_PREFIX.length())
+                    .getBytes("US-ASCII"));
+            return new BinaryStreamReader(new ByteArrayInputStream(LZFDecoder.decode(compressed)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private XStream xstream() {
+        return xstreamPersister.getXStream();
+    }
+
     public void setCatalog(Catalog catalog) {
         xstreamPersister.setCatalog(catalog);
     }
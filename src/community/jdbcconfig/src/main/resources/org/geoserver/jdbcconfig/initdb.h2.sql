@@ -39,6 +39,13 @@ CREATE TABLE default_object (
   id varchar(255) NOT NULL
 );
 
+CREATE TABLE object_change (
+  seq bigint GENERATED BY DEFAULT AS IDENTITY, 
+  id varchar(255) NOT NULL, 
+  changed bigint NOT NULL, 
+  PRIMARY KEY (seq)
+);
+
 -- foriegn keys
 ALTER TABLE object_property ADD CONSTRAINT 
   fk_object_property FOREIGN KEY (oid) REFERENCES object (oid) ON DELETE CASCADE;
@@ -80,6 +87,8 @@ CREATE INDEX property_type_collection_idx ON property_type (collection);
 CREATE UNIQUE INDEX default_object_def_key_idx ON default_object (def_key);
 CREATE INDEX default_object_id_idx ON default_object (id);
 
+CREATE INDEX object_change_changed_idx ON object_change (changed);
+
 -- views
 -- workspace view 
 CREATE VIEW workspace AS
@@ -1,11 +1,13 @@
 CREATE SEQUENCE seq_OBJECT;
 CREATE SEQUENCE seq_TYPE;
 CREATE SEQUENCE seq_PROPERTY_TYPE;
+CREATE SEQUENCE seq_OBJECT_CHANGE;
 CREATE TABLE OBJECT (OID number(10) NOT NULL, TYPE_ID number(10) NOT NULL, ID varchar2(255) NOT NULL, BLOB clob NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE OBJECT_PROPERTY (OID number(10) NOT NULL, PROPERTY_TYPE number(10) NOT NULL, ID varchar2(255) NOT NULL, RELATED_OID number(10), RELATED_PROPERTY_TYPE number(10), COLINDEX number(10) NOT NULL, VALUE varchar2(255), PRIMARY KEY (OID, PROPERTY_TYPE, COLINDEX));
 CREATE TABLE TYPE (OID number(10) NOT NULL, TYPENAME varchar2(255) NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE PROPERTY_TYPE (OID number(10) NOT NULL, TARGET_PROPERTY number(10), TYPE_ID number(10) NOT NULL, NAME varchar2(255) NOT NULL, COLLECTION number(1) NOT NULL, TEXT number(1) NOT NULL, PRIMARY KEY (OID));
 CREATE TABLE DEFAULT_OBJECT (DEF_KEY varchar2(255) NOT NULL, ID varchar2(255) NOT NULL);
+CREATE TABLE OBJECT_CHANGE (SEQ number(19) NOT NULL, ID varchar2(255) NOT NULL, CHANGED number(19) NOT NULL, PRIMARY KEY (SEQ));
 ALTER TABLE OBJECT_PROPERTY ADD CONSTRAINT FK_OBJECT_PROPERTY FOREIGN KEY (OID) REFERENCES OBJECT (OID) ON DELETE Cascade;
 ALTER TABLE PROPERTY_TYPE ADD CONSTRAINT FK_TYPE_PROPERTY_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
 ALTER TABLE OBJECT ADD CONSTRAINT FK_OBJECT_TYPE FOREIGN KEY (TYPE_ID) REFERENCES TYPE (OID);
@@ -31,3 +33,4 @@ CREATE INDEX PROPERTY_TYPE_NAME ON PROPERTY_TYPE (NAME);
 CREATE INDEX PROPERTY_TYPE_COLLECTION ON PROPERTY_TYPE (COLLECTION);
 CREATE UNIQUE INDEX DEFAULT_OBJECT_DEF_KEY ON DEFAULT_OBJECT (DEF_KEY);
 CREATE INDEX DEFAULT_OBJECT_ID ON DEFAULT_OBJECT (ID);
+CREATE INDEX OBJECT_CHANGE_CHANGED ON OBJECT_CHANGE (CHANGED);
@@ -40,6 +40,13 @@ CREATE TABLE default_object (
 
 );
 
+CREATE TABLE object_change (
+  seq bigserial NOT NULL, 
+  id varchar(255) NOT NULL, 
+  changed int8 NOT NULL, 
+  PRIMARY KEY (seq)
+);
+
 -- foreign keys
 ALTER TABLE object_property ADD CONSTRAINT fk_object_property 
   FOREIGN KEY (oid) REFERENCES object (oid) ON DELETE CASCADE;
@@ -82,6 +89,8 @@ CREATE INDEX property_type_collection_idx ON property_type (collection);
 CREATE INDEX default_object_def_key_idx ON default_object (def_key);
 CREATE INDEX default_object_id_idx ON default_object (id);
 
+CREATE INDEX object_change_changed_idx ON object_change (changed);
+
 -- views
 -- workspace view 
 CREATE OR REPLACE VIEW workspace AS
@@ -0,0 +1,114 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jdbcconfig.internal;
+
+import static org.geoserver.catalog.impl.ModificationProxy.unwrap;
+import static org.junit.Assert.*;
+
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+public class ConfigChangeLogTest {
+
+    private JDBCConfigTestSupport testSupport;
+
+    private ConfigDatabase database;
+
+    /**
+     * Another GeoServer instance sharing the same database
+     */
+    private ConfigDatabase other;
+
+    @Before
+    public void setUp() throws Exception {
+        testSupport = new JDBCConfigTestSupport();
+        testSupport.setUp();
+        database = testSupport.getDatabase();
+
+        other = new ConfigDatabase(testSupport.getDataSource(), new XStreamInfoSerialBinding(
+                new XStreamPersisterFactory()));
+        other.setCatalog(new CatalogImpl());
+        other.initDb(null);
+        // only poll when told to
+        other.getChangeLog().setPollInterval(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        other.dispose();
+        testSupport.tearDown();
+    }
+
+    @Test
+    public void testEnabled() {
+        assertTrue(database.getChangeLog().isEnabled());
+        assertTrue(other.getChangeLog().isEnabled());
+    }
+
+    @Test
+    public void testSave() {
+        addWorkspace("ws1id", "ws1");
+        addWorkspace("ws2id", "ws2");
+        other.getChangeLog().poll();
+        WorkspaceInfo ws1 = other.getById("ws1id", WorkspaceInfo.class);
+        WorkspaceInfo ws2 = other.getById("ws2id", WorkspaceInfo.class);
+
+        WorkspaceInfo changed = database.getById("ws1id", WorkspaceInfo.class);
+        changed.setName("ws3");
+        database.save(changed);
+
+        // not noticed until the next poll
+        assertSame(unwrap(ws1), unwrap(other.getById("ws1id", WorkspaceInfo.class)));
+
+        other.getChangeLog().poll();
+        assertEquals("ws3", other.getById("ws1id", WorkspaceInfo.class).getName());
+        // the other objects stay cached
+        assertSame(unwrap(ws2), unwrap(other.getById("ws2id", WorkspaceInfo.class)));
+    }
+
+    @Test
+    public void testRemove() {
+        addWorkspace("ws1id", "ws1");
+        other.getChangeLog().poll();
+        assertNotNull(other.getById("ws1id", WorkspaceInfo.class));
+
+        database.remove(database.getById("ws1id", WorkspaceInfo.class));
+        other.getChangeLog().poll();
+        assertNull(other.getById("ws1id", WorkspaceInfo.class));
+    }
+
+    @Test
+    public void testLateCommit() {
+        addWorkspace("ws1id", "ws1");
+        other.getChangeLog().poll();
+        WorkspaceInfo ws1 = other.getById("ws1id", WorkspaceInfo.class);
+
+        // a change committed before the one with the previous sequence number
+        JdbcTemplate jdbc = new JdbcTemplate(testSupport.getDataSource());
+        long seq = jdbc.queryForLong("select max(seq) from object_change");
+        String insert = "insert into object_change (seq, id, changed) values (?, ?, ?)";
+        jdbc.update(insert, seq + 2, "unknown", System.currentTimeMillis());
+        other.getChangeLog().poll();
+        assertSame(unwrap(ws1), unwrap(other.getById("ws1id", WorkspaceInfo.class)));
+
+        jdbc.update(insert, seq + 1, "ws1id", System.currentTimeMillis());
+        other.getChangeLog().poll();
+        assertNotSame(unwrap(ws1), unwrap(other.getById("ws1id", WorkspaceInfo.class)));
+    }
+
+    private void addWorkspace(String id, String name) {
+        WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+        ws.setId(id);
+        ws.setName(name);
+        database.add(ws);
+    }
+}
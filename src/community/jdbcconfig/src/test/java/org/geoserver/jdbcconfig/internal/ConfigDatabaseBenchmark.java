@@ -0,0 +1,103 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jdbcconfig.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.impl.DataStoreInfoImpl;
+import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Compares the time needed to load the catalog objects with an empty cache, and the latency of
+ * the cached lookups, with XML and binary blobs, against an embedded H2 database. Not a unit
+ * test, run it manually from the module directory with:
+ *
+ * <pre>
+ * java org.geoserver.jdbcconfig.internal.ConfigDatabaseBenchmark [objects]
+ * </pre>
+ */
+public class ConfigDatabaseBenchmark {
+
+    static final int WARMUP = 3;
+
+    static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        System.out.println("format\tblob bytes\tcold load ms\tcached lookup us");
+        for (boolean binary : new boolean[] { false, true }) {
+            JDBCConfigTestSupport testSupport = new JDBCConfigTestSupport();
+            testSupport.setUp();
+            try {
+                run(testSupport, binary, count);
+            } finally {
+                testSupport.tearDown();
+            }
+        }
+    }
+
+    static void run(JDBCConfigTestSupport testSupport, boolean binary, int count) {
+        ConfigDatabase database = testSupport.getDatabase();
+        database.setBinaryBlobs(binary);
+
+        WorkspaceInfoImpl ws = new WorkspaceInfoImpl();
+        ws.setId("wsid");
+        ws.setName("ws");
+        database.add(ws);
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            DataStoreInfoImpl ds = new DataStoreInfoImpl(database.getCatalog());
+            ds.setId("ds" + i);
+            ds.setName("store" + i);
+            ds.setDescription("data store number " + i);
+            ds.setType("PostGIS");
+            ds.setEnabled(true);
+            ds.setWorkspace(ws);
+            for (int p = 0; p < 10; p++) {
+                ds.getConnectionParameters().put("param" + p, "value" + p + "_" + i);
+            }
+            database.add(ds);
+            ids[i] = ds.getId();
+        }
+        long size = new JdbcTemplate(testSupport.getDataSource())
+                .queryForLong("select sum(length(blob)) from object");
+
+        long coldTime = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            database.dispose();
+            long start = System.nanoTime();
+            for (String id : ids) {
+                database.getById(id, DataStoreInfo.class);
+            }
+            if (i >= WARMUP) {
+                coldTime += System.nanoTime() - start;
+            }
+        }
+
+        // hold the cached values, the default cache only keeps them weakly
+        List<DataStoreInfo> loaded = new ArrayList<DataStoreInfo>();
+        for (String id : ids) {
+            loaded.add(database.getById(id, DataStoreInfo.class));
+        }
+        long warmTime = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            for (String id : ids) {
+                database.getById(id, DataStoreInfo.class);
+            }
+            if (i >= WARMUP) {
+                warmTime += System.nanoTime() - start;
+            }
+        }
+
+        System.out.println((binary ? "binary" : "xml") + "\t" + size + "\t"
+                + coldTime / ITERATIONS / 1000000.0 + "\t" + warmTime / ITERATIONS
+                / (double) count / 1000.0 + "\t(" + loaded.size() + ")");
+    }
+}
@@ -27,6 +27,7 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.catalog.impl.DataStoreInfoImpl;
 import org.geoserver.catalog.impl.WorkspaceInfoImpl;
 import org.geoserver.jdbcconfig.JDBCConfigTestSupport;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
  * @author groldan
@@ -102,6 +103,50 @@ public class ConfigDatabaseTest extends TestCase {
         return ws;
     }
 
+    public void testBinaryBlobs() throws Exception {
+        database.setBinaryBlobs(true);
+        WorkspaceInfo ws = addWorkspace();
+        addDataStore(ws);
+        assertTrue(getBlob("ds1").startsWith(XStreamInfoSerialBinding.BINARY_PREFIX));
+
+        // read back from the database
+        database.dispose();
+        assertDataStore(database.getById("ds1", DataStoreInfo.class));
+        assertEquals("ws1", database.getById("wsid", WorkspaceInfo.class).getName());
+    }
+
+    public void testMigrateBlobs() throws Exception {
+        WorkspaceInfo ws = addWorkspace();
+        addDataStore(ws);
+        assertTrue(getBlob("ds1").startsWith("<"));
+
+        database.setBinaryBlobs(true);
+        database.migrateBlobs();
+        assertTrue(getBlob("ds1").startsWith(XStreamInfoSerialBinding.BINARY_PREFIX));
+        database.dispose();
+        assertDataStore(database.getById("ds1", DataStoreInfo.class));
+
+        database.setBinaryBlobs(false);
+        database.migrateBlobs();
+        assertTrue(getBlob("ds1").startsWith("<"));
+        database.dispose();
+        assertDataStore(database.getById("ds1", DataStoreInfo.class));
+    }
+
+    private void assertDataStore(DataStoreInfo ds) {
+        assertEquals("data store one", ds.getName());
+        assertEquals("data store description one", ds.getDescription());
+        assertEquals("Foo", ds.getType());
+        assertTrue(ds.isEnabled());
+        assertEquals("value1", ds.getConnectionParameters().get("param1"));
+        assertEquals("value2", ds.getConnectionParameters().get("param2"));
+    }
+
+    private String getBlob(String id) {
+        return new JdbcTemplate(testSupport.getDataSource()).queryForObject(
+                "select blob from object where id = ?", String.class, id);
+    }
+
     /**
      * @param info
      */
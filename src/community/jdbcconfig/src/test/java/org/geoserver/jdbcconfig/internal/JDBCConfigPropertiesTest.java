@@ -36,6 +36,8 @@ public class JDBCConfigPropertiesTest {
 
         assertTrue(props.isInitDb());
         assertTrue(props.isImport());
+        assertFalse(props.isBinaryBlobs());
+        assertEquals(1000, props.getChangePollInterval());
     }
 
     private File createDummyConfigFile() throws IOException {
@@ -0,0 +1,136 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.script;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Pool of {@link ScriptEngine} instances for a script, one per thread, each one loaded with the
+ * contents of the script.
+ * <p>
+ * Script engines are not generally thread safe, so rather than sharing a single engine and
+ * serializing the callers, each thread gets its own engine, created and loaded the first time
+ * the thread asks for it, and reused as long as the script does not change. Engines supporting
+ * {@link Compilable} get the script compiled before it is evaluated.
+ * </p>
+ * <p>
+ * The script file is checked for modifications at most once every {@link #CHECK_INTERVAL}
+ * milliseconds, by a single thread. When modified the script is read again and each thread loads
+ * it into a new engine on its next call to {@link #get()}.
+ * </p>
+ */
+public class ScriptEnginePool {
+
+    /**
+     * Minimum time between two checks of the script modification time
+     */
+    public static final long CHECK_INTERVAL = 1000;
+
+    File script;
+
+    ScriptManager scriptMgr;
+
+    /** time of the last modification check */
+    final AtomicLong lastCheck = new AtomicLong();
+
+    long checkInterval = CHECK_INTERVAL;
+
+    /** the contents of the script, replaced when the file changes */
+    volatile Source source;
+
+    final ThreadLocal<Engine> engines = new ThreadLocal<Engine>();
+
+    public ScriptEnginePool(File script, ScriptManager scriptMgr) {
+        this.script = script;
+        this.scriptMgr = scriptMgr;
+    }
+
+    public File getFile() {
+        return script;
+    }
+
+    /**
+     * Returns the engine of the calling thread, loaded with the current contents of the script.
+     */
+    public ScriptEngine get() throws IOException {
+        Source current = check();
+        Engine engine = engines.get();
+        if (engine == null || engine.source != current) {
+            engine = new Engine(current, load(current));
+            engines.set(engine);
+        }
+        return engine.engine;
+    }
+
+    /**
+     * Returns the current contents of the script, reading them if needed
+     */
+    Source check() throws IOException {
+        Source current = source;
+        long now = System.currentTimeMillis();
+        long last = lastCheck.get();
+        if (current == null
+                || (now - last > checkInterval && lastCheck.compareAndSet(last, now))) {
+            synchronized (this) {
+                lastCheck.set(now);
+                current = source;
+                long lastModified = script.lastModified();
+                if (current == null || current.lastModified != lastModified) {
+                    current = new Source(FileUtils.readFileToString(script), lastModified);
+                    source = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    ScriptEngine load(Source source) throws IOException {
+        ScriptEngine engine = scriptMgr.createNewEngine(script);
+        Bindings bindings = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+        bindings.put(ScriptEngine.FILENAME, script.getPath());
+        try {
+            if (engine instanceof Compilable) {
+                ((Compilable) engine).compile(source.text).eval();
+            } else {
+                engine.eval(source.text);
+            }
+        } catch (ScriptException e) {
+            throw new IOException(e);
+        }
+        return engine;
+    }
+
+    static class Source {
+        final String text;
+
+        final long lastModified;
+
+        Source(String text, long lastModified) {
+            this.text = text;
+            this.lastModified = lastModified;
+        }
+    }
+
+    static class Engine {
+        final Source source;
+
+        final ScriptEngine engine;
+
+        Engine(Source source, ScriptEngine engine) {
+            this.source = source;
+            this.engine = engine;
+        }
+    }
+}
@@ -18,7 +18,7 @@ import net.opengis.wfs.TransactionResponseType;
 import net.opengis.wfs.TransactionType;
 import net.opengis.wfs.UpdateElementType;
 
-import org.geoserver.script.ScriptFileWatcher;
+import org.geoserver.script.ScriptEnginePool;
 import org.geoserver.script.ScriptManager;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.WFSException;
@@ -32,17 +32,17 @@ public class ScriptTxDelegate {
     static Logger LOGGER = Logging.getLogger(ScriptTxDelegate.class);
 
     WfsTxHook hook;
-    ScriptFileWatcher fw;
+    ScriptEnginePool engines;
 
     public ScriptTxDelegate(File script, ScriptManager scriptMgr) {
         this.hook = scriptMgr.lookupWfsTxHook(script);
-        this.fw = new ScriptFileWatcher(script, scriptMgr);
+        this.engines = new ScriptEnginePool(script, scriptMgr);
     }
 
     public TransactionType beforeTransaction(TransactionType request) throws WFSException {
         try {
             Map context = request.getExtendedProperties();
-            hook.handleBefore(fw.read(), TransactionRequest.adapt(request), context);
+            hook.handleBefore(engines.get(), TransactionRequest.adapt(request), context);
         } 
         catch(WFSException e) {
             throw e;
@@ -58,7 +58,7 @@ public class ScriptTxDelegate {
         Map context = request.getExtendedProperties();
 
         try {
-            hook.handlePreInsert(fw.read(), event.getAffectedFeatures(), request, context);
+            hook.handlePreInsert(engines.get(), event.getAffectedFeatures(), request, context);
         } catch (WFSException e) {
             throw e;
         } catch (Exception e) {
@@ -71,7 +71,7 @@ public class ScriptTxDelegate {
         Map context = request.getExtendedProperties();
 
         try {
-            hook.handlePostInsert(fw.read(), event.getAffectedFeatures(), request, context);
+            hook.handlePostInsert(engines.get(), event.getAffectedFeatures(), request, context);
         } catch (WFSException e) {
             throw e;
         } catch (Exception e) {
@@ -86,7 +86,7 @@ public class ScriptTxDelegate {
         Map context = request.getExtendedProperties();
 
         try {
-            hook.handlePreUpdate(fw.read(), event.getAffectedFeatures(), props, request, context);
+            hook.handlePreUpdate(engines.get(), event.getAffectedFeatures(), props, request, context);
         } catch (WFSException e) {
             throw e;
         } catch (Exception e) {
@@ -101,7 +101,7 @@ public class ScriptTxDelegate {
         Map context = request.getExtendedProperties();
 
         try {
-            hook.handlePostUpdate(fw.read(), event.getAffectedFeatures(), props, request, context);
+            hook.handlePostUpdate(engines.get(), event.getAffectedFeatures(), props, request, context);
         } catch (WFSException e) {
             throw e;
         } catch (Exception e) {
@@ -114,7 +114,7 @@ public class ScriptTxDelegate {
         Map context = request.getExtendedProperties();
 
         try {
-            hook.handlePreDelete(fw.read(), event.getAffectedFeatures(), request, context);
+            hook.handlePreDelete(engines.get(), event.getAffectedFeatures(), request, context);
         } catch (WFSException e) {
             throw e;
         } catch (Exception e) {
@@ -125,7 +125,7 @@ public class ScriptTxDelegate {
     public void beforeCommit(TransactionType request) throws WFSException {
         try {
             Map context = request.getExtendedProperties();
-            hook.handlePreCommit(fw.read(), TransactionRequest.adapt(request), context);
+            hook.handlePreCommit(engines.get(), TransactionRequest.adapt(request), context);
         } 
         catch(WFSException e) {
             throw e;
@@ -139,7 +139,7 @@ public class ScriptTxDelegate {
         try {
             Map context = request.getExtendedProperties();
 
-            ScriptEngine eng = fw.read();
+            ScriptEngine eng = engines.get();
             TransactionRequest txReq = TransactionRequest.adapt(request);
             TransactionResponse txRes = TransactionResponse.adapt(result);
 
@@ -11,8 +11,7 @@ import java.util.Map;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
-import org.geoserver.platform.FileWatcher;
-import org.geoserver.script.ScriptFileWatcher;
+import org.geoserver.script.ScriptEnginePool;
 import org.geoserver.script.ScriptManager;
 import org.geotools.data.Parameter;
 import org.geotools.process.Process;
@@ -24,9 +23,9 @@ import org.opengis.util.ProgressListener;
  * Implementation of {@link Process} backed by a script.
  * <p>
  * This class does its work by delegating all methods to the {@link WpsHook} interface. This 
- * class maintains a link to the backing script {@link File} and uses a {@link FileWatcher} to 
- * detect changes to the underlying script. When changed a new {@link ScriptEngine} is created and 
- * the underlying script is reloaded. 
+ * class maintains a link to the backing script {@link File} and uses a {@link ScriptEnginePool} 
+ * to get a {@link ScriptEngine} for the calling thread. When the script changes new engines are 
+ * created and the underlying script is reloaded. 
  * </p>
  * @author Justin Deoliveira, OpenGeo
  *
@@ -36,8 +35,8 @@ public class ScriptProcess implements Process {
     /** process name*/
     Name name;
     
-    /** watcher for file changes */
-    ScriptFileWatcher fw;
+    /** engines loaded with the script */
+    ScriptEnginePool engines;
     
     /** script manager */
     ScriptManager scriptMgr;
@@ -50,27 +49,27 @@ public class ScriptProcess implements Process {
         this.scriptMgr = scriptMgr;
 
         hook = scriptMgr.lookupWpsHook(script);
-        fw = new ScriptFileWatcher(script, scriptMgr);
+        engines = new ScriptEnginePool(script, scriptMgr);
     }
 
     public String getTitle() throws ScriptException, IOException {
-        return hook.getTitle(fw.readIfModified());
+        return hook.getTitle(engines.get());
     }
 
     String getVersion() throws ScriptException, IOException {
-        return hook.getVersion(fw.readIfModified());
+        return hook.getVersion(engines.get());
     }
 
     public String getDescription() throws ScriptException, IOException {
-        return hook.getDescription(fw.readIfModified());
+        return hook.getDescription(engines.get());
     }
 
     public Map<String, Parameter<?>> getInputs() throws ScriptException, IOException {
-        return hook.getInputs(fw.readIfModified());
+        return hook.getInputs(engines.get());
     }
 
     public Map<String, Parameter<?>> getOutputs() throws ScriptException, IOException {
-        return hook.getOutputs(fw.readIfModified());
+        return hook.getOutputs(engines.get());
     }
 
     @Override
@@ -78,7 +77,7 @@ public class ScriptProcess implements Process {
             ProgressListener monitor) throws ProcessException {
 
         try {
-            return hook.run(input, fw.readIfModified());
+            return hook.run(input, engines.get());
         } catch (Exception e) {
             throw new ProcessException(e);
         }
@@ -0,0 +1,66 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.script;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.script.ScriptEngine;
+
+import org.apache.commons.io.FileUtils;
+
+public class ScriptEnginePoolTest extends ScriptTestSupport {
+
+    File script;
+
+    ScriptEnginePool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        script = new File(scriptMgr.getFunctionRoot(), "pool.js");
+        FileUtils.writeStringToFile(script, "var x = 1;");
+        pool = new ScriptEnginePool(script, scriptMgr);
+    }
+
+    public void testEnginePerThread() throws Exception {
+        ScriptEngine engine = pool.get();
+        assertSame(engine, pool.get());
+        assertEquals(1, ((Number) engine.get("x")).intValue());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ScriptEngine other = executor.submit(new Callable<ScriptEngine>() {
+                public ScriptEngine call() throws Exception {
+                    return pool.get();
+                }
+            }).get();
+            assertNotSame(engine, other);
+            assertEquals(1, ((Number) other.get("x")).intValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testReload() throws Exception {
+        pool.checkInterval = Long.MAX_VALUE;
+        ScriptEngine engine = pool.get();
+
+        FileUtils.writeStringToFile(script, "var x = 2;");
+        script.setLastModified(script.lastModified() + 2000);
+
+        // not checked again yet
+        assertSame(engine, pool.get());
+
+        pool.checkInterval = -1;
+        ScriptEngine reloaded = pool.get();
+        assertNotSame(engine, reloaded);
+        assertEquals(2, ((Number) reloaded.get("x")).intValue());
+        assertSame(reloaded, pool.get());
+    }
+}
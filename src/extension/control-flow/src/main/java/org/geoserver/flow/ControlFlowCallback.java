@@ -30,7 +30,7 @@ import org.springframework.context.ApplicationContextAware;
  * @author Andrea Aime - OpenGeo
  */
 public class ControlFlowCallback extends AbstractDispatcherCallback implements
-        ApplicationContextAware {
+        ApplicationContextAware, ControlFlowCallbackMBean {
     static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
 
     static ThreadLocal<List<FlowController>> REQUEST_CONTROLLERS = new ThreadLocal<List<FlowController>>();
@@ -45,6 +45,12 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
     AtomicLong blockedRequests = new AtomicLong();
     
     AtomicLong runningRequests = new AtomicLong();
+    
+    AtomicLong waitedRequests = new AtomicLong();
+    
+    AtomicLong totalWaitTime = new AtomicLong();
+    
+    AtomicLong maxWaitTime = new AtomicLong();
 
     /**
      * Returns the current number of blocked/queued requests.
@@ -59,6 +65,41 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
     public long getRunningRequests() {
         return runningRequests.get();
     }
+    
+    public long getWaitedRequests() {
+        return waitedRequests.get();
+    }
+    
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+    
+    public long getAverageWaitTime() {
+        long requests = waitedRequests.get();
+        return requests > 0 ? totalWaitTime.get() / requests : 0;
+    }
+    
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+    
+    public void resetWaitTimes() {
+        waitedRequests.set(0);
+        totalWaitTime.set(0);
+        maxWaitTime.set(0);
+    }
+    
+    /**
+     * Records the time a request spent waiting in the flow controllers
+     */
+    void recordWaitTime(long waitTime) {
+        waitedRequests.incrementAndGet();
+        totalWaitTime.addAndGet(waitTime);
+        long max = maxWaitTime.get();
+        while (waitTime > max && !maxWaitTime.compareAndSet(max, waitTime)) {
+            max = maxWaitTime.get();
+        }
+    }
 
     public void finished(Request request) {
         if(SENTINEL.isOutermostRequest()) {
@@ -103,15 +144,20 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
                 List<FlowController> controllers = this.controllers;
                 if (controllers.size() > 0) {
                     REQUEST_CONTROLLERS.set(controllers);
-                    long maxTime = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
-                    for (FlowController flowController : controllers) {
-                        if(timeout > 0) {
-                            long maxWait = maxTime - System.currentTimeMillis();
-                            if(!flowController.requestIncoming(request, maxWait)) 
-                                throw new HttpErrorCodeException(503, "Requested timeout out while waiting to be executed");
-                         } else {
-                            flowController.requestIncoming(request, -1);
+                    long start = System.currentTimeMillis();
+                    long maxTime = timeout > 0 ? start + timeout : -1;
+                    try {
+                        for (FlowController flowController : controllers) {
+                            if(timeout > 0) {
+                                long maxWait = maxTime - System.currentTimeMillis();
+                                if(!flowController.requestIncoming(request, maxWait)) 
+                                    throw new HttpErrorCodeException(503, "Requested timeout out while waiting to be executed");
+                             } else {
+                                flowController.requestIncoming(request, -1);
+                            }
                         }
+                    } finally {
+                        recordWaitTime(System.currentTimeMillis() - start);
                     }
                 }
             } finally {
@@ -0,0 +1,49 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow;
+
+/**
+ * JMX management interface of the {@link ControlFlowCallback}, exposes the number of queued and
+ * running requests along with the time requests spent waiting in the flow controllers. Times
+ * are expressed in milliseconds.
+ */
+public interface ControlFlowCallbackMBean {
+
+    /**
+     * Returns the current number of blocked/queued requests.
+     */
+    long getBlockedRequests();
+
+    /**
+     * Returns the current number of running requests.
+     */
+    long getRunningRequests();
+
+    /**
+     * Returns the number of requests that went through the flow controllers since startup, or
+     * the last reset
+     */
+    long getWaitedRequests();
+
+    /**
+     * Returns the total time requests spent waiting in the flow controllers
+     */
+    long getTotalWaitTime();
+
+    /**
+     * Returns the average time a request spent waiting in the flow controllers
+     */
+    long getAverageWaitTime();
+
+    /**
+     * Returns the longest time a request spent waiting in the flow controllers
+     */
+    long getMaxWaitTime();
+
+    /**
+     * Resets the wait time statistics
+     */
+    void resetWaitTimes();
+}
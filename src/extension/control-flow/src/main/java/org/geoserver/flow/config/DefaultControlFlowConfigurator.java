@@ -6,7 +6,9 @@ package org.geoserver.flow.config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.logging.Logger;
@@ -14,6 +16,7 @@ import java.util.logging.Logger;
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.FairQueueFlowController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
@@ -54,6 +57,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        FairQueueFlowController fairController = null;
+        Map<String, Integer> fairWeights = new LinkedHashMap<String, Integer>();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
@@ -93,6 +98,14 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 }
             } else if ("user".equals(keys[0])) {
                 controller = new UserFlowController(queueSize);
+            } else if ("fair".equals(keys[0])) {
+                if (keys.length == 1) {
+                    controller = fairController = new FairQueueFlowController(queueSize);
+                } else {
+                    // per client weight, the client being an ip address or a user cookie 
+                    fairWeights.put(key.substring("fair.".length()), queueSize);
+                    continue;
+                }
             } else if ("ip".equals(keys[0])) {
                 if (keys.length == 1) {
                     controller = new IpFlowController(queueSize);
@@ -107,6 +120,17 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 newControllers.add(controller);
             }
         }
+        
+        for (Map.Entry<String, Integer> entry : fairWeights.entrySet()) {
+            if (fairController == null) {
+                LOGGER.severe("Fair queueing weight specified for " + entry.getKey()
+                        + " but there is no 'fair' rule setting the capacity");
+            } else if (entry.getValue() <= 0) {
+                LOGGER.severe("Fair queueing weight for " + entry.getKey() + " must be positive");
+            } else {
+                fairController.setWeight(entry.getKey(), entry.getValue());
+            }
+        }
 
         return newControllers;
     }
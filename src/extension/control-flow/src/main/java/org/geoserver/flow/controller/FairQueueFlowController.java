@@ -0,0 +1,278 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller limiting the total cost of the requests running in parallel, as estimated by
+ * a {@link RequestCostEstimator}, and scheduling the waiting ones with weighted fair queueing
+ * across clients.
+ * <p>
+ * Clients are identified by the {@link UserFlowController} cookie, if present, or by their ip
+ * address. Each request is tagged with a virtual finish time, computed as the max between the
+ * current virtual time and the finish time of the previous request of the same client, plus the
+ * request cost divided by the client weight (self clocked fair queueing). Requests run in finish
+ * time order, so a client sending large requests quickly moves its own requests to the back of
+ * the queue, without starving the small requests sent by other clients.
+ * </p>
+ * <p>
+ * A request whose cost exceeds the capacity is allowed to run alone, so that it eventually gets
+ * executed.
+ * </p>
+ */
+public class FairQueueFlowController implements FlowController {
+
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * Thread local holding the current request ticket
+     */
+    static ThreadLocal<Ticket> TICKET = new ThreadLocal<Ticket>();
+
+    /**
+     * Number of tracked clients at which we start purging the idle ones
+     */
+    static final int MAX_CLIENTS = 1000;
+
+    /**
+     * The max total cost of the requests running in parallel
+     */
+    int capacity;
+
+    RequestCostEstimator estimator;
+
+    /**
+     * The client weights, clients not in the map have weight 1
+     */
+    Map<String, Integer> weights = new ConcurrentHashMap<String, Integer>();
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final Condition changed = lock.newCondition();
+
+    // the following fields are guarded by the lock
+
+    PriorityQueue<Ticket> waiting = new PriorityQueue<Ticket>();
+
+    Map<String, Double> lastFinish = new HashMap<String, Double>();
+
+    double virtualTime;
+
+    long running;
+
+    long sequence;
+
+    public FairQueueFlowController(int capacity) {
+        this(capacity, new RequestCostEstimator());
+    }
+
+    public FairQueueFlowController(int capacity, RequestCostEstimator estimator) {
+        this.capacity = capacity;
+        this.estimator = estimator;
+    }
+
+    /**
+     * Sets the weight of a client, identified by its ip address or flow control cookie. Clients
+     * with higher weights get a proportionally larger share of the capacity.
+     */
+    public void setWeight(String client, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("The client weight must be positive");
+        }
+        weights.put(client, weight);
+    }
+
+    public int getWeight(String client) {
+        Integer weight = weights.get(client);
+        return weight != null ? weight : 1;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        String client = getClientId(request);
+        int cost = estimator.getCost(request);
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : -1;
+
+        lock.lock();
+        try {
+            Double previous = lastFinish.get(client);
+            double start = previous != null ? Math.max(virtualTime, previous) : virtualTime;
+            Ticket ticket = new Ticket(client, cost, start + (double) cost / getWeight(client),
+                    sequence++);
+            lastFinish.put(client, ticket.finish);
+            waiting.add(ticket);
+
+            while (waiting.peek() != ticket || !fits(ticket)) {
+                if (deadline > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    boolean interrupted = false;
+                    if (remaining > 0) {
+                        try {
+                            changed.await(remaining, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            LOGGER.log(Level.WARNING, "Unexpected interruption while "
+                                    + "blocking on the request queue");
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted || remaining <= 0) {
+                        // give back the virtual time we did not use
+                        waiting.remove(ticket);
+                        Double last = lastFinish.get(client);
+                        if (last != null && last == ticket.finish) {
+                            lastFinish.put(client, start);
+                        }
+                        changed.signalAll();
+                        return false;
+                    }
+                } else {
+                    changed.awaitUninterruptibly();
+                }
+            }
+
+            waiting.poll();
+            running += cost;
+            virtualTime = ticket.finish;
+            TICKET.set(ticket);
+            purgeIdleClients();
+            // the next request in line might fit as well
+            changed.signalAll();
+
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " running request from " + client + " with cost " + cost
+                        + ", total running cost " + running + ", waiting " + waiting.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        Ticket ticket = TICKET.get();
+        TICKET.remove();
+        if (ticket != null) {
+            lock.lock();
+            try {
+                running -= ticket.cost;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public int getPriority() {
+        return capacity;
+    }
+
+    /**
+     * Returns the total cost of the requests currently running
+     */
+    public long getRunningCost() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting to be executed
+     */
+    public int getWaitingRequests() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean fits(Ticket ticket) {
+        return running == 0 || running + ticket.cost <= capacity;
+    }
+
+    /**
+     * Drops the finish times lagging behind the virtual time, they would be ignored anyways
+     */
+    void purgeIdleClients() {
+        if (lastFinish.size() > MAX_CLIENTS) {
+            for (Iterator<Double> it = lastFinish.values().iterator(); it.hasNext();) {
+                if (it.next() <= virtualTime) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    String getClientId(Request request) {
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        if (httpRequest == null) {
+            return "";
+        }
+        Cookie[] cookies = httpRequest.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (cookie.getName().equals(UserFlowController.COOKIE_NAME)) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        String ip = IpFlowController.getRemoteAddr(httpRequest);
+        return ip != null ? ip : "";
+    }
+
+    @Override
+    public String toString() {
+        return "FairQueueFlowController(" + capacity + ")";
+    }
+
+    /**
+     * A request waiting or running in the controller
+     */
+    static class Ticket implements Comparable<Ticket> {
+        String client;
+
+        int cost;
+
+        double finish;
+
+        long sequence;
+
+        Ticket(String client, int cost, double finish, long sequence) {
+            this.client = client;
+            this.cost = cost;
+            this.finish = finish;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Ticket other) {
+            if (finish != other.finish) {
+                return finish < other.finish ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
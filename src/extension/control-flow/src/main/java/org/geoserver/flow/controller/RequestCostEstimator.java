@@ -0,0 +1,167 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Estimates the cost of a request in abstract units, where one unit is roughly the cost of
+ * rendering a single layer 256x256 tile:
+ * <ul>
+ * <li>GetMap: width x height x number of layers, divided by the pixels of a tile</li>
+ * <li>GetFeature: the maximum number of features requested, divided by
+ * {@link #FEATURES_PER_UNIT}, or {@link #getUnboundedFeatureCost()} if there is no limit</li>
+ * <li>GetCoverage: width x height of the output, divided by the pixels of a tile, or
+ * {@link #getUnknownCoverageCost()} if the output size is not specified</li>
+ * <li>any other request costs one unit</li>
+ * </ul>
+ * The estimate is based on the request key value pairs, requests posted as XML documents get
+ * the same cost as an unbounded request of the same type.
+ */
+public class RequestCostEstimator {
+
+    /**
+     * The number of pixels in a cost unit (a 256x256 tile)
+     */
+    public static final long PIXELS_PER_UNIT = 256 * 256;
+
+    /**
+     * The number of features in a cost unit
+     */
+    public static final long FEATURES_PER_UNIT = 1000;
+
+    /**
+     * The max cost assigned to a single request, so that it can still run at some point
+     */
+    public static final int MAX_COST = 1000000;
+
+    int unboundedFeatureCost = 10;
+
+    int unknownCoverageCost = 16;
+
+    /**
+     * The cost of a GetFeature that does not specify a max number of features
+     */
+    public int getUnboundedFeatureCost() {
+        return unboundedFeatureCost;
+    }
+
+    public void setUnboundedFeatureCost(int unboundedFeatureCost) {
+        this.unboundedFeatureCost = unboundedFeatureCost;
+    }
+
+    /**
+     * The cost of a GetCoverage that does not specify the output size
+     */
+    public int getUnknownCoverageCost() {
+        return unknownCoverageCost;
+    }
+
+    public void setUnknownCoverageCost(int unknownCoverageCost) {
+        this.unknownCoverageCost = unknownCoverageCost;
+    }
+
+    /**
+     * Returns the estimated cost of the request, always a positive number
+     */
+    public int getCost(Request request) {
+        String operation = request.getRequest();
+        if ("GetMap".equalsIgnoreCase(operation)) {
+            Long width = getNumber(request, "WIDTH");
+            Long height = getNumber(request, "HEIGHT");
+            if (width == null || height == null) {
+                return 1;
+            }
+            long layers = Math.max(1, getCount(request, "LAYERS"));
+            return toCost(width * height * layers, PIXELS_PER_UNIT);
+        } else if ("GetFeature".equalsIgnoreCase(operation)) {
+            Long features = getNumber(request, "MAXFEATURES");
+            if (features == null) {
+                // WFS 2.0 name
+                features = getNumber(request, "COUNT");
+            }
+            if (features == null) {
+                return unboundedFeatureCost;
+            }
+            return toCost(features, FEATURES_PER_UNIT);
+        } else if ("GetCoverage".equalsIgnoreCase(operation)) {
+            Long width = getNumber(request, "WIDTH");
+            Long height = getNumber(request, "HEIGHT");
+            if (width == null || height == null) {
+                return unknownCoverageCost;
+            }
+            return toCost(width * height, PIXELS_PER_UNIT);
+        }
+
+        return 1;
+    }
+
+    int toCost(long amount, long unit) {
+        long cost = (amount + unit - 1) / unit;
+        if (cost < 1) {
+            return 1;
+        } else if (cost > MAX_COST) {
+            return MAX_COST;
+        }
+        return (int) cost;
+    }
+
+    /**
+     * Looks up a numeric parameter, first in the parsed kvp, then in the raw one
+     */
+    Long getNumber(Request request, String key) {
+        Object value = getValue(request.getKvp(), key);
+        if (value == null) {
+            value = getValue(request.getRawKvp(), key);
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof String) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Counts the items in a list parameter, first in the parsed kvp, then in the raw one
+     */
+    long getCount(Request request, String key) {
+        Object value = getValue(request.getKvp(), key);
+        if (value == null) {
+            value = getValue(request.getRawKvp(), key);
+        }
+        if (value instanceof Collection) {
+            return ((Collection) value).size();
+        } else if (value instanceof Object[]) {
+            return ((Object[]) value).length;
+        } else if (value instanceof String) {
+            return ((String) value).split(",").length;
+        }
+        return 0;
+    }
+
+    Object getValue(Map kvp, String key) {
+        if (kvp == null) {
+            return null;
+        }
+        Object value = kvp.get(key);
+        if (value == null) {
+            for (Object o : kvp.entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                if (key.equalsIgnoreCase(String.valueOf(entry.getKey()))) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return value;
+    }
+}
@@ -14,6 +14,7 @@ import java.util.Properties;
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.FairQueueFlowController;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
@@ -67,6 +68,26 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(14, ipSc.getPriority());
     }
 
+    @Test
+    public void testParsingFairQueue() throws Exception {
+        Properties p = new Properties();
+        p.put("fair", "64");
+        p.put("fair.192.168.1.8", "4");
+        p.put("fair.gs-user-1234", "2");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof FairQueueFlowController);
+
+        FairQueueFlowController fc = (FairQueueFlowController) controllers.get(0);
+        assertEquals(64, fc.getPriority());
+        assertEquals(4, fc.getWeight("192.168.1.8"));
+        assertEquals(2, fc.getWeight("gs-user-1234"));
+        assertEquals(1, fc.getWeight("192.168.1.9"));
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
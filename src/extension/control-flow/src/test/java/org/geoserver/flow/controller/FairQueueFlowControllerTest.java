@@ -0,0 +1,183 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class FairQueueFlowControllerTest extends AbstractFlowControllerTest {
+
+    private static final long MAX_WAIT = 10000;
+
+    @Test
+    public void testCostEstimate() {
+        RequestCostEstimator estimator = new RequestCostEstimator();
+        assertEquals(1, estimator.getCost(buildGetMap("127.0.0.1", 256, 256)));
+        assertEquals(4, estimator.getCost(buildGetMap("127.0.0.1", 512, 512)));
+
+        Request request = buildGetMap("127.0.0.1", 512, 512);
+        request.getRawKvp().put("LAYERS", "a,b,c");
+        assertEquals(12, estimator.getCost(request));
+
+        request = buildRequest("127.0.0.1", "GetFeature");
+        assertEquals(estimator.getUnboundedFeatureCost(), estimator.getCost(request));
+        request.getRawKvp().put("maxFeatures", "5000");
+        assertEquals(5, estimator.getCost(request));
+
+        request = buildRequest("127.0.0.1", "GetCapabilities");
+        assertEquals(1, estimator.getCost(request));
+    }
+
+    @Test
+    public void testCapacity() {
+        // two tiles worth of capacity
+        FairQueueFlowController controller = new FairQueueFlowController(2);
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.1", 256, 256), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.2", 256, 256), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.3", 256, 256), 0, Long.MAX_VALUE, controller);
+
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(2, controller.getRunningCost());
+            assertEquals(1, controller.getWaitingRequests());
+
+            // release one, the third can go
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitState(t3, ThreadState.PROCESSING, MAX_WAIT);
+
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(0, controller.getWaitingRequests());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testSmallRequestOvertakesLargeOne() {
+        FairQueueFlowController controller = new FairQueueFlowController(4);
+        // the first client fills the capacity, then asks for another large map
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.1", 512, 512), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.1", 512, 512), 0, Long.MAX_VALUE, controller);
+        // the second client just wants a tile
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.2", 256, 256), 0, Long.MAX_VALUE, controller);
+
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+
+            // when t1 is done the tile goes first, although it arrived last
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitState(t3, ThreadState.PROCESSING, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+
+            // and once the tile is done the second large map can go
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+            waitState(t2, ThreadState.PROCESSING, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        FairQueueFlowController controller = new FairQueueFlowController(1);
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.1", 256, 256), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildGetMap(
+                "127.0.0.2", 256, 256), 100, Long.MAX_VALUE, controller);
+
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitTerminated(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            assertEquals(0, controller.getWaitingRequests());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    /**
+     * Waits until the testing thread reaches the specified state, the queued threads need some
+     * time to wake up and grab the lock once the running ones complete
+     */
+    void waitState(FlowControllerTestingThread t, ThreadState state, long maxWait) {
+        try {
+            long start = System.currentTimeMillis();
+            while (t.state != state && System.currentTimeMillis() < (start + maxWait)) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            fail("Someone interrupted our wait: " + e);
+        }
+    }
+
+    Request buildGetMap(String ipAddress, int width, int height) {
+        Request request = buildRequest(ipAddress, "GetMap");
+        request.getRawKvp().put("WIDTH", String.valueOf(width));
+        request.getRawKvp().put("HEIGHT", String.valueOf(height));
+        request.getRawKvp().put("LAYERS", "topp:states");
+        return request;
+    }
+
+    Request buildRequest(String ipAddress, String operation) {
+        Request request = new Request();
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setRemoteAddr(ipAddress);
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(new MockHttpServletResponse());
+        request.setRequest(operation);
+        Map<String, Object> rawKvp = new HashMap<String, Object>();
+        request.setRawKvp(rawKvp);
+        return request;
+    }
+}
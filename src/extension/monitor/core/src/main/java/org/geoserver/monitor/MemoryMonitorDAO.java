@@ -4,27 +4,51 @@
  */
 package org.geoserver.monitor;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.ows.util.OwsUtils;
 
+/**
+ * Keeps the live requests, and the last completed ones, in memory.
+ * <p>
+ * Completed requests go in a fixed size ring buffer holding the last
+ * {@link #DEFAULT_MAX_REQUESTS} requests, or the number given by the {@code memory.maxRequests}
+ * configuration property. Saving a request only writes a slot of the ring, and queries walk it
+ * without copying it first, stopping as soon as the requested page is filled when no sorting is
+ * needed. Every completed request is also added to the rolling per minute
+ * {@link #getStatistics() statistics}, kept for {@link #DEFAULT_STATISTICS_MINUTES} minutes or
+ * the {@code memory.statisticsMinutes} configuration property, which allows reporting over
+ * periods much longer than the one covered by the ring.
+ * </p>
+ */
 public class MemoryMonitorDAO implements MonitorDAO {
 
     public static final String NAME = "memory";
 
-    Queue<RequestData> live = new ConcurrentLinkedQueue<RequestData>();
-    Queue<RequestData> history = new ConcurrentLinkedQueue<RequestData>();
+    public static final int DEFAULT_MAX_REQUESTS = 100;
+
+    public static final int DEFAULT_STATISTICS_MINUTES = 24 * 60;
+
+    ConcurrentMap<Long, RequestData> live = new ConcurrentSkipListMap<Long, RequestData>();
+    AtomicReferenceArray<RequestData> history = 
+        new AtomicReferenceArray<RequestData>(DEFAULT_MAX_REQUESTS);
+    AtomicLong saved = new AtomicLong();
+    RequestStatistics statistics = new RequestStatistics(DEFAULT_STATISTICS_MINUTES);
     
     AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
 
@@ -35,6 +59,15 @@ public class MemoryMonitorDAO implements MonitorDAO {
 
     @Override
     public void init(MonitorConfig config) {
+        Integer maxRequests = config.getProperty(NAME, "maxRequests", Integer.class);
+        if (maxRequests != null && maxRequests > 0) {
+            history = new AtomicReferenceArray<RequestData>(maxRequests);
+            saved.set(0);
+        }
+        Integer minutes = config.getProperty(NAME, "statisticsMinutes", Integer.class);
+        if (minutes != null && minutes > 0) {
+            statistics = new RequestStatistics(minutes);
+        }
     }
 
     public RequestData init(RequestData data) {
@@ -43,24 +76,44 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
 
     public void add(RequestData data) {
-        live.add(data);
+        live.put(data.getId(), data);
     }
 
     public void update(RequestData data) {
     }
 
     public void save(RequestData data) {
-        live.remove(data);
-        history.add(data);
-        
-        if (history.size() > 100) {
-            history.poll();
-        }
+        live.remove(data.getId());
+        long seq = saved.getAndIncrement();
+        history.set((int) (seq % history.length()), data);
+        statistics.add(data);
+    }
+    
+    /**
+     * The per minute aggregates of the completed requests
+     */
+    public RequestStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * The requests not completed yet, not accounted for in the {@link #getStatistics() statistics}
+     */
+    public Collection<RequestData> getLiveRequests() {
+        return Collections.unmodifiableCollection(live.values());
     }
     
     public RequestData getRequest(long id) {
-        for (RequestData r : getRequests()) {
-            if (r.getId() == id) {
+        RequestData data = live.get(id);
+        if (data != null) {
+            return data;
+        }
+        // newest first
+        AtomicReferenceArray<RequestData> history = this.history;
+        long end = saved.get();
+        for (long s = end - 1; s >= Math.max(0, end - history.length()); s--) {
+            RequestData r = history.get((int) (s % history.length()));
+            if (r != null && r.getId() == id) {
                 return r;
             }
         }
@@ -68,55 +121,80 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
     
     public List<RequestData> getRequests() {
-        List<RequestData> requests = new LinkedList();
-        requests.addAll(live);
-        requests.addAll(history);
+        final List<RequestData> requests = new ArrayList<RequestData>();
+        visit(new Callback() {
+            public boolean visit(RequestData data) {
+                requests.add(data);
+                return true;
+            }
+        });
         return requests;
     }
-        
-    public List<RequestData> getRequests(Query q) {
-        List<RequestData> requests = getRequests();
-       
-        List<Predicate> predicates = new ArrayList();
-        if (q.getFilter() != null) {
-            Filter f = q.getFilter();
-            predicates.add(new PropertyCompare(f.getLeft(), f.getType(), f.getRight()));
-        }
-        if (q.getFromDate() != null || q.getToDate() != null) {
-            predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
-        }
-        
-        int i = 1, count = 0;
-        
-O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
-            RequestData r = it.next();
-            for (Predicate p : predicates) {
-                if (!p.matches(r)) {
-                    it.remove();
-                    continue O;
-                }
-            }
-        
-            if (q.getOffset() != null && q.getOffset() >= i++) {
-                it.remove();
-                continue;
+
+    /**
+     * Visits the live requests, then the completed ones from the oldest to the newest, until the
+     * callback returns false. The visit is weakly consistent, requests saved meanwhile may or may
+     * not be visited.
+     */
+    void visit(Callback callback) {
+        for (RequestData r : live.values()) {
+            if (!callback.visit(r)) {
+                return;
             }
-            if (q.getCount() != null && q.getCount() <= count) {
-                it.remove();
-                continue;       
+        }
+        AtomicReferenceArray<RequestData> history = this.history;
+        long end = saved.get();
+        for (long s = Math.max(0, end - history.length()); s < end; s++) {
+            RequestData r = history.get((int) (s % history.length()));
+            if (r != null && !callback.visit(r)) {
+                return;
             }
-            count++;
         }
+    }
+        
+    public List<RequestData> getRequests(final Query q) {
+        final List<RequestData> requests = new ArrayList<RequestData>();
+        final Predicate predicate = predicate(q);
         
+        Comparator<RequestData> sorter = null;
         if (q.getSortBy() != null) {
-            Collections.sort(requests, new Sorter(q.getSortBy(), q.getSortOrder()));
+            sorter = new Sorter(q.getSortBy(), q.getSortOrder());
         }
         else if (q.getFromDate() != null || q.getToDate() != null) {
-            Collections.sort(requests, new Sorter("startTime", SortOrder.DESC));
+            sorter = new Sorter("startTime", SortOrder.DESC);
+        }
+        
+        // without sorting the page can be collected while visiting
+        final long offset = q.getOffset() != null && sorter == null ? q.getOffset() : 0;
+        final long count = q.getCount() != null && sorter == null ? q.getCount() : Long.MAX_VALUE;
+        visit(new Callback() {
+            long matched = 0;
+            
+            public boolean visit(RequestData r) {
+                if (predicate.matches(r) && matched++ >= offset) {
+                    requests.add(r);
+                }
+                return requests.size() < count;
+            }
+        });
+
+        if (sorter != null) {
+            Collections.sort(requests, sorter);
+            return page(requests, q.getOffset(), q.getCount());
         }
         return requests;
     }
     
+    static List<RequestData> page(List<RequestData> requests, Long offset, Long count) {
+        int first = offset == null ? 0 : (int) Math.min(offset, requests.size());
+        int last = count == null ? requests.size() : (int) Math.min(first + count, 
+            requests.size());
+        if (first == 0 && last == requests.size()) {
+            return requests;
+        }
+        return new ArrayList<RequestData>(requests.subList(first, last));
+    }
+    
     public void getRequests(Query query, RequestDataVisitor visitor) {
         for (RequestData r : getRequests(query)) {
             visitor.visit(r);
@@ -124,7 +202,24 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     }
     
     public long getCount(Query query) {
-        return getRequests(query).size();
+        final Predicate predicate = predicate(query);
+        final long[] count = new long[1];
+        visit(new Callback() {
+            public boolean visit(RequestData r) {
+                if (predicate.matches(r)) {
+                    count[0]++;
+                }
+                return true;
+            }
+        });
+        long result = count[0];
+        if (query.getOffset() != null) {
+            result = Math.max(0, result - query.getOffset());
+        }
+        if (query.getCount() != null) {
+            result = Math.min(result, query.getCount());
+        }
+        return result;
     }
     
     public Iterator<RequestData> getIterator(Query query) {
@@ -160,18 +255,102 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     };
     
     public void clear() {
+        AtomicReferenceArray<RequestData> history = this.history;
+        for (int i = 0; i < history.length(); i++) {
+            history.set(i, null);
+        }
+        statistics.clear();
     }
     
     public void dispose() {
         live.clear();
         live = null;
-        history.clear();
         history = null;
+        statistics = null;
+    }
+    
+    /**
+     * Builds the predicate for the filter and time range of the query, resolving the compared 
+     * properties once for all the requests
+     */
+    static Predicate predicate(Query q) {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (q.getFilter() != null) {
+            predicates.add(predicate(q.getFilter()));
+        }
+        if (q.getFromDate() != null || q.getToDate() != null) {
+            predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
+        }
+        return predicates.size() == 1 ? predicates.get(0) : new AllOf(predicates);
+    }
+    
+    static Predicate predicate(Filter f) {
+        if (f instanceof CompositeFilter) {
+            List<Predicate> predicates = new ArrayList<Predicate>();
+            for (Filter child : ((CompositeFilter) f).getFilters()) {
+                predicates.add(predicate(child));
+            }
+            return f instanceof Or ? new AnyOf(predicates) : new AllOf(predicates);
+        }
+        return new PropertyCompare(f.getLeft(), f.getType(), f.getRight());
+    }
+    
+    static Object get(Method getter, RequestData data) {
+        try {
+            return getter.invoke(data);
+        } 
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Receives the requests of a visit
+     */
+    static interface Callback {
+        /**
+         * @return false to stop the visit
+         */
+        boolean visit(RequestData data);
     }
     
     static interface Predicate {
         boolean matches(RequestData data);
     }
+    static class AllOf implements Predicate {
+        
+        Predicate[] predicates;
+        
+        AllOf(List<Predicate> predicates) {
+            this.predicates = predicates.toArray(new Predicate[predicates.size()]);
+        }
+        
+        public boolean matches(RequestData data) {
+            for (Predicate p : predicates) {
+                if (!p.matches(data)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    static class AnyOf implements Predicate {
+        
+        Predicate[] predicates;
+        
+        AnyOf(List<Predicate> predicates) {
+            this.predicates = predicates.toArray(new Predicate[predicates.size()]);
+        }
+        
+        public boolean matches(RequestData data) {
+            for (Predicate p : predicates) {
+                if (p.matches(data)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
     static class DateRange implements Predicate {
 
         Date from;
@@ -207,42 +386,40 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     
     static class PropertyCompare implements Predicate{
 
-        Object left, right;
+        Method getter;
+        Object value;
         Comparison compare;
         
         public PropertyCompare(Object left, Comparison compare, Object right) {
-            this.left = left;
-            this.right = right;
             this.compare = compare;
-        }
-        
-        public boolean matches(RequestData data) {
-            String property = null;
-            Object value = null;
-            if (left instanceof String && OwsUtils.has(data, (String)left)) {
-                property = (String) left;
+            if (left instanceof String 
+                && (getter = OwsUtils.getter(RequestData.class, (String) left, null)) != null) {
                 value = right;
             }
-            else if (right instanceof String && OwsUtils.has(data, (String)right)) {
-                property = (String) right;
+            else if (right instanceof String 
+                && (getter = OwsUtils.getter(RequestData.class, (String) right, null)) != null) {
                 value = left;
             }
-            if (property == null) {
+            if (getter == null) {
                 throw new IllegalArgumentException("Could not find property");
             }
-            
-            Object o = OwsUtils.get(data, property);
-            if (o == null) {
-                return value == null && compare == Comparison.EQ; 
-            }
-            
             if (compare == Comparison.IN) {
                 if (!(value instanceof List)) {
                     throw new UnsupportedOperationException(
                         "IN comparison only supported against list values");
                 }
-                
-                return ((List)value).contains(o);
+                value = new HashSet((List) value);
+            }
+        }
+        
+        public boolean matches(RequestData data) {
+            Object o = get(getter, data);
+            if (o == null) {
+                return value == null && compare == Comparison.EQ; 
+            }
+            
+            if (compare == Comparison.IN) {
+                return ((Set)value).contains(o);
             }
             
             if (compare == Comparison.EQ) {
@@ -271,11 +448,14 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     
     static class Sorter implements Comparator<RequestData> {
 
-        String property;
+        Method getter;
         SortOrder order;
         
         Sorter(String property, SortOrder order) {
-            this.property = property;
+            this.getter = OwsUtils.getter(RequestData.class, property, null);
+            if (getter == null) {
+                throw new IllegalArgumentException("No such property '" + property + "'");
+            }
             this.order = order;
         }
         
@@ -285,8 +465,8 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
         }
         
         public int compareInternal(RequestData r1, RequestData r2) {
-            Object o1 = OwsUtils.get(r1, property);
-            Object o2 = OwsUtils.get(r2, property);
+            Object o1 = get(getter, r1);
+            Object o2 = get(getter, r2);
             
             if (o1 == null && o2 != null) {
                 return 1;
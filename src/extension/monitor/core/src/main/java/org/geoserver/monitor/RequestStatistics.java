@@ -0,0 +1,336 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Rolling per minute aggregates of the completed requests, kept for a fixed number of minutes.
+ * <p>
+ * Each minute has a {@link Bucket} with the request count, total time and response length, a
+ * latency histogram used to estimate percentiles, and the same counters broken down by service,
+ * operation and layer. Requests are added without locking, the buckets live in a ring indexed
+ * by minute and the one for a new minute replaces the oldest one with a compare and set.
+ * </p>
+ * <p>
+ * Requests are assigned to the minute of their start time, as the time range of the monitor
+ * queries is matched against it.
+ * </p>
+ */
+public class RequestStatistics {
+
+    static final long MINUTE = 60 * 1000;
+
+    /**
+     * Upper bounds of the latency histogram slots in milliseconds, the last slot holds everything
+     * above the last bound
+     */
+    static final long[] LATENCY_BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000,
+            10000, 20000, 50000, 100000, 200000, 500000 };
+
+    final AtomicReferenceArray<Bucket> buckets;
+
+    public RequestStatistics(int minutes) {
+        if (minutes <= 0) {
+            throw new IllegalArgumentException("Number of minutes must be positive: " + minutes);
+        }
+        buckets = new AtomicReferenceArray<Bucket>(minutes);
+    }
+
+    /**
+     * The number of minutes the aggregates are kept for
+     */
+    public int getMinutes() {
+        return buckets.length();
+    }
+
+    /**
+     * Adds a completed request to the aggregates of its minute, requests older than the minutes
+     * kept are ignored
+     */
+    public void add(RequestData data) {
+        Date start = data.getStartTime();
+        long time = start != null ? start.getTime() : System.currentTimeMillis();
+        Bucket bucket = bucket(floorDiv(time, MINUTE));
+        if (bucket != null) {
+            bucket.add(data);
+        }
+    }
+
+    Bucket bucket(long minute) {
+        int slot = (int) (minute % buckets.length());
+        if (slot < 0) {
+            slot += buckets.length();
+        }
+        while (true) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket != null && bucket.minute == minute) {
+                return bucket;
+            }
+            if (bucket != null && bucket.minute > minute) {
+                // rolled over already
+                return null;
+            }
+            Bucket fresh = new Bucket(minute);
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Returns the per minute aggregates of the requests started between the two dates, inclusive,
+     * sorted by time. Either date may be null for an open range.
+     */
+    public List<Bucket> getBuckets(Date from, Date to) {
+        long first = from != null ? floorDiv(from.getTime(), MINUTE) : Long.MIN_VALUE;
+        long last = to != null ? floorDiv(to.getTime(), MINUTE) : Long.MAX_VALUE;
+        List<Bucket> result = new ArrayList<Bucket>();
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.minute >= first && bucket.minute <= last) {
+                result.add(bucket);
+            }
+        }
+        Collections.sort(result, new Comparator<Bucket>() {
+            public int compare(Bucket b1, Bucket b2) {
+                return b1.minute < b2.minute ? -1 : (b1.minute == b2.minute ? 0 : 1);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the aggregates of the requests started between the two dates merged in a single
+     * bucket, whose time is the one of the first minute found. The dates are rounded to the
+     * minute.
+     */
+    public Bucket summarize(Date from, Date to) {
+        List<Bucket> buckets = getBuckets(from, to);
+        Bucket summary = new Bucket(buckets.isEmpty() ? 0 : buckets.get(0).minute);
+        for (Bucket bucket : buckets) {
+            summary.merge(bucket);
+        }
+        return summary;
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * Request count, total time in milliseconds and total response length in bytes
+     */
+    public static class Counter {
+
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong totalTime = new AtomicLong();
+
+        final AtomicLong responseLength = new AtomicLong();
+
+        void add(long count, long totalTime, long responseLength) {
+            this.count.addAndGet(count);
+            this.totalTime.addAndGet(totalTime);
+            this.responseLength.addAndGet(responseLength);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalTime() {
+            return totalTime.get();
+        }
+
+        public long getResponseLength() {
+            return responseLength.get();
+        }
+
+        /**
+         * Average time of a request in milliseconds
+         */
+        public double getAverageTime() {
+            long c = count.get();
+            return c == 0 ? 0 : totalTime.get() / (double) c;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", time=" + getTotalTime() + ", bytes="
+                    + getResponseLength();
+        }
+    }
+
+    /**
+     * The aggregates of the requests of a minute
+     */
+    public static class Bucket extends Counter {
+
+        final long minute;
+
+        final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BOUNDS.length + 1);
+
+        final AtomicLong maxTime = new AtomicLong();
+
+        final ConcurrentMap<String, Counter> services = new ConcurrentHashMap<String, Counter>();
+
+        final ConcurrentMap<String, Counter> operations = new ConcurrentHashMap<String, Counter>();
+
+        final ConcurrentMap<String, Counter> layers = new ConcurrentHashMap<String, Counter>();
+
+        Bucket(long minute) {
+            this.minute = minute;
+        }
+
+        /**
+         * The start of the minute
+         */
+        public Date getTime() {
+            return new Date(minute * MINUTE);
+        }
+
+        /**
+         * Counters by service name
+         */
+        public Map<String, Counter> getServices() {
+            return Collections.unmodifiableMap(services);
+        }
+
+        /**
+         * Counters by operation, keyed by service and operation name, e.g. {@code WMS.GetMap}
+         */
+        public Map<String, Counter> getOperations() {
+            return Collections.unmodifiableMap(operations);
+        }
+
+        /**
+         * Counters by layer, a request counts fully for each layer it involves
+         */
+        public Map<String, Counter> getLayers() {
+            return Collections.unmodifiableMap(layers);
+        }
+
+        public long getMaxTime() {
+            return maxTime.get();
+        }
+
+        /**
+         * Estimates the request time below which the given fraction of the requests fall, e.g.
+         * {@code 0.95} for the 95th percentile. The result is the upper bound of the histogram
+         * slot the percentile falls in, or the maximum time for the last slot.
+         */
+        public long getPercentileTime(double fraction) {
+            long total = 0;
+            for (int i = 0; i < latencies.length(); i++) {
+                total += latencies.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                seen += latencies.get(i);
+                if (seen >= rank) {
+                    return Math.min(LATENCY_BOUNDS[i], maxTime.get());
+                }
+            }
+            return maxTime.get();
+        }
+
+        void add(RequestData data) {
+            long time = data.getTotalTime();
+            long length = data.getResponseLength();
+            add(1, time, length);
+            latencies.incrementAndGet(latencySlot(time));
+            updateMax(time);
+
+            String service = data.getService();
+            if (service != null) {
+                counter(services, service).add(1, time, length);
+                String operation = data.getOperation();
+                if (operation != null) {
+                    counter(operations, service + "." + operation).add(1, time, length);
+                }
+            }
+            List<String> resources = data.getResources();
+            if (resources != null) {
+                for (String layer : resources) {
+                    counter(layers, layer).add(1, time, length);
+                }
+            }
+        }
+
+        void merge(Bucket other) {
+            add(other.getCount(), other.getTotalTime(), other.getResponseLength());
+            for (int i = 0; i < latencies.length(); i++) {
+                latencies.addAndGet(i, other.latencies.get(i));
+            }
+            updateMax(other.maxTime.get());
+            merge(services, other.services);
+            merge(operations, other.operations);
+            merge(layers, other.layers);
+        }
+
+        void merge(ConcurrentMap<String, Counter> target, Map<String, Counter> source) {
+            for (Map.Entry<String, Counter> e : source.entrySet()) {
+                Counter c = e.getValue();
+                counter(target, e.getKey()).add(c.getCount(), c.getTotalTime(),
+                        c.getResponseLength());
+            }
+        }
+
+        void updateMax(long time) {
+            long max = maxTime.get();
+            while (time > max && !maxTime.compareAndSet(max, time)) {
+                max = maxTime.get();
+            }
+        }
+
+        static int latencySlot(long time) {
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                if (time <= LATENCY_BOUNDS[i]) {
+                    return i;
+                }
+            }
+            return LATENCY_BOUNDS.length;
+        }
+
+        static Counter counter(ConcurrentMap<String, Counter> counters, String key) {
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                Counter fresh = new Counter();
+                counter = counters.putIfAbsent(key, fresh);
+                if (counter == null) {
+                    counter = fresh;
+                }
+            }
+            return counter;
+        }
+
+        @Override
+        public String toString() {
+            return getTime() + ": " + super.toString();
+        }
+    }
+}
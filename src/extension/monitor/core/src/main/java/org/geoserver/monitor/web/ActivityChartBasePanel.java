@@ -24,10 +24,12 @@ import org.apache.wicket.markup.html.image.resource.BufferedDynamicImageResource
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
+import org.geoserver.monitor.MemoryMonitorDAO;
 import org.geoserver.monitor.Monitor;
 import org.geoserver.monitor.Query;
 import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.RequestDataVisitor;
+import org.geoserver.monitor.RequestStatistics.Bucket;
 import org.geoserver.web.GeoServerApplication;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
@@ -100,13 +102,7 @@ public abstract class ActivityChartBasePanel extends Panel {
     }
     
     BufferedDynamicImageResource queryAndRenderChart(Monitor monitor, Date[] range) {
-        Query q = new Query();
-        q.properties("startTime").between(range[0], range[1]);
-        
-        DataGatherer gatherer = new DataGatherer();
-        monitor.query(q, gatherer);
-        
-        HashMap<RegularTimePeriod,Integer> data = gatherer.getData();
+        HashMap<RegularTimePeriod,Integer> data = gatherData(monitor, range);
         
         Class timeUnitClass = getTimePeriod(range[0]).getClass();
         TimeSeries series = new TimeSeries("foo", timeUnitClass);
@@ -155,14 +151,18 @@ public abstract class ActivityChartBasePanel extends Panel {
         HashMap<RegularTimePeriod,Integer> data = new HashMap<RegularTimePeriod, Integer>();
         
         public void visit(RequestData r, Object... aggregates) {
-            RegularTimePeriod period = getTimePeriod(r.getStartTime());
+            add(r.getStartTime(), 1);
+        }
+        
+        void add(Date time, int requests) {
+            RegularTimePeriod period = getTimePeriod(time);
             Integer count = data.get(period);
        
             if (count == null) {
-                count = new Integer(1);
+                count = new Integer(requests);
             }
             else {
-                count = new Integer(count.intValue()+1);
+                count = new Integer(count.intValue()+requests);
             }
             
             data.put(period,count);
@@ -173,6 +173,54 @@ public abstract class ActivityChartBasePanel extends Panel {
         }
     }
     
+    /**
+     * Counts the requests started in each time period of the range
+     */
+    HashMap<RegularTimePeriod,Integer> gatherData(Monitor monitor, Date[] range) {
+        DataGatherer gatherer = new DataGatherer();
+        MemoryMonitorDAO memory = getMemoryDAO(monitor, range);
+        if (memory != null) {
+            // count the completed requests from the per minute aggregates instead of visiting 
+            // them, the running ones are not aggregated yet
+            for (Bucket bucket : memory.getStatistics().getBuckets(range[0], range[1])) {
+                gatherer.add(bucket.getTime(), (int) bucket.getCount());
+            }
+            for (RequestData r : memory.getLiveRequests()) {
+                Date start = r.getStartTime();
+                if (start != null && !start.before(range[0]) && !start.after(range[1])) {
+                    gatherer.visit(r);
+                }
+            }
+        }
+        else {
+            Query q = new Query();
+            q.properties("startTime").between(range[0], range[1]);
+            monitor.query(q, gatherer);
+        }
+        return gatherer.getData();
+    }
+    
+    /**
+     * Returns the in memory storage when its per minute statistics cover the whole range and 
+     * the chart periods are at least a minute long, null otherwise
+     */
+    MemoryMonitorDAO getMemoryDAO(Monitor monitor, Date[] range) {
+        RegularTimePeriod period = getTimePeriod(range[0]);
+        if (period.getLastMillisecond() - period.getFirstMillisecond() + 1 < 60 * 1000l) {
+            // a minute bucket cannot be split in shorter periods
+            return null;
+        }
+        if (monitor.getDAO() instanceof MemoryMonitorDAO) {
+            MemoryMonitorDAO memory = (MemoryMonitorDAO) monitor.getDAO();
+            long minutes = memory.getStatistics().getMinutes();
+            long oldest = System.currentTimeMillis() - minutes * 60 * 1000l;
+            if (range[0].getTime() >= oldest) {
+                return memory;
+            }
+        }
+        return null;
+    }
+    
     protected String getChartTitle(Date[] range) {
         return "Activity " + FORMAT.format(range[0]) + " - " + FORMAT.format(range[1]);
     }
@@ -11,7 +11,6 @@ import org.geoserver.monitor.Monitor;
 import org.jfree.data.time.Hour;
 import org.jfree.data.time.Minute;
 import org.jfree.data.time.RegularTimePeriod;
-import org.jfree.data.time.Second;
 
 
 public class DailyActivityPanel extends ActivityChartBasePanel {
@@ -35,8 +34,8 @@ public class DailyActivityPanel extends ActivityChartBasePanel {
     
     @Override
     protected RegularTimePeriod getTimePeriod(Date time) {
-        return new Second(time);
-        //return new Minute(time);
+        // the in memory statistics are kept per minute
+        return new Minute(time);
         //return new Hour(time);
     }
     
@@ -4,7 +4,17 @@
  */
 package org.geoserver.monitor;
 
+import static org.geoserver.monitor.MonitorTestData.assertCovered;
+import static org.geoserver.monitor.MonitorTestData.assertCoveredInOrder;
+import static org.geoserver.monitor.MonitorTestData.toDate;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.RequestStatistics.Bucket;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
 
@@ -13,4 +23,88 @@ public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
         dao = new MemoryMonitorDAO();
         setUpData();
     }
+
+    @Test
+    public void testMaxRequests() throws Exception {
+        MonitorConfig config = new MonitorConfig();
+        config.getProperties().put("memory.maxRequests", "5");
+        MemoryMonitorDAO memory = new MemoryMonitorDAO();
+        memory.init(config);
+        new MonitorTestData(memory).setup();
+
+        // only the last saved are kept
+        assertCoveredInOrder(memory.getRequests(), 16, 17, 18, 19, 20);
+        assertNull(memory.getRequest(15));
+        assertEquals("/bam", memory.getRequest(19).getPath());
+        assertCoveredInOrder(memory.getRequests(new Query().page(1l, 2l)), 17, 18);
+
+        // live requests come first
+        RequestData live = memory.init(new RequestData());
+        memory.add(live);
+        assertEquals(6, memory.getRequests().size());
+        assertSame(live, memory.getRequest(live.getId()));
+        memory.save(live);
+        assertCoveredInOrder(memory.getRequests(), 17, 18, 19, 20, 21);
+
+        // the statistics cover all the requests anyways
+        assertEquals(10, memory.getStatistics().summarize(toDate("2010-08-23T00:00:00"),
+                toDate("2010-08-23T23:59:59")).getCount());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        RequestStatistics statistics = ((MemoryMonitorDAO) dao).getStatistics();
+
+        List<Bucket> buckets = statistics.getBuckets(toDate("2010-08-23T15:00:00"),
+                toDate("2010-08-23T15:59:59"));
+        assertEquals(4, buckets.size());
+        assertEquals(toDate("2010-08-23T15:26:00"), buckets.get(0).getTime());
+        assertEquals(1, buckets.get(0).getCount());
+
+        // a month older than the last requests, rolled over
+        assertEquals(0, statistics.summarize(toDate("2010-07-23T00:00:00"),
+                toDate("2010-07-23T23:59:59")).getCount());
+
+        Bucket summary = statistics.summarize(toDate("2010-08-23T15:00:00"),
+                toDate("2010-08-23T16:59:59"));
+        assertEquals(10, summary.getCount());
+        assertEquals(4, summary.getServices().get("foo").getCount());
+        assertEquals(3, summary.getServices().get("bam").getCount());
+        assertEquals(2, summary.getOperations().get("bam.y").getCount());
+        assertEquals(3, summary.getLayers().get("widgets").getCount());
+        assertEquals(5, summary.getLayers().get("things").getCount());
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        RequestStatistics statistics = new RequestStatistics(10);
+        for (int i = 1; i <= 100; i++) {
+            RequestData data = new RequestData();
+            data.setStartTime(toDate("2010-07-23T15:26:44"));
+            data.setTotalTime(i * 10);
+            statistics.add(data);
+        }
+        Bucket summary = statistics.summarize(null, null);
+        assertEquals(100, summary.getCount());
+        assertEquals(1000, summary.getMaxTime());
+        assertEquals(505, summary.getAverageTime(), 0d);
+        assertEquals(500, summary.getPercentileTime(0.5));
+        assertEquals(1000, summary.getPercentileTime(0.95));
+
+        // older than the minutes kept
+        RequestData old = new RequestData();
+        old.setStartTime(toDate("2010-07-23T15:06:44"));
+        statistics.add(old);
+        assertEquals(100, statistics.summarize(null, null).getCount());
+    }
+
+    @Test
+    public void testGetRequestsFilterComposite() throws Exception {
+        assertCovered(dao.getRequests(new Query().filter("path", "/foo", Comparison.EQ).and(
+                "operation", "x", Comparison.NEQ)));
+        assertCovered(dao.getRequests(new Query().filter("path", "/foo", Comparison.EQ).or(
+                "path", "/seven", Comparison.EQ)), 7, 11, 15, 16, 20);
+        assertEquals(5, dao.getCount(new Query().filter("path", "/foo", Comparison.EQ).or(
+                "path", "/seven", Comparison.EQ)));
+    }
 }
@@ -0,0 +1,64 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.web;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.wicket.util.tester.WicketTester;
+import org.geoserver.monitor.MemoryMonitorDAO;
+import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.RequestData;
+import org.jfree.data.time.Minute;
+import org.jfree.data.time.RegularTimePeriod;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DailyActivityPanelTest {
+
+    WicketTester tester;
+
+    @Before
+    public void setUp() {
+        tester = new WicketTester();
+    }
+
+    @After
+    public void tearDown() {
+        tester.destroy();
+    }
+
+    @Test
+    public void testMinuteStatistics() throws Exception {
+        MemoryMonitorDAO dao = new MemoryMonitorDAO();
+        Monitor monitor = new Monitor(dao);
+        DailyActivityPanel panel = new DailyActivityPanel("activity", monitor);
+        Date[] range = panel.getDateRange();
+
+        // requests spread over the last minute of the range, one of them still running
+        Calendar minute = Calendar.getInstance();
+        minute.setTime(range[1]);
+        minute.set(Calendar.SECOND, 0);
+        minute.set(Calendar.MILLISECOND, 0);
+        for (int i = 0; i < 3; i++) {
+            RequestData data = dao.init(new RequestData());
+            data.setStartTime(new Date(minute.getTimeInMillis() + i * 10 * 1000));
+            dao.add(data);
+            dao.save(data);
+        }
+        RequestData running = dao.init(new RequestData());
+        running.setStartTime(minute.getTime());
+        dao.add(running);
+
+        assertNotNull(panel.getMemoryDAO(monitor, range));
+        Map<RegularTimePeriod, Integer> data = panel.gatherData(monitor, range);
+        assertEquals(1, data.size());
+        assertEquals(Integer.valueOf(4), data.get(new Minute(minute.getTime())));
+    }
+}
@@ -5,17 +5,21 @@ package org.geoserver.filter.function;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.filter.function.QueryLayerCache.LayerIndex;
+import org.geoserver.filter.function.QueryLayerCache.RequestCache;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.filter.FunctionImpl;
 import org.geotools.filter.capability.FunctionNameImpl;
-import org.geotools.filter.text.ecql.ECQL;
 import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
 import org.opengis.feature.type.PropertyDescriptor;
@@ -24,11 +28,15 @@ import org.opengis.filter.expression.Expression;
 import org.opengis.filter.expression.Literal;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryComponentFilter;
 
 /**
  * Queries a GeoServer layer and extracts the value(s) of an attribute TODO: add sorting
+ * <p>
+ * Within an OWS request the results are memoized, see {@link QueryLayerCache}
+ * </p>
  * 
  * @author Andrea Aime - GeoSolutions
  */
@@ -40,9 +48,22 @@ public class QueryFunction extends FunctionImpl {
     
     boolean single;
 
+    int prefetchMaxFeatures;
+
     public QueryFunction(Name name, Catalog catalog, List<Expression> args, Literal fallback,
             boolean single, int maxResults) {
+        this(name, catalog, args, fallback, single, maxResults, 0);
+    }
+
+    /**
+     * @param prefetchMaxFeatures the maximum number of features of a layer loaded in memory to
+     *        answer the queries of a request, see {@link QueryLayerCache}. A non positive value
+     *        disables the loading.
+     */
+    public QueryFunction(Name name, Catalog catalog, List<Expression> args, Literal fallback,
+            boolean single, int maxResults, int prefetchMaxFeatures) {
         this.catalog = catalog;
+        this.prefetchMaxFeatures = prefetchMaxFeatures;
         this.maxResults = maxResults;
         this.single = single;
 
@@ -60,28 +81,55 @@ public class QueryFunction extends FunctionImpl {
 
     @Override
     public Object evaluate(Object object) {
+        // extract the arguments
+        String layerName = getParameters().get(0).evaluate(object, String.class);
+        if (layerName == null) {
+            throw new IllegalArgumentException(
+                    "The first argument should be a vector layer name");
+        }
+        String attribute = getParameters().get(1).evaluate(object, String.class);
+        if (attribute == null) {
+            throw new IllegalArgumentException("The second argument of the query "
+                    + "function should be the attribute name");
+        }
+        String cql = getParameters().get(2).evaluate(object, String.class);
+        if (cql == null) {
+            throw new IllegalArgumentException("The third argument of the query "
+                    + "function should be a valid (E)CQL filter");
+        }
+
+        // same query already run in this request?
+        RequestCache cache = QueryLayerCache.getRequestCache();
+        List<Object> key = null;
+        if (cache != null) {
+            key = Arrays.<Object> asList(getName(), layerName, attribute, cql);
+            Object result = cache.get(key);
+            if (result != null) {
+                return result == QueryLayerCache.NULL ? null : result;
+            }
+        }
+
+        Object result = query(layerName, attribute, cql, cache);
+        if (cache != null) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    Object query(String layerName, String attribute, String cql, RequestCache cache) {
         FeatureIterator fi = null;
         try {
             // extract layer
-            String layerName = getParameters().get(0).evaluate(object, String.class);
-            if (layerName == null) {
-                throw new IllegalArgumentException(
-                        "The first argument should be a vector layer name");
-            }
             FeatureTypeInfo ft = catalog.getFeatureTypeByName(layerName);
             if (ft == null) {
                 throw new IllegalArgumentException("Could not find vector layer " + layerName
                         + " in the GeoServer catalog");
             }
 
-            // extract and check the attribute
-            String attribute = getParameters().get(1).evaluate(object, String.class);
-            if (attribute == null) {
-                throw new IllegalArgumentException("The second argument of the query "
-                        + "function should be the attribute name");
-            }
+            // check the attribute
             CoordinateReferenceSystem crs = null;
-            PropertyDescriptor ad = ft.getFeatureType().getDescriptor(attribute);
+            FeatureType schema = ft.getFeatureType();
+            PropertyDescriptor ad = schema.getDescriptor(attribute);
             if (ad == null) {
                 throw new IllegalArgumentException("Attribute " + attribute
                         + " could not be found in layer " + layerName);
@@ -92,29 +140,37 @@ public class QueryFunction extends FunctionImpl {
                 }
             }
 
-            // extract and check the filter
-            String cql = getParameters().get(2).evaluate(object, String.class);
-            if (cql == null) {
-                throw new IllegalArgumentException("The third argument of the query "
-                        + "function should be a valid (E)CQL filter");
-            }
+            // check the filter
             Filter filter;
             try {
-                filter = (Filter) ECQL.toFilter(cql);
+                filter = QueryLayerCache.parse(cql);
             } catch (Exception e) {
                 throw new IllegalArgumentException("The third argument of the query "
                         + "function should be a valid (E)CQL filter", e);
             }
 
-            // perform the query
-            Query query = new Query(null, filter, new String[] { attribute });
-            // .. just enough to judge if we went beyond the limit
-            query.setMaxFeatures(maxResults + 1);
-            FeatureSource fs = ft.getFeatureSource(null, null);
-            fi = fs.getFeatures(query).features();
+            // perform the query, against the layer loaded in memory if there is one
+            List<Feature> features = null;
+            if (!single && cache != null && prefetchMaxFeatures > 0) {
+                Envelope bounds = LayerIndex.getBounds(filter, schema);
+                if (bounds != null) {
+                    LayerIndex index = cache.getIndex(layerName, ft, prefetchMaxFeatures);
+                    if (index != null) {
+                        features = index.query(filter, bounds, maxResults + 1);
+                    }
+                }
+            }
+            if (features == null) {
+                Query query = new Query(null, filter, new String[] { attribute });
+                // .. just enough to judge if we went beyond the limit
+                query.setMaxFeatures(maxResults + 1);
+                FeatureSource fs = ft.getFeatureSource(null, null);
+                fi = fs.getFeatures(query).features();
+            }
+            Iterator<Feature> it = features != null ? features.iterator() : null;
             List<Object> results = new ArrayList<Object>(maxResults);
-            while (fi.hasNext()) {
-                Feature f = fi.next();
+            while (it != null ? it.hasNext() : fi.hasNext()) {
+                Feature f = it != null ? it.next() : fi.next();
                 Object value = f.getProperty(attribute).getValue();
                 if(value instanceof Geometry && crs != null) {
                     // if the crs is not associated with the geometry do so, this
@@ -39,6 +39,8 @@ public class QueryFunctionFactoryInitializer implements GeoServerLifecycleHandle
                 .getProperty("QUERY_LAYER_MAX_FEATURES"));
         Long maxCoordinates = parseLong(GeoServerExtensions
                 .getProperty("GEOMETRY_COLLECT_MAX_COORDINATES"));
+        Integer prefetchMaxFeatures = parseInteger(GeoServerExtensions
+                .getProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES"));
 
         Set<FunctionFactory> factories = CommonFactoryFinder.getFunctionFactories(null);
         for (FunctionFactory ff : factories) {
@@ -50,6 +52,9 @@ public class QueryFunctionFactoryInitializer implements GeoServerLifecycleHandle
                 if (maxCoordinates != null) {
                     factory.setMaxCoordinates(maxCoordinates);
                 }
+                if (prefetchMaxFeatures != null) {
+                    factory.setPrefetchMaxFeatures(prefetchMaxFeatures);
+                }
                 factory.setCatalog(geoServer.getCatalog());
             }
         }
@@ -0,0 +1,246 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filter.function;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.filter.FilterAttributeExtractor;
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.util.SoftValueHashMap;
+import org.opengis.feature.Feature;
+import org.opengis.feature.GeometryAttribute;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.feature.type.PropertyDescriptor;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Caches used by the {@link QueryFunction}: the parsed CQL filters, shared by all the requests,
+ * and the results of the queries, kept for the duration of an OWS request.
+ * <p>
+ * A query function used in a style or in a filter is evaluated once per feature, most of the
+ * time with the same arguments, so the results are memoized by function name and evaluated
+ * arguments. When the arguments vary, as in spatial filters built from the feature being
+ * evaluated, a queryCollection layer queried many times gets loaded once in a spatial index the
+ * following queries are run against.
+ * </p>
+ * <p>
+ * The request caches are bound to the request thread when the service is dispatched and dropped
+ * when the request is finished, evaluations outside of an OWS request are not cached. Threads
+ * working on behalf of the request get the cache by the {@link QueryLayerCacheThreadLocalTransfer}.
+ * </p>
+ */
+public class QueryLayerCache extends AbstractDispatcherCallback {
+
+    /**
+     * Number of queries with varying arguments against the same layer after which the layer is
+     * loaded in memory
+     */
+    static final int PREFETCH_THRESHOLD = 10;
+
+    /**
+     * Stands for a null result in the memoized results
+     */
+    static final Object NULL = new Object();
+
+    static final Map<String, Filter> FILTERS = new SoftValueHashMap<String, Filter>(100);
+
+    /**
+     * Not inheritable on purpose, pooled threads would keep the cache of the request that created
+     * them
+     */
+    static final ThreadLocal<RequestCache> CACHE = new ThreadLocal<RequestCache>();
+
+    /**
+     * Parses a (E)CQL filter, or returns the filter parsed earlier
+     */
+    static Filter parse(String cql) throws CQLException {
+        synchronized (FILTERS) {
+            Filter filter = FILTERS.get(cql);
+            if (filter != null) {
+                return filter;
+            }
+        }
+        Filter filter = ECQL.toFilter(cql);
+        synchronized (FILTERS) {
+            FILTERS.put(cql, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * The cache of the current request, or null if not running in an OWS request
+     */
+    static RequestCache getRequestCache() {
+        return CACHE.get();
+    }
+
+    @Override
+    public Service serviceDispatched(Request request, Service service) throws ServiceException {
+        CACHE.set(new RequestCache());
+        return service;
+    }
+
+    @Override
+    public void finished(Request request) {
+        CACHE.remove();
+    }
+
+    /**
+     * The results of the query functions and the layers loaded in memory for a request
+     */
+    static class RequestCache {
+
+        final Map<List<Object>, Object> results = new ConcurrentHashMap<List<Object>, Object>();
+
+        /**
+         * Number of queries run against each layer
+         */
+        final Map<String, Integer> queries = new HashMap<String, Integer>();
+
+        /**
+         * The layers loaded in memory, null values marking the layers that are too big
+         */
+        final Map<String, LayerIndex> indexes = new HashMap<String, LayerIndex>();
+
+        /**
+         * Returns the memoized result, {@link QueryLayerCache#NULL} for a null result, or null if
+         * the query was not run yet
+         */
+        Object get(List<Object> key) {
+            return results.get(key);
+        }
+
+        void put(List<Object> key, Object result) {
+            results.put(key, result == null ? NULL : result);
+        }
+
+        /**
+         * Returns the layer loaded in memory, loading it if queried often enough, or null if the
+         * queries should go to the store
+         *
+         * @param maxFeatures the maximum number of features to load
+         */
+        synchronized LayerIndex getIndex(String layerName, FeatureTypeInfo ft, int maxFeatures)
+                throws IOException {
+            if (indexes.containsKey(layerName)) {
+                return indexes.get(layerName);
+            }
+            Integer count = queries.get(layerName);
+            count = count == null ? 1 : count + 1;
+            queries.put(layerName, count);
+            if (count < PREFETCH_THRESHOLD) {
+                return null;
+            }
+
+            LayerIndex index = null;
+            Query query = new Query(null, Filter.INCLUDE);
+            query.setMaxFeatures(maxFeatures + 1);
+            FeatureSource fs = ft.getFeatureSource(null, null);
+            FeatureIterator fi = fs.getFeatures(query).features();
+            try {
+                List<Feature> features = new ArrayList<Feature>();
+                while (fi.hasNext() && features.size() <= maxFeatures) {
+                    features.add(fi.next());
+                }
+                if (features.size() <= maxFeatures) {
+                    index = new LayerIndex(features);
+                }
+            } finally {
+                fi.close();
+            }
+            indexes.put(layerName, index);
+            return index;
+        }
+    }
+
+    /**
+     * The features of a layer, indexed by the envelope of their default geometry
+     */
+    static class LayerIndex {
+
+        final List<Feature> features;
+
+        final STRtree tree = new STRtree();
+
+        LayerIndex(List<Feature> features) {
+            this.features = features;
+            for (int i = 0; i < features.size(); i++) {
+                GeometryAttribute geometry = features.get(i).getDefaultGeometryProperty();
+                if (geometry != null && geometry.getValue() instanceof Geometry) {
+                    tree.insert(((Geometry) geometry.getValue()).getEnvelopeInternal(), i);
+                }
+            }
+            tree.build();
+        }
+
+        /**
+         * Returns the features matching the filter, in the order the store returned them
+         *
+         * @param bounds the bounds of the filter, see {@link #getBounds(Filter, FeatureType)}
+         */
+        @SuppressWarnings("unchecked")
+        List<Feature> query(Filter filter, Envelope bounds, int maxFeatures) {
+            List<Integer> hits = tree.query(bounds);
+            Collections.sort(hits);
+            List<Feature> result = new ArrayList<Feature>();
+            for (Integer hit : hits) {
+                Feature feature = features.get(hit);
+                if (filter.evaluate(feature)) {
+                    result.add(feature);
+                    if (result.size() >= maxFeatures) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Returns the bounds the features matching the filter have to be in, or null if the
+         * filter does not constrain the default geometry of the features
+         */
+        static Envelope getBounds(Filter filter, FeatureType schema) {
+            // other geometries are not indexed
+            FilterAttributeExtractor extractor = new FilterAttributeExtractor();
+            filter.accept(extractor, null);
+            GeometryDescriptor defaultGeometry = schema.getGeometryDescriptor();
+            for (String name : extractor.getAttributeNameSet()) {
+                PropertyDescriptor pd = schema.getDescriptor(name);
+                if (pd instanceof GeometryDescriptor && pd != defaultGeometry) {
+                    return null;
+                }
+            }
+
+            Envelope bounds = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR,
+                    null);
+            if (bounds == null || bounds.isNull() || Double.isInfinite(bounds.getWidth())
+                    || Double.isInfinite(bounds.getHeight())) {
+                return null;
+            }
+            return bounds;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filter.function;
+
+import java.util.Map;
+
+import org.geoserver.filter.function.QueryLayerCache.RequestCache;
+import org.geoserver.threadlocals.ThreadLocalTransfer;
+
+/**
+ * Transfers the {@link QueryLayerCache} of the current request to another thread
+ */
+public class QueryLayerCacheThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = QueryLayerCache.class.getName() + "#threadLocal";
+
+    @Override
+    public void collect(Map<String, Object> storage) {
+        storage.put(KEY, QueryLayerCache.CACHE.get());
+    }
+
+    @Override
+    public void apply(Map<String, Object> storage) {
+        RequestCache cache = (RequestCache) storage.get(KEY);
+        if (cache != null) {
+            QueryLayerCache.CACHE.set(cache);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        QueryLayerCache.CACHE.remove();
+    }
+
+}
@@ -42,6 +42,8 @@ public class QueryLayerFunctionFactory implements FunctionFactory {
 
     int maxFeatures = 1000;
 
+    int prefetchMaxFeatures = 10000;
+
     long maxCoordinates = 1024 * 1024 / 28; // this results 1MB of Coordinate object max
 
     public QueryLayerFunctionFactory() {
@@ -70,6 +72,16 @@ public class QueryLayerFunctionFactory implements FunctionFactory {
         this.maxFeatures = maxFeatures;
     }
 
+    /**
+     * Sets the max number of features of a layer loaded in memory by the collection queries of a
+     * request, a non positive value disables the loading
+     * 
+     * @param prefetchMaxFeatures
+     */
+    public void setPrefetchMaxFeatures(int prefetchMaxFeatures) {
+        this.prefetchMaxFeatures = prefetchMaxFeatures;
+    }
+
     /**
      * Sets the maximum number of coordinates to be collected, a non positive value implies no limit
      * 
@@ -101,7 +113,8 @@ public class QueryLayerFunctionFactory implements FunctionFactory {
         if (QUERY_SINGLE.equals(name)) {
             return new QueryFunction(QUERY_SINGLE, catalog, args, fallback, true, 1);
         } else if (QUERY_COLLECTION.equals(name)) {
-            return new QueryFunction(QUERY_COLLECTION, catalog, args, fallback, false, maxFeatures);
+            return new QueryFunction(QUERY_COLLECTION, catalog, args, fallback, false, maxFeatures,
+                    prefetchMaxFeatures);
         } else if(COLLECT_GEOMETRIES.equals(name)) {
             return new CollectGeometriesFunction(COLLECT_GEOMETRIES, args, fallback, maxCoordinates);
         } else {
@@ -6,10 +6,16 @@ package org.geoserver.filter.function;
 
 import static org.junit.Assert.*;
 
+import java.math.BigDecimal;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.geoserver.data.test.MockData;
+import org.geoserver.ows.Request;
 import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geotools.factory.CommonFactoryFinder;
 import org.junit.Test;
 import org.opengis.filter.FilterFactory2;
@@ -68,4 +74,106 @@ public class QueryLayerFunctionTest extends GeoServerSystemTestSupport {
             System.clearProperty("QUERY_LAYER_MAX_FEATURES");
         }
     }
+
+    @Test
+    public void testMemoizedInRequest() {
+        Function function = ff.function("queryCollection", //
+                ff.literal(getLayerId(MockData.BUILDINGS)), //
+                ff.literal("ADDRESS"), //
+                ff.literal("INCLUDE"));
+
+        // not cached out of a request
+        assertNotSame(function.evaluate(null), function.evaluate(null));
+
+        QueryLayerCache cache = (QueryLayerCache) applicationContext.getBean("queryLayerCache");
+        Request request = new Request();
+        try {
+            cache.serviceDispatched(request, null);
+            Object result = function.evaluate(null);
+            assertEquals(2, ((Collection) result).size());
+            assertSame(result, function.evaluate(null));
+
+            cache.finished(request);
+            assertNotSame(result, function.evaluate(null));
+        } finally {
+            cache.finished(request);
+        }
+    }
+
+    @Test
+    public void testPooledThreads() throws Exception {
+        final Function function = ff.function("queryCollection", //
+                ff.literal(getLayerId(MockData.BUILDINGS)), //
+                ff.literal("ADDRESS"), //
+                ff.literal("INCLUDE"));
+        Callable<Object> evaluate = new Callable<Object>() {
+            public Object call() throws Exception {
+                return function.evaluate(null);
+            }
+        };
+
+        QueryLayerCache cache = (QueryLayerCache) applicationContext.getBean("queryLayerCache");
+        Request request = new Request();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            cache.serviceDispatched(request, null);
+            Object result = function.evaluate(null);
+
+            // a thread created during the request does not pick the cache by itself
+            assertNotSame(result, executor.submit(evaluate).get());
+
+            // but shares it once transferred
+            final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+            final Callable<Object> inner = evaluate;
+            Object transferred = executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    transfer.apply();
+                    try {
+                        return inner.call();
+                    } finally {
+                        transfer.cleanup();
+                    }
+                }
+            }).get();
+            assertSame(result, transferred);
+
+            // and does not keep it around for the next request
+            cache.finished(request);
+            cache.serviceDispatched(new Request(), null);
+            assertNotSame(result, executor.submit(evaluate).get());
+        } finally {
+            executor.shutdown();
+            cache.finished(request);
+        }
+    }
+
+    @Test
+    public void testPrefetch() {
+        String layer = getLayerId(MockData.ROAD_SEGMENTS);
+        int queries = QueryLayerCache.PREFETCH_THRESHOLD * 2;
+        Object[] expected = new Object[queries];
+        for (int i = 0; i < queries; i++) {
+            expected[i] = roadsQuery(layer, i).evaluate(null);
+        }
+
+        QueryLayerCache cache = (QueryLayerCache) applicationContext.getBean("queryLayerCache");
+        Request request = new Request();
+        try {
+            cache.serviceDispatched(request, null);
+            for (int i = 0; i < queries; i++) {
+                assertEquals(expected[i], roadsQuery(layer, i).evaluate(null));
+            }
+            assertNotNull(QueryLayerCache.getRequestCache().indexes.get(layer));
+        } finally {
+            cache.finished(request);
+        }
+    }
+
+    Function roadsQuery(String layer, int i) {
+        String maxX = new BigDecimal(i * 5 - 45).movePointLeft(4).toPlainString();
+        return ff.function("queryCollection", //
+                ff.literal(layer), //
+                ff.literal("FID"), //
+                ff.literal("BBOX(the_geom, -1, -1, " + maxX + ", 1)"));
+    }
 }
@@ -5,22 +5,24 @@
 package org.geoserver.wps.executor;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ExtensionPriority;
 import org.geoserver.threadlocals.ThreadLocalsTransfer;
 import org.geoserver.wps.WPSException;
 import org.geoserver.wps.executor.ExecutionStatus.ProcessState;
+import org.geoserver.wps.executor.PriorityProcessExecutor.Priority;
 import org.geoserver.wps.process.GeoServerProcessors;
 import org.geoserver.wps.resource.WPSResourceManager;
 import org.geotools.process.Process;
@@ -30,21 +32,49 @@ import org.geotools.util.logging.Logging;
 import org.opengis.feature.type.Name;
 import org.opengis.util.InternationalString;
 import org.opengis.util.ProgressListener;
-import org.springframework.context.ApplicationEvent;
-import org.springframework.context.ApplicationListener;
-import org.springframework.context.event.ContextClosedEvent;
-import org.springframework.context.event.ContextRefreshedEvent;
-
-public class DefaultProcessManager implements ProcessManager, ExtensionPriority, ApplicationListener<ApplicationEvent> {
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Runs the processes in two thread pools, one for the synchronous and one for the asynchronous
+ * executions.
+ * <p>
+ * Each pool serves its queue by priority, and round robin among the users having executions
+ * queued. Synchronous executions have high priority, asynchronous ones normal priority, unless the
+ * estimated size of their inputs is larger than {@link #setLargeInputSize(long)}, in which case they
+ * get low priority and leave way to the lighter ones.
+ * </p>
+ * <p>
+ * The submissions are also checked against the input size limits, refusing executions whose
+ * inputs are larger than {@link #setMaxInputSize(long)}, or that would bring the overall size of
+ * the inputs queued or running for the same user past {@link #setMaxUserInputSize(long)}.
+ * </p>
+ */
+public class DefaultProcessManager implements ProcessManager, ExtensionPriority, DisposableBean {
 
     ConcurrentHashMap<String, ExecutionStatusEx> executions = new ConcurrentHashMap<String, DefaultProcessManager.ExecutionStatusEx>();
 
-    ThreadPoolExecutor synchService;
+    PriorityProcessExecutor synchService;
 
-    ThreadPoolExecutor asynchService;
+    PriorityProcessExecutor asynchService;
     
     WPSResourceManager resourceManager;
 
+    ExecutionJournal journal;
+
+    /** The size of the inputs queued or running, per user, guarded by itself */
+    Map<String, Long> userInputSizes = new HashMap<String, Long>();
+
+    long maxInputSize = 0;
+
+    long maxUserInputSize = 0;
+
+    long largeInputSize = 64 * 1024 * 1024;
+
+    long unknownInputSize = 1024 * 1024;
+
     public DefaultProcessManager(WPSResourceManager resourceManager) {
         this.resourceManager = resourceManager;
     }
@@ -52,10 +82,8 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
     public void setMaxAsynchronousProcesses(int maxAsynchronousProcesses) {
         if(asynchService == null) {
             // create a fixed size pool. If we allow a delta between core and max 
-            // the pool will create new threads only if the queue is full, but the linked queue never is
-            asynchService = new ThreadPoolExecutor(maxAsynchronousProcesses, maxAsynchronousProcesses, 
-                                      0L, TimeUnit.MILLISECONDS,
-                                      new LinkedBlockingQueue<Runnable>());
+            // the pool will create new threads only if the queue is full, but the queue never is
+            asynchService = new PriorityProcessExecutor(maxAsynchronousProcesses);
         } else {
             asynchService.setCorePoolSize(maxAsynchronousProcesses);
             asynchService.setMaximumPoolSize(maxAsynchronousProcesses);
@@ -65,24 +93,62 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
     public void setMaxSynchronousProcesses(int maxSynchronousProcesses) {
         if(synchService == null) {
             // create a fixed size pool. If we allow a delta between core and max 
-            // the pool will create new threads only if the queue is full, but the linked queue never is
-            synchService = new ThreadPoolExecutor(maxSynchronousProcesses, maxSynchronousProcesses, 
-                                      0L, TimeUnit.MILLISECONDS,
-                                      new LinkedBlockingQueue<Runnable>());
+            // the pool will create new threads only if the queue is full, but the queue never is
+            synchService = new PriorityProcessExecutor(maxSynchronousProcesses);
         } else {
             synchService.setCorePoolSize(maxSynchronousProcesses);
             synchService.setMaximumPoolSize(maxSynchronousProcesses);
         }
     }
+
+    /**
+     * Sets the maximum estimated size of the inputs of a single execution, in bytes. Zero or less
+     * means no limit.
+     */
+    public void setMaxInputSize(long maxInputSize) {
+        this.maxInputSize = maxInputSize;
+    }
+
+    /**
+     * Sets the maximum estimated size of the inputs of all the executions queued or running on
+     * behalf of the same user, in bytes. Zero or less means no limit.
+     */
+    public void setMaxUserInputSize(long maxUserInputSize) {
+        this.maxUserInputSize = maxUserInputSize;
+    }
+
+    /**
+     * Sets the estimated input size, in bytes, past which asynchronous executions are run with low
+     * priority. Zero or less disables the low priority.
+     */
+    public void setLargeInputSize(long largeInputSize) {
+        this.largeInputSize = largeInputSize;
+    }
+
+    /**
+     * Sets the size, in bytes, assumed for the inputs whose size cannot be estimated, such as
+     * references to remote resources
+     */
+    public void setUnknownInputSize(long unknownInputSize) {
+        this.unknownInputSize = unknownInputSize;
+    }
+
+    /**
+     * Sets the journal recording the asynchronous executions state, if any
+     */
+    public void setJournal(ExecutionJournal journal) {
+        this.journal = journal;
+    }
     
+    /**
+     * Shuts down the pools when the context is destroyed, that is, after the context closed event
+     * has been delivered to the listeners, allowing the {@link WPSExecutionManager} to tell apart
+     * the executions interrupted by the shutdown
+     */
     @Override
-    public void onApplicationEvent(ApplicationEvent event) {
-        if (event instanceof ContextRefreshedEvent) {
-            if (event instanceof ContextClosedEvent) {
-                synchService.shutdownNow();
-                asynchService.shutdownNow();
-            }
-        }
+    public void destroy() throws Exception {
+        synchService.shutdownNow();
+        asynchService.shutdownNow();
     }
 
     /**
@@ -119,17 +185,86 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
         ExecutionStatusEx status = new ExecutionStatusEx(processName, executionId);
         ProcessListener listener = new ProcessListener(status);
         status.listener = listener;
-        ProcessCallable callable = new ProcessCallable(inputs, status);
+        status.user = getUser();
+        if (inputs instanceof LazyInputMap) {
+            status.inputSize = ((LazyInputMap) inputs).estimateSize(unknownInputSize);
+        }
+        admit(status);
+
+        ProcessCallable callable = new ProcessCallable(inputs, status, background);
         Future<Map<String, Object>> future;
         if(background) {
-            future = asynchService.submit(callable);
+            Priority priority = largeInputSize > 0 && status.inputSize > largeInputSize ? Priority.LOW
+                    : Priority.NORMAL;
+            future = asynchService.submit(callable, priority, status.user);
         } else {
-            future = synchService.submit(callable);
+            future = synchService.submit(callable, Priority.HIGH, status.user);
         }
         status.future = future;
         executions.put(executionId, status);
     }
 
+    /**
+     * Checks the execution against the input size limits, and if it can be run, accounts its
+     * inputs to the user
+     */
+    void admit(ExecutionStatusEx status) {
+        if (maxInputSize > 0 && status.inputSize > maxInputSize) {
+            throw new WPSException("The estimated size of the process inputs, "
+                    + status.inputSize + " bytes, exceeds the maximum allowed of " + maxInputSize
+                    + " bytes", "FileSizeExceeded", null);
+        }
+        synchronized (userInputSizes) {
+            Long current = userInputSizes.get(status.user);
+            long size = (current != null ? current : 0) + status.inputSize;
+            // the user can always run one execution, oversized ones are handled by maxInputSize
+            if (maxUserInputSize > 0 && current != null && size > maxUserInputSize) {
+                throw new WPSException("Too many process executions queued or running, please "
+                        + "retry once some of them have completed", "ServerBusy", null);
+            }
+            userInputSizes.put(status.user, size);
+        }
+    }
+
+    /**
+     * Removes the execution inputs from the ones accounted to the user, only the first call has
+     * effect
+     */
+    void release(ExecutionStatusEx status) {
+        synchronized (userInputSizes) {
+            if (status.released) {
+                return;
+            }
+            status.released = true;
+            Long current = userInputSizes.get(status.user);
+            if (current != null) {
+                long size = current - status.inputSize;
+                if (size > 0) {
+                    userInputSizes.put(status.user, size);
+                } else {
+                    userInputSizes.remove(status.user);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the key identifying the user the executions are queued for, the user name if
+     * authenticated, the client address otherwise
+     */
+    String getUser() {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && !(auth instanceof AnonymousAuthenticationToken)
+                && auth.getName() != null) {
+            return auth.getName();
+        }
+        Request request = Dispatcher.REQUEST.get();
+        if (request != null && request.getHttpRequest() != null) {
+            return request.getHttpRequest().getRemoteAddr();
+        }
+        return "anonymous";
+    }
+
     @Override
     public ExecutionStatus getStatus(String executionId) {
         ExecutionStatusEx status = executions.get(executionId);
@@ -174,6 +309,8 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
             status.setPhase(ProcessState.CANCELLED);
             status.future.cancel(true);
             status.listener.setCanceled(true);
+            // if it was still queued the callable won't run
+            release(status);
         }
     }
 
@@ -196,12 +333,16 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
         Map<String, Object> inputs;
 
         ExecutionStatusEx status;
+
+        boolean background;
         
         ThreadLocalsTransfer threadLocalTransfer;
 
-        public ProcessCallable(Map<String, Object> inputs, ExecutionStatusEx status) {
+        public ProcessCallable(Map<String, Object> inputs, ExecutionStatusEx status,
+                boolean background) {
             this.inputs = inputs;
             this.status = status;
+            this.background = background;
             this.threadLocalTransfer = new ThreadLocalsTransfer();
         }
 
@@ -213,6 +354,9 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
                 
                 resourceManager.setCurrentExecutionId(status.getExecutionId());
                 status.setPhase(ProcessState.RUNNING);
+                if (background && journal != null) {
+                    journal.running(status.getExecutionId());
+                }
                 ProcessListener listener = status.listener;
                 Name processName = status.getProcessName();
                 ProcessFactory pf = GeoServerProcessors.createProcessFactory(processName);
@@ -239,6 +383,7 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
             } finally {
                 // clean up the thread locals
                 threadLocalTransfer.cleanup();
+                release(status);
             }
         }
 
@@ -255,6 +400,13 @@ public class DefaultProcessManager implements ProcessManager, ExtensionPriority,
 
         ProcessListener listener;
 
+        String user;
+
+        long inputSize;
+
+        /** Whether the inputs size has been released from the user ones, guarded by the user map */
+        boolean released;
+
         public ExecutionStatusEx(Name processName, String executionId) {
             super(processName, executionId, ProcessState.QUEUED, 0);
         }
@@ -0,0 +1,265 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.opengis.wps10.ExecuteType;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.config.GeoServerDataDirectory;
+import org.geoserver.wps.executor.ExecutionStatus.ProcessState;
+import org.geoserver.wps.xml.WPSConfiguration;
+import org.geotools.util.logging.Logging;
+import org.geotools.wps.WPS;
+import org.geotools.xml.Encoder;
+import org.geotools.xml.Parser;
+
+/**
+ * Keeps on disk the asynchronous executions that are queued or running, so that they can be
+ * resubmitted after a restart. Each execution is stored in the journal directory as two files,
+ * the Execute request and a property file with its state.
+ * <p>
+ * The journal is stored in the <code>wps-journal</code> directory of the data directory, and not
+ * in the WPS temporary storage, as the latter is published on the web and periodically cleaned.
+ * </p>
+ */
+public class ExecutionJournal {
+
+    static final Logger LOGGER = Logging.getLogger(ExecutionJournal.class);
+
+    static final String STATE = "state";
+
+    static final String PROCESS = "process";
+
+    static final String SUBMITTED = "submitted";
+
+    static final String BASE_URL = "baseUrl";
+
+    GeoServerDataDirectory dataDirectory;
+
+    File directory;
+
+    public ExecutionJournal(GeoServerDataDirectory dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    /**
+     * Records a queued execution along with its request. Requests that cannot be encoded are
+     * logged and not recorded, they won't survive a restart.
+     */
+    public synchronized void queued(String executionId, ExecuteRequest request) {
+        File requestFile = getRequestFile(executionId);
+        File tmp = new File(requestFile.getParentFile(), "tmp" + requestFile.getName());
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(tmp));
+            Encoder encoder = new Encoder(new WPSConfiguration());
+            encoder.encode(request.getRequest(), WPS.Execute, os);
+            os.close();
+            rename(tmp, requestFile);
+
+            Properties props = new Properties();
+            props.setProperty(PROCESS, request.getProcessName().getURI());
+            props.setProperty(SUBMITTED, String.valueOf(System.currentTimeMillis()));
+            // not part of the xml request, but needed to build the links in the responses
+            if (request.getRequest().getBaseUrl() != null) {
+                props.setProperty(BASE_URL, request.getRequest().getBaseUrl());
+            }
+            writeState(executionId, props, ProcessState.QUEUED);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to journal execution " + executionId
+                    + ", it won't be recovered after a restart", e);
+            IOUtils.closeQuietly(os);
+            tmp.delete();
+            remove(executionId);
+        }
+    }
+
+    /**
+     * Marks a journaled execution as running, does nothing if the execution is not in the journal
+     */
+    public synchronized void running(String executionId) {
+        try {
+            Properties props = readState(executionId);
+            if (props != null) {
+                writeState(executionId, props, ProcessState.RUNNING);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update the journal of execution " + executionId,
+                    e);
+        }
+    }
+
+    /**
+     * Removes the execution from the journal
+     */
+    public synchronized void remove(String executionId) {
+        getStateFile(executionId).delete();
+        getRequestFile(executionId).delete();
+    }
+
+    /**
+     * Returns the executions found in the journal, oldest first. Entries that cannot be read are
+     * logged and removed.
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>();
+        File[] files = getDirectory().listFiles();
+        if (files == null) {
+            return entries;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".properties")) {
+                continue;
+            }
+            String executionId = name.substring(0, name.length() - ".properties".length());
+            try {
+                Properties props = readState(executionId);
+                Entry entry = new Entry();
+                entry.executionId = executionId;
+                entry.state = ProcessState.valueOf(props.getProperty(STATE));
+                entry.submitted = Long.parseLong(props.getProperty(SUBMITTED));
+                entry.request = readRequest(executionId);
+                entry.request.setBaseUrl(props.getProperty(BASE_URL));
+                entries.add(entry);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Removing unreadable journal entry for execution "
+                        + executionId, e);
+                remove(executionId);
+            }
+        }
+
+        Collections.sort(entries);
+        return entries;
+    }
+
+    ExecuteType readRequest(String executionId) throws Exception {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(getRequestFile(executionId)));
+            Parser parser = new Parser(new WPSConfiguration());
+            Object parsed = parser.parse(is);
+            if (!(parsed instanceof ExecuteType)) {
+                throw new IOException("The journaled request is not an Execute one");
+            }
+            return (ExecuteType) parsed;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    Properties readState(String executionId) throws IOException {
+        File file = getStateFile(executionId);
+        if (!file.exists()) {
+            return null;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            Properties props = new Properties();
+            props.load(is);
+            return props;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    void writeState(String executionId, Properties props, ProcessState state) throws IOException {
+        props.setProperty(STATE, state.name());
+        File file = getStateFile(executionId);
+        File tmp = new File(file.getParentFile(), "tmp" + file.getName());
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(tmp);
+            props.store(os, null);
+            os.close();
+            rename(tmp, file);
+        } finally {
+            IOUtils.closeQuietly(os);
+            tmp.delete();
+        }
+    }
+
+    void rename(File source, File target) throws IOException {
+        // on windows rename won't overwrite
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Could not delete " + target);
+        }
+        if (!source.renameTo(target)) {
+            throw new IOException("Could not rename " + source + " to " + target);
+        }
+    }
+
+    File getRequestFile(String executionId) {
+        return new File(getDirectory(), executionId + ".xml");
+    }
+
+    File getStateFile(String executionId) {
+        return new File(getDirectory(), executionId + ".properties");
+    }
+
+    synchronized File getDirectory() {
+        if (directory == null) {
+            try {
+                directory = dataDirectory.findOrCreateDir("wps-journal");
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create the WPS journal directory", e);
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * An execution found in the journal
+     */
+    public static class Entry implements Comparable<Entry> {
+        String executionId;
+
+        ProcessState state;
+
+        long submitted;
+
+        ExecuteType request;
+
+        public String getExecutionId() {
+            return executionId;
+        }
+
+        /**
+         * The state of the execution when the journal was last updated
+         */
+        public ProcessState getState() {
+            return state;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public ExecuteType getRequest() {
+            return request;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return submitted < other.submitted ? -1 : (submitted == other.submitted ? 0 : 1);
+        }
+    }
+}
@@ -37,4 +37,13 @@ interface InputProvider {
      * @return
      */
     boolean longParse();
+
+    /**
+     * Returns an estimate of the size of the input in bytes, before parsing it
+     * 
+     * @param unknownSize The size to be assumed for inputs whose size cannot be known in advance,
+     *        such as references
+     * @return
+     */
+    long estimateSize(long unknownSize);
 }
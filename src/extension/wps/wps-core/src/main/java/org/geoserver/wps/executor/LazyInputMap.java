@@ -73,6 +73,20 @@ class LazyInputMap extends AbstractMap<String, Object> {
         return false;
     }
 
+    /**
+     * Returns an estimate of the overall size of the inputs, in bytes
+     * 
+     * @param unknownSize The size to be assumed for each input whose size cannot be estimated
+     * @return
+     */
+    public long estimateSize(long unknownSize) {
+        long size = 0;
+        for (InputProvider provider : providers.values()) {
+            size += provider.estimateSize(unknownSize);
+        }
+        return size;
+    }
+
     public class DeferredEntry implements Entry<String, Object> {
 
         private String key;
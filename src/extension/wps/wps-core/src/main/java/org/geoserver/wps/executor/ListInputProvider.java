@@ -64,4 +64,17 @@ class ListInputProvider implements InputProvider {
         return false;
     }
 
+    @Override
+    public long estimateSize(long unknownSize) {
+        if (providers == null) {
+            // already parsed
+            return 0;
+        }
+        long size = 0;
+        for (InputProvider provider : providers) {
+            size += provider.estimateSize(unknownSize);
+        }
+        return size;
+    }
+
 }
@@ -0,0 +1,145 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed size thread pool running the queued executions in priority order. Executions having the
+ * same priority are taken round robin among the users that have something queued, so that a user
+ * submitting a burst of executions does not starve the others.
+ * <p>
+ * The round robin is implemented by giving each execution a rank, one more than the rank of the
+ * previous execution queued by the same user, or one more than the rank of the last execution
+ * started if the user had nothing queued.
+ * </p>
+ */
+class PriorityProcessExecutor extends ThreadPoolExecutor {
+
+    /**
+     * The execution priorities, in the order they are served
+     */
+    enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    /**
+     * Past this size the map of the user ranks gets cleaned of the users that have nothing queued
+     */
+    static final int MAX_RANKED_USERS = 1000;
+
+    AtomicLong sequence = new AtomicLong();
+
+    /** The rank of the last execution started, per priority, guarded by this */
+    long[] clocks = new long[Priority.values().length];
+
+    /** The rank of the last execution queued, per priority and user, guarded by this */
+    Map<String, Long>[] userRanks;
+
+    @SuppressWarnings("unchecked")
+    public PriorityProcessExecutor(int threads) {
+        // fixed size pool, the queue is unbounded so extra threads would never be created anyways
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(11,
+                new TaskComparator()));
+        userRanks = new Map[Priority.values().length];
+        for (int i = 0; i < userRanks.length; i++) {
+            userRanks[i] = new HashMap<String, Long>();
+        }
+    }
+
+    /**
+     * Queues the callable with the specified priority on behalf of the specified user
+     */
+    public <T> Future<T> submit(Callable<T> callable, Priority priority, String user) {
+        ProcessTask<T> task = new ProcessTask<T>(callable, priority, nextRank(priority, user),
+                sequence.getAndIncrement());
+        execute(task);
+        return task;
+    }
+
+    synchronized long nextRank(Priority priority, String user) {
+        Map<String, Long> ranks = userRanks[priority.ordinal()];
+        long clock = clocks[priority.ordinal()];
+        Long last = ranks.get(user);
+        long rank = (last == null || last < clock) ? clock + 1 : last + 1;
+        ranks.put(user, rank);
+        return rank;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        if (r instanceof ProcessTask) {
+            ProcessTask<?> task = (ProcessTask<?>) r;
+            int idx = task.priority.ordinal();
+            synchronized (this) {
+                clocks[idx] = Math.max(clocks[idx], task.rank);
+                if (userRanks[idx].size() > MAX_RANKED_USERS) {
+                    for (Iterator<Long> it = userRanks[idx].values().iterator(); it.hasNext();) {
+                        if (it.next() <= clocks[idx]) {
+                            it.remove();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A future task carrying its scheduling information
+     */
+    static class ProcessTask<T> extends FutureTask<T> {
+        Priority priority;
+
+        long rank;
+
+        long sequence;
+
+        public ProcessTask(Callable<T> callable, Priority priority, long rank, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Sorts the tasks by priority, rank and submission order. Tasks submitted by other means are
+     * considered to have normal priority and get ahead of the ranked ones.
+     */
+    static class TaskComparator implements Comparator<Runnable> {
+
+        @Override
+        public int compare(Runnable r1, Runnable r2) {
+            int p1 = getPriority(r1).ordinal();
+            int p2 = getPriority(r2).ordinal();
+            if (p1 != p2) {
+                return p1 < p2 ? -1 : 1;
+            }
+            long rank1 = r1 instanceof ProcessTask ? ((ProcessTask<?>) r1).rank : 0;
+            long rank2 = r2 instanceof ProcessTask ? ((ProcessTask<?>) r2).rank : 0;
+            if (rank1 != rank2) {
+                return rank1 < rank2 ? -1 : 1;
+            }
+            long seq1 = r1 instanceof ProcessTask ? ((ProcessTask<?>) r1).sequence : 0;
+            long seq2 = r2 instanceof ProcessTask ? ((ProcessTask<?>) r2).sequence : 0;
+            return seq1 < seq2 ? -1 : (seq1 == seq2 ? 0 : 1);
+        }
+
+        Priority getPriority(Runnable r) {
+            return r instanceof ProcessTask ? ((ProcessTask<?>) r).priority : Priority.NORMAL;
+        }
+    }
+}
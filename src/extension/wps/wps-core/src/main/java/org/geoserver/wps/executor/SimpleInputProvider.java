@@ -108,6 +108,31 @@ class SimpleInputProvider implements InputProvider {
         }
     }
 
+    public long estimateSize(long unknownSize) {
+        if (input == null) {
+            // already parsed
+            return 0;
+        } else if (input.getReference() != null) {
+            // we'd have to connect to the remote server to know
+            return unknownSize;
+        }
+
+        DataType data = input.getData();
+        if (data.getLiteralData() != null) {
+            String literal = data.getLiteralData().getValue();
+            return literal != null ? literal.length() : 0;
+        } else if (data.getComplexData() != null) {
+            // text content is kept as is, xml content has already been parsed into objects
+            long size = 0;
+            for (Object item : data.getComplexData().getData()) {
+                size += item instanceof String ? ((String) item).length() : unknownSize;
+            }
+            return size;
+        } else {
+            return 0;
+        }
+    }
+
     public Object getValue() throws Exception {
         if (value == null) {
             if (input.getReference() != null) {
@@ -64,6 +64,12 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
     private int connectionTimeout;
 
+    private ExecutionJournal journal;
+
+    private boolean recovered;
+
+    private volatile boolean shuttingDown;
+
     public WPSExecutionManager(WPSResourceManager resourceManager) {
         this.resourceManager = resourceManager;
     }
@@ -105,7 +111,22 @@ public class WPSExecutionManager implements ApplicationContextAware,
         final AsynchronousProcessContext context = new AsynchronousProcessContext(request,
                 executionId, inputs, processManager, applicationContext);
         contexts.put(executionId, context);
-        processManager.submit(executionId, processName, inputs, request.isAsynchronous());
+        if (request.isAsynchronous() && journal != null) {
+            journal.queued(executionId, request);
+        }
+        try {
+            processManager.submit(executionId, processName, inputs, request.isAsynchronous());
+        } catch (RuntimeException e) {
+            // the process manager refused the execution
+            contexts.remove(executionId);
+            if (request.isAsynchronous()) {
+                if (journal != null) {
+                    journal.remove(executionId);
+                }
+                resourceManager.finished(executionId);
+            }
+            throw e;
+        }
         if (request.isAsynchronous()) {
             // ah, we need to store the output at the end, schedule a thread that will
             // do as soon as the process is done executing
@@ -122,6 +143,44 @@ public class WPSExecutionManager implements ApplicationContextAware,
         return executionId;
     }
 
+    /**
+     * Resubmits the asynchronous executions found in the journal, keeping their execution id so
+     * that clients can keep on polling their status. The executions that were running are
+     * restarted from scratch. The original authentication is not available anymore, so the
+     * processes are run as anonymous.
+     */
+    void recoverExecutions() {
+        for (ExecutionJournal.Entry entry : journal.getEntries()) {
+            String executionId = entry.getExecutionId();
+            ExecuteRequest request = new ExecuteRequest(entry.getRequest());
+            LOGGER.info("Resubmitting execution " + executionId + " of process "
+                    + request.getProcessName() + ", it was " + entry.getState()
+                    + " at shutdown");
+            try {
+                resourceManager.recoverExecutionId(executionId);
+                submit(request, false);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to resubmit execution " + executionId, e);
+                journal.remove(executionId);
+                // let the client know
+                ExecuteResponseBuilder responseBuilder = new ExecuteResponseBuilder(
+                        request.getRequest(), applicationContext, new Date(entry.getSubmitted()));
+                responseBuilder.setExecutionId(executionId);
+                responseBuilder.setException(e);
+                try {
+                    writeOutResponse(responseBuilder,
+                            resourceManager.getStoredResponseFile(executionId));
+                } catch (Exception ex) {
+                    LOGGER.log(Level.SEVERE,
+                            "Failed to write out the stored WPS response for executionId "
+                                    + executionId, ex);
+                }
+            } finally {
+                resourceManager.clearCurrentExecutionId();
+            }
+        }
+    }
+
     /**
      * Returns the status response for an asynch call if the id is known, null otherwise (it means
      * the process is either unknown or its execution already completed, in the latter case calling
@@ -213,6 +272,13 @@ public class WPSExecutionManager implements ApplicationContextAware,
         this.connectionTimeout = connectionTimeout;
     }
 
+    /**
+     * Sets the journal used to recover the asynchronous executions after a restart, if any
+     */
+    public void setJournal(ExecutionJournal journal) {
+        this.journal = journal;
+    }
+
     @Override
     public void setApplicationContext(ApplicationContext context) throws BeansException {
         this.applicationContext = context;
@@ -220,11 +286,43 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
     @Override
     public void onApplicationEvent(ApplicationEvent event) {
-        if (event instanceof ContextRefreshedEvent) {
+        if (event instanceof ContextClosedEvent) {
+            // the process pools are shut down later, when the beans are destroyed, by then the
+            // flag is set and the interrupted executions are kept in the journal
+            shuttingDown = true;
+            storedResponseWriters.shutdownNow();
+        } else if (event instanceof ContextRefreshedEvent) {
             if (storedResponseWriters == null) {
                 storedResponseWriters = Executors.newCachedThreadPool();
-            } else if (event instanceof ContextClosedEvent) {
-                storedResponseWriters.shutdownNow();
+            }
+            // child contexts refreshes are notified too, recover only once
+            if (journal != null && !recovered) {
+                recovered = true;
+                recoverExecutions();
+            }
+        }
+    }
+
+    void writeOutResponse(ExecuteResponseBuilder responseBuilder, File output)
+            throws IOException {
+        FileOutputStream fos = null;
+        File tmpOutput = new File(output.getParent(), "tmp" + output.getName());
+        try {
+            ExecuteResponseType response = responseBuilder.build();
+            XmlObjectEncodingResponse encoder = new XmlObjectEncodingResponse(
+                    ExecuteResponseType.class, "ExecuteResponse", WPSConfiguration.class);
+
+            fos = new FileOutputStream(tmpOutput);
+            encoder.write(response, fos, null);
+            fos.flush();
+            fos.close();
+            if (!tmpOutput.renameTo(output)) {
+                LOGGER.log(Level.SEVERE, "Failed to rename " + tmpOutput + " to " + output);
+            }
+        } finally {
+            IOUtils.closeQuietly(fos);
+            if (tmpOutput != null) {
+                tmpOutput.delete();
             }
         }
     }
@@ -283,6 +381,11 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
         ExecutionStatus getOverallStatus() {
             ExecutionStatus inner = processManager.getStatus(executionId);
+            // still waiting for a thread?
+            if (inner != null && inner.phase == ProcessState.QUEUED) {
+                return new ExecutionStatus(request.getProcessName(), executionId,
+                        ProcessState.QUEUED, 0f);
+            }
             // the process already completed?
             if (inner == null || inner.phase == ProcessState.COMPLETED) {
                 if (exception != null) {
@@ -332,6 +435,10 @@ public class WPSExecutionManager implements ApplicationContextAware,
                     Map<String, Object> outputs = processManager.getOutput(executionId, -1);
                     responseBuilder.setOutputs(outputs);
                 } catch (Exception exception) {
+                    if (shuttingDown) {
+                        // the execution has been interrupted, it will be resubmitted at restart
+                        return;
+                    }
                     LOGGER.log(Level.SEVERE, "Request failed during execution", exception);
                     responseBuilder.setException(exception);
                 }
@@ -356,29 +463,8 @@ public class WPSExecutionManager implements ApplicationContextAware,
 
             } finally {
                 contexts.remove(executionId);
-            }
-        }
-
-        void writeOutResponse(ExecuteResponseBuilder responseBuilder, File output)
-                throws IOException {
-            FileOutputStream fos = null;
-            File tmpOutput = new File(output.getParent(), "tmp" + output.getName());
-            try {
-                ExecuteResponseType response = responseBuilder.build();
-                XmlObjectEncodingResponse encoder = new XmlObjectEncodingResponse(
-                        ExecuteResponseType.class, "ExecuteResponse", WPSConfiguration.class);
-
-                fos = new FileOutputStream(tmpOutput);
-                encoder.write(response, fos, null);
-                fos.flush();
-                fos.close();
-                if (!tmpOutput.renameTo(output)) {
-                    LOGGER.log(Level.SEVERE, "Failed to rename " + tmpOutput + " to " + output);
-                }
-            } finally {
-                IOUtils.closeQuietly(fos);
-                if (tmpOutput != null) {
-                    tmpOutput.delete();
+                if (journal != null && !shuttingDown) {
+                    journal.remove(executionId);
                 }
             }
         }
@@ -96,6 +96,25 @@ public class WPSResourceManager implements DispatcherCallback,
         return id;
     }
 
+    /**
+     * Binds to the current thread the id of an asynchronous execution started before a restart,
+     * so that it can be resubmitted with the same id. Call {@link #clearCurrentExecutionId()} once
+     * done.
+     *
+     * @param executionId
+     */
+    public void recoverExecutionId(String executionId) {
+        resourceCache.putIfAbsent(executionId, new ExecutionResources(false));
+        this.executionId.set(executionId);
+    }
+
+    /**
+     * Unbinds the execution id from the current thread, without releasing its resources
+     */
+    public void clearCurrentExecutionId() {
+        this.executionId.remove();
+    }
+
     /**
      * ProcessManagers should call this method every time they are running the process in a thread
      * other than the request thread, and that is not a child of it either (typical case is running
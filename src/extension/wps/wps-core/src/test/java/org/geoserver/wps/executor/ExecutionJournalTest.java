@@ -0,0 +1,171 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathExists;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import net.opengis.wps10.ExecuteType;
+
+import org.custommonkey.xmlunit.XMLUnit;
+import org.custommonkey.xmlunit.XpathEngine;
+import org.geoserver.wps.MonkeyProcess;
+import org.geoserver.wps.WPSTestSupport;
+import org.geoserver.wps.executor.ExecutionStatus.ProcessState;
+import org.geoserver.wps.xml.WPSConfiguration;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.xml.Parser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import com.vividsolutions.jts.geom.Point;
+
+public class ExecutionJournalTest extends WPSTestSupport {
+
+    ExecutionJournal journal;
+
+    WPSExecutionManager executionManager;
+
+    @Before
+    public void setUpJournal() throws Exception {
+        journal = applicationContext.getBean(ExecutionJournal.class);
+        executionManager = applicationContext.getBean(WPSExecutionManager.class);
+        clearJournal();
+        MonkeyProcess.clearCommands();
+    }
+
+    @After
+    public void clearJournal() {
+        for (ExecutionJournal.Entry entry : journal.getEntries()) {
+            journal.remove(entry.getExecutionId());
+        }
+    }
+
+    @Test
+    public void testQueuedAndRunning() throws Exception {
+        ExecuteRequest request = new ExecuteRequest(buildMonkeyRequest("j1"));
+        journal.queued("journal-1", request);
+
+        List<ExecutionJournal.Entry> entries = journal.getEntries();
+        assertEquals(1, entries.size());
+        ExecutionJournal.Entry entry = entries.get(0);
+        assertEquals("journal-1", entry.getExecutionId());
+        assertEquals(ProcessState.QUEUED, entry.getState());
+        assertEquals("gs:Monkey", entry.getRequest().getIdentifier().getValue());
+        assertEquals("http://localhost:8080/geoserver", entry.getRequest().getBaseUrl());
+        assertTrue(new ExecuteRequest(entry.getRequest()).isAsynchronous());
+
+        journal.running("journal-1");
+        assertEquals(ProcessState.RUNNING, journal.getEntries().get(0).getState());
+
+        journal.remove("journal-1");
+        assertTrue(journal.getEntries().isEmpty());
+        // running on a removed entry does not bring it back
+        journal.running("journal-1");
+        assertTrue(journal.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testAsynchronousExecutionJournaled() throws Exception {
+        String request = "wps?service=WPS&version=1.0.0&request=Execute&Identifier=gs:Monkey"
+                + "&storeExecuteResponse=true&status=true&DataInputs=id%3Dj2";
+        Document dom = getAsDOM(request);
+        assertXpathExists("//wps:ProcessAccepted", dom);
+
+        MonkeyProcess.progress("j2", 0.1f, true);
+        List<ExecutionJournal.Entry> entries = journal.getEntries();
+        assertEquals(1, entries.size());
+        assertEquals(ProcessState.RUNNING, entries.get(0).getState());
+
+        // once completed it's gone
+        MonkeyProcess.exit("j2", collectionOfThings(), true);
+        waitForProcessEnd(getStatusLocation(entries.get(0).getExecutionId()), 60);
+        assertJournalEmpty();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        // an execution left behind by a previous run
+        journal.queued("recovered-1", new ExecuteRequest(buildMonkeyRequest("j3")));
+        executionManager.recoverExecutions();
+
+        // the status can be polled again with the same id
+        String statusLocation = getStatusLocation("recovered-1");
+        MonkeyProcess.progress("j3", 0.5f, true);
+        Document dom = getAsDOM(statusLocation);
+        assertXpathExists("//wps:ProcessStarted", dom);
+
+        MonkeyProcess.exit("j3", collectionOfThings(), true);
+        dom = waitForProcessEnd(statusLocation, 60);
+        assertXpathExists("//wps:ProcessSucceeded", dom);
+        assertJournalEmpty();
+    }
+
+    ExecuteType buildMonkeyRequest(String id) throws Exception {
+        String xml = "<wps:Execute version='1.0.0' service='WPS' "
+                + "xmlns:wps='http://www.opengis.net/wps/1.0.0' "
+                + "xmlns:ows='http://www.opengis.net/ows/1.1'>"
+                + "<ows:Identifier>gs:Monkey</ows:Identifier>"
+                + "<wps:DataInputs><wps:Input><ows:Identifier>id</ows:Identifier>"
+                + "<wps:Data><wps:LiteralData>" + id + "</wps:LiteralData></wps:Data>"
+                + "</wps:Input></wps:DataInputs>"
+                + "<wps:ResponseForm>"
+                + "<wps:ResponseDocument storeExecuteResponse='true' status='true'>"
+                + "<wps:Output><ows:Identifier>result</ows:Identifier></wps:Output>"
+                + "</wps:ResponseDocument></wps:ResponseForm></wps:Execute>";
+        Parser parser = new Parser(new WPSConfiguration());
+        ExecuteType execute = (ExecuteType) parser.parse(new ByteArrayInputStream(xml
+                .getBytes("UTF-8")));
+        execute.setBaseUrl("http://localhost:8080/geoserver");
+        return execute;
+    }
+
+    String getStatusLocation(String executionId) {
+        return "ows?service=WPS&version=1.0.0&request=GetExecutionStatus&executionId="
+                + executionId;
+    }
+
+    ListFeatureCollection collectionOfThings() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.add("name", String.class);
+        tb.add("location", Point.class, DefaultGeographicCRS.WGS84);
+        tb.setName("thing");
+        return new ListFeatureCollection(tb.buildFeatureType());
+    }
+
+    Document waitForProcessEnd(String statusLocation, long maxWaitSeconds) throws Exception {
+        XpathEngine xpath = XMLUnit.newXpathEngine();
+        long start = System.currentTimeMillis();
+        while (((System.currentTimeMillis() - start) / 1000 < maxWaitSeconds)) {
+            Document dom = getAsDOM(statusLocation);
+            if (xpath.getMatchingNodes("//wps:Status/wps:ProcessAccepted", dom).getLength() > 0
+                    || xpath.getMatchingNodes("//wps:Status/wps:ProcessStarted", dom)
+                            .getLength() > 0) {
+                Thread.sleep(100);
+            } else {
+                return dom;
+            }
+        }
+        throw new Exception("Waited for the process to complete more than " + maxWaitSeconds);
+    }
+
+    /**
+     * The journal is cleaned up right after the stored response is written, give it some time
+     */
+    void assertJournalEmpty() throws Exception {
+        long start = System.currentTimeMillis();
+        while (!journal.getEntries().isEmpty() && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        assertTrue(journal.getEntries().isEmpty());
+    }
+}
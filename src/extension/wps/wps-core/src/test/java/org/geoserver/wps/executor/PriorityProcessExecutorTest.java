@@ -0,0 +1,125 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wps.executor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wps.executor.PriorityProcessExecutor.Priority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PriorityProcessExecutorTest {
+
+    PriorityProcessExecutor executor;
+
+    CountDownLatch blocker;
+
+    List<String> executed;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new PriorityProcessExecutor(1);
+        executed = Collections.synchronizedList(new ArrayList<String>());
+
+        // keep the only thread busy while the test queues its executions
+        blocker = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                blocker.await();
+                return null;
+            }
+        }, Priority.NORMAL, "blocker");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        blocker.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        submit("low", Priority.LOW, "user");
+        submit("normal", Priority.NORMAL, "user");
+        Future<String> last = submit("high", Priority.HIGH, "user");
+
+        blocker.countDown();
+        last.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("high", "normal", "low"), executed);
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        // the first user submits a burst of executions, the others come later
+        submit("a1", Priority.NORMAL, "a");
+        submit("a2", Priority.NORMAL, "a");
+        submit("a3", Priority.NORMAL, "a");
+        submit("b1", Priority.NORMAL, "b");
+        submit("b2", Priority.NORMAL, "b");
+        submit("c1", Priority.NORMAL, "c");
+
+        blocker.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("a1", "b1", "c1", "a2", "b2", "a3"), executed);
+    }
+
+    @Test
+    public void testLateUserDoesNotWaitForBurst() throws Exception {
+        final CountDownLatch a1Started = new CountDownLatch(1);
+        final CountDownLatch a1Release = new CountDownLatch(1);
+        executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executed.add("a1");
+                a1Started.countDown();
+                a1Release.await();
+                return null;
+            }
+        }, Priority.NORMAL, "a");
+        submit("a2", Priority.NORMAL, "a");
+        submit("a3", Priority.NORMAL, "a");
+
+        // the burst started, then another user shows up
+        blocker.countDown();
+        assertTrue(a1Started.await(5, TimeUnit.SECONDS));
+        submit("b1", Priority.NORMAL, "b");
+
+        a1Release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        // b1 does not wait for the whole burst to complete
+        assertEquals(Arrays.asList("a1", "a2", "b1", "a3"), executed);
+    }
+
+    Future<String> submit(final String id, Priority priority, String user) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executed.add(id);
+                return id;
+            }
+        }, priority, user);
+    }
+}
@@ -0,0 +1,498 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.geotools.util.logging.Logging;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.locks.LockProvider;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * A {@link LockProvider} that coordinates the GeoServer instances of a cluster sharing the same
+ * tile cache through a table in a shared database, so that a meta tile is rendered only once in
+ * the whole cluster.
+ * <p>
+ * Lock keys are hashed onto a fixed number of stripes, each one being a row in the
+ * {@value #TABLE} table, which is created and populated on first usage. A stripe is owned by at
+ * most one instance at a time, the threads of the same instance contending on the same stripe
+ * wait on an in memory lock, so only one of them at a time polls the database. The owner
+ * periodically refreshes the expiration time of all the stripes it holds in a single batch, a
+ * stripe whose expiration time is past (e.g., because its owner crashed) can be taken over by
+ * another instance.
+ * </p>
+ * <p>
+ * All instances must use the same number of stripes, and their clocks need to be synchronized
+ * well within the expiration time. The data source is normally a
+ * {@link org.geoserver.data.GeoServerDataSource} configured in
+ * {@code <data dir>/gwc-jdbc-lock.properties}, which by default points to a H2 database in the
+ * data directory.
+ * </p>
+ */
+public class JDBCLockProvider implements LockProvider, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(JDBCLockProvider.class);
+
+    static final String TABLE = "GWC_META_LOCKS";
+
+    /**
+     * Max time between two attempts to grab a stripe owned by another instance
+     */
+    static final long MAX_POLL_INTERVAL = 250;
+
+    DataSource dataSource;
+
+    int stripes = 4096;
+
+    long lockTimeout = 120 * 1000;
+
+    long expiration = 30 * 1000;
+
+    /**
+     * Identifies this instance in the lock table
+     */
+    final String owner;
+
+    /**
+     * The in memory locks, one per stripe, created on first usage
+     */
+    volatile ReentrantLock[] localLocks;
+
+    /**
+     * The stripes held in the database by this instance
+     */
+    final Set<Integer> heldStripes = Collections
+            .newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    ScheduledExecutorService heartbeat;
+
+    public JDBCLockProvider(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.owner = buildOwnerId();
+    }
+
+    /**
+     * The number of stripes lock keys are hashed onto, must be the same for all the instances
+     * sharing the lock table
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("The number of stripes must be positive");
+        }
+        this.stripes = stripes;
+    }
+
+    /**
+     * Max time, in milliseconds, a thread will wait for a lock before giving up
+     */
+    public long getLockTimeout() {
+        return lockTimeout;
+    }
+
+    public void setLockTimeout(long lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    /**
+     * Time, in milliseconds, after which a lock that has not been refreshed by its owner is
+     * considered stale. Locks are refreshed every third of this time.
+     */
+    public long getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(long expiration) {
+        if (expiration <= 0) {
+            throw new IllegalArgumentException("The lock expiration must be positive");
+        }
+        this.expiration = expiration;
+    }
+
+    public Lock getLock(final String lockKey) throws GeoWebCacheException {
+        if (localLocks == null) {
+            initialize();
+        }
+
+        final long deadline = System.currentTimeMillis() + lockTimeout;
+        final int stripe = getStripe(lockKey);
+        final ReentrantLock local = localLocks[stripe];
+        try {
+            if (!local.tryLock(lockTimeout, TimeUnit.MILLISECONDS)) {
+                throw new GeoWebCacheException("Timed out waiting for lock " + lockKey);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeoWebCacheException("Interrupted while waiting for lock " + lockKey);
+        }
+
+        // re-entrant usage, we already own the stripe
+        if (local.getHoldCount() == 1) {
+            boolean acquired = false;
+            try {
+                acquireStripe(stripe, lockKey, deadline);
+                acquired = true;
+            } finally {
+                if (!acquired) {
+                    local.unlock();
+                }
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Lock " + lockKey + " acquired on stripe " + stripe + " by thread "
+                    + Thread.currentThread().getId());
+        }
+
+        return new Lock() {
+
+            boolean released;
+
+            public void release() throws GeoWebCacheException {
+                if (released) {
+                    return;
+                }
+                released = true;
+                try {
+                    if (local.getHoldCount() == 1) {
+                        releaseStripe(stripe, lockKey);
+                    }
+                } finally {
+                    local.unlock();
+                }
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Lock " + lockKey + " released on stripe " + stripe
+                            + " by thread " + Thread.currentThread().getId());
+                }
+            }
+        };
+    }
+
+    /**
+     * Releases the stripes held by this instance and stops the heartbeat
+     */
+    public void destroy() {
+        synchronized (this) {
+            if (localLocks == null) {
+                return;
+            }
+            heartbeat.shutdownNow();
+        }
+
+        Connection cx = null;
+        try {
+            cx = dataSource.getConnection();
+            PreparedStatement ps = cx.prepareStatement("UPDATE " + TABLE
+                    + " SET OWNER = NULL, EXPIRES = 0 WHERE OWNER = ?");
+            try {
+                ps.setString(1, owner);
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+            heldStripes.clear();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to release the locks held by " + owner
+                    + ", they will expire in " + expiration + "ms", e);
+        } finally {
+            closeSafe(cx);
+        }
+    }
+
+    int getStripe(String lockKey) {
+        // String.hashCode() is the same across JVMs, so all instances agree on the stripe
+        return (lockKey.hashCode() & 0x7fffffff) % stripes;
+    }
+
+    void acquireStripe(int stripe, String lockKey, long deadline) throws GeoWebCacheException {
+        long wait = 10;
+        while (!tryAcquireStripe(stripe)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new GeoWebCacheException("Timed out waiting for the cluster wide lock "
+                        + lockKey + " (stripe " + stripe + ")");
+            }
+            try {
+                Thread.sleep(Math.min(wait, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GeoWebCacheException("Interrupted while waiting for lock " + lockKey);
+            }
+            wait = Math.min(wait * 2, MAX_POLL_INTERVAL);
+        }
+        heldStripes.add(stripe);
+    }
+
+    boolean tryAcquireStripe(int stripe) throws GeoWebCacheException {
+        Connection cx = null;
+        try {
+            cx = dataSource.getConnection();
+            PreparedStatement ps = cx.prepareStatement("UPDATE " + TABLE
+                    + " SET OWNER = ?, EXPIRES = ? WHERE STRIPE = ? "
+                    + "AND (OWNER IS NULL OR OWNER = ? OR EXPIRES < ?)");
+            try {
+                long now = System.currentTimeMillis();
+                ps.setString(1, owner);
+                ps.setLong(2, now + expiration);
+                ps.setInt(3, stripe);
+                ps.setString(4, owner);
+                ps.setLong(5, now);
+                return ps.executeUpdate() == 1;
+            } finally {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            throw new GeoWebCacheException("Failed to acquire lock stripe " + stripe, e);
+        } finally {
+            closeSafe(cx);
+        }
+    }
+
+    void releaseStripe(int stripe, String lockKey) {
+        // stop refreshing it in any case, if the update fails the lock will expire
+        heldStripes.remove(stripe);
+
+        Connection cx = null;
+        try {
+            cx = dataSource.getConnection();
+            PreparedStatement ps = cx.prepareStatement("UPDATE " + TABLE
+                    + " SET OWNER = NULL, EXPIRES = 0 WHERE STRIPE = ? AND OWNER = ?");
+            try {
+                ps.setInt(1, stripe);
+                ps.setString(2, owner);
+                if (ps.executeUpdate() == 0) {
+                    LOGGER.warning("Lock " + lockKey + " on stripe " + stripe
+                            + " expired before being released, "
+                            + "consider raising the lock expiration time");
+                }
+            } finally {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to release lock " + lockKey + " on stripe "
+                    + stripe + ", it will expire in " + expiration + "ms", e);
+        } finally {
+            closeSafe(cx);
+        }
+    }
+
+    /**
+     * Refreshes the expiration time of all the stripes held by this instance, in a single batch
+     */
+    void refreshHeldStripes() {
+        List<Integer> held = new ArrayList<Integer>(heldStripes);
+        if (held.isEmpty()) {
+            return;
+        }
+
+        Connection cx = null;
+        try {
+            cx = dataSource.getConnection();
+            PreparedStatement ps = cx.prepareStatement("UPDATE " + TABLE
+                    + " SET EXPIRES = ? WHERE STRIPE = ? AND OWNER = ?");
+            try {
+                long expires = System.currentTimeMillis() + expiration;
+                for (Integer stripe : held) {
+                    ps.setLong(1, expires);
+                    ps.setInt(2, stripe);
+                    ps.setString(3, owner);
+                    ps.addBatch();
+                }
+                int[] counts = ps.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    // the stripe might have been released in the meantime, check it's still ours
+                    if (counts[i] == 0 && heldStripes.contains(held.get(i))) {
+                        LOGGER.warning("Lock stripe " + held.get(i) + " expired while in use, "
+                                + "consider raising the lock expiration time");
+                    }
+                }
+            } finally {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to refresh the locks held by " + owner, e);
+        } finally {
+            closeSafe(cx);
+        }
+    }
+
+    synchronized void initialize() throws GeoWebCacheException {
+        if (localLocks != null) {
+            return;
+        }
+
+        Connection cx = null;
+        try {
+            cx = dataSource.getConnection();
+            createTable(cx);
+            populateStripes(cx);
+        } catch (SQLException e) {
+            throw new GeoWebCacheException("Failed to initialize the lock table " + TABLE, e);
+        } finally {
+            closeSafe(cx);
+        }
+
+        ReentrantLock[] locks = new ReentrantLock[stripes];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GWC JDBC lock heartbeat");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(1, expiration / 3);
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                refreshHeldStripes();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        localLocks = locks;
+        LOGGER.info("JDBC lock provider initialized with " + stripes + " stripes, owner id "
+                + owner);
+    }
+
+    void createTable(Connection cx) throws SQLException {
+        if (tableExists(cx)) {
+            return;
+        }
+        Statement st = cx.createStatement();
+        try {
+            st.execute("CREATE TABLE " + TABLE + " (STRIPE INTEGER NOT NULL PRIMARY KEY, "
+                    + "OWNER VARCHAR(64), EXPIRES BIGINT NOT NULL)");
+        } catch (SQLException e) {
+            // another instance might have created it in the meantime
+            if (!tableExists(cx)) {
+                throw e;
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    boolean tableExists(Connection cx) {
+        try {
+            Statement st = cx.createStatement();
+            try {
+                st.executeQuery("SELECT COUNT(*) FROM " + TABLE).close();
+                return true;
+            } finally {
+                st.close();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void populateStripes(Connection cx) throws SQLException {
+        try {
+            insertMissingStripes(cx);
+        } catch (SQLException e) {
+            // another instance was populating the table at the same time, retry with the
+            // stripes it did not insert yet
+            LOGGER.log(Level.FINE, "Failed to populate the lock table, retrying", e);
+            insertMissingStripes(cx);
+        }
+    }
+
+    void insertMissingStripes(Connection cx) throws SQLException {
+        BitSet existing = new BitSet(stripes);
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT STRIPE FROM " + TABLE);
+            try {
+                while (rs.next()) {
+                    int stripe = rs.getInt(1);
+                    if (stripe >= 0 && stripe < stripes) {
+                        existing.set(stripe);
+                    }
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+        if (existing.cardinality() == stripes) {
+            return;
+        }
+
+        boolean autoCommit = cx.getAutoCommit();
+        cx.setAutoCommit(false);
+        try {
+            PreparedStatement ps = cx.prepareStatement("INSERT INTO " + TABLE
+                    + " (STRIPE, OWNER, EXPIRES) VALUES (?, NULL, 0)");
+            try {
+                for (int i = existing.nextClearBit(0); i < stripes; i = existing
+                        .nextClearBit(i + 1)) {
+                    ps.setInt(1, i);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            } finally {
+                ps.close();
+            }
+            cx.commit();
+        } catch (SQLException e) {
+            cx.rollback();
+            throw e;
+        } finally {
+            cx.setAutoCommit(autoCommit);
+        }
+    }
+
+    static String buildOwnerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        if (host.length() > 27) {
+            host = host.substring(0, 27);
+        }
+        return host + "-" + UUID.randomUUID();
+    }
+
+    void closeSafe(Connection cx) {
+        if (cx != null) {
+            try {
+                cx.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed to close connection", e);
+            }
+        }
+    }
+}
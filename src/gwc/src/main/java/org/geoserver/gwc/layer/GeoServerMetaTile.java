@@ -6,13 +6,14 @@ package org.geoserver.gwc.layer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
@@ -20,6 +21,7 @@ import javax.media.jai.RenderedOp;
 import org.geoserver.gwc.GWC;
 import org.geoserver.ows.Response;
 import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.DrawingSurfacePool;
 import org.geoserver.wms.map.RenderedImageMap;
 import org.geoserver.wms.map.RenderedImageMapResponse;
 import org.geotools.geometry.jts.ReferencedEnvelope;
@@ -37,6 +39,11 @@ public class GeoServerMetaTile extends MetaTile {
 
     private RenderedImageMap metaTileMap;
 
+    /**
+     * The tile images taken from the drawing surface pool, given back on dispose
+     */
+    private List<BufferedImage> pooledTiles = new ArrayList<BufferedImage>();
+
     public GeoServerMetaTile(GridSubset gridSubset, MimeType responseFormat,
             FormatModifier formatModifier, long[] tileGridPosition, int metaX, int metaY,
             Integer gutter) {
@@ -167,22 +174,16 @@ public class GeoServerMetaTile extends MetaTile {
             break;
         case 1:
             final PlanarImage pImage = (PlanarImage) metaTileImage;
-            final WritableRaster wTile = WritableRaster.createWritableRaster(pImage
-                    .getSampleModel().createCompatibleSampleModel(tileWidth, tileHeight),
-                    new Point(x, y));
-            Rectangle sourceArea = new Rectangle(x, y, tileWidth, tileHeight);
-            sourceArea = sourceArea.intersection(pImage.getBounds());
+            // the tile images all have the same structure, take them from the pool
+            final BufferedImage pooled = DrawingSurfacePool.get().acquire(
+                    pImage.getColorModel(),
+                    pImage.getSampleModel().createCompatibleSampleModel(tileWidth, tileHeight));
+            pooledTiles.add(pooled);
+            final WritableRaster wTile = pooled.getRaster().createWritableTranslatedChild(x, y);
 
             // copying the data to ensure we don't have side effects when we clean the cache
             pImage.copyData(wTile);
-            if (wTile.getMinX() != 0 || wTile.getMinY() != 0) {
-                tile = new BufferedImage(pImage.getColorModel(),
-                        (WritableRaster) wTile.createTranslatedChild(0, 0), pImage.getColorModel()
-                                .isAlphaPremultiplied(), null);
-            } else {
-                tile = new BufferedImage(pImage.getColorModel(), wTile, pImage.getColorModel()
-                        .isAlphaPremultiplied(), null);
-            }
+            tile = pooled;
             break;
         case 2:
             final BufferedImage image = (BufferedImage) metaTileImage;
@@ -199,10 +200,22 @@ public class GeoServerMetaTile extends MetaTile {
 
     @Override
     public void dispose() {
+        // the tiles have been encoded, the drawing surfaces can be reused
+        RenderedImage metaTileSurface = null;
         if (metaTileMap != null) {
+            metaTileSurface = metaTileMap.getImage();
             metaTileMap.dispose();
             metaTileMap = null;
         }
         super.dispose();
+
+        DrawingSurfacePool pool = DrawingSurfacePool.get();
+        if (metaTileSurface instanceof BufferedImage) {
+            pool.release((BufferedImage) metaTileSurface);
+        }
+        for (BufferedImage tile : pooledTiles) {
+            pool.release(tile);
+        }
+        pooledTiles.clear();
     }
 }
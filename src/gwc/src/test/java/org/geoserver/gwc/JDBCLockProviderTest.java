@@ -0,0 +1,155 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.geowebcache.GeoWebCacheException;
+import org.geowebcache.locks.LockProvider.Lock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JDBCLockProviderTest {
+
+    static int counter;
+
+    BasicDataSource dataSource;
+
+    JDBCLockProvider node1;
+
+    JDBCLockProvider node2;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new BasicDataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:gwc_locks_" + (counter++) + ";DB_CLOSE_DELAY=-1");
+
+        // two providers sharing the same table behave like two nodes of a cluster
+        node1 = buildProvider();
+        node2 = buildProvider();
+    }
+
+    JDBCLockProvider buildProvider() {
+        JDBCLockProvider provider = new JDBCLockProvider(dataSource);
+        provider.setStripes(64);
+        provider.setLockTimeout(10000);
+        return provider;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        node1.destroy();
+        node2.destroy();
+        dataSource.close();
+    }
+
+    @Test
+    public void testLockAcrossNodes() throws Exception {
+        Lock lock = node1.getLock("gsmeta_topp:states_0_0_0");
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    Lock other = node2.getLock("gsmeta_topp:states_0_0_0");
+                    acquired.countDown();
+                    other.release();
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        };
+        t.start();
+
+        // the other node has to wait
+        assertFalse(acquired.await(300, TimeUnit.MILLISECONDS));
+
+        lock.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        t.join();
+        assertNull(error.get());
+    }
+
+    @Test
+    public void testReentrant() throws Exception {
+        Lock outer = node1.getLock("gwc_lock_layer_topp:states");
+        Lock inner = node1.getLock("gwc_lock_layer_topp:states");
+        inner.release();
+
+        // still held after the inner release
+        node2.setLockTimeout(200);
+        try {
+            node2.getLock("gwc_lock_layer_topp:states");
+            fail("The lock should still be held by the first node");
+        } catch (GeoWebCacheException e) {
+            // fine
+        }
+
+        outer.release();
+        node2.getLock("gwc_lock_layer_topp:states").release();
+    }
+
+    @Test
+    public void testStaleLockExpires() throws Exception {
+        String key = "gsmeta_topp:states_1_1_1";
+        node1.getLock("init").release();
+        int stripe = node1.getStripe(key);
+
+        // a crashed node left a lock behind
+        setOwner(stripe, "crashed", System.currentTimeMillis() + 60000);
+        node1.setLockTimeout(200);
+        try {
+            node1.getLock(key);
+            fail("The lock should not be available before expiration");
+        } catch (GeoWebCacheException e) {
+            // fine
+        }
+
+        // once expired, it can be taken over
+        setOwner(stripe, "crashed", System.currentTimeMillis() - 1000);
+        node1.getLock(key).release();
+    }
+
+    @Test
+    public void testHeartbeatKeepsLock() throws Exception {
+        node1.setExpiration(300);
+        Lock lock = node1.getLock("gsmeta_topp:states_2_2_2");
+        try {
+            // well past the expiration, the heartbeat keeps the lock alive
+            node2.setLockTimeout(1000);
+            node2.getLock("gsmeta_topp:states_2_2_2");
+            fail("The lock should have been kept alive by the heartbeat");
+        } catch (GeoWebCacheException e) {
+            // fine
+        } finally {
+            lock.release();
+        }
+    }
+
+    void setOwner(int stripe, String owner, long expires) throws Exception {
+        Connection cx = dataSource.getConnection();
+        try {
+            PreparedStatement ps = cx.prepareStatement("UPDATE " + JDBCLockProvider.TABLE
+                    + " SET OWNER = ?, EXPIRES = ? WHERE STRIPE = ?");
+            ps.setString(1, owner);
+            ps.setLong(2, expires);
+            ps.setInt(3, stripe);
+            assertEquals(1, ps.executeUpdate());
+            ps.close();
+        } finally {
+            cx.close();
+        }
+    }
+}
@@ -14,11 +14,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,9 +32,19 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -80,7 +95,6 @@ import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.VirtualTable;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.Schemas;
 import org.opengis.coverage.grid.GridCoverage;
@@ -160,6 +174,7 @@ public class ResourcePool {
     Map<String, GridCoverageReader>  coverageReaderCache;
     Map<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderCache;
     Map<StyleInfo,Style> styleCache;
+    CacheLoader cacheLoader = new CacheLoader();
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
@@ -239,7 +254,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new ConcurrentHashMap<String, CoordinateReferenceSystem>();
     }
 
     /**
@@ -339,7 +354,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new ConcurrentHashMap<StyleInfo, Style>();
     }
 
     /**
@@ -417,29 +432,24 @@ public class ResourcePool {
      * @throws IOException In the event the srsName can not be parsed or leads 
      * to an exception in the underlying call to CRS.decode.
      */
-    public CoordinateReferenceSystem getCRS( String srsName )
+    public CoordinateReferenceSystem getCRS( final String srsName )
         throws IOException {
         
         if(srsName == null)
             return null;
         
-        CoordinateReferenceSystem crs = crsCache.get( srsName );
-        if ( crs == null ) {
-            synchronized (crsCache) {
-                crs = crsCache.get( srsName );
-                if ( crs == null ) {
-                    try {
-                        crs = CRS.decode( srsName );
-                        crsCache.put( srsName, crs );
-                    }
-                    catch( Exception e) {
-                        throw (IOException) new IOException().initCause(e);
-                    }
+        return cacheLoader.get(crsCache, srsName, new Callable<CoordinateReferenceSystem>() {
+            public CoordinateReferenceSystem call() throws Exception {
+                try {
+                    CoordinateReferenceSystem crs = CRS.decode( srsName );
+                    crsCache.put( srsName, crs );
+                    return crs;
+                }
+                catch( Exception e) {
+                    throw (IOException) new IOException().initCause(e);
                 }
             }
-        }
-        
-        return crs;
+        });
     }
     
     /**
@@ -479,107 +489,15 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
-        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
         try {
-            String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
-                    }
-                } 
-            }
-            
-            return dataStore;
-        } catch (Exception e) {
-            // if anything goes wrong we have to clean up the store anyways
-            if(dataStore != null) {
-                try {
-                    dataStore.dispose();
-                } catch(Exception ex) {
-                    // fine, we had to try
+            final String id = info.getId();
+            return cacheLoader.get(dataStoreCache, id, new Callable<DataAccess>() {
+                public DataAccess call() throws Exception {
+                    return loadDataStore(info, id);
                 }
-            }
+            });
+        } catch (Exception e) {
             if(e instanceof IOException) {
                 throw (IOException) e;
             } else {
@@ -587,6 +505,93 @@ public class ResourcePool {
             }
         }
     }
+    
+    /**
+     * Connects to the data store, caching it if the store has an id
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> loadDataStore(DataStoreInfo info, String id) throws IOException {
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
+        
+        //create data store
+        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+        
+        //call this methdo to execute the hack which recognizes 
+        // urls which are relative to the data directory
+        // TODO: find a better way to do this
+        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+        
+        // obtain the factory
+        DataAccessFactory factory = null;
+        try {
+            factory = getDataStoreFactory(info);
+        } catch(IOException e) {
+            throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                    + ", did you forget to install the store extension jar?");
+        }
+        Param[] params = factory.getParametersInfo();
+        
+        //ensure that the namespace parameter is set for the datastore
+        if (!connectionParameters.containsKey( "namespace") && params != null) {
+            //if we grabbed the factory, check that the factory actually supports
+            // a namespace parameter, if we could not get the factory, assume that
+            // it does
+            boolean supportsNamespace = true;
+            supportsNamespace = false;
+            
+            for ( Param p : params ) {
+                if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                    supportsNamespace = true;
+                    break;
+                }
+            }
+            
+            if ( supportsNamespace ) {
+                WorkspaceInfo ws = info.getWorkspace();
+                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                if ( ns == null ) {
+                    ns = info.getCatalog().getDefaultNamespace();
+                }
+                if ( ns != null ) {
+                    connectionParameters.put( "namespace", ns.getURI() );
+                }    
+            }
+        }
+        
+        // see if the store has a repository param, if so, pass the one wrapping
+        // the store
+        if(params != null) {
+            for ( Param p : params ) {
+                if(Repository.class.equals(p.getType())) {
+                    connectionParameters.put(p.getName(), repository);
+                }
+            }
+        }
+        
+        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+        if (dataStore == null) {
+            /*
+             * Preserve DataStore retyping behaviour by calling
+             * DataAccessFinder.getDataStore after the call to
+             * DataStoreUtils.getDataStore above.
+             * 
+             * TODO: DataAccessFinder can also find DataStores, and when retyping is
+             * supported for DataAccess, we can use a single mechanism.
+             */
+            dataStore = DataAccessFinder.getDataStore(connectionParameters);
+        }
+        
+        if ( dataStore == null ) {
+            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
+        }
+        
+        // cache only if the id is not null, no need to cache the stores
+        // returned from un-saved DataStoreInfo objects (it would be actually
+        // harmful, NPE when trying to dispose of them)
+        if(id != null) {
+            dataStoreCache.put( id, dataStore );
+        }
+        return dataStore;
+    }
         
     /**
      * Get Connect params.
@@ -645,7 +650,7 @@ public class ResourcePool {
         dataStoreCache.remove( info.getId() );
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -657,33 +662,29 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
-        //check the cache
-        List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-        if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
-                    }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
+        //check the cache, loading if missing
+        return cacheLoader.get(featureTypeAttributeCache, info.getId(), 
+                new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws Exception {
+                //load from feature type
+                List<AttributeTypeInfo> atts = loadAttributes(info);
+                
+                //check for a schema override
+                try {
+                    handleSchemaOverride(atts,info);
                 }
+                catch( Exception e ) {
+                    LOGGER.log( Level.WARNING, 
+                        "Error occured applying schema override for "+info.getName(), e);
+                }
+                
+                // cache attributes only if the id is not null -> the feature type is not new
+                if(info.getId() != null) {
+                    featureTypeAttributeCache.put(info.getId(), atts);
+                }
+                return atts;
             }
-        }
-        
-        return atts;
+        });
     }
     
     public List<AttributeTypeInfo> loadAttributes(FeatureTypeInfo info) throws IOException {
@@ -814,103 +815,111 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
-        boolean cacheable = isCacheable(info);
-        String key = getFeatureTypeInfoKey(info, handleProjectionPolicy);
-        FeatureType ft = (FeatureType) featureTypeCache.get(key);
-        if ( ft == null || !cacheable ) {
-            synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get(key);
-                if ( ft == null || !cacheable) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
+        if (!isCacheable(info)) {
+            return loadFeatureType(info, handleProjectionPolicy, null);
+        }
+        final String key = getFeatureTypeInfoKey(info, handleProjectionPolicy);
+        return cacheLoader.get(featureTypeCache, key, new Callable<FeatureType>() {
+            public FeatureType call() throws Exception {
+                return loadFeatureType(info, handleProjectionPolicy, key);
+            }
+        });
+    }
     
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            if(!jstore.getVirtualTables().containsValue(vt)) {
-                                jstore.addVirtualTable(vt);
-                            }
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+    /**
+     * Builds the feature type, caching it under the specified key, or not at all if the key is
+     * null
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, String key ) throws IOException {
+        boolean cacheable = key != null;
+        FeatureType ft;
+        
+        //grab the underlying feature type
+        DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+    
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
+                }
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
-                                }
-                                tb.add( ad );
-                            }
-                        }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
-                        }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
                     
-                    if(cacheable) {
-                        featureTypeCache.put(key, ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
-        }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
         
+        if(cacheable) {
+            featureTypeCache.put(key, ft );
+        } else if(vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
+        }
+
         return ft;
     }
 
@@ -1200,7 +1209,6 @@ public class ResourcePool {
         
         // look into the cache
         GridCoverageReader reader = null;
-        Object key;
         if ( hints != null && info.getId() != null) {
             // expand the hints if necessary
             final String formatName = gridFormat.getName();
@@ -1216,47 +1224,11 @@ public class ResourcePool {
                 }
             }
             
-            key = new CoverageHintReaderKey(info.getId(), hints);
-            reader = (GridCoverage2DReader) hintCoverageReaderCache.get( key );
+            CoverageHintReaderKey key = new CoverageHintReaderKey(info.getId(), hints);
+            reader = getGridCoverageReader(info, gridFormat, hintCoverageReaderCache, key, hints);
         } else {
-            key = info.getId();
-            if(key != null) {
-                reader = (GridCoverageReader) coverageReaderCache.get( key );
-            }
-        }
-        
-        // if not found in cache, create it
-        if(reader == null) {
-            synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-                if (key != null) {
-                    if (hints != null) {
-                        reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                    } else {
-                        reader = (GridCoverageReader) coverageReaderCache.get(key);
-                    }
-                }
-                if (reader == null) {
-                    /////////////////////////////////////////////////////////
-                    //
-                    // Getting coverage reader using the format and the real path.
-                    //
-                    // /////////////////////////////////////////////////////////
-                    final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
-        
-                    // readers might change the provided hints, pass down a defensive copy
-                    reader = gridFormat.getReader(obj, new Hints(hints));
-                    if(reader == null) {
-                        throw new IOException("Failed to create reader from " + obj.getAbsolutePath() + " and hints " + hints);
-                    }
-                    if(key != null) {
-                        if(hints != null) {
-                            hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                        } else {
-                            coverageReaderCache.put((String) key, reader);
-                        }
-                    }
-                }
-            }
+            reader = getGridCoverageReader(info, gridFormat, coverageReaderCache, info.getId(), 
+                    hints);
         }
         
         // wrap it if we are dealing with a multi-coverage reader
@@ -1271,6 +1243,34 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Looks up the reader in the specified cache, creating it if missing.
+     */
+    <K> GridCoverageReader getGridCoverageReader(final CoverageStoreInfo info, 
+            final AbstractGridFormat gridFormat, final Map<K, GridCoverageReader> cache, 
+            final K key, final Hints hints) throws IOException {
+        return cacheLoader.get(cache, key, new Callable<GridCoverageReader>() {
+            public GridCoverageReader call() throws Exception {
+                /////////////////////////////////////////////////////////
+                //
+                // Getting coverage reader using the format and the real path.
+                //
+                // /////////////////////////////////////////////////////////
+                final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
+    
+                // readers might change the provided hints, pass down a defensive copy
+                GridCoverageReader reader = gridFormat.getReader(obj, new Hints(hints));
+                if(reader == null) {
+                    throw new IOException("Failed to create reader from " + obj.getAbsolutePath() + " and hints " + hints);
+                }
+                if(key != null) {
+                    cache.put(key, reader);
+                }
+                return reader;
+            }
+        });
+    }
+    
     /**
      * Clears any cached readers for the coverage.
      */
@@ -1433,25 +1433,22 @@ public class ResourcePool {
      * @param info The WMS configuration
      * @throws IOException
      */
-    public WebMapServer getWebMapServer(WMSStoreInfo info) throws IOException {
+    public WebMapServer getWebMapServer(final WMSStoreInfo info) throws IOException {
         try {
-            String id = info.getId();
-            WebMapServer wms = (WebMapServer) wmsCache.get(id);
-            if (wms == null) {
-                synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
-                    if (wms == null) {
-                        HTTPClient client = getHTTPClient(info);
-                        String capabilitiesURL = info.getCapabilitiesURL();
-                        URL serverURL = new URL(capabilitiesURL);
-                        wms = new WebMapServer(serverURL, client);
-                        
+            final String id = info.getId();
+            return cacheLoader.get(wmsCache, id, new Callable<WebMapServer>() {
+                public WebMapServer call() throws Exception {
+                    HTTPClient client = getHTTPClient(info);
+                    String capabilitiesURL = info.getCapabilitiesURL();
+                    URL serverURL = new URL(capabilitiesURL);
+                    WebMapServer wms = new WebMapServer(serverURL, client);
+                    
+                    if (id != null) {
                         wmsCache.put(id, wms);
                     }
+                    return wms;
                 }
-            }
-
-            return wms;
+            });
         } catch (IOException ioe) {
             throw ioe;
         } catch (Exception e) {
@@ -1533,32 +1530,26 @@ public class ResourcePool {
      * 
      * @throws IOException Any parsing errors.
      */
-    public Style getStyle( StyleInfo info ) throws IOException {
-        Style style = styleCache.get( info );
-        if ( style == null ) {
-            synchronized (styleCache) {
-                style = styleCache.get( info );
-                if ( style == null ) {
-                    
-                    //JD: it is important that we call the SLDParser(File) constructor because
-                    // if not the sourceURL will not be set which will mean it will fail to 
-                    //resolve relative references to online resources
-                    File styleFile = dataDir().findStyleSldFile(info);
-                    if ( styleFile == null ){
-                        throw new IOException( "No such file: " + info.getFilename());
-                    }
-                    
-                    style = Styles.style(Styles.parse(styleFile, null, info.getSLDVersion()));
-                    
-                    //set the name of the style to be the name of hte style metadata
-                    // remove this when wms works off style info
-                    style.setName( info.getName() );
-                    styleCache.put( info, style );
+    public Style getStyle( final StyleInfo info ) throws IOException {
+        return cacheLoader.get(styleCache, info, new Callable<Style>() {
+            public Style call() throws Exception {
+                //JD: it is important that we call the SLDParser(File) constructor because
+                // if not the sourceURL will not be set which will mean it will fail to 
+                //resolve relative references to online resources
+                File styleFile = dataDir().findStyleSldFile(info);
+                if ( styleFile == null ){
+                    throw new IOException( "No such file: " + info.getFilename());
                 }
+                
+                Style style = Styles.style(Styles.parse(styleFile, null, info.getSLDVersion()));
+                
+                //set the name of the style to be the name of hte style metadata
+                // remove this when wms works off style info
+                style.setName( info.getName() );
+                styleCache.put( info, style );
+                return style;
             }
-        }
-        
-        return style;
+        });
     }
     
     /**
@@ -1604,19 +1595,22 @@ public class ResourcePool {
      * @param style The style object.
      * @param format Whether to format the style
      */
-    public void writeStyle( StyleInfo info, Style style, boolean format) throws IOException {
-        synchronized ( styleCache ) {
-            File styleFile = dataDir().findOrCreateStyleSldFile(info);
-            BufferedOutputStream out = new BufferedOutputStream( new FileOutputStream( styleFile ) );
-            
-            try {
-                Styles.encode(Styles.sld(style), info.getSLDVersion(), format, out);
-                clear(info);
-            }
-            finally {
-                out.close();
+    public void writeStyle( final StyleInfo info, final Style style, final boolean format) throws IOException {
+        cacheLoader.write(styleCache, info, new Callable<Void>() {
+            public Void call() throws Exception {
+                File styleFile = dataDir().findOrCreateStyleSldFile(info);
+                BufferedOutputStream out = new BufferedOutputStream( new FileOutputStream( styleFile ) );
+                
+                try {
+                    Styles.encode(Styles.sld(style), info.getSLDVersion(), format, out);
+                    clear(info);
+                }
+                finally {
+                    out.close();
+                }
+                return null;
             }
-        }
+        });
     }
     
     /**
@@ -1626,21 +1620,24 @@ public class ResourcePool {
      * @param in input stream representing the raw a style.
      * 
      */
-    public void writeStyle( StyleInfo style, InputStream in ) throws IOException {
-        synchronized ( styleCache ) {
-            File styleFile = dataDir().findOrCreateStyleSldFile(style);
-            BufferedOutputStream out = new BufferedOutputStream( new FileOutputStream( styleFile ) );
-            
-            try {
-                IOUtils.copy( in, out );
-                out.flush();
+    public void writeStyle( final StyleInfo style, final InputStream in ) throws IOException {
+        cacheLoader.write(styleCache, style, new Callable<Void>() {
+            public Void call() throws Exception {
+                File styleFile = dataDir().findOrCreateStyleSldFile(style);
+                BufferedOutputStream out = new BufferedOutputStream( new FileOutputStream( styleFile ) );
                 
-                clear(style);
-            }
-            finally {
-                out.close();
+                try {
+                    IOUtils.copy( in, out );
+                    out.flush();
+                    
+                    clear(style);
+                }
+                finally {
+                    out.close();
+                }
+                return null;
             }
-        }
+        });
     }
     
     /**
@@ -1650,15 +1647,17 @@ public class ResourcePool {
      * @param purge Whether to delete the file from disk.
      * 
      */
-    public void deleteStyle( StyleInfo style, boolean purgeFile ) throws IOException {
-        synchronized ( styleCache ) {
-           
-            if( purgeFile ){
-                File styleFile = dataDir().findStyleSldFile(style);
-                if(styleFile != null && styleFile.exists() ){
-                    styleFile.delete();
+    public void deleteStyle( final StyleInfo style, boolean purgeFile ) throws IOException {
+        if( purgeFile ){
+            cacheLoader.write(styleCache, style, new Callable<Void>() {
+                public Void call() throws Exception {
+                    File styleFile = dataDir().findStyleSldFile(style);
+                    if(styleFile != null && styleFile.exists() ){
+                        styleFile.delete();
+                    }
+                    return null;
                 }
-            }
+            });
         }
     }
 
@@ -1682,56 +1681,287 @@ public class ResourcePool {
         listeners.clear();
     }
     
+    /**
+     * Loads the cache entries, running a single task per cache and key: callers asking for a
+     * key that is being loaded wait for that task only and share its result, while entries with
+     * different keys are loaded in parallel. Cache hits never get here, so they do not lock.
+     * <p>
+     * Null keys (resources that are not going to be cached) are loaded right away by the
+     * calling thread.
+     * </p>
+     */
+    static class CacheLoader {
+
+        final ConcurrentMap<CacheKey, FutureTask<?>> tasks = 
+            new ConcurrentHashMap<CacheKey, FutureTask<?>>();
+
+        /**
+         * Returns the value cached under the specified key, calling the loader if missing. The
+         * loader is in charge of putting the value in the cache, and is not supposed to return
+         * null.
+         */
+        <K, V> V get(final Map<K, V> cache, final K key, final Callable<V> loader)
+                throws IOException {
+            if (key == null) {
+                FutureTask<V> task = new FutureTask<V>(loader);
+                task.run();
+                return result(task);
+            }
+
+            V value = cache.get(key);
+            while (value == null) {
+                FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+                    public V call() throws Exception {
+                        // the previous task for the same key might have just completed
+                        V value = cache.get(key);
+                        return value != null ? value : loader.call();
+                    }
+                });
+                // a null result comes from a writer that held the key, look again
+                value = (V) execute(new CacheKey(cache, key), task);
+            }
+            return value;
+        }
+
+        /**
+         * Runs a task modifying the resource cached under the specified key, waiting for any
+         * load of the same key to complete, and making any new load wait for the task.
+         */
+        void write(Map<?, ?> cache, Object key, final Callable<?> writer) throws IOException {
+            CacheKey cacheKey = new CacheKey(cache, key);
+            FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+                public Object call() throws Exception {
+                    writer.call();
+                    return null;
+                }
+            });
+            FutureTask<?> running;
+            while ((running = tasks.putIfAbsent(cacheKey, task)) != null) {
+                try {
+                    result(running);
+                } catch (Exception e) {
+                    // not our business, the callers waiting on it will report it
+                }
+            }
+            run(cacheKey, task);
+            result(task);
+        }
+
+        /**
+         * Runs the task, or waits for the one already running on the same key, returning its
+         * result
+         */
+        Object execute(CacheKey key, FutureTask<?> task) throws IOException {
+            FutureTask<?> running = tasks.putIfAbsent(key, task);
+            if (running == null) {
+                run(key, task);
+                running = task;
+            }
+            return result(running);
+        }
+
+        void run(CacheKey key, FutureTask<?> task) {
+            try {
+                task.run();
+            } finally {
+                tasks.remove(key, task);
+            }
+        }
+
+        static <V> V result(Future<V> task) throws IOException {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a resource load");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw (IOException) new IOException().initCause(cause);
+            }
+        }
+
+        /**
+         * Returns the number of keys currently being loaded or written
+         */
+        int size() {
+            return tasks.size();
+        }
+    }
+    
+    /**
+     * Pairs a cache key with the cache it refers to. Caches are compared by identity, as 
+     * they are maps and their equality would depend on their contents
+     */
+    static class CacheKey {
+        
+        final Object cache;
+        
+        final Object key;
+        
+        CacheKey(Object cache, Object key) {
+            this.cache = cache;
+            this.key = key;
+        }
+        
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(cache) * 31 + key.hashCode();
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return cache == other.cache && key.equals(other.key);
+        }
+    }
+    
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal. Values are held by soft references, the
+     * most recently put ones by hard references too. Lookups do not lock, loading is up to the
+     * callers, through the {@link ResourcePool#cacheLoader}, so that each entry is loaded once
+     * and entries with different keys can be loaded in parallel.
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends AbstractMap<K, V> {
+
+        final ConcurrentMap<K, ValueReference<K, V>> references = 
+            new ConcurrentHashMap<K, ValueReference<K, V>>();
+
+        final ReferenceQueue<V> collected = new ReferenceQueue<V>();
+
+        final Queue<V> hardReferences = new ConcurrentLinkedQueue<V>();
+
+        final AtomicInteger hardReferencesSize = new AtomicInteger();
+
+        final int hardReferencesCount;
 
         public CatalogResourceCache() {
             this(100);
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
+        public CatalogResourceCache(int hardReferencesCount) {
+            this.hardReferencesCount = hardReferencesCount;
+        }
 
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
-                }
-            };
+        /**
+         * The number of values kept by hard references
+         */
+        public int getHardReferencesCount() {
+            return hardReferencesCount;
+        }
+
+        @Override
+        public V get(Object key) {
+            if (key == null) {
+                return null;
+            }
+            ValueReference<K, V> reference = references.get(key);
+            return reference != null ? reference.get() : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            expunge();
+            ValueReference<K, V> previous = references.put(key, 
+                    new ValueReference<K, V>(key, value, collected));
+            hardReferences.offer(value);
+            hardReferencesSize.incrementAndGet();
+            while (hardReferencesSize.get() > hardReferencesCount && hardReferences.poll() != null) {
+                hardReferencesSize.decrementAndGet();
+            }
+            return previous != null ? previous.get() : null;
         }
 
         @Override
         public V remove(Object key) {
-            V object = super.remove(key);
+            ValueReference<K, V> reference = key != null ? references.remove(key) : null;
+            V object = reference != null ? reference.get() : null;
             if (object != null) {
-                dispose((K) key, (V) object);
+                if (hardReferences.remove(object)) {
+                    hardReferencesSize.decrementAndGet();
+                }
+                dispose((K) key, object);
             }
             return object;
         }
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
-                try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
+            for (Iterator<ValueReference<K, V>> it = references.values().iterator(); it.hasNext();) {
+                ValueReference<K, V> reference = it.next();
+                it.remove();
+                V object = reference.get();
+                if (object != null) {
+                    try {
+                        dispose(reference.key, object);
+                    }
+                    catch(Exception e) {
+                        LOGGER.log(Level.WARNING, "Error dispoing entry: " + reference.key, e);
+                    }
                 }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
+            }
+            hardReferences.clear();
+            hardReferencesSize.set(0);
+        }
+
+        /**
+         * Returns a snapshot of the entries whose values have not been garbage collected
+         */
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            Map<K, V> entries = new HashMap<K, V>();
+            for (ValueReference<K, V> reference : references.values()) {
+                V object = reference.get();
+                if (object != null) {
+                    entries.put(reference.key, object);
                 }
             }
-            super.clear();
+            return entries.entrySet();
+        }
+
+        /**
+         * Drops the entries whose values have been garbage collected
+         */
+        void expunge() {
+            Reference<? extends V> reference;
+            while ((reference = collected.poll()) != null) {
+                ValueReference<K, V> value = (ValueReference<K, V>) reference;
+                references.remove(value.key, value);
+            }
         }
 
         protected abstract void dispose(K key, V object);
     }
     
+    static class ValueReference<K, V> extends SoftReference<V> {
+        
+        final K key;
+        
+        ValueReference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+    
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
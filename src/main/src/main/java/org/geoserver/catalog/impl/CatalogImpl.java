@@ -77,6 +77,12 @@ public class CatalogImpl implements Catalog {
      */
     private static final Logger LOGGER = Logging.getLogger(CatalogImpl.class);
 
+    /**
+     * Property (system, environment or servlet context) that when set to true makes the catalog
+     * use the {@link IndexedCatalogFacade} instead of the {@link DefaultCatalogFacade}
+     */
+    public static final String INDEXED_FACADE = "GEOSERVER_INDEXED_CATALOG";
+
     /**
      * data access facade
      */
@@ -99,7 +105,11 @@ public class CatalogImpl implements Catalog {
     protected boolean extendedValidation = true;
 
     public CatalogImpl() {
-        facade = new DefaultCatalogFacade(this);
+        if (Boolean.valueOf(GeoServerExtensions.getProperty(INDEXED_FACADE))) {
+            facade = new IndexedCatalogFacade(this);
+        } else {
+            facade = new DefaultCatalogFacade(this);
+        }
         resourcePool = ResourcePool.create(this);
     }
     
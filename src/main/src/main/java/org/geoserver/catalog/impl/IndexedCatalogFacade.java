@@ -0,0 +1,1061 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+
+/**
+ * In memory catalog facade that keeps hash indexes of the catalog contents by id, name and
+ * containment (workspace, namespace, store, resource, style) so that lookups do not have to scan
+ * the whole catalog.
+ * <p>
+ * Lookups never block, they go straight to concurrent maps. Modifications ({@code add},
+ * {@code remove}, {@code save}) are serialized by a single lock so that all the indexes of an
+ * object are updated together. Iteration order is the order in which objects were added, as with
+ * {@link DefaultCatalogFacade}.
+ * </p>
+ * <p>
+ * The facade is used in place of {@link DefaultCatalogFacade} when the
+ * {@link CatalogImpl#INDEXED_FACADE} property is set to {@code true}.
+ * </p>
+ */
+public class IndexedCatalogFacade extends AbstractCatalogFacade implements CatalogFacade {
+
+    static final String NAME = "name";
+    static final String WORKSPACE = "ws";
+    static final String WORKSPACE_NAME = "wsName";
+    static final String NAMESPACE = "ns";
+    static final String NAMESPACE_NAME = "nsName";
+    static final String PREFIX = "prefix";
+    static final String URI = "uri";
+    static final String STORE = "store";
+    static final String STORE_NAME = "storeName";
+    static final String RESOURCE = "resource";
+    static final String STYLE = "style";
+
+    /**
+     * workspaces
+     */
+    protected final Index<WorkspaceInfo> workspaces = new Index<WorkspaceInfo>() {
+        @Override
+        void keys(WorkspaceInfo ws, Set<String> keys) {
+            keys.add(key(NAME, ws.getName()));
+        }
+    };
+
+    /**
+     * namespaces
+     */
+    protected final Index<NamespaceInfo> namespaces = new Index<NamespaceInfo>() {
+        @Override
+        void keys(NamespaceInfo ns, Set<String> keys) {
+            keys.add(key(PREFIX, ns.getPrefix()));
+            keys.add(key(URI, ns.getURI()));
+        }
+    };
+
+    /**
+     * stores, of all types
+     */
+    protected final Index<StoreInfo> stores = new Index<StoreInfo>() {
+        @Override
+        void keys(StoreInfo store, Set<String> keys) {
+            String ws = id(store.getWorkspace());
+            keys.add(key(NAME, store.getName()));
+            keys.add(key(WORKSPACE, ws));
+            keys.add(key(WORKSPACE_NAME, ws, store.getName()));
+        }
+    };
+
+    /**
+     * resources, of all types
+     */
+    protected final Index<ResourceInfo> resources = new Index<ResourceInfo>() {
+        @Override
+        void keys(ResourceInfo resource, Set<String> keys) {
+            String ns = id(resource.getNamespace());
+            String store = id(resource.getStore());
+            keys.add(key(NAME, resource.getName()));
+            keys.add(key(NAMESPACE, ns));
+            keys.add(key(NAMESPACE_NAME, ns, resource.getName()));
+            keys.add(key(STORE, store));
+            keys.add(key(STORE_NAME, store, resource.getName()));
+        }
+    };
+
+    /**
+     * layers
+     */
+    protected final Index<LayerInfo> layers = new Index<LayerInfo>() {
+        @Override
+        void keys(LayerInfo layer, Set<String> keys) {
+            // layer name is derived from the resource, see LayerInfoImpl#getName()
+            if (layer.getResource() != null) {
+                keys.add(key(NAME, layer.getName()));
+            }
+            keys.add(key(RESOURCE, id(layer.getResource())));
+            if (layer.getDefaultStyle() != null) {
+                keys.add(key(STYLE, layer.getDefaultStyle().getId()));
+            }
+            for (StyleInfo s : layer.getStyles()) {
+                if (s != null) {
+                    keys.add(key(STYLE, s.getId()));
+                }
+            }
+        }
+    };
+
+    /**
+     * layer groups
+     */
+    protected final Index<LayerGroupInfo> layerGroups = new Index<LayerGroupInfo>() {
+        @Override
+        void keys(LayerGroupInfo layerGroup, Set<String> keys) {
+            String ws = id(layerGroup.getWorkspace());
+            keys.add(key(NAME, layerGroup.getName()));
+            keys.add(key(WORKSPACE, ws));
+            keys.add(key(WORKSPACE_NAME, ws, layerGroup.getName()));
+        }
+    };
+
+    /**
+     * styles
+     */
+    protected final Index<StyleInfo> styles = new Index<StyleInfo>() {
+        @Override
+        void keys(StyleInfo style, Set<String> keys) {
+            String ws = id(style.getWorkspace());
+            keys.add(key(NAME, style.getName()));
+            keys.add(key(WORKSPACE, ws));
+            keys.add(key(WORKSPACE_NAME, ws, style.getName()));
+        }
+    };
+
+    /**
+     * maps
+     */
+    protected final Index<MapInfo> maps = new Index<MapInfo>() {
+        @Override
+        void keys(MapInfo map, Set<String> keys) {
+            keys.add(key(NAME, map.getName()));
+        }
+    };
+
+    /**
+     * The default store keyed by workspace id
+     */
+    protected final ConcurrentMap<String, DataStoreInfo> defaultStores =
+        new ConcurrentHashMap<String, DataStoreInfo>();
+
+    /**
+     * default workspace and namespace
+     */
+    protected volatile WorkspaceInfo defaultWorkspace;
+    protected volatile NamespaceInfo defaultNamespace;
+
+    /**
+     * serializes modifications to the indexes
+     */
+    protected final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * the catalog
+     */
+    private CatalogImpl catalog;
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        setCatalog(catalog);
+    }
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = (CatalogImpl) catalog;
+    }
+
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    //
+    // Stores
+    //
+    public StoreInfo add(StoreInfo store) {
+        store = unwrap(store);
+        resolve(store);
+        writeLock.lock();
+        try {
+            stores.add(store);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(store, StoreInfo.class);
+    }
+
+    public void remove(StoreInfo store) {
+        writeLock.lock();
+        try {
+            stores.remove(unwrap(store));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(StoreInfo store) {
+        beforeSaved(store);
+        writeLock.lock();
+        try {
+            stores.reindex(commitProxy(store));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(store);
+    }
+
+    public <T extends StoreInfo> T detach(T store) {
+        return store;
+    }
+
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        return wrap(stores.get(id), clazz);
+    }
+
+    public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
+            Class<T> clazz) {
+        if (workspace == ANY_WORKSPACE) {
+            return wrap(unique(stores.find(key(NAME, name)), clazz), clazz);
+        }
+        if (workspace == null) {
+            return null;
+        }
+        return wrap(first(stores.find(key(WORKSPACE_NAME, id(workspace), name)), clazz), clazz);
+    }
+
+    public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
+            Class<T> clazz) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == ANY_WORKSPACE) {
+            return getStores(clazz);
+        }
+        return wrapList(stores.find(key(WORKSPACE, id(workspace))), clazz);
+    }
+
+    public <T extends StoreInfo> List<T> getStores(Class<T> clazz) {
+        return wrapList(stores.all(), clazz);
+    }
+
+    public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
+        DataStoreInfo store = defaultStores.get(workspace.getId());
+        return store != null ? ModificationProxy.create(store, DataStoreInfo.class) : null;
+    }
+
+    public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
+        DataStoreInfo old;
+        if (store != null) {
+            // use the indexed instance if there is one
+            StoreInfo real = stores.get(store.getId());
+            old = defaultStores.put(workspace.getId(),
+                real instanceof DataStoreInfo ? (DataStoreInfo) real : unwrap(store));
+        } else {
+            old = defaultStores.remove(workspace.getId());
+        }
+
+        //fire change event
+        catalog.fireModified(catalog,
+            Arrays.asList("defaultDataStore"), Arrays.asList(old), Arrays.asList(store));
+    }
+
+    //
+    // Resources
+    //
+    public ResourceInfo add(ResourceInfo resource) {
+        resource = unwrap(resource);
+        resolve(resource);
+        writeLock.lock();
+        try {
+            resources.add(resource);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(resource, ResourceInfo.class);
+    }
+
+    public void remove(ResourceInfo resource) {
+        writeLock.lock();
+        try {
+            resources.remove(unwrap(resource));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(ResourceInfo resource) {
+        beforeSaved(resource);
+        writeLock.lock();
+        try {
+            ResourceInfo real = commitProxy(resource);
+            resources.reindex(real);
+
+            // layer names are derived from the resource name
+            for (LayerInfo layer : layers.find(key(RESOURCE, real.getId()))) {
+                layers.reindex(layer);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(resource);
+    }
+
+    public <T extends ResourceInfo> T detach(T resource) {
+        return resource;
+    }
+
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        return wrap(resources.get(id), clazz);
+    }
+
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        if (namespace == ANY_NAMESPACE) {
+            return wrap(unique(resources.find(key(NAME, name)), clazz), clazz);
+        }
+        if (namespace == null) {
+            return null;
+        }
+        return wrap(first(resources.find(key(NAMESPACE_NAME, namespace.getId(), name)), clazz),
+                clazz);
+    }
+
+    public <T extends ResourceInfo> List<T> getResources(Class<T> clazz) {
+        return wrapList(resources.all(), clazz);
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByNamespace(NamespaceInfo namespace,
+            Class<T> clazz) {
+        if (namespace == null) {
+            namespace = getDefaultNamespace();
+        }
+        return wrapList(resources.find(key(NAMESPACE, id(namespace))), clazz);
+    }
+
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        return wrap(first(resources.find(key(STORE_NAME, store.getId(), name)), clazz), clazz);
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        return wrapList(resources.find(key(STORE, store.getId())), clazz);
+    }
+
+    //
+    // Layers
+    //
+    public LayerInfo add(LayerInfo layer) {
+        layer = unwrap(layer);
+        resolve(layer);
+        writeLock.lock();
+        try {
+            layers.add(layer);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(layer, LayerInfo.class);
+    }
+
+    public void remove(LayerInfo layer) {
+        writeLock.lock();
+        try {
+            layers.remove(unwrap(layer));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(LayerInfo layer) {
+        beforeSaved(layer);
+        writeLock.lock();
+        try {
+            layers.reindex(commitProxy(layer));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(layer);
+    }
+
+    public LayerInfo detach(LayerInfo layer) {
+        return layer;
+    }
+
+    public LayerInfo getLayer(String id) {
+        return wrap(layers.get(id), LayerInfo.class);
+    }
+
+    public LayerInfo getLayerByName(String name) {
+        return wrap(first(layers.find(key(NAME, name)), LayerInfo.class), LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        return wrapList(layers.find(key(RESOURCE, resource.getId())), LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        return wrapList(layers.find(key(STYLE, style.getId())), LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers() {
+        return wrapList(layers.all(), LayerInfo.class);
+    }
+
+    //
+    // Maps
+    //
+    public MapInfo add(MapInfo map) {
+        map = unwrap(map);
+        resolve(map);
+        writeLock.lock();
+        try {
+            maps.add(map);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(map, MapInfo.class);
+    }
+
+    public void remove(MapInfo map) {
+        writeLock.lock();
+        try {
+            maps.remove(unwrap(map));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(MapInfo map) {
+        beforeSaved(map);
+        writeLock.lock();
+        try {
+            maps.reindex(commitProxy(map));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(map);
+    }
+
+    public MapInfo detach(MapInfo map) {
+        return map;
+    }
+
+    public MapInfo getMap(String id) {
+        return wrap(maps.get(id), MapInfo.class);
+    }
+
+    public MapInfo getMapByName(String name) {
+        return wrap(first(maps.find(key(NAME, name)), MapInfo.class), MapInfo.class);
+    }
+
+    public List<MapInfo> getMaps() {
+        return wrapList(maps.all(), MapInfo.class);
+    }
+
+    //
+    // Layer groups
+    //
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        layerGroup = unwrap(layerGroup);
+        resolve(layerGroup);
+        writeLock.lock();
+        try {
+            layerGroups.add(layerGroup);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
+    }
+
+    public void remove(LayerGroupInfo layerGroup) {
+        writeLock.lock();
+        try {
+            layerGroups.remove(unwrap(layerGroup));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(LayerGroupInfo layerGroup) {
+        beforeSaved(layerGroup);
+        writeLock.lock();
+        try {
+            layerGroups.reindex(commitProxy(layerGroup));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(layerGroup);
+    }
+
+    public LayerGroupInfo detach(LayerGroupInfo layerGroup) {
+        return layerGroup;
+    }
+
+    public List<LayerGroupInfo> getLayerGroups() {
+        return wrapList(layerGroups.all(), LayerGroupInfo.class);
+    }
+
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == ANY_WORKSPACE) {
+            return getLayerGroups();
+        }
+        return wrapList(layerGroups.find(key(WORKSPACE, id(workspace))), LayerGroupInfo.class);
+    }
+
+    public LayerGroupInfo getLayerGroup(String id) {
+        return wrap(layerGroups.get(id), LayerGroupInfo.class);
+    }
+
+    public LayerGroupInfo getLayerGroupByName(String name) {
+        return getLayerGroupByName(NO_WORKSPACE, name);
+    }
+
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        Collection<LayerGroupInfo> matches;
+        if (workspace == ANY_WORKSPACE) {
+            matches = layerGroups.find(key(NAME, name));
+        } else {
+            matches = layerGroups.find(key(WORKSPACE_NAME, id(workspace), name));
+        }
+        return wrap(unique(matches, LayerGroupInfo.class), LayerGroupInfo.class);
+    }
+
+    //
+    // Namespaces
+    //
+    public NamespaceInfo add(NamespaceInfo namespace) {
+        namespace = unwrap(namespace);
+        resolve(namespace);
+        writeLock.lock();
+        try {
+            namespaces.add(namespace);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(namespace, NamespaceInfo.class);
+    }
+
+    public void remove(NamespaceInfo namespace) {
+        writeLock.lock();
+        try {
+            namespace = unwrap(namespace);
+            if (defaultNamespace != null && defaultNamespace.getId().equals(namespace.getId())) {
+                defaultNamespace = null;
+            }
+            namespaces.remove(namespace);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(NamespaceInfo namespace) {
+        beforeSaved(namespace);
+        writeLock.lock();
+        try {
+            namespaces.reindex(commitProxy(namespace));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(namespace);
+    }
+
+    public NamespaceInfo detach(NamespaceInfo namespace) {
+        return namespace;
+    }
+
+    public NamespaceInfo getDefaultNamespace() {
+        return wrap(defaultNamespace, NamespaceInfo.class);
+    }
+
+    public void setDefaultNamespace(NamespaceInfo namespace) {
+        NamespaceInfo old = defaultNamespace;
+        NamespaceInfo ns = namespace != null ?
+            first(namespaces.find(key(PREFIX, namespace.getPrefix())), NamespaceInfo.class) : null;
+        defaultNamespace = ns;
+
+        //fire change event
+        catalog.fireModified(catalog,
+            Arrays.asList("defaultNamespace"), Arrays.asList(old), Arrays.asList(namespace));
+    }
+
+    public NamespaceInfo getNamespace(String id) {
+        return wrap(namespaces.get(id), NamespaceInfo.class);
+    }
+
+    public NamespaceInfo getNamespaceByPrefix(String prefix) {
+        if (prefix == null) {
+            return getDefaultNamespace();
+        }
+        NamespaceInfo ns = first(namespaces.find(key(PREFIX, prefix)), NamespaceInfo.class);
+        if (ns == null && Catalog.DEFAULT.equals(prefix)) {
+            return getDefaultNamespace();
+        }
+        return wrap(ns, NamespaceInfo.class);
+    }
+
+    public NamespaceInfo getNamespaceByURI(String uri) {
+        return wrap(first(namespaces.find(key(URI, uri)), NamespaceInfo.class),
+                NamespaceInfo.class);
+    }
+
+    public List<NamespaceInfo> getNamespaces() {
+        return wrapList(namespaces.all(), NamespaceInfo.class);
+    }
+
+    //
+    // Workspaces
+    //
+    public WorkspaceInfo add(WorkspaceInfo workspace) {
+        workspace = unwrap(workspace);
+        resolve(workspace);
+        writeLock.lock();
+        try {
+            workspaces.add(workspace);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(workspace, WorkspaceInfo.class);
+    }
+
+    public void remove(WorkspaceInfo workspace) {
+        writeLock.lock();
+        try {
+            workspace = unwrap(workspace);
+            if (defaultWorkspace != null && defaultWorkspace.getId().equals(workspace.getId())) {
+                defaultWorkspace = null;
+            }
+            workspaces.remove(workspace);
+            defaultStores.remove(workspace.getId());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(WorkspaceInfo workspace) {
+        beforeSaved(workspace);
+        writeLock.lock();
+        try {
+            workspaces.reindex(commitProxy(workspace));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(workspace);
+    }
+
+    public WorkspaceInfo detach(WorkspaceInfo workspace) {
+        return workspace;
+    }
+
+    public WorkspaceInfo getDefaultWorkspace() {
+        return wrap(defaultWorkspace, WorkspaceInfo.class);
+    }
+
+    public void setDefaultWorkspace(WorkspaceInfo workspace) {
+        WorkspaceInfo old = defaultWorkspace;
+        WorkspaceInfo ws = workspace != null ?
+            first(workspaces.find(key(NAME, workspace.getName())), WorkspaceInfo.class) : null;
+        defaultWorkspace = ws;
+
+        //fire change event
+        catalog.fireModified(catalog,
+            Arrays.asList("defaultWorkspace"), Arrays.asList(old), Arrays.asList(workspace));
+    }
+
+    public List<WorkspaceInfo> getWorkspaces() {
+        return wrapList(workspaces.all(), WorkspaceInfo.class);
+    }
+
+    public WorkspaceInfo getWorkspace(String id) {
+        return wrap(workspaces.get(id), WorkspaceInfo.class);
+    }
+
+    public WorkspaceInfo getWorkspaceByName(String name) {
+        if (name == null) {
+            return getDefaultWorkspace();
+        }
+        WorkspaceInfo ws = first(workspaces.find(key(NAME, name)), WorkspaceInfo.class);
+        if (ws == null && Catalog.DEFAULT.equals(name)) {
+            return getDefaultWorkspace();
+        }
+        return wrap(ws, WorkspaceInfo.class);
+    }
+
+    //
+    // Styles
+    //
+    public StyleInfo add(StyleInfo style) {
+        style = unwrap(style);
+        resolve(style);
+        writeLock.lock();
+        try {
+            styles.add(style);
+        } finally {
+            writeLock.unlock();
+        }
+        return ModificationProxy.create(style, StyleInfo.class);
+    }
+
+    public void remove(StyleInfo style) {
+        writeLock.lock();
+        try {
+            styles.remove(unwrap(style));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void save(StyleInfo style) {
+        beforeSaved(style);
+        writeLock.lock();
+        try {
+            styles.reindex(commitProxy(style));
+        } finally {
+            writeLock.unlock();
+        }
+        afterSaved(style);
+    }
+
+    public StyleInfo detach(StyleInfo style) {
+        return style;
+    }
+
+    public StyleInfo getStyle(String id) {
+        return wrap(styles.get(id), StyleInfo.class);
+    }
+
+    public StyleInfo getStyleByName(String name) {
+        return getStyleByName(NO_WORKSPACE, name);
+    }
+
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+        if (workspace == ANY_WORKSPACE) {
+            return wrap(unique(styles.find(key(NAME, name)), StyleInfo.class), StyleInfo.class);
+        }
+        return wrap(first(styles.find(key(WORKSPACE_NAME, id(workspace), name)),
+                StyleInfo.class), StyleInfo.class);
+    }
+
+    public List<StyleInfo> getStyles() {
+        return wrapList(styles.all(), StyleInfo.class);
+    }
+
+    public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+        }
+        if (workspace == ANY_WORKSPACE) {
+            return getStyles();
+        }
+        return wrapList(styles.find(key(WORKSPACE, id(workspace))), StyleInfo.class);
+    }
+
+    public void dispose() {
+        writeLock.lock();
+        try {
+            workspaces.clear();
+            namespaces.clear();
+            stores.clear();
+            resources.clear();
+            layers.clear();
+            layerGroups.clear();
+            styles.clear();
+            maps.clear();
+            defaultStores.clear();
+            defaultWorkspace = null;
+            defaultNamespace = null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void resolve() {
+        writeLock.lock();
+        try {
+            for (WorkspaceInfo ws : workspaces.all()) {
+                resolve(ws);
+            }
+            for (NamespaceInfo ns : namespaces.all()) {
+                resolve(ns);
+            }
+            for (StoreInfo s : stores.all()) {
+                resolve(s);
+            }
+            for (StyleInfo s : styles.all()) {
+                resolve(s);
+            }
+            for (ResourceInfo r : resources.all()) {
+                resolve(r);
+            }
+            for (LayerInfo l : layers.all()) {
+                resolve(l);
+            }
+            for (LayerGroupInfo lg : layerGroups.all()) {
+                resolve(lg);
+            }
+            for (MapInfo m : maps.all()) {
+                resolve(m);
+            }
+
+            // resolving may have changed the references the indexes are built upon
+            workspaces.reindexAll();
+            namespaces.reindexAll();
+            stores.reindexAll();
+            styles.reindexAll();
+            resources.reindexAll();
+            layers.reindexAll();
+            layerGroups.reindexAll();
+            maps.reindexAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void syncTo(CatalogFacade dao) {
+        for (WorkspaceInfo ws : workspaces.all()) { dao.add(ws); }
+        for (NamespaceInfo ns : namespaces.all()) { dao.add(ns); }
+        for (StoreInfo s : stores.all()) { dao.add(s); }
+        for (ResourceInfo r : resources.all()) { dao.add(r); }
+        for (StyleInfo s : styles.all()) { dao.add(s); }
+        for (LayerInfo l : layers.all()) { dao.add(l); }
+        for (LayerGroupInfo lg : layerGroups.all()) { dao.add(lg); }
+        for (MapInfo m : maps.all()) { dao.add(m); }
+
+        if (defaultWorkspace != null) {
+            dao.setDefaultWorkspace(defaultWorkspace);
+        }
+        if (defaultNamespace != null) {
+            dao.setDefaultNamespace(defaultNamespace);
+        }
+        for (Map.Entry<String, DataStoreInfo> e : defaultStores.entrySet()) {
+            WorkspaceInfo ws = workspaces.get(e.getKey());
+            if (null != ws) {
+                dao.setDefaultDataStore(ws, e.getValue());
+            }
+        }
+    }
+
+    //
+    // Utilities
+    //
+    static String id(CatalogInfo info) {
+        return info == null || info == NO_WORKSPACE ? null : info.getId();
+    }
+
+    static String key(String kind, String value) {
+        return value == null ? kind + '\u0001' : kind + '\u0000' + value;
+    }
+
+    static String key(String kind, String value1, String value2) {
+        return key(kind, value1) + '\u0000' + value2;
+    }
+
+    /**
+     * Returns the first object of the specified type, or null.
+     */
+    static <T> T first(Collection<? super T> candidates, Class<T> clazz) {
+        for (Object o : candidates) {
+            if (clazz.isInstance(o)) {
+                return clazz.cast(o);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the only object of the specified type, or null if there is none or more than one.
+     */
+    static <T> T unique(Collection<? super T> candidates, Class<T> clazz) {
+        T match = null;
+        for (Object o : candidates) {
+            if (clazz.isInstance(o)) {
+                if (match != null) {
+                    return null;
+                }
+                match = clazz.cast(o);
+            }
+        }
+        return match;
+    }
+
+    static <T> T wrap(Object info, Class<T> clazz) {
+        if (info == null || !clazz.isInstance(info)) {
+            return null;
+        }
+        return ModificationProxy.create(clazz.cast(info), clazz);
+    }
+
+    static <T> List<T> wrapList(Collection<?> infos, Class<T> clazz) {
+        List<T> matches = new ArrayList<T>(infos.size());
+        for (Object o : infos) {
+            if (clazz.isInstance(o)) {
+                matches.add(clazz.cast(o));
+            }
+        }
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    /**
+     * Hash index over a single type of catalog objects.
+     * <p>
+     * Objects are indexed by id and by the set of keys returned by {@link #keys(CatalogInfo, Set)}.
+     * The keys an object was indexed with are remembered so that the object can be found in the
+     * index after it has been modified. All the mutators must be called while holding the facade
+     * write lock, the accessors can be called at any time.
+     * </p>
+     */
+    static abstract class Index<T extends CatalogInfo> {
+
+        /** objects by id */
+        final ConcurrentMap<String, T> byId = new ConcurrentHashMap<String, T>();
+
+        /** objects by insertion order */
+        final ConcurrentSkipListMap<Long, T> all = new ConcurrentSkipListMap<Long, T>();
+
+        /** objects by key, in insertion order */
+        final ConcurrentMap<String, ConcurrentSkipListMap<Long, T>> byKey =
+            new ConcurrentHashMap<String, ConcurrentSkipListMap<Long, T>>();
+
+        /** insertion sequence and index keys by id, only accessed under the write lock */
+        final Map<String, IndexEntry> entries = new HashMap<String, IndexEntry>();
+
+        long sequence;
+
+        /**
+         * Collects the keys the object should be reachable by.
+         */
+        abstract void keys(T info, Set<String> keys);
+
+        T get(String id) {
+            return id == null ? null : byId.get(id);
+        }
+
+        Collection<T> find(String key) {
+            ConcurrentSkipListMap<Long, T> bucket = byKey.get(key);
+            return bucket == null ? Collections.<T>emptyList() : bucket.values();
+        }
+
+        Collection<T> all() {
+            return all.values();
+        }
+
+        void add(T info) {
+            String id = info.getId();
+            IndexEntry entry = entries.get(id);
+            if (entry == null) {
+                entry = new IndexEntry(sequence++);
+                entries.put(id, entry);
+            }
+            byId.put(id, info);
+            all.put(entry.seq, info);
+
+            Set<String> keys = new LinkedHashSet<String>();
+            keys(info, keys);
+            for (String key : keys) {
+                ConcurrentSkipListMap<Long, T> bucket = byKey.get(key);
+                if (bucket == null) {
+                    bucket = new ConcurrentSkipListMap<Long, T>();
+                    byKey.put(key, bucket);
+                }
+                bucket.put(entry.seq, info);
+            }
+
+            // drop the keys the object is no longer reachable by
+            for (String key : entry.keys) {
+                if (!keys.contains(key)) {
+                    unbucket(key, entry.seq);
+                }
+            }
+            entry.keys = keys;
+        }
+
+        void reindex(T info) {
+            add(info);
+        }
+
+        void reindexAll() {
+            for (T info : all()) {
+                add(info);
+            }
+        }
+
+        void remove(T info) {
+            String id = info.getId();
+            IndexEntry entry = entries.remove(id);
+            if (entry == null) {
+                return;
+            }
+            for (String key : entry.keys) {
+                unbucket(key, entry.seq);
+            }
+            all.remove(entry.seq);
+            byId.remove(id);
+        }
+
+        void clear() {
+            byKey.clear();
+            all.clear();
+            byId.clear();
+            entries.clear();
+        }
+
+        void unbucket(String key, Long seq) {
+            ConcurrentSkipListMap<Long, T> bucket = byKey.get(key);
+            if (bucket != null) {
+                bucket.remove(seq);
+                if (bucket.isEmpty()) {
+                    byKey.remove(key);
+                }
+            }
+        }
+    }
+
+    static final class IndexEntry {
+        final long seq;
+        Set<String> keys = Collections.emptySet();
+
+        IndexEntry(long seq) {
+            this.seq = seq;
+        }
+    }
+}
@@ -67,10 +67,23 @@ public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
+    /**
+     * Name of the property (system, environment or servlet context variable) enabling the 
+     * parallel loading of the catalog. The value can be either "true", to use one thread per 
+     * available processor, or the number of threads to use.
+     */
+    public static final String PARALLEL_LOAD = "GEOSERVER_PARALLEL_LOAD";
+    
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
     
+    /**
+     * Number of threads used to read the catalog, values lower than 2 mean sequential loading,
+     * null means it has to be looked up from the {@link #PARALLEL_LOAD} property
+     */
+    Integer loaderThreads;
+    
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
     // this ugly hack can die
@@ -93,6 +106,39 @@ public abstract class GeoServerLoader {
         GeoServerLoader.legacy = legacy;
     }
     
+    /**
+     * Sets the number of threads used to parse the catalog configuration files, a value
+     * lower than 2 makes the catalog load sequentially. When not set the value is looked up
+     * from the {@link #PARALLEL_LOAD} property.
+     */
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = loaderThreads;
+    }
+    
+    /**
+     * Returns the number of threads used to parse the catalog configuration files
+     */
+    public int getLoaderThreads() {
+        if (loaderThreads == null) {
+            int threads = 1;
+            String value = GeoServerExtensions.getProperty(PARALLEL_LOAD);
+            if (value != null) {
+                if ("true".equalsIgnoreCase(value.trim())) {
+                    threads = Runtime.getRuntime().availableProcessors();
+                } else if (!"false".equalsIgnoreCase(value.trim())) {
+                    try {
+                        threads = Integer.parseInt(value.trim());
+                    } catch (NumberFormatException e) {
+                        LOGGER.warning("Invalid value for " + PARALLEL_LOAD + ": '" + value
+                                + "', loading the catalog sequentially");
+                    }
+                }
+            }
+            loaderThreads = threads;
+        }
+        return loaderThreads;
+    }
+    
     public final Object postProcessAfterInitialization(Object bean, String beanName)
             throws BeansException {
         return bean;
@@ -243,6 +289,7 @@ public abstract class GeoServerLoader {
      * Reads the catalog from disk.
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        long start = System.currentTimeMillis();
         CatalogImpl catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
@@ -335,57 +382,137 @@ public abstract class GeoServerLoader {
                 }
             }
             
-            for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
-                
-                //load the stores for this workspace
-                for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
-                    File f = new File( sd, "datastore.xml");
-                    if ( f.exists() ) {
-                        //load as a datastore
-                        DataStoreInfo ds = null;
-                        try {    
-                            ds = depersist( xp, f, DataStoreInfo.class );
-                            catalog.add( ds );
+            int threads = getLoaderThreads();
+            if (threads > 1) {
+                new ParallelCatalogLoader(this, threads).loadStores(workspaces, catalog, xp);
+            }
+            else {
+                loadStores(workspaces, catalog, xp);
+            }
+        }
+        else {
+            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
+        }
+
+        //namespaces
+        
+        //layergroups
+        File layergroups = resourceLoader.find( "layergroups" );
+        if ( layergroups != null ) {
+           loadLayerGroups(layergroups, catalog, xp);
+        }
+        xp.setUnwrapNulls(true);
+        catalog.resolve();
+        
+        LOGGER.info("Read catalog in " + (System.currentTimeMillis() - start) + " ms");
+        return catalog;
+    }
+    
+    /**
+     * Loads the stores, resources, layers and workspace specific layer groups of all the 
+     * workspaces, one after the other.
+     */
+    void loadStores(File workspaces, Catalog catalog, XStreamPersister xp) {
+        for ( File wsd : list(workspaces, DirectoryFileFilter.INSTANCE ) ) {
+            
+            //load the stores for this workspace
+            for ( File sd : list(wsd, DirectoryFileFilter.INSTANCE) ) {
+                File f = new File( sd, "datastore.xml");
+                if ( f.exists() ) {
+                    //load as a datastore
+                    DataStoreInfo ds = null;
+                    try {    
+                        ds = depersist( xp, f, DataStoreInfo.class );
+                        catalog.add( ds );
+                        
+                        LOGGER.info( "Loaded data store '" + ds.getName() +"'");
+                        
+                        if (ds.isEnabled()) {
+                            //connect to the datastore to determine if we should disable it
+                            try {
+                                ds.getDataStore(null);
+                            }
+                            catch( Throwable t ) {
+                                LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
+                                LOGGER.log( Level.INFO, "", t );
+                                
+                                ds.setError(t);
+                                ds.setEnabled(false);
+                            }
+                        }
+                    }
+                    catch( Exception e ) {
+                        LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
+                        continue;
+                    }
+                    
+                    //load feature types
+                    for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
+                        f = new File( ftd, "featuretype.xml" );
+                        if( f.exists() ) {
+                            FeatureTypeInfo ft = null;
+                            try {
+                                ft = depersist(xp,f,FeatureTypeInfo.class);
+                            }
+                            catch( Exception e ) {
+                                LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
+                                continue;
+                            }
                             
-                            LOGGER.info( "Loaded data store '" + ds.getName() +"'");
+                            catalog.add( ft );
                             
-                            if (ds.isEnabled()) {
-                                //connect to the datastore to determine if we should disable it
+                            LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
+                            
+                            f = new File( ftd, "layer.xml" );
+                            if ( f.exists() ) {
                                 try {
-                                    ds.getDataStore(null);
-                                }
-                                catch( Throwable t ) {
-                                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                                    LOGGER.log( Level.INFO, "", t );
+                                    LayerInfo l = depersist(xp, f, LayerInfo.class );
+                                    catalog.add( l );
                                     
-                                    ds.setError(t);
-                                    ds.setEnabled(false);
+                                    LOGGER.info( "Loaded layer '" + l.getName() + "'" );
+                                }
+                                catch( Exception e ) {
+                                    LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
                                 }
                             }
                         }
+                        else {
+                            LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
+                        }
+                    }
+                } else {
+                    //look for a coverage store
+                    f = new File( sd, "coveragestore.xml" );
+                    if ( f.exists() ) {
+                        CoverageStoreInfo cs = null;
+                        try {
+                            cs = depersist( xp, f, CoverageStoreInfo.class );
+                            catalog.add( cs );
+                        
+                            LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
+                        }
                         catch( Exception e ) {
-                            LOGGER.log( Level.WARNING, "Failed to load data store '" + sd.getName() +"'", e);
+                            LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
                             continue;
                         }
                         
-                        //load feature types
-                        for ( File ftd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                            f = new File( ftd, "featuretype.xml" );
+                        //load coverages
+                        for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
+                            f = new File( cd, "coverage.xml" );
                             if( f.exists() ) {
-                                FeatureTypeInfo ft = null;
+                                CoverageInfo c = null;
                                 try {
-                                    ft = depersist(xp,f,FeatureTypeInfo.class);
+                                    c = depersist(xp,f,CoverageInfo.class);
+                                    catalog.add( c );
+                                    
+                                    LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
                                 }
                                 catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load feature type '" + ftd.getName() +"'", e);
+                                    LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
                                     continue;
                                 }
                                 
-                                catalog.add( ft );
-                                
-                                LOGGER.info( "Loaded feature type '" + ds.getName() +"'");
-                                
-                                f = new File( ftd, "layer.xml" );
+                                f = new File( cd, "layer.xml" );
                                 if ( f.exists() ) {
                                     try {
                                         LayerInfo l = depersist(xp, f, LayerInfo.class );
@@ -394,43 +521,41 @@ public abstract class GeoServerLoader {
                                         LOGGER.info( "Loaded layer '" + l.getName() + "'" );
                                     }
                                     catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load layer for feature type '" + ft.getName() +"'", e);
+                                        LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
                                     }
                                 }
                             }
                             else {
-                                LOGGER.warning( "Ignoring feature type directory " + ftd.getAbsolutePath() );
+                                LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
                             }
                         }
                     } else {
-                        //look for a coverage store
-                        f = new File( sd, "coveragestore.xml" );
-                        if ( f.exists() ) {
-                            CoverageStoreInfo cs = null;
+                        f = new File( sd, "wmsstore.xml" );
+                        if(f.exists()) {
+                            WMSStoreInfo wms = null;
                             try {
-                                cs = depersist( xp, f, CoverageStoreInfo.class );
-                                catalog.add( cs );
+                                wms = depersist( xp, f, WMSStoreInfo.class );
+                                catalog.add( wms );
                             
-                                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
-                            }
-                            catch( Exception e ) {
-                                LOGGER.log( Level.WARNING, "Failed to load coverage store '" + sd.getName() +"'", e);
+                                LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
+                            } catch( Exception e ) {
+                                LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
                                 continue;
                             }
                             
-                            //load coverages
+                            //load wms layers
                             for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                f = new File( cd, "coverage.xml" );
+                                f = new File( cd, "wmslayer.xml" );
                                 if( f.exists() ) {
-                                    CoverageInfo c = null;
+                                    WMSLayerInfo wl = null;
                                     try {
-                                        c = depersist(xp,f,CoverageInfo.class);
-                                        catalog.add( c );
+                                        wl = depersist(xp,f,WMSLayerInfo.class);
+                                        catalog.add( wl );
                                         
-                                        LOGGER.info( "Loaded coverage '" + cs.getName() +"'");
+                                        LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
                                     }
                                     catch( Exception e ) {
-                                        LOGGER.log( Level.WARNING, "Failed to load coverage '" + cd.getName() +"'", e);
+                                        LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
                                         continue;
                                     }
                                     
@@ -443,7 +568,7 @@ public abstract class GeoServerLoader {
                                             LOGGER.info( "Loaded layer '" + l.getName() + "'" );
                                         }
                                         catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load layer coverage '" + c.getName() +"'", e);
+                                            LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
                                         }
                                     }
                                 }
@@ -452,81 +577,19 @@ public abstract class GeoServerLoader {
                                 }
                             }
                         } else {
-                            f = new File( sd, "wmsstore.xml" );
-                            if(f.exists()) {
-                                WMSStoreInfo wms = null;
-                                try {
-                                    wms = depersist( xp, f, WMSStoreInfo.class );
-                                    catalog.add( wms );
-                                
-                                    LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-                                } catch( Exception e ) {
-                                    LOGGER.log( Level.WARNING, "Failed to load wms store '" + sd.getName() +"'", e);
-                                    continue;
-                                }
-                                
-                                //load wms layers
-                                for ( File cd : list(sd,DirectoryFileFilter.INSTANCE) ) {
-                                    f = new File( cd, "wmslayer.xml" );
-                                    if( f.exists() ) {
-                                        WMSLayerInfo wl = null;
-                                        try {
-                                            wl = depersist(xp,f,WMSLayerInfo.class);
-                                            catalog.add( wl );
-                                            
-                                            LOGGER.info( "Loaded wms layer'" + wl.getName() +"'");
-                                        }
-                                        catch( Exception e ) {
-                                            LOGGER.log( Level.WARNING, "Failed to load wms layer '" + cd.getName() +"'", e);
-                                            continue;
-                                        }
-                                        
-                                        f = new File( cd, "layer.xml" );
-                                        if ( f.exists() ) {
-                                            try {
-                                                LayerInfo l = depersist(xp, f, LayerInfo.class );
-                                                catalog.add( l );
-                                                
-                                                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-                                            }
-                                            catch( Exception e ) {
-                                                LOGGER.log( Level.WARNING, "Failed to load cascaded wms layer '" + wl.getName() +"'", e);
-                                            }
-                                        }
-                                    }
-                                    else {
-                                        LOGGER.warning( "Ignoring coverage directory " + cd.getAbsolutePath() );
-                                    }
-                                }
-                            } else {
-                                LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
-                                continue;
-                            }
+                            LOGGER.warning( "Ignoring store directory '" + sd.getName() +  "'");
+                            continue;
                         }
                     }
                 }
-
-                //load hte layer groups for this workspace
-                File layergroups = resourceLoader.find(wsd, "layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
-                }
             }
-        }
-        else {
-            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
-        }
 
-        //namespaces
-        
-        //layergroups
-        File layergroups = resourceLoader.find( "layergroups" );
-        if ( layergroups != null ) {
-           loadLayerGroups(layergroups, catalog, xp);
+            //load hte layer groups for this workspace
+            File layergroups = resourceLoader.find(wsd, "layergroups");
+            if (layergroups != null) {
+                loadLayerGroups(layergroups, catalog, xp);
+            }
         }
-        xp.setUnwrapNulls(true);
-        catalog.resolve();
-        return catalog;
     }
     
     /**
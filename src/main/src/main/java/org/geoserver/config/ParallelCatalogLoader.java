@@ -0,0 +1,403 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Loads the stores, resources and layers of a data directory parsing their configuration files
+ * on a thread pool, one task per store directory.
+ * <p>
+ * The loading happens in three phases:
+ * <ol>
+ * <li>the xml files are parsed in parallel, while the catalog is left untouched</li>
+ * <li>the parsed objects are added to the catalog from the calling thread, in the same order
+ * used by {@link GeoServerLoader#loadStores(File, Catalog, XStreamPersister)}, resolving the
+ * references to stores and resources that could not be resolved during parsing</li>
+ * <li>the connection to the enabled data stores is checked in parallel, disabling the ones
+ * that fail, while the catalog is not modified</li>
+ * </ol>
+ * so that the resulting catalog is the same as the one loaded sequentially.
+ * </p>
+ * <p>
+ * The workspaces, namespaces and styles have to be in the catalog before this loader is used.
+ * </p>
+ */
+class ParallelCatalogLoader {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver");
+
+    GeoServerLoader loader;
+
+    int threads;
+
+    /**
+     * The persisters used by the pool threads, xml persisters are not thread safe
+     */
+    ThreadLocal<XStreamPersister> persisters;
+
+    public ParallelCatalogLoader(GeoServerLoader loader, int threads) {
+        this.loader = loader;
+        this.threads = threads;
+    }
+
+    /**
+     * Loads the stores, resources, layers and workspace specific layer groups of all the
+     * workspaces.
+     */
+    public void loadStores(File workspaces, final Catalog catalog, XStreamPersister xp)
+            throws Exception {
+        persisters = new ThreadLocal<XStreamPersister>() {
+            protected XStreamPersister initialValue() {
+                XStreamPersister xp = loader.xpf.createXMLPersister();
+                xp.setCatalog(catalog);
+                xp.setUnwrapNulls(false);
+                return xp;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+        try {
+            // parse
+            long start = System.currentTimeMillis();
+            List<File> workspaceDirs = new ArrayList<File>(loader.list(workspaces,
+                    DirectoryFileFilter.INSTANCE));
+            List<List<Future<ParsedStore>>> parsed = new ArrayList<List<Future<ParsedStore>>>();
+            int stores = 0;
+            for (File wsd : workspaceDirs) {
+                List<Future<ParsedStore>> futures = new ArrayList<Future<ParsedStore>>();
+                for (final File sd : loader.list(wsd, DirectoryFileFilter.INSTANCE)) {
+                    futures.add(executor.submit(new Callable<ParsedStore>() {
+                        public ParsedStore call() throws Exception {
+                            return parseStore(sd);
+                        }
+                    }));
+                    stores++;
+                }
+                parsed.add(futures);
+            }
+            List<List<ParsedStore>> results = new ArrayList<List<ParsedStore>>();
+            for (List<Future<ParsedStore>> futures : parsed) {
+                List<ParsedStore> wsResults = new ArrayList<ParsedStore>();
+                for (Future<ParsedStore> future : futures) {
+                    wsResults.add(get(future));
+                }
+                results.add(wsResults);
+            }
+            LOGGER.info("Parsed " + stores + " store directories in "
+                    + (System.currentTimeMillis() - start) + " ms using " + threads + " threads");
+
+            // add to the catalog, in dependency order
+            start = System.currentTimeMillis();
+            List<DataStoreInfo> dataStores = new ArrayList<DataStoreInfo>();
+            for (int i = 0; i < workspaceDirs.size(); i++) {
+                for (ParsedStore ps : results.get(i)) {
+                    addStore(ps, catalog, dataStores);
+                }
+
+                // load the layer groups for this workspace
+                File layergroups = loader.resourceLoader.find(workspaceDirs.get(i), "layergroups");
+                if (layergroups != null) {
+                    loader.loadLayerGroups(layergroups, catalog, xp);
+                }
+            }
+            LOGGER.info("Added the stores, resources and layers to the catalog in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+            // connect to the data stores to determine if we should disable them
+            start = System.currentTimeMillis();
+            List<Future<?>> checks = new ArrayList<Future<?>>();
+            for (final DataStoreInfo ds : dataStores) {
+                checks.add(executor.submit(new Runnable() {
+                    public void run() {
+                        checkConnection(ds);
+                    }
+                }));
+            }
+            for (Future<?> check : checks) {
+                get(check);
+            }
+            LOGGER.info("Checked the connection to " + dataStores.size() + " data stores in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            executor.shutdown();
+            persisters = null;
+        }
+    }
+
+    /**
+     * Parses a store directory along with the resources and layers it contains. Runs in a pool
+     * thread, it must not modify the catalog.
+     */
+    ParsedStore parseStore(File sd) {
+        XStreamPersister xp = persisters.get();
+        ParsedStore ps = new ParsedStore(sd);
+
+        String resourceFile;
+        Class<? extends ResourceInfo> resourceClass;
+        File f = new File(sd, "datastore.xml");
+        if (f.exists()) {
+            ps.storeClass = DataStoreInfo.class;
+            resourceFile = "featuretype.xml";
+            resourceClass = FeatureTypeInfo.class;
+        } else if ((f = new File(sd, "coveragestore.xml")).exists()) {
+            ps.storeClass = CoverageStoreInfo.class;
+            resourceFile = "coverage.xml";
+            resourceClass = CoverageInfo.class;
+        } else if ((f = new File(sd, "wmsstore.xml")).exists()) {
+            ps.storeClass = WMSStoreInfo.class;
+            resourceFile = "wmslayer.xml";
+            resourceClass = WMSLayerInfo.class;
+        } else {
+            // not a store
+            return ps;
+        }
+
+        try {
+            ps.store = loader.depersist(xp, f, ps.storeClass);
+        } catch (Exception e) {
+            ps.error = e;
+            return ps;
+        }
+
+        for (File rd : loader.list(sd, DirectoryFileFilter.INSTANCE)) {
+            ParsedResource pr = new ParsedResource(rd);
+            ps.resources.add(pr);
+
+            f = new File(rd, resourceFile);
+            if (!f.exists()) {
+                continue;
+            }
+            try {
+                pr.resource = loader.depersist(xp, f, resourceClass);
+            } catch (Exception e) {
+                pr.error = e;
+                continue;
+            }
+
+            f = new File(rd, "layer.xml");
+            if (f.exists()) {
+                try {
+                    pr.layer = loader.depersist(xp, f, LayerInfo.class);
+                } catch (Exception e) {
+                    pr.layerError = e;
+                }
+            }
+        }
+
+        return ps;
+    }
+
+    /**
+     * Adds a parsed store and its contents to the catalog, mirroring what the sequential
+     * loader does
+     */
+    void addStore(ParsedStore ps, Catalog catalog, List<DataStoreInfo> dataStores) {
+        String type = ps.getTypeName();
+        if (ps.storeClass == null) {
+            LOGGER.warning("Ignoring store directory '" + ps.dir.getName() + "'");
+            return;
+        }
+        if (ps.error != null) {
+            LOGGER.log(Level.WARNING, "Failed to load " + type + " '" + ps.dir.getName() + "'",
+                    ps.error);
+            return;
+        }
+
+        StoreInfo store = ps.store;
+        try {
+            catalog.add(store);
+            LOGGER.info("Loaded " + type + " '" + store.getName() + "'");
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + type + " '" + ps.dir.getName() + "'", e);
+            return;
+        }
+        if (store instanceof DataStoreInfo && store.isEnabled()) {
+            dataStores.add((DataStoreInfo) store);
+        }
+
+        String resourceType = ps.getResourceTypeName();
+        for (ParsedResource pr : ps.resources) {
+            if (pr.error != null) {
+                LOGGER.log(Level.WARNING, "Failed to load " + resourceType + " '"
+                        + pr.dir.getName() + "'", pr.error);
+                continue;
+            }
+            if (pr.resource == null) {
+                LOGGER.warning("Ignoring " + resourceType + " directory "
+                        + pr.dir.getAbsolutePath());
+                continue;
+            }
+
+            // the store was not in the catalog when the resource got parsed
+            ResourceInfo resource = pr.resource;
+            resource.setStore(resolve(catalog, resource.getStore()));
+            if (resource instanceof FeatureTypeInfo) {
+                // same as the sequential loader, a failure here is not recoverable
+                catalog.add(resource);
+            } else {
+                try {
+                    catalog.add(resource);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + resourceType + " '"
+                            + pr.dir.getName() + "'", e);
+                    continue;
+                }
+            }
+            LOGGER.info("Loaded " + resourceType + " '" + resource.getName() + "'");
+
+            if (pr.layerError != null) {
+                LOGGER.log(Level.WARNING, "Failed to load layer for " + resourceType + " '"
+                        + resource.getName() + "'", pr.layerError);
+            } else if (pr.layer != null) {
+                // same as above, the resource was not in the catalog during parsing
+                LayerInfo layer = pr.layer;
+                try {
+                    layer.setResource(resolve(catalog, layer.getResource()));
+                    catalog.add(layer);
+                    LOGGER.info("Loaded layer '" + layer.getName() + "'");
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load layer for " + resourceType + " '"
+                            + resource.getName() + "'", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects to a data store, disabling it if the connection fails
+     */
+    void checkConnection(DataStoreInfo ds) {
+        try {
+            ds.getDataStore(null);
+        } catch (Throwable t) {
+            LOGGER.warning("Error connecting to '" + ds.getName() + "'. Disabling.");
+            LOGGER.log(Level.INFO, "", t);
+
+            ds.setError(t);
+            ds.setEnabled(false);
+        }
+    }
+
+    /**
+     * Resolves a reference against the catalog the same way {@link XStreamPersister} does
+     * while parsing, keeping the reference if it cannot be resolved
+     */
+    <T extends CatalogInfo> T resolve(Catalog catalog, T reference) {
+        T resolved = ResolvingProxy.resolve(catalog, reference);
+        return resolved != null ? ModificationProxy.unwrap(resolved) : reference;
+    }
+
+    <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The contents of a store directory, as parsed from the xml files
+     */
+    static class ParsedStore {
+        File dir;
+
+        Class<? extends StoreInfo> storeClass;
+
+        StoreInfo store;
+
+        Exception error;
+
+        List<ParsedResource> resources = new ArrayList<ParsedResource>();
+
+        ParsedStore(File dir) {
+            this.dir = dir;
+        }
+
+        String getTypeName() {
+            if (storeClass == CoverageStoreInfo.class) {
+                return "coverage store";
+            } else if (storeClass == WMSStoreInfo.class) {
+                return "wms store";
+            }
+            return "data store";
+        }
+
+        String getResourceTypeName() {
+            if (storeClass == CoverageStoreInfo.class) {
+                return "coverage";
+            } else if (storeClass == WMSStoreInfo.class) {
+                return "wms layer";
+            }
+            return "feature type";
+        }
+    }
+
+    /**
+     * The contents of a resource directory, as parsed from the xml files
+     */
+    static class ParsedResource {
+        File dir;
+
+        ResourceInfo resource;
+
+        Exception error;
+
+        LayerInfo layer;
+
+        Exception layerError;
+
+        ParsedResource(File dir) {
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * Creates daemon threads, so that a stuck store connection cannot prevent the shutdown
+     */
+    static class LoaderThreadFactory implements ThreadFactory {
+        AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServerLoader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
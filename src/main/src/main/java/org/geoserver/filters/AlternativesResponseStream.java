@@ -27,12 +27,27 @@ public class AlternativesResponseStream extends ServletOutputStream {
     HttpServletResponse myResponse;
     ServletOutputStream myStream;
     Set myCompressibleTypes;
+    DeflaterPool myDeflaterPool;
+    int myThreshold;
     Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public AlternativesResponseStream(HttpServletResponse response, Set compressible) throws IOException {
+        this(response, compressible, null, 0);
+    }
+
+    /**
+     * Builds a stream that compresses on the fly using deflaters from the specified pool, or
+     * buffers the compressed output in memory if the pool is null
+     * 
+     * @param threshold the minimum size of a response to be compressed, used only when streaming
+     */
+    public AlternativesResponseStream(HttpServletResponse response, Set compressible,
+            DeflaterPool deflaterPool, int threshold) throws IOException {
         super();
         myResponse = response;
         myCompressibleTypes = compressible;
+        myDeflaterPool = deflaterPool;
+        myThreshold = threshold;
     }
 
     public void close() throws IOException {
@@ -67,7 +82,11 @@ public class AlternativesResponseStream extends ServletOutputStream {
 
         if (type != null && isCompressible(type)){
             logger.log(Level.FINE, "Compressing output for mimetype: {0}", type);
-            myStream = new GZIPResponseStream(myResponse);
+            if (myDeflaterPool != null) {
+                myStream = new StreamingGZIPResponseStream(myResponse, myDeflaterPool, myThreshold);
+            } else {
+                myStream = new GZIPResponseStream(myResponse);
+            }
         } else {
             logger.log(Level.FINE, "Not compressing output for mimetype: {0}", type);
             myStream = myResponse.getOutputStream();
@@ -0,0 +1,80 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of raw (no zlib wrapper) {@link Deflater} instances sharing the same compression
+ * level.
+ * <p>
+ * Each deflater holds a native zlib context, pooling them avoids allocating and releasing one for
+ * every compressed response. Deflaters released when the pool is full are ended right away.
+ * </p>
+ */
+public class DeflaterPool {
+
+    final int level;
+
+    final int capacity;
+
+    final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param level the compression level, see {@link Deflater#setLevel(int)}
+     * @param capacity the max number of idle deflaters kept in the pool
+     */
+    public DeflaterPool(int level, int capacity) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+        this.capacity = capacity;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns a deflater from the pool, or a new one if the pool is empty
+     */
+    public Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        size.decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Resets the deflater and gives it back to the pool
+     */
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if (size.incrementAndGet() <= capacity) {
+            deflaters.offer(deflater);
+        } else {
+            size.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Releases the native resources of all the pooled deflaters
+     */
+    public void dispose() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            size.decrementAndGet();
+            deflater.end();
+        }
+    }
+}
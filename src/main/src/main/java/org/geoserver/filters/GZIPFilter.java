@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -26,10 +27,29 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/**
+ * Compresses the responses whose mime type matches one of the "compressed-types" regular
+ * expressions.
+ * <p>
+ * By default the compressed response is buffered in memory and sent when complete. When the
+ * "streaming" parameter is set to true the response is instead compressed on the fly using pooled
+ * deflaters, with a compression level set by "compression-level" (0-9, defaults to the zlib
+ * default), leaving uncompressed the responses smaller than "min-size" bytes.
+ * </p>
+ */
 public class GZIPFilter implements Filter {
 
+    /**
+     * Max number of idle deflaters kept around when streaming
+     */
+    static final int DEFLATER_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 4;
+
     private Set myCompressedTypes;
 
+    private DeflaterPool myDeflaterPool;
+
+    private int myThreshold;
+
     public void doFilter(ServletRequest req, ServletResponse res,
             FilterChain chain) throws IOException, ServletException {
         if (req instanceof HttpServletRequest) {
@@ -38,7 +58,8 @@ public class GZIPFilter implements Filter {
             String ae = request.getHeader("accept-encoding");
             if (ae != null && ae.indexOf("gzip") != -1) {
                 GZIPResponseWrapper wrappedResponse =
-                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString());
+                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString(), 
+                            myDeflaterPool, myThreshold);
                 chain.doFilter(req, wrappedResponse);
                 wrappedResponse.finishResponse();
                 return;
@@ -58,11 +79,23 @@ public class GZIPFilter implements Filter {
             for (int i = 0; i < typeNames.length; i++){
                 myCompressedTypes.add(Pattern.compile(typeNames[i]));
             }
+
+            if (Boolean.valueOf(filterConfig.getInitParameter("streaming"))) {
+                String level = filterConfig.getInitParameter("compression-level");
+                String minSize = filterConfig.getInitParameter("min-size");
+                myDeflaterPool = new DeflaterPool(level == null ? Deflater.DEFAULT_COMPRESSION
+                        : Integer.parseInt(level.trim()), DEFLATER_POOL_SIZE);
+                myThreshold = minSize == null ? 0 : Integer.parseInt(minSize.trim());
+            }
         } catch (Exception e){
             System.out.println("Error while setting up GZIPFilter; " + e);
         }
     }
 
     public void destroy() {
+        if (myDeflaterPool != null) {
+            myDeflaterPool.dispose();
+            myDeflaterPool = null;
+        }
     }
 }
@@ -27,6 +27,8 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
     protected PrintWriter writer = null;
     protected Set formatsToCompress;
     protected String requestedURL;
+    protected DeflaterPool deflaterPool;
+    protected int threshold;
     protected Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
 
     public GZIPResponseWrapper(HttpServletResponse response, Set toCompress, String url) {
@@ -37,8 +39,20 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
         formatsToCompress = toCompress;
     }
 
+    /**
+     * Builds a wrapper that streams the compressed output using deflaters from the specified pool,
+     * leaving uncompressed the responses smaller than the threshold
+     */
+    public GZIPResponseWrapper(HttpServletResponse response, Set toCompress, String url,
+            DeflaterPool deflaterPool, int threshold) {
+        this(response, toCompress, url);
+        this.deflaterPool = deflaterPool;
+        this.threshold = threshold;
+    }
+
     protected AlternativesResponseStream createOutputStream() throws IOException {
-        return new AlternativesResponseStream(origResponse, formatsToCompress);
+        return new AlternativesResponseStream(origResponse, formatsToCompress, deflaterPool,
+                threshold);
     }
 
     public void setContentType(String type){
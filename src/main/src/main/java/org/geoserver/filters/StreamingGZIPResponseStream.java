@@ -0,0 +1,171 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A GZIP response stream that compresses straight into the servlet output stream, instead of
+ * buffering the whole compressed response in memory like {@link GZIPResponseStream} does.
+ * <p>
+ * Since the compressed size is not known in advance no content length is set, and the container
+ * will send the response using chunked transfer encoding. Responses whose size is below the
+ * configured threshold are sent uncompressed, as compressing them would not pay off.
+ * </p>
+ * <p>
+ * The stream uses a {@link Deflater} borrowed from a {@link DeflaterPool}, which is given back when
+ * the stream is closed.
+ * </p>
+ */
+public class StreamingGZIPResponseStream extends ServletOutputStream {
+
+    /** GZIP magic header, deflate method, no flags, no mtime, unknown os */
+    static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0,
+            0, 0, 0, 0, (byte) 0xff };
+
+    protected HttpServletResponse response;
+
+    protected ServletOutputStream output;
+
+    protected DeflaterPool pool;
+
+    protected Deflater deflater;
+
+    protected CRC32 crc = new CRC32();
+
+    protected byte[] buffer = new byte[8192];
+
+    /** bytes held back until we know the response is big enough to be compressed */
+    protected byte[] pending;
+
+    protected int pendingCount;
+
+    protected boolean closed = false;
+
+    /**
+     * @param response the response to compress
+     * @param pool the pool providing the deflaters
+     * @param threshold the minimum response size, in bytes, for the response to be compressed
+     */
+    public StreamingGZIPResponseStream(HttpServletResponse response, DeflaterPool pool,
+            int threshold) throws IOException {
+        super();
+        this.response = response;
+        this.output = response.getOutputStream();
+        this.pool = pool;
+        this.pending = new byte[Math.max(threshold, 0)];
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte b[]) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte b[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Cannot write to a closed output stream");
+        }
+        if (deflater == null) {
+            if (pendingCount + len <= pending.length) {
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            startCompression();
+        }
+        deflate(b, off, len);
+    }
+
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Cannot flush a closed output stream");
+        }
+        // below the threshold we still don't know whether the output is going to be compressed
+        if (deflater != null) {
+            output.flush();
+        }
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            throw new IOException("This output stream has already been closed");
+        }
+        closed = true;
+        try {
+            if (deflater == null) {
+                // small response, send it as is
+                response.setContentLength(pendingCount);
+                output.write(pending, 0, pendingCount);
+            } else {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drain();
+                }
+                writeTrailer();
+            }
+            output.flush();
+            output.close();
+        } finally {
+            if (deflater != null) {
+                pool.release(deflater);
+                deflater = null;
+            }
+        }
+    }
+
+    public boolean closed() {
+        return closed;
+    }
+
+    /**
+     * Switches to compressed output, sending the GZIP header and whatever was held back so far
+     */
+    protected void startCompression() throws IOException {
+        response.addHeader("Content-Encoding", "gzip");
+        deflater = pool.acquire();
+        output.write(GZIP_HEADER);
+        if (pendingCount > 0) {
+            deflate(pending, 0, pendingCount);
+        }
+        pending = null;
+        pendingCount = 0;
+    }
+
+    protected void deflate(byte[] b, int off, int len) throws IOException {
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            drain();
+        }
+    }
+
+    protected void drain() throws IOException {
+        int count = deflater.deflate(buffer, 0, buffer.length);
+        if (count > 0) {
+            output.write(buffer, 0, count);
+        }
+    }
+
+    protected void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        // size of the uncompressed input modulo 2^32
+        writeInt((int) deflater.getBytesRead());
+    }
+
+    void writeInt(int i) throws IOException {
+        output.write(i & 0xff);
+        output.write((i >> 8) & 0xff);
+        output.write((i >> 16) & 0xff);
+        output.write((i >> 24) & 0xff);
+    }
+}
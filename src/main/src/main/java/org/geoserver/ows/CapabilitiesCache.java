@@ -0,0 +1,432 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.ConfigurationListenerAdapter;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.ServiceInfo;
+import org.geoserver.config.SettingsInfo;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.security.DataAccessManager;
+import org.geoserver.security.ResourceAccessManager;
+import org.geoserver.security.impl.DefaultDataAccessManager;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Caches the encoded capabilities documents, so that the clients polling the capabilities do not
+ * force the whole catalog to be walked and encoded on each request.
+ * <p>
+ * A document is keyed by service, version, virtual service workspace and layer, request base URL,
+ * request parameters (the update sequence one excluded) and the roles of the caller, as those
+ * drive what the secured catalog shows. If a custom {@link ResourceAccessManager} or
+ * {@link DataAccessManager} is in use the access decisions might depend on the user too, and the
+ * user name becomes part of the key as well.
+ * </p>
+ * <p>
+ * The cache is emptied whenever the catalog or the configuration change, and the keys contain the
+ * update sequence too, so a document is never served for a configuration other than the one it
+ * was built against. The entries also expire after a time to live, as some contents (e.g., the
+ * time dimension values) depend on the data, not on the configuration. Only GET requests are
+ * cached, and setting the max size to zero disables the cache.
+ * </p>
+ */
+public class CapabilitiesCache {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCache.class);
+
+    /**
+     * Default max size of the cached documents, in bytes
+     */
+    public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Default time to live of a cached document, in seconds
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 60;
+
+    /**
+     * Encodes a capabilities document
+     */
+    public static interface Encoder {
+        void encode(OutputStream output) throws IOException;
+    }
+
+    /**
+     * Looks up the cache in the application context, returns null if there is none
+     */
+    public static CapabilitiesCache get() {
+        return GeoServerExtensions.bean(CapabilitiesCache.class);
+    }
+
+    private volatile Cache<Key, byte[]> cache;
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private GeoServer geoServer;
+
+    /**
+     * Whether the access manager decisions depend only on the user roles, computed lazily as the
+     * access managers might not be available yet when the cache is built
+     */
+    private volatile Boolean roleBased;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong size = new AtomicLong();
+
+    public CapabilitiesCache(GeoServer geoServer) {
+        this.geoServer = geoServer;
+        this.cache = buildCache();
+        geoServer.getCatalog().addListener(new CacheInvalidator());
+        geoServer.addListener(new ConfigurationListenerAdapter() {
+            public void handlePostGlobalChange(GeoServerInfo global) {
+                clear();
+            }
+
+            public void handleSettingsAdded(SettingsInfo settings) {
+                clear();
+            }
+
+            public void handleSettingsPostModified(SettingsInfo settings) {
+                clear();
+            }
+
+            public void handleSettingsRemoved(SettingsInfo settings) {
+                clear();
+            }
+
+            public void handlePostServiceChange(ServiceInfo service) {
+                clear();
+            }
+
+            public void handleServiceRemove(ServiceInfo service) {
+                clear();
+            }
+
+            public void reloaded() {
+                clear();
+            }
+        });
+    }
+
+    Cache<Key, byte[]> buildCache() {
+        // a single segment, so that the max size applies to each document as a whole: writes
+        // are rare, and reads do not lock anyways
+        return CacheBuilder.newBuilder().maximumWeight(maxSize).concurrencyLevel(1)
+                .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                .weigher(new Weigher<Key, byte[]>() {
+                    public int weigh(Key key, byte[] value) {
+                        return value.length;
+                    }
+                }).removalListener(new RemovalListener<Key, byte[]>() {
+                    public void onRemoval(RemovalNotification<Key, byte[]> n) {
+                        if (n.getValue() != null) {
+                            size.addAndGet(-n.getValue().length);
+                        }
+                    }
+                }).build();
+    }
+
+    /**
+     * Sets the max size of the cached documents, in bytes, zero disables the cache. Changing it
+     * empties the cache.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        rebuild();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets how long, in seconds, a document is kept in the cache. Changing it empties the cache.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+        rebuild();
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    void rebuild() {
+        Cache<Key, byte[]> old = cache;
+        cache = buildCache();
+        old.invalidateAll();
+    }
+
+    /**
+     * Empties the cache
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Number of capabilities requests served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of capabilities requests that had to encode the document
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of documents currently in the cache
+     */
+    public long getDocumentCount() {
+        return cache.size();
+    }
+
+    /**
+     * Size of the cached documents, in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Writes the capabilities document for the current request, taking it from the cache if
+     * possible, or using the encoder and caching the result otherwise. Concurrent requests for the
+     * same missing document wait for the first one to encode it.
+     */
+    public void write(Operation operation, OutputStream output, final Encoder encoder)
+            throws IOException {
+        Key key = maxSize > 0 ? getKey(operation) : null;
+        if (key == null) {
+            encoder.encode(output);
+            return;
+        }
+
+        final boolean[] loaded = new boolean[1];
+        byte[] document;
+        try {
+            document = cache.get(key, new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    encoder.encode(bos);
+                    byte[] result = bos.toByteArray();
+                    size.addAndGet(result.length);
+                    loaded[0] = true;
+                    return result;
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw (IOException) new IOException().initCause(cause);
+        } catch (UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+        if (loaded[0]) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        output.write(document);
+    }
+
+    /**
+     * Builds the key of the document requested by the current request, or returns null if the
+     * request cannot be cached
+     */
+    Key getKey(Operation operation) {
+        Request request = Dispatcher.REQUEST.get();
+        if (request == null || !request.isGet() || request.getRawKvp() == null) {
+            return null;
+        }
+
+        Key key = new Key();
+        Service service = operation.getService();
+        key.service = service.getId();
+        key.version = service.getVersion() != null ? service.getVersion().toString() : null;
+        key.updateSequence = geoServer.getGlobal().getUpdateSequence();
+        WorkspaceInfo workspace = LocalWorkspace.get();
+        key.workspace = workspace != null ? workspace.getName() : null;
+        LayerInfo layer = LocalLayer.get();
+        key.layer = layer != null ? layer.getName() : null;
+        if (request.getHttpRequest() != null) {
+            key.baseURL = ResponseUtils.baseURL(request.getHttpRequest());
+        }
+        for (Object o : request.getRawKvp().entrySet()) {
+            Map.Entry entry = (Map.Entry) o;
+            String name = String.valueOf(entry.getKey()).toUpperCase();
+            // the update sequence is checked before getting here, does not change the document
+            if (!"UPDATESEQUENCE".equals(name)) {
+                key.parameters.put(name, String.valueOf(entry.getValue()));
+            }
+        }
+
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            List<String> roles = new ArrayList<String>();
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+            key.roles = roles;
+            if (!isRoleBased()) {
+                key.user = auth.getName();
+            }
+        }
+
+        return key;
+    }
+
+    boolean isRoleBased() {
+        Boolean result = roleBased;
+        if (result == null) {
+            try {
+                DataAccessManager dam = GeoServerExtensions.bean(DataAccessManager.class);
+                result = GeoServerExtensions.bean(ResourceAccessManager.class) == null
+                        && (dam == null || dam instanceof DefaultDataAccessManager);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Could not determine the access manager in use, "
+                        + "caching capabilities per user", e);
+                result = false;
+            }
+            roleBased = result;
+        }
+        return result;
+    }
+
+    /**
+     * Identifies a capabilities document
+     */
+    static class Key {
+        String service;
+
+        String version;
+
+        long updateSequence;
+
+        String workspace;
+
+        String layer;
+
+        String baseURL;
+
+        Map<String, String> parameters = new TreeMap<String, String>();
+
+        List<String> roles = Collections.emptyList();
+
+        String user;
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((baseURL == null) ? 0 : baseURL.hashCode());
+            result = prime * result + ((layer == null) ? 0 : layer.hashCode());
+            result = prime * result + parameters.hashCode();
+            result = prime * result + roles.hashCode();
+            result = prime * result + ((service == null) ? 0 : service.hashCode());
+            result = prime * result + (int) (updateSequence ^ (updateSequence >>> 32));
+            result = prime * result + ((user == null) ? 0 : user.hashCode());
+            result = prime * result + ((version == null) ? 0 : version.hashCode());
+            result = prime * result + ((workspace == null) ? 0 : workspace.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return updateSequence == other.updateSequence && equals(service, other.service)
+                    && equals(version, other.version) && equals(workspace, other.workspace)
+                    && equals(layer, other.layer) && equals(baseURL, other.baseURL)
+                    && parameters.equals(other.parameters) && roles.equals(other.roles)
+                    && equals(user, other.user);
+        }
+
+        static boolean equals(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+
+    /**
+     * Empties the cache on any catalog change
+     */
+    class CacheInvalidator implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            clear();
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            clear();
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // we use the post event
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            clear();
+        }
+
+        public void reloaded() {
+            clear();
+        }
+    }
+}
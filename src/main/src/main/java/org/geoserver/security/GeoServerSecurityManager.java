@@ -65,6 +65,7 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.security.auth.AuthenticationCache;
 import org.geoserver.security.auth.AuthenticationCacheImpl;
 import org.geoserver.security.auth.GeoServerRootAuthenticationProvider;
+import org.geoserver.security.auth.ConcurrentAuthenticationCacheImpl;
 import org.geoserver.security.auth.LRUAuthenticationCacheImpl;
 import org.geoserver.security.auth.UsernamePasswordAuthenticationProvider;
 import org.geoserver.security.concurrent.LockingKeyStoreProvider;
@@ -263,6 +264,13 @@ public class GeoServerSecurityManager extends ProviderManager implements Applica
     volatile RememberMeServices rememberMeService;
 
     public static final String REALM="GeoServer Realm";
+
+    /**
+     * System property or context parameter selecting the authentication cache implementation
+     * when no {@link AuthenticationCache} bean is declared: "LRU" for the legacy
+     * {@link LRUAuthenticationCacheImpl}, the {@link ConcurrentAuthenticationCacheImpl} otherwise
+     */
+    public static final String AUTHENTICATION_CACHE_PROPERTY = "GEOSERVER_AUTH_CACHE";
     
     public GeoServerSecurityManager(GeoServerDataDirectory dataDir) throws Exception {
         this.dataDir = dataDir;
@@ -543,7 +551,15 @@ public class GeoServerSecurityManager extends ProviderManager implements Applica
 
     AuthenticationCache lookupAuthenticationCache() {
         AuthenticationCache authCache = GeoServerExtensions.bean(AuthenticationCache.class);
-        return authCache != null ? authCache : new LRUAuthenticationCacheImpl(1000);
+        if (authCache != null) {
+            return authCache;
+        }
+        // the legacy cache can still be selected, in case of troubles with the concurrent one
+        String impl = GeoServerExtensions.getProperty(AUTHENTICATION_CACHE_PROPERTY);
+        if ("LRU".equalsIgnoreCase(impl)) {
+            return new LRUAuthenticationCacheImpl(1000);
+        }
+        return new ConcurrentAuthenticationCacheImpl(1000);
     }
 
     public RememberMeServices getRememberMeService() {
@@ -0,0 +1,211 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+
+package org.geoserver.security.auth;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * An {@link AuthenticationCache} implementation backed by a segmented concurrent cache, with an
+ * approximate LRU eviction per segment. Unlike {@link LRUAuthenticationCacheImpl} cache hits do
+ * not take any lock, which matters when every request, e.g. every tile, authenticates with basic
+ * authentication.
+ * <p>
+ * Entries are expired lazily, when found expired on read, and by a sweep run every minute by the
+ * thread adding an entry, so no timer thread is needed. For an explanation of the time parameters,
+ * see {@link AuthenticationCacheEntry}
+ * </p>
+ */
+public class ConcurrentAuthenticationCacheImpl implements AuthenticationCache {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.security");
+
+    /**
+     * Number of segments of the cache, each one locked separately on writes
+     */
+    static final int CONCURRENCY_LEVEL = 16;
+
+    /**
+     * Interval between two expired entries sweeps
+     */
+    static final long MILLIS_BETWEEN_REMOVE_EXPIRED = 60 * 1000;
+
+    final Cache<AuthenticationCacheKey, AuthenticationCacheEntry> cache;
+
+    final ConcurrentMap<AuthenticationCacheKey, AuthenticationCacheEntry> map;
+
+    int timeToIdleSeconds, timeToLiveSeconds, maxEntries;
+
+    final AtomicLong lastRemoveExpired = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Number of entries removed because expired
+     */
+    final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Number of lookups that found an expired entry, a hit for the underlying cache
+     */
+    final AtomicLong expiredReads = new AtomicLong();
+
+    public ConcurrentAuthenticationCacheImpl(int maxEntries) {
+        this(DEFAULT_IDLE_TIME, DEFAULT_LIVE_TIME, maxEntries);
+    }
+
+    public ConcurrentAuthenticationCacheImpl(int timeToIdleSeconds, int timeToLiveSeconds,
+            int maxEntries) {
+        this.timeToIdleSeconds = timeToIdleSeconds;
+        this.timeToLiveSeconds = timeToLiveSeconds;
+        this.maxEntries = maxEntries;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries)
+                .concurrencyLevel(CONCURRENCY_LEVEL).build();
+        this.map = cache.asMap();
+    }
+
+    public int getTimeToIdleSeconds() {
+        return timeToIdleSeconds;
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Number of lookups that found a valid authentication
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount() - expiredReads.get();
+    }
+
+    /**
+     * Number of lookups that did not find a valid authentication
+     */
+    public long getMissCount() {
+        return cache.stats().missCount() + expiredReads.get();
+    }
+
+    /**
+     * Ratio of lookups that found a valid authentication, 1 if there were no lookups
+     */
+    public double getHitRate() {
+        CacheStats stats = cache.stats();
+        long requests = stats.requestCount();
+        return requests == 0 ? 1.0 : (double) (stats.hitCount() - expiredReads.get()) / requests;
+    }
+
+    /**
+     * Number of entries evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * Number of entries removed because expired
+     */
+    public long getExpirationCount() {
+        return expirations.get();
+    }
+
+    /**
+     * Number of entries currently in the cache, including the expired ones not removed yet
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public void removeAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void removeAll(String filterName) {
+        if (filterName == null)
+            return;
+        for (Iterator<AuthenticationCacheKey> it = map.keySet().iterator(); it.hasNext();) {
+            if (filterName.equals(it.next().getFilterName())) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void remove(String filterName, String cacheKey) {
+        cache.invalidate(new AuthenticationCacheKey(filterName, cacheKey));
+    }
+
+    @Override
+    public Authentication get(String filterName, String cacheKey) {
+        AuthenticationCacheKey key = new AuthenticationCacheKey(filterName, cacheKey);
+        AuthenticationCacheEntry entry = cache.getIfPresent(key);
+        if (entry == null)
+            return null;
+        long currentTime = System.currentTimeMillis();
+        if (entry.hasExpired(currentTime)) {
+            expiredReads.incrementAndGet();
+            // only remove this very entry, a fresh one might have been put meanwhile
+            if (map.remove(key, entry)) {
+                expirations.incrementAndGet();
+            }
+            return null;
+        }
+        entry.setLastAccessed(currentTime);
+        return entry.getAuthentication();
+    }
+
+    @Override
+    public void put(String filterName, String cacheKey, Authentication auth,
+            Integer timeToIdleSeconds, Integer timeToLiveSeconds) {
+        timeToIdleSeconds = timeToIdleSeconds != null ? timeToIdleSeconds : this.timeToIdleSeconds;
+        timeToLiveSeconds = timeToLiveSeconds != null ? timeToLiveSeconds : this.timeToLiveSeconds;
+
+        cache.put(new AuthenticationCacheKey(filterName, cacheKey), new AuthenticationCacheEntry(
+                auth, timeToIdleSeconds, timeToLiveSeconds));
+
+        long last = lastRemoveExpired.get();
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - last > MILLIS_BETWEEN_REMOVE_EXPIRED
+                && lastRemoveExpired.compareAndSet(last, currentTime)) {
+            removeExpired();
+        }
+    }
+
+    @Override
+    public void put(String filterName, String cacheKey, Authentication auth) {
+        put(filterName, cacheKey, auth, timeToIdleSeconds, timeToLiveSeconds);
+    }
+
+    /**
+     * Removes the expired entries
+     */
+    public void removeExpired() {
+        LOGGER.fine("Start searching for expired authentication tokens");
+        long currentTime = System.currentTimeMillis();
+        int removed = 0;
+        for (Entry<AuthenticationCacheKey, AuthenticationCacheEntry> e : map.entrySet()) {
+            if (e.getValue().hasExpired(currentTime) && map.remove(e.getKey(), e.getValue())) {
+                removed++;
+            }
+        }
+        expirations.addAndGet(removed);
+        LOGGER.fine("Number of expired authentication tokens removed: " + removed);
+    }
+}
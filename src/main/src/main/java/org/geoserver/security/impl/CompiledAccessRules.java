@@ -0,0 +1,202 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.GeoServerSecurityFilterChainProxy;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * The data access rules of a {@link SecureTreeNode} tree compiled for fast evaluation: the roles
+ * are numbered, each workspace and layer gets, for each access mode, the bitset of the roles
+ * allowed to access it (already resolved against the parents), and the users get the bitset of
+ * their roles, cached by authentication. A check is then a couple of map lookups and a bitset
+ * intersection, without allocations.
+ * <p>
+ * The decisions are the same as {@link SecureTreeNode#canAccess(Authentication, AccessMode)}
+ * </p>
+ */
+class CompiledAccessRules {
+
+    /**
+     * Marks the access modes everybody is allowed to perform
+     */
+    static final long[] EVERYBODY = new long[0];
+
+    /**
+     * Number of user role sets kept around
+     */
+    static final int USER_CACHE_SIZE = 64;
+
+    /**
+     * The allowed roles of a workspace or layer, by access mode
+     */
+    static class Node {
+        final long[][] allowed = new long[AccessMode.values().length][];
+
+        /**
+         * The layer nodes, for workspaces that have layer specific rules
+         */
+        Map<String, Node> layers;
+    }
+
+    /**
+     * The roles of an authenticated user
+     */
+    static class UserRoles {
+        final WeakReference<Authentication> user;
+
+        final long[] roles;
+
+        final boolean root;
+
+        UserRoles(Authentication user, long[] roles, boolean root) {
+            this.user = new WeakReference<Authentication>(user);
+            this.roles = roles;
+            this.root = root;
+        }
+    }
+
+    final Map<String, Integer> roleIndexes = new HashMap<String, Integer>();
+
+    final Node root;
+
+    final Map<String, Node> workspaces = new HashMap<String, Node>();
+
+    final AtomicReferenceArray<UserRoles> users = new AtomicReferenceArray<UserRoles>(
+            USER_CACHE_SIZE);
+
+    CompiledAccessRules(SecureTreeNode tree) {
+        collectRoles(tree);
+        this.root = compile(tree, null);
+        for (Map.Entry<String, SecureTreeNode> ws : tree.children.entrySet()) {
+            Node wsNode = compile(ws.getValue(), root);
+            workspaces.put(ws.getKey(), wsNode);
+            if (!ws.getValue().children.isEmpty()) {
+                wsNode.layers = new HashMap<String, Node>();
+                for (Map.Entry<String, SecureTreeNode> layer : ws.getValue().children.entrySet()) {
+                    wsNode.layers.put(layer.getKey(), compile(layer.getValue(), wsNode));
+                }
+            }
+        }
+    }
+
+    void collectRoles(SecureTreeNode node) {
+        for (Set<String> roles : node.authorizedRoles.values()) {
+            if (roles != null && !roles.equals(SecureTreeNode.EVERYBODY)) {
+                for (String role : roles) {
+                    if (!roleIndexes.containsKey(role)) {
+                        roleIndexes.put(role, roleIndexes.size());
+                    }
+                }
+            }
+        }
+        for (SecureTreeNode child : node.children.values()) {
+            collectRoles(child);
+        }
+    }
+
+    Node compile(SecureTreeNode node, Node parent) {
+        Node result = new Node();
+        int words = (roleIndexes.size() + 63) / 64;
+        for (AccessMode mode : AccessMode.values()) {
+            Set<String> roles = node.getAuthorizedRoles(mode);
+            long[] allowed;
+            if (roles == null) {
+                // no local rule, same as the parent
+                allowed = parent.allowed[mode.ordinal()];
+            } else if (roles.equals(SecureTreeNode.EVERYBODY)) {
+                allowed = EVERYBODY;
+            } else {
+                allowed = new long[words];
+                for (String role : roles) {
+                    int idx = roleIndexes.get(role);
+                    allowed[idx >> 6] |= 1L << idx;
+                }
+            }
+            result.allowed[mode.ordinal()] = allowed;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the node for the specified workspace and layer, the layer can be null. Like
+     * {@link SecureTreeNode#getDeepestNode(String[])} falls back on the parents when there are no
+     * specific rules.
+     */
+    Node getNode(String workspace, String layer) {
+        Node ws = workspaces.get(workspace);
+        if (ws == null) {
+            return root;
+        }
+        if (layer == null || ws.layers == null) {
+            return ws;
+        }
+        Node result = ws.layers.get(layer);
+        return result != null ? result : ws;
+    }
+
+    boolean canAccess(Authentication user, String workspace, String layer, AccessMode mode) {
+        if (!GeoServerSecurityFilterChainProxy.isSecurityEnabledForCurrentRequest()) {
+            return true;
+        }
+
+        long[] allowed = getNode(workspace, layer).allowed[mode.ordinal()];
+        if (allowed == EVERYBODY) {
+            return true;
+        }
+        if (user == null || user.getAuthorities() == null) {
+            return false;
+        }
+
+        UserRoles roles = getUserRoles(user);
+        if (roles.root) {
+            return true;
+        }
+        for (int i = 0; i < allowed.length; i++) {
+            if ((allowed[i] & roles.roles[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the role bitset of the user, from a direct mapped cache keyed by the authentication
+     * identity, as the same authentication is checked against all the layers of a request
+     */
+    UserRoles getUserRoles(Authentication user) {
+        int slot = System.identityHashCode(user) & (USER_CACHE_SIZE - 1);
+        UserRoles cached = users.get(slot);
+        if (cached != null && cached.user.get() == user) {
+            return cached;
+        }
+
+        long[] roles = new long[(roleIndexes.size() + 63) / 64];
+        boolean root = false;
+        Collection<? extends GrantedAuthority> authorities = user.getAuthorities();
+        for (GrantedAuthority authority : authorities) {
+            String role = authority.getAuthority();
+            if (SecureTreeNode.ROOT_ROLE.equals(role)) {
+                root = true;
+            }
+            Integer idx = roleIndexes.get(role);
+            if (idx != null) {
+                roles[idx >> 6] |= 1L << idx;
+            }
+        }
+        UserRoles result = new UserRoles(user, roles, root);
+        users.set(slot, result);
+        return result;
+    }
+}
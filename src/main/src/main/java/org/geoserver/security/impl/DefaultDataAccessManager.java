@@ -53,6 +53,11 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     SecureTreeNode root;
 
+    /**
+     * The rules of the tree compiled for fast evaluation
+     */
+    volatile CompiledAccessRules compiled;
+
 //    Catalog catalog;
     
     DataAccessRuleDAO dao;
@@ -62,6 +67,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
     public DefaultDataAccessManager(DataAccessRuleDAO dao) {
         this.dao = dao;
         this.root = buildAuthorizationTree(dao);
+        this.compiled = new CompiledAccessRules(root);
     }
 
     public CatalogMode getMode() {
@@ -70,8 +76,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return compiled.canAccess(user, workspace.getName(), null, mode);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
@@ -99,14 +104,14 @@ public class DefaultDataAccessManager implements DataAccessManager {
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return compiled.canAccess(user, workspace, resource.getName(), mode);
     }
 
     void checkPropertyFile() {
         long daoLastModified = dao.getLastModified();
         if(lastLoaded < daoLastModified) {
             root = buildAuthorizationTree(dao);
+            compiled = new CompiledAccessRules(root);
             lastLoaded = daoLastModified;
         }
     }
@@ -0,0 +1,38 @@
+/* Copyright (c) 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.filter.function.EnvFunction;
+
+/**
+ * Transfers the {@link EnvFunction} local values to another thread
+ */
+public class EnvFunctionThreadLocalTransfer implements ThreadLocalTransfer {
+
+    public static final String KEY = EnvFunction.class.getName() + "#localValues";
+
+    @Override
+    public void collect(Map<String, Object> storage) {
+        // copy, the request thread keeps on changing its own values
+        Map<String, Object> values = new HashMap<String, Object>(EnvFunction.getLocalValues());
+        storage.put(KEY, values);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void apply(Map<String, Object> storage) {
+        Map<String, Object> values = (Map<String, Object>) storage.get(KEY);
+        EnvFunction.setLocalValues(values);
+    }
+
+    @Override
+    public void cleanup() {
+        EnvFunction.clearLocalValues();
+    }
+
+}
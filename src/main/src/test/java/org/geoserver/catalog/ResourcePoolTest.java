@@ -19,7 +19,16 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.namespace.QName;
 import javax.xml.transform.TransformerFactory;
@@ -27,6 +36,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
 import org.apache.commons.io.FileUtils;
+import org.geoserver.catalog.ResourcePool.CatalogResourceCache;
 import org.geoserver.catalog.util.ReaderUtils;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerDataDirectory;
@@ -43,7 +53,6 @@ import org.geotools.factory.GeoTools;
 import org.geotools.feature.NameImpl;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Version;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -215,7 +224,7 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         Catalog catalog = getCatalog();
         // we actually keep two versions of the feature type in the cache, so we need it 
         // twice as big
-        assertEquals(400, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals(400, ((CatalogResourceCache) catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
     }
     
     @Test public void testDropCoverageStore() throws Exception {
@@ -305,4 +314,64 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         ci = getCatalog().getCoverageByName(getLayerId(TIMERANGES));
         assertTrue(ci.getGridCoverageReader(null, null) instanceof StructuredGridCoverage2DReader);
     }
+    
+    @Test
+    public void testLoadOncePerKey() throws Exception {
+        final ResourcePool pool = ResourcePool.create(getCatalog());
+        final Map<String, List<AttributeTypeInfo>> cache = pool.getFeatureTypeAttributeCache();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<AttributeTypeInfo> value = new ArrayList<AttributeTypeInfo>();
+        final Callable<List<AttributeTypeInfo>> loader = new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws Exception {
+                loads.incrementAndGet();
+                loading.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                cache.put("a", value);
+                return value;
+            }
+        };
+        Callable<List<AttributeTypeInfo>> get = new Callable<List<AttributeTypeInfo>>() {
+            public List<AttributeTypeInfo> call() throws Exception {
+                return pool.cacheLoader.get(cache, "a", loader);
+            }
+        };
+        
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<AttributeTypeInfo>> first = executor.submit(get);
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            Future<List<AttributeTypeInfo>> second = executor.submit(get);
+            
+            // a different key can be loaded while "a" is being loaded
+            final List<AttributeTypeInfo> other = new ArrayList<AttributeTypeInfo>();
+            assertSame(other, pool.cacheLoader.get(cache, "b", 
+                    new Callable<List<AttributeTypeInfo>>() {
+                public List<AttributeTypeInfo> call() throws Exception {
+                    cache.put("b", other);
+                    return other;
+                }
+            }));
+            
+            // the same key has to wait for the current load to complete
+            Thread.sleep(100);
+            assertFalse(second.isDone());
+            release.countDown();
+            assertSame(value, first.get(10, TimeUnit.SECONDS));
+            assertSame(value, second.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        
+        // loaded once, then served by the cache
+        assertEquals(1, loads.get());
+        assertSame(value, cache.get("a"));
+        assertSame(value, pool.cacheLoader.get(cache, "a", loader));
+        assertEquals(1, loads.get());
+        assertEquals(0, pool.cacheLoader.size());
+        cache.remove("a");
+        cache.remove("b");
+    }
 }
@@ -0,0 +1,45 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.junit.Test;
+
+/**
+ * Runs the catalog test suite against the {@link IndexedCatalogFacade}.
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade(catalog));
+        return catalog;
+    }
+
+    @Test
+    public void testRenameReindexes() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("renamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftName"));
+        assertEquals(ft.getId(), catalog.getFeatureTypeByName(ns.getPrefix(), "renamed").getId());
+        assertEquals(ft.getId(), catalog.getResourceByStore(ds, "renamed", 
+                FeatureTypeInfo.class).getId());
+
+        // layer names are derived from the resource one
+        assertNull(catalog.getLayerByName("ftName"));
+        LayerInfo l2 = catalog.getLayerByName("renamed");
+        assertEquals(l.getId(), l2.getId());
+    }
+}
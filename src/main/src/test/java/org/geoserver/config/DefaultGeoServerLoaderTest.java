@@ -9,10 +9,16 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.config.util.XStreamPersisterFactory;
@@ -50,4 +56,42 @@ public class DefaultGeoServerLoaderTest {
         assertNotNull(((LayerGroupInfo)nestedLayerGroup.getLayers().get(0)).getLayers());
         assertTrue(nestedLayerGroup.getLayers().get(1) instanceof LayerInfo);
     }
+    
+    @Test
+    public void testParallelLoad() throws Exception {
+        loader.setLoaderThreads(1);
+        loader.readCatalog(catalog, xp);
+        
+        DefaultGeoServerLoader parallelLoader = new DefaultGeoServerLoader(loader.resourceLoader);
+        parallelLoader.setLoaderThreads(4);
+        Catalog parallel = new CatalogImpl();
+        parallelLoader.readCatalog(parallel, new XStreamPersisterFactory().createXMLPersister());
+        
+        assertEquals(ids(catalog.getWorkspaces()), ids(parallel.getWorkspaces()));
+        assertEquals(ids(catalog.getStores(StoreInfo.class)), ids(parallel.getStores(StoreInfo.class)));
+        assertEquals(ids(catalog.getResources(ResourceInfo.class)), 
+                ids(parallel.getResources(ResourceInfo.class)));
+        assertEquals(ids(catalog.getLayers()), ids(parallel.getLayers()));
+        assertEquals(ids(catalog.getLayerGroups()), ids(parallel.getLayerGroups()));
+        assertEquals(ids(catalog.getStyles()), ids(parallel.getStyles()));
+        
+        for (LayerInfo layer : parallel.getLayers()) {
+            assertEquals(catalog.getLayer(layer.getId()).getResource().getId(), 
+                    layer.getResource().getId());
+            assertEquals(catalog.getLayer(layer.getId()).getResource().getStore().getName(), 
+                    layer.getResource().getStore().getName());
+        }
+        LayerGroupInfo nestedLayerGroup = parallel.getLayerGroupByName("topp", "nestedgroup");
+        assertNotNull(nestedLayerGroup);
+        assertEquals(2, nestedLayerGroup.getLayers().size());
+    }
+    
+    List<String> ids(List<? extends CatalogInfo> infos) {
+        List<String> ids = new ArrayList<String>();
+        for (CatalogInfo info : infos) {
+            ids.add(info.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
 }
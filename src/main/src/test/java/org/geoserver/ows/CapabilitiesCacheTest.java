@@ -0,0 +1,190 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.GeoServerInfo;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.security.impl.GeoServerRole;
+import org.geotools.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class CapabilitiesCacheTest {
+
+    GeoServerImpl geoServer;
+
+    CapabilitiesCache cache;
+
+    Operation operation;
+
+    Request request;
+
+    CountingEncoder encoder;
+
+    @Before
+    public void setUp() {
+        geoServer = new GeoServerImpl();
+        geoServer.setCatalog(new CatalogImpl());
+        geoServer.setGlobal(geoServer.getFactory().createGlobal());
+        cache = new CapabilitiesCache(geoServer);
+
+        Service service = new Service("wms", null, new Version("1.1.1"),
+                Collections.singletonList("GetCapabilities"));
+        operation = new Operation("GetCapabilities", service, (Method) null, new Object[0]);
+        request = new Request();
+        request.setGet(true);
+        Map<String, Object> kvp = new HashMap<String, Object>();
+        kvp.put("service", "WMS");
+        kvp.put("request", "GetCapabilities");
+        request.setRawKvp(kvp);
+        Dispatcher.REQUEST.set(request);
+        encoder = new CountingEncoder();
+    }
+
+    @After
+    public void cleanupThreadLocals() {
+        Dispatcher.REQUEST.remove();
+        LocalWorkspace.remove();
+        SecurityContextHolder.getContext().setAuthentication(null);
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        assertEquals("doc1", write());
+        assertEquals("doc1", write());
+        assertEquals(1, encoder.count);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getDocumentCount());
+        assertEquals(4, cache.getSize());
+
+        // the update sequence parameter does not change the document
+        request.getRawKvp().put("updateSequence", "0");
+        assertEquals("doc1", write());
+        assertEquals(1, encoder.count);
+
+        // other parameters do
+        request.getRawKvp().put("namespace", "topp");
+        assertEquals("doc2", write());
+    }
+
+    @Test
+    public void testVirtualService() throws Exception {
+        write();
+        WorkspaceInfo ws = geoServer.getCatalog().getFactory().createWorkspace();
+        ws.setName("topp");
+        LocalWorkspace.set(ws);
+        assertEquals("doc2", write());
+        assertEquals("doc2", write());
+    }
+
+    @Test
+    public void testRoles() throws Exception {
+        authenticate("user", "ROLE_A", "ROLE_B");
+        assertEquals("doc1", write());
+        // same roles, same document
+        authenticate("other", "ROLE_B", "ROLE_A");
+        assertEquals("doc1", write());
+        // different roles
+        authenticate("user", "ROLE_A");
+        assertEquals("doc2", write());
+        SecurityContextHolder.getContext().setAuthentication(null);
+        assertEquals("doc3", write());
+    }
+
+    @Test
+    public void testCatalogChange() throws Exception {
+        write();
+        Catalog catalog = geoServer.getCatalog();
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName("topp");
+        catalog.add(ws);
+        assertEquals(0, cache.getDocumentCount());
+        assertEquals("doc2", write());
+    }
+
+    @Test
+    public void testUpdateSequence() throws Exception {
+        write();
+        GeoServerInfo global = geoServer.getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        geoServer.save(global);
+        assertEquals("doc2", write());
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        request.setGet(false);
+        write();
+        assertEquals("doc2", write());
+
+        request.setGet(true);
+        cache.setMaxSize(0);
+        write();
+        assertEquals("doc4", write());
+        assertEquals(0, cache.getDocumentCount());
+    }
+
+    @Test
+    public void testEncodingFailure() throws Exception {
+        encoder.fail = true;
+        try {
+            write();
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        encoder.fail = false;
+        assertEquals("doc2", write());
+    }
+
+    void authenticate(String user, String... roles) {
+        GeoServerRole[] authorities = new GeoServerRole[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            authorities[i] = new GeoServerRole(roles[i]);
+        }
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(user, null, Arrays.asList(authorities)));
+    }
+
+    String write() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        cache.write(operation, bos, encoder);
+        return bos.toString("UTF-8");
+    }
+
+    static class CountingEncoder implements CapabilitiesCache.Encoder {
+        int count;
+
+        boolean fail;
+
+        public void encode(OutputStream output) throws IOException {
+            count++;
+            if (fail) {
+                throw new IOException("failed");
+            }
+            output.write(("doc" + count).getBytes("UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.auth;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+public class ConcurrentAuthenticationCacheTest {
+
+    void fillCache(AuthenticationCache cache) {
+        cache.put("filtera", "key1", new UsernamePasswordAuthenticationToken("user1", "password1"));
+        cache.put("filtera", "key2", new UsernamePasswordAuthenticationToken("user2", "password2"));
+        cache.put("filterb", "key3", new UsernamePasswordAuthenticationToken("user3", "password3"));
+        cache.put("filterb", "key4", new UsernamePasswordAuthenticationToken("user4", "password4"));
+    }
+
+    void waitForMilliSecs(long milliSecs) {
+        try {
+            Thread.sleep(milliSecs);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(5, 10, 4);
+        fillCache(cache);
+        UsernamePasswordAuthenticationToken token = (UsernamePasswordAuthenticationToken) cache
+                .get("filtera", "key2");
+        assertEquals("user2", token.getPrincipal());
+
+        // remove filter
+        cache.removeAll("filtera");
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filtera", "key2"));
+        assertNotNull(cache.get("filterb", "key3"));
+
+        // remove one entry, and non existing ones
+        cache.remove("filterb", "key3");
+        cache.removeAll("filterz");
+        cache.remove("filterz", "key999");
+        assertNull(cache.get("filterb", "key3"));
+        assertNotNull(cache.get("filterb", "key4"));
+
+        // remove all
+        cache.removeAll();
+        assertNull(cache.get("filterb", "key4"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(5, 10, 3);
+        fillCache(cache);
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        // the least recently used one is gone
+        assertNull(cache.get("filtera", "key1"));
+        assertNotNull(cache.get("filtera", "key2"));
+        assertNotNull(cache.get("filterb", "key3"));
+        assertNotNull(cache.get("filterb", "key4"));
+    }
+
+    @Test
+    public void testExpiration() {
+        // live time
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(5, 0, 4);
+        fillCache(cache);
+        waitForMilliSecs(10);
+        assertNull(cache.get("filtera", "key1"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(3, cache.size());
+
+        // idle time
+        cache = new ConcurrentAuthenticationCacheImpl(0, 10, 4);
+        fillCache(cache);
+        waitForMilliSecs(10);
+        assertNull(cache.get("filtera", "key1"));
+
+        // per entry times
+        cache.put("filterc", "key5", new UsernamePasswordAuthenticationToken("user5",
+                "password5"), 10, 10);
+        waitForMilliSecs(10);
+        assertNotNull(cache.get("filterc", "key5"));
+
+        // sweep
+        cache.removeExpired();
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testStatistics() {
+        ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(5, 10, 4);
+        assertEquals(1.0, cache.getHitRate(), 0d);
+        fillCache(cache);
+        cache.get("filtera", "key1");
+        cache.get("filtera", "key2");
+        cache.get("filtera", "key3");
+        cache.get("filtera", "key4");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0d);
+
+        // an expired entry is a miss
+        cache.put("filterc", "key5", new UsernamePasswordAuthenticationToken("user5",
+                "password5"), 0, 0);
+        waitForMilliSecs(10);
+        assertNull(cache.get("filterc", "key5"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentAuthenticationCacheImpl cache = new ConcurrentAuthenticationCacheImpl(
+                100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 10000; i++) {
+                            String key = "key" + ((i * 7 + thread) % 150);
+                            if (cache.get("filter", key) == null) {
+                                cache.put("filter", key, new UsernamePasswordAuthenticationToken(
+                                        key, "password"));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.size() <= 100);
+        assertEquals(80000, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.geoserver.security.AccessMode;
+import org.junit.Test;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+public class CompiledAccessRulesTest {
+
+    @Test
+    public void testSameAsTree() {
+        Random random = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            SecureTreeNode tree = buildTree(random, 5, 5, 6, 30);
+            CompiledAccessRules compiled = new CompiledAccessRules(tree);
+            for (Authentication user : buildUsers(random, 6)) {
+                for (int w = 0; w < 6; w++) {
+                    String ws = "ws" + w;
+                    for (AccessMode mode : AccessMode.values()) {
+                        assertEquals(tree.getDeepestNode(new String[] { ws }).canAccess(user, mode),
+                                compiled.canAccess(user, ws, null, mode));
+                        for (int l = 0; l < 6; l++) {
+                            String layer = "layer" + l;
+                            assertEquals(tree.getDeepestNode(new String[] { ws, layer })
+                                    .canAccess(user, mode), compiled.canAccess(user, ws, layer,
+                                    mode));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testManyRoles() {
+        // more roles than fit in a single bitset word
+        SecureTreeNode tree = new SecureTreeNode();
+        SecureTreeNode ws = tree.addChild("ws");
+        Set<String> roles = new HashSet<String>();
+        for (int i = 0; i < 150; i++) {
+            roles.add("ROLE_" + i);
+        }
+        ws.setAuthorizedRoles(AccessMode.READ, roles);
+        ws.addChild("layer").setAuthorizedRoles(AccessMode.READ,
+                Collections.singleton("ROLE_149"));
+        CompiledAccessRules compiled = new CompiledAccessRules(tree);
+
+        Authentication user = new TestingAuthenticationToken("user", null, "ROLE_130");
+        assertTrue(compiled.canAccess(user, "ws", null, AccessMode.READ));
+        assertFalse(compiled.canAccess(user, "ws", "layer", AccessMode.READ));
+        // falls back on the workspace rules
+        assertTrue(compiled.canAccess(user, "ws", "other", AccessMode.READ));
+        assertTrue(compiled.canAccess(user, "other", "layer", AccessMode.READ));
+        Authentication other = new TestingAuthenticationToken("other", null, "ROLE_149",
+                "ROLE_UNKNOWN");
+        assertTrue(compiled.canAccess(other, "ws", "layer", AccessMode.READ));
+    }
+
+    @Test
+    public void testUserRolesCache() {
+        CompiledAccessRules compiled = new CompiledAccessRules(new SecureTreeNode());
+        Authentication user = new TestingAuthenticationToken("user", null, "ROLE_A");
+        assertSame(compiled.getUserRoles(user), compiled.getUserRoles(user));
+        // an equal authentication is not the same authentication
+        Authentication other = new TestingAuthenticationToken("user", null, "ROLE_A");
+        assertNotSame(compiled.getUserRoles(user), compiled.getUserRoles(other));
+    }
+
+    /**
+     * Builds a random tree, the workspaces and layers are named ws0, ws1, ... and layer0,
+     * layer1, ..., the roles ROLE_0, ROLE_1, ...
+     */
+    static SecureTreeNode buildTree(Random random, int workspaces, int layers, int roles,
+            int rules) {
+        SecureTreeNode root = new SecureTreeNode();
+        AccessMode[] modes = AccessMode.values();
+        for (int i = 0; i < rules; i++) {
+            SecureTreeNode node;
+            int w = random.nextInt(workspaces + 1);
+            if (w == workspaces) {
+                node = root;
+            } else {
+                String ws = "ws" + w;
+                node = root.getChild(ws) != null ? root.getChild(ws) : root.addChild(ws);
+                int l = random.nextInt(layers + 1);
+                if (l < layers) {
+                    String layer = "layer" + l;
+                    node = node.getChild(layer) != null ? node.getChild(layer) : node
+                            .addChild(layer);
+                }
+            }
+            Set<String> allowed;
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                allowed = SecureTreeNode.EVERYBODY;
+            } else if (kind == 1) {
+                allowed = Collections.emptySet();
+            } else {
+                allowed = new HashSet<String>();
+                for (int r = random.nextInt(3); r >= 0; r--) {
+                    allowed.add("ROLE_" + random.nextInt(roles));
+                }
+            }
+            node.setAuthorizedRoles(modes[random.nextInt(modes.length)], allowed);
+        }
+        return root;
+    }
+
+    static List<Authentication> buildUsers(Random random, int roles) {
+        List<Authentication> users = new ArrayList<Authentication>();
+        users.add(null);
+        users.add(new TestingAuthenticationToken("anonymous", null));
+        users.add(new TestingAuthenticationToken("admin", null, SecureTreeNode.ROOT_ROLE));
+        for (int i = 0; i < 10; i++) {
+            String[] userRoles = new String[random.nextInt(4)];
+            for (int r = 0; r < userRoles.length; r++) {
+                userRoles[r] = "ROLE_" + random.nextInt(roles + 2);
+            }
+            users.add(new TestingAuthenticationToken("user" + i, null, userRoles));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,97 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import java.util.List;
+import java.util.Random;
+
+import org.geoserver.security.AccessMode;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Compares the time needed to check read and write access on 50k layers, protected by 10k rules,
+ * walking the {@link SecureTreeNode} tree and using the {@link CompiledAccessRules}. Not a unit
+ * test, run it manually with:
+ *
+ * <pre>
+ * java org.geoserver.security.impl.DataAccessRulesBenchmark [iterations]
+ * </pre>
+ */
+public class DataAccessRulesBenchmark {
+
+    static final int WARMUP = 3;
+
+    static final int WORKSPACES = 1000;
+
+    static final int LAYERS = 50;
+
+    static final int ROLES = 200;
+
+    static final int RULES = 10000;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Random random = new Random(0);
+        SecureTreeNode tree = CompiledAccessRulesTest.buildTree(random, WORKSPACES, LAYERS,
+                ROLES, RULES);
+        long start = System.nanoTime();
+        CompiledAccessRules compiled = new CompiledAccessRules(tree);
+        System.out.println("compile\t" + (System.nanoTime() - start) / 1000000.0 + " ms");
+        List<Authentication> users = CompiledAccessRulesTest.buildUsers(random, ROLES);
+        String[] workspaces = new String[WORKSPACES];
+        for (int w = 0; w < WORKSPACES; w++) {
+            workspaces[w] = "ws" + w;
+        }
+        String[] layers = new String[LAYERS];
+        for (int l = 0; l < LAYERS; l++) {
+            layers[l] = "layer" + l;
+        }
+
+        System.out.println("ms per pass on " + WORKSPACES * LAYERS + " layers");
+        long treeTime = 0;
+        long compiledTime = 0;
+        int treeCount = 0;
+        int compiledCount = 0;
+        for (int i = 0; i < WARMUP + iterations; i++) {
+            for (Authentication user : users) {
+                start = System.nanoTime();
+                for (int w = 0; w < WORKSPACES; w++) {
+                    String ws = workspaces[w];
+                    for (int l = 0; l < LAYERS; l++) {
+                        String layer = layers[l];
+                        SecureTreeNode node = tree.getDeepestNode(new String[] { ws, layer });
+                        if (node.canAccess(user, AccessMode.READ)) {
+                            treeCount++;
+                        }
+                        if (node.canAccess(user, AccessMode.WRITE)) {
+                            treeCount++;
+                        }
+                    }
+                }
+                long mid = System.nanoTime();
+                for (int w = 0; w < WORKSPACES; w++) {
+                    String ws = workspaces[w];
+                    for (int l = 0; l < LAYERS; l++) {
+                        String layer = layers[l];
+                        if (compiled.canAccess(user, ws, layer, AccessMode.READ)) {
+                            compiledCount++;
+                        }
+                        if (compiled.canAccess(user, ws, layer, AccessMode.WRITE)) {
+                            compiledCount++;
+                        }
+                    }
+                }
+                if (i >= WARMUP) {
+                    treeTime += mid - start;
+                    compiledTime += System.nanoTime() - mid;
+                }
+            }
+        }
+        int passes = iterations * users.size();
+        System.out.println("tree\t" + treeTime / passes / 1000000.0 + "\t(" + treeCount + ")");
+        System.out.println("compiled\t" + compiledTime / passes / 1000000.0 + "\t("
+                + compiledCount + ")");
+    }
+}
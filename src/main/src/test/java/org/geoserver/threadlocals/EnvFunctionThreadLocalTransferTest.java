@@ -0,0 +1,48 @@
+/* Copyright (c) 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.threadlocals;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.ExecutionException;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.function.EnvFunction;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.Expression;
+
+public class EnvFunctionThreadLocalTransferTest extends AbstractThreadLocalTransferTest {
+
+    static final FilterFactory FF = CommonFactoryFinder.getFilterFactory(null);
+
+    static final Expression ENV = FF.function("env", FF.literal("color"));
+
+    @After
+    public void cleanupThreadLocals() {
+        EnvFunction.clearLocalValues();
+    }
+
+    @Test
+    public void testEnv() throws InterruptedException, ExecutionException {
+        // setup the state
+        EnvFunction.setLocalValue("color", "red");
+        // test it's transferred properly using the base class machinery
+        testThreadLocalTransfer(new ThreadLocalTransferCallable(new EnvFunctionThreadLocalTransfer()) {
+
+            @Override
+            void assertThreadLocalCleaned() {
+                assertNull(ENV.evaluate(null));
+            }
+
+            @Override
+            void assertThreadLocalApplied() {
+                assertEquals("red", ENV.evaluate(null));
+            }
+        });
+    }
+}
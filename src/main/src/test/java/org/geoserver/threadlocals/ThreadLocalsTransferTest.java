@@ -1,5 +1,6 @@
 package org.geoserver.threadlocals;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -23,9 +24,13 @@ import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.ows.Request;
 import org.geoserver.security.AdminRequest;
 import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.function.EnvFunction;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.Expression;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -56,6 +61,7 @@ public class ThreadLocalsTransferTest extends GeoServerSystemTestSupport {
         LocalLayer.remove();
         LocalWorkspace.remove();
         SecurityContextHolder.getContext().setAuthentication(null);
+        EnvFunction.clearLocalValues();
     }
     
 
@@ -71,6 +77,9 @@ public class ThreadLocalsTransferTest extends GeoServerSystemTestSupport {
         AdminRequest.start(myState);
         final Authentication auth = new UsernamePasswordAuthenticationToken("user", "password");
         SecurityContextHolder.getContext().setAuthentication(auth);
+        EnvFunction.setLocalValue("color", "red");
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        final Expression env = ff.function("env", ff.literal("color"));
         final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
         Future<Void> future = executor.submit(new Callable<Void>() {
 
@@ -90,6 +99,7 @@ public class ThreadLocalsTransferTest extends GeoServerSystemTestSupport {
                 assertSame(layer, LocalLayer.get());
                 assertSame(ws, LocalWorkspace.get());
                 assertSame(auth, SecurityContextHolder.getContext().getAuthentication());
+                assertEquals("red", env.evaluate(null));
             }
 
             private void testCleanup() {
@@ -101,6 +111,7 @@ public class ThreadLocalsTransferTest extends GeoServerSystemTestSupport {
                 assertNull(LocalLayer.get());
                 assertNull(LocalWorkspace.get());
                 assertNull(SecurityContextHolder.getContext().getAuthentication());
+                assertNull(env.evaluate(null));
             }
 
         });
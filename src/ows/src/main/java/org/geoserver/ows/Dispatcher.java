@@ -56,6 +56,9 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -118,7 +121,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  *
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController implements ApplicationListener {
     /**
      * Logging instance
      */
@@ -147,6 +150,11 @@ public class Dispatcher extends AbstractController {
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * routing index, built on first use and dropped when the application context is refreshed
+     */
+    volatile DispatcherIndex index;
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -208,6 +216,33 @@ public class Dispatcher extends AbstractController {
         }
     }
     
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            index = null;
+        }
+    }
+
+    /**
+     * Returns the routing index, building it from the extensions found in the application
+     * context if needed.
+     */
+    DispatcherIndex getIndex() {
+        DispatcherIndex result = index;
+        if (result == null) {
+            ApplicationContext context;
+            try {
+                context = getApplicationContext();
+            } catch (IllegalStateException e) {
+                // not running in a context
+                context = null;
+            }
+            result = new DispatcherIndex(context, loadServices(), loadKvpRequestReaders(),
+                    loadXmlReaders(), GeoServerExtensions.extensions(Response.class));
+            index = result;
+        }
+        return result;
+    }
+
     protected void preprocessRequest(HttpServletRequest request)
         throws Exception {
         //set the charset
@@ -695,7 +730,7 @@ public class Dispatcher extends AbstractController {
                     boolean found = false;
                     Version version = new Version(req.getVersion());
 
-                    for (Iterator s = loadServices().iterator(); s.hasNext();) {
+                    for (Iterator s = getIndex().getServices().iterator(); s.hasNext();) {
                         Service service = (Service) s.next();
 
                         if (version.equals(service.getVersion())) {
@@ -795,36 +830,14 @@ public class Dispatcher extends AbstractController {
         throws Throwable {
         //step 6: write response
         if (result != null) {
-            //look up respones
-            List responses = GeoServerExtensions.extensions(Response.class);
+            //look up respones matching binding and output format
+            List responses = getIndex().getResponses(result.getClass(), req.getOutputFormat());
 
-            //first filter by binding, and canHandle
-         O: for (Iterator itr = responses.iterator(); itr.hasNext();) {
+            //then filter by canHandle
+            for (Iterator itr = responses.iterator(); itr.hasNext();) {
                 Response response = (Response) itr.next();
 
-                Class binding = response.getBinding();
-
-                if (!binding.isAssignableFrom(result.getClass())
-                        || !response.canHandle(opDescriptor)) {
-                    itr.remove();
-
-                    continue;
-                }
-
-                //filter by output format
-                Set outputFormats = response.getOutputFormats();
-
-                if ((req.getOutputFormat() != null) && (!outputFormats.isEmpty())
-                        && !outputFormats.contains(req.getOutputFormat())) {
-                    
-                    //must do a case insensitive check
-                    for ( Iterator of = outputFormats.iterator(); of.hasNext(); ) {
-                        String outputFormat = (String) of.next();
-                        if( req.getOutputFormat().equalsIgnoreCase( outputFormat ) ) {
-                            continue O;
-                        }
-                    }
-                    
+                if (!response.canHandle(opDescriptor)) {
                     itr.remove();
                 }
             }
@@ -1025,7 +1038,6 @@ public class Dispatcher extends AbstractController {
 
     Service findService(String id, String ver, String namespace) throws ServiceException {
         Version version = (ver != null) ? new Version(ver) : null;
-        Collection services = loadServices();
         
         // the id is actually the pathinfo, in case workspace specific services
         // are active we want to skip the workspace part in the path and go directly to the
@@ -1035,15 +1047,7 @@ public class Dispatcher extends AbstractController {
         }
 
         //first just match on service,request
-        List matches = new ArrayList();
-
-        for (Iterator itr = services.iterator(); itr.hasNext();) {
-            Service sBean = (Service) itr.next();
-
-            if (sBean.getId().equalsIgnoreCase(id)) {
-                matches.add(sBean);
-            }
-        }
+        List matches = getIndex().getServices(id);
 
         if (matches.isEmpty()) {
             return null;
@@ -1115,7 +1119,7 @@ public class Dispatcher extends AbstractController {
             sBean = (Service) matches.get(0);
         }
 
-        return sBean;
+        return getIndex().resolve(sBean);
     }
 
     public static Collection loadKvpRequestReaders() {
@@ -1130,8 +1134,10 @@ public class Dispatcher extends AbstractController {
     }
 
     public static KvpRequestReader findKvpRequestReader(Class type) {
-        Collection kvpReaders = loadKvpRequestReaders();
+        return findKvpRequestReader(type, loadKvpRequestReaders());
+    }
 
+    static KvpRequestReader findKvpRequestReader(Class type, Collection kvpReaders) {
         List matches = new ArrayList();
 
         for (Iterator itr = kvpReaders.iterator(); itr.hasNext();) {
@@ -1192,7 +1198,9 @@ public class Dispatcher extends AbstractController {
     }
 
     XmlRequestReader findXmlReader(String namespace, String element, String serviceId, String ver) {
-        Collection xmlReaders = loadXmlReaders();
+        DispatcherIndex index = getIndex();
+        Collection xmlReaders = element != null ? index.getXmlReaders(element)
+                : Collections.EMPTY_LIST;
 
         //first just match on namespace, element
         List matches = new ArrayList();
@@ -1350,7 +1358,7 @@ public class Dispatcher extends AbstractController {
             xmlReader = (XmlRequestReader) matches.get(0);
         }
 
-        return xmlReader;
+        return index.resolve(xmlReader);
     }
 
     ServiceStrategy findOutputStrategy(HttpServletResponse response) {
@@ -1398,7 +1406,7 @@ public class Dispatcher extends AbstractController {
 
     Object parseRequestKVP(Class type, Request request)
         throws Exception {
-        KvpRequestReader kvpReader = findKvpRequestReader(type);
+        KvpRequestReader kvpReader = getIndex().getKvpReader(type);
 
         if (kvpReader != null) {
             //check for http request awareness
@@ -0,0 +1,315 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Service;
+import org.geotools.util.logging.Logging;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Routing index of the {@link Dispatcher}, built once from the services, request readers and
+ * responses found in the application context and dropped when the context is refreshed.
+ * <p>
+ * Services are indexed by id, xml readers by element name, kvp readers by request type, and the
+ * responses by result class and output format, so that dispatching a request costs a few hash
+ * lookups instead of loading all the extensions and scanning them. The index only covers the
+ * properties of the beans that do not change over their life, the checks depending on the
+ * request, such as {@link Response#canHandle(org.geoserver.platform.Operation)} and the version
+ * and namespace matching, are still performed by the dispatcher on the few candidates found.
+ * </p>
+ * <p>
+ * Beans defined as prototypes are looked up again in the context once selected, see
+ * {@link #resolve(Object)}, so that each request still gets a fresh instance. When a prototype
+ * instance can't be told apart from another bean of the same class the extension point is not
+ * indexed and looked up on each request.
+ * </p>
+ */
+class DispatcherIndex {
+
+    static final Logger LOGGER = Logging.getLogger(DispatcherIndex.class);
+
+    /**
+     * Marks the request types without a kvp reader
+     */
+    static final Object NO_READER = new Object();
+
+    final ApplicationContext context;
+
+    /**
+     * The prototype beans, mapped to their name
+     */
+    final Map<Object, String> prototypes = new IdentityHashMap<Object, String>();
+
+    List<Service> services;
+
+    Map<String, List<Service>> servicesById;
+
+    Map<String, List<XmlRequestReader>> xmlReadersByElement;
+
+    List<KvpRequestReader> kvpReaders;
+
+    final Map<Class, Object> kvpReadersByType = new ConcurrentHashMap<Class, Object>();
+
+    List<Response> responses;
+
+    /**
+     * Lower case output formats declared by the responses, other ones are not cached
+     */
+    Set<String> outputFormats;
+
+    final Map<ResponseKey, List<Response>> responsesByKey =
+        new ConcurrentHashMap<ResponseKey, List<Response>>();
+
+    DispatcherIndex(ApplicationContext context, Collection<Service> services,
+            Collection<KvpRequestReader> kvpReaders, Collection<XmlRequestReader> xmlReaders,
+            Collection<Response> responses) {
+        this.context = context;
+
+        if (register(services, Service.class)) {
+            this.services = Collections.unmodifiableList(new ArrayList<Service>(services));
+            this.servicesById = new HashMap<String, List<Service>>();
+            for (Service service : services) {
+                add(servicesById, lower(service.getId()), service);
+            }
+        }
+
+        if (register(xmlReaders, XmlRequestReader.class)) {
+            xmlReadersByElement = new HashMap<String, List<XmlRequestReader>>();
+            for (XmlRequestReader reader : xmlReaders) {
+                add(xmlReadersByElement, lower(reader.getElement().getLocalPart()), reader);
+            }
+        }
+
+        if (register(kvpReaders, KvpRequestReader.class)) {
+            this.kvpReaders = new ArrayList<KvpRequestReader>(kvpReaders);
+        }
+
+        if (register(responses, Response.class)) {
+            this.responses = new ArrayList<Response>(responses);
+            this.outputFormats = new HashSet<String>();
+            for (Response response : responses) {
+                for (Object format : response.getOutputFormats()) {
+                    outputFormats.add(lower((String) format));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the prototype beans among the given ones
+     *
+     * @return false if a prototype can't be told apart from another bean of the same class
+     */
+    boolean register(Collection beans, Class type) {
+        if (context == null) {
+            return true;
+        }
+        Map<Class, String> names = new HashMap<Class, String>();
+        Set<Class> singletons = new HashSet<Class>();
+        Set<Class> ambiguous = new HashSet<Class>();
+        for (String name : context.getBeanNamesForType(type)) {
+            Class clazz = context.getType(name);
+            if (context.isSingleton(name)) {
+                singletons.add(clazz);
+            } else if (names.put(clazz, name) != null) {
+                ambiguous.add(clazz);
+            }
+        }
+        for (Object bean : beans) {
+            String name = names.get(bean.getClass());
+            if (name == null) {
+                continue;
+            }
+            if (ambiguous.contains(bean.getClass()) || singletons.contains(bean.getClass())) {
+                LOGGER.log(Level.FINE, "Several beans of class " + bean.getClass().getName()
+                    + ", " + type.getSimpleName() + " extensions won't be indexed");
+                return false;
+            }
+            prototypes.put(bean, name);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a new instance of the bean if it is a prototype, the bean itself otherwise
+     */
+    <T> T resolve(T bean) {
+        String name = bean == null ? null : prototypes.get(bean);
+        return name == null ? bean : (T) context.getBean(name);
+    }
+
+    /**
+     * All the services
+     */
+    List<Service> getServices() {
+        if (services == null) {
+            return GeoServerExtensions.extensions(Service.class);
+        }
+        return services;
+    }
+
+    /**
+     * The services with the given id, case insensitive
+     */
+    List<Service> getServices(String id) {
+        if (servicesById == null) {
+            List<Service> matches = new ArrayList<Service>();
+            for (Service service : getServices()) {
+                if (service.getId().equalsIgnoreCase(id)) {
+                    matches.add(service);
+                }
+            }
+            return matches;
+        }
+        return get(servicesById, lower(id));
+    }
+
+    /**
+     * The xml readers of the given element name, case insensitive, regardless of the namespace
+     */
+    List<XmlRequestReader> getXmlReaders(String element) {
+        if (xmlReadersByElement == null) {
+            List<XmlRequestReader> matches = new ArrayList<XmlRequestReader>();
+            for (XmlRequestReader reader : GeoServerExtensions.extensions(XmlRequestReader.class)) {
+                if (reader.getElement().getLocalPart().equalsIgnoreCase(element)) {
+                    matches.add(reader);
+                }
+            }
+            return matches;
+        }
+        return get(xmlReadersByElement, lower(element));
+    }
+
+    /**
+     * The kvp reader for the given request type, as selected by
+     * {@link Dispatcher#findKvpRequestReader(Class)}
+     */
+    KvpRequestReader getKvpReader(Class type) {
+        if (kvpReaders == null) {
+            return Dispatcher.findKvpRequestReader(type);
+        }
+        Object reader = kvpReadersByType.get(type);
+        if (reader == null) {
+            reader = Dispatcher.findKvpRequestReader(type, kvpReaders);
+            kvpReadersByType.put(type, reader == null ? NO_READER : reader);
+        }
+        return reader == NO_READER ? null : resolve((KvpRequestReader) reader);
+    }
+
+    /**
+     * The responses whose binding is compatible with the result class and that support the
+     * output format, case insensitive, if any. The returned list is a new one, and the prototype
+     * responses in it are already resolved.
+     */
+    List<Response> getResponses(Class resultClass, String outputFormat) {
+        if (responses == null) {
+            return match(GeoServerExtensions.extensions(Response.class), resultClass,
+                    outputFormat);
+        }
+        String format = outputFormat == null ? null : lower(outputFormat);
+        List<Response> matches;
+        if (format == null || outputFormats.contains(format)) {
+            ResponseKey key = new ResponseKey(resultClass, format);
+            matches = responsesByKey.get(key);
+            if (matches == null) {
+                matches = match(responses, resultClass, outputFormat);
+                responsesByKey.put(key, matches);
+            }
+        } else {
+            // don't let random output formats fill the cache
+            matches = match(responses, resultClass, outputFormat);
+        }
+        List<Response> result = new ArrayList<Response>(matches.size());
+        for (Response response : matches) {
+            result.add(resolve(response));
+        }
+        return result;
+    }
+
+    static List<Response> match(List<Response> responses, Class resultClass, String outputFormat) {
+        List<Response> matches = new ArrayList<Response>();
+        O: for (Response response : responses) {
+            if (!response.getBinding().isAssignableFrom(resultClass)) {
+                continue;
+            }
+            Set outputFormats = response.getOutputFormats();
+            if (outputFormat != null && !outputFormats.isEmpty()
+                    && !outputFormats.contains(outputFormat)) {
+                // must do a case insensitive check
+                for (Iterator of = outputFormats.iterator(); of.hasNext();) {
+                    if (outputFormat.equalsIgnoreCase((String) of.next())) {
+                        matches.add(response);
+                        continue O;
+                    }
+                }
+                continue;
+            }
+            matches.add(response);
+        }
+        return matches;
+    }
+
+    static <T> void add(Map<String, List<T>> map, String key, T value) {
+        List<T> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<T>(1);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    static <T> List<T> get(Map<String, List<T>> map, String key) {
+        List<T> values = map.get(key);
+        return values == null ? Collections.<T> emptyList() : values;
+    }
+
+    static String lower(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ENGLISH);
+    }
+
+    static class ResponseKey {
+        final Class resultClass;
+
+        final String outputFormat;
+
+        ResponseKey(Class resultClass, String outputFormat) {
+            this.resultClass = resultClass;
+            this.outputFormat = outputFormat;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ResponseKey)) {
+                return false;
+            }
+            ResponseKey other = (ResponseKey) obj;
+            return resultClass == other.resultClass
+                    && (outputFormat == null ? other.outputFormat == null : outputFormat
+                            .equals(other.outputFormat));
+        }
+
+        @Override
+        public int hashCode() {
+            return resultClass.hashCode() * 31
+                    + (outputFormat == null ? 0 : outputFormat.hashCode());
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.ows.KvpParser;
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Registry of the {@link KvpParser} extensions, indexed by key and by the service, version and
+ * request they apply to.
+ * <p>
+ * The parser selected for a key is the one {@link KvpUtils#findParser} would pick among the
+ * parsers left by {@link KvpUtils#purgeParsers}, including the ambiguity errors. The selection
+ * is computed once for each combination of service, version and request declared by the
+ * parsers, values that no parser declares behaving the same as a missing one, so that finding a
+ * parser is a few map lookups that do not allocate.
+ * </p>
+ * <p>
+ * Like {@link GeoServerExtensions}, this class is declared as a bean in the application context
+ * and exposes itself statically through {@link #get()}. The parsers are looked up when first
+ * needed and again after the context is refreshed.
+ * </p>
+ */
+public class KvpParserRegistry implements ApplicationContextAware, ApplicationListener,
+        DisposableBean {
+
+    /**
+     * Stands for a missing service, version or request in the nested maps
+     */
+    static final String ANY = "";
+
+    static volatile KvpParserRegistry instance;
+
+    ApplicationContext context;
+
+    volatile Index index;
+
+    public KvpParserRegistry() {
+    }
+
+    /**
+     * Builds a registry of the given parsers, not bound to an application context
+     */
+    public KvpParserRegistry(List<KvpParser> parsers) {
+        this.index = new Index(parsers);
+    }
+
+    /**
+     * The registry declared in the application context, or null if there is none
+     */
+    public static KvpParserRegistry get() {
+        return instance;
+    }
+
+    public void setApplicationContext(ApplicationContext context) throws BeansException {
+        this.context = context;
+        this.index = null;
+        instance = this;
+    }
+
+    public void onApplicationEvent(ApplicationEvent event) {
+        if (event instanceof ContextRefreshedEvent) {
+            index = null;
+        }
+    }
+
+    public void destroy() throws Exception {
+        if (instance == this) {
+            instance = null;
+        }
+    }
+
+    /**
+     * Returns the parsers applying to a request
+     *
+     * @param service the service parameter from the kvp (can be null)
+     * @param version the version parameter from the kvp (can be null)
+     * @param request the request parameter from the kvp (can be null)
+     */
+    public Parsers getParsers(String service, String version, String request) {
+        Index index = this.index;
+        if (index == null) {
+            index = new Index(GeoServerExtensions.extensions(KvpParser.class, context));
+            this.index = index;
+        }
+        return index.getParsers(service, version, request);
+    }
+
+    /**
+     * The parsers of all the keys
+     */
+    static class Index {
+
+        final List<KvpParser> parsers;
+
+        /**
+         * Canonical service, version and request values, the ones declared by the parsers
+         */
+        final Map<String, String> services = new TreeMap<String, String>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        final Map<String, String> versions = new HashMap<String, String>();
+
+        final Map<String, String> requests = new TreeMap<String, String>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        /**
+         * Parsers selected for each service, version and request, computed when first needed
+         */
+        final Map<String, Map<String, Map<String, Parsers>>> selections =
+            new ConcurrentHashMap<String, Map<String, Map<String, Parsers>>>();
+
+        Index(List<KvpParser> parsers) {
+            this.parsers = new ArrayList<KvpParser>(parsers);
+            for (KvpParser parser : parsers) {
+                if (parser.getService() != null) {
+                    services.put(parser.getService(), parser.getService());
+                }
+                if (parser.getVersion() != null) {
+                    versions.put(parser.getVersion().toString(), parser.getVersion().toString());
+                }
+                if (parser.getRequest() != null) {
+                    requests.put(parser.getRequest(), parser.getRequest());
+                }
+            }
+        }
+
+        Parsers getParsers(String service, String version, String request) {
+            String s = canonical(services, service);
+            String v = canonical(versions, version);
+            String r = canonical(requests, request);
+
+            Map<String, Map<String, Parsers>> byVersion = selections.get(s);
+            if (byVersion == null) {
+                byVersion = new ConcurrentHashMap<String, Map<String, Parsers>>();
+                selections.put(s, byVersion);
+            }
+            Map<String, Parsers> byRequest = byVersion.get(v);
+            if (byRequest == null) {
+                byRequest = new ConcurrentHashMap<String, Parsers>();
+                byVersion.put(v, byRequest);
+            }
+            Parsers result = byRequest.get(r);
+            if (result == null) {
+                result = new Parsers(parsers, s == ANY ? null : s, v == ANY ? null : v,
+                        r == ANY ? null : r);
+                byRequest.put(r, result);
+            }
+            return result;
+        }
+
+        static String canonical(Map<String, String> values, String value) {
+            String result = value == null ? null : values.get(value);
+            return result == null ? ANY : result;
+        }
+    }
+
+    /**
+     * The parsers selected for each key, for a given service, version and request
+     */
+    public static class Parsers {
+
+        /**
+         * Values are either the selected parser or the error found selecting it
+         */
+        final Map<String, Object> parsers = new TreeMap<String, Object>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        Parsers(List<KvpParser> all, String service, String version, String request) {
+            List<KvpParser> candidates = new ArrayList<KvpParser>(all);
+            KvpUtils.purgeParsers(candidates, service, version, request);
+
+            Map<String, List<KvpParser>> byKey = new TreeMap<String, List<KvpParser>>(
+                    String.CASE_INSENSITIVE_ORDER);
+            for (KvpParser parser : candidates) {
+                List<KvpParser> parsers = byKey.get(parser.getKey());
+                if (parsers == null) {
+                    parsers = new ArrayList<KvpParser>(1);
+                    byKey.put(parser.getKey(), parsers);
+                }
+                parsers.add(parser);
+            }
+
+            for (Map.Entry<String, List<KvpParser>> e : byKey.entrySet()) {
+                Object selected;
+                try {
+                    selected = KvpUtils.findParser(e.getKey(), service, request, version,
+                            e.getValue());
+                } catch (IllegalStateException ex) {
+                    selected = ex.getMessage();
+                }
+                parsers.put(e.getKey(), selected);
+            }
+        }
+
+        /**
+         * Returns the parser for the key, or null if there is none
+         *
+         * @throws IllegalStateException if more than one candidate parser is found
+         */
+        public KvpParser getParser(String key) {
+            Object parser = parsers.get(key);
+            if (parser instanceof String) {
+                throw new IllegalStateException((String) parser);
+            }
+            return (KvpParser) parser;
+        }
+    }
+}
@@ -391,16 +391,22 @@ public class KvpUtils {
      * @return A list of errors that occured.
      */
     public static List<Throwable> parse(Map kvp) {
-
-        // look up parser objects
-        List<KvpParser> parsers = GeoServerExtensions.extensions(KvpParser.class);
-
-        //strip out parsers which do not match current service/request/version
         String service = KvpUtils.getSingleValue(kvp, "service");
         String version = KvpUtils.getSingleValue(kvp, "version");
         String request = KvpUtils.getSingleValue(kvp, "request");
-        
-        purgeParsers(parsers, service, version, request);
+
+        // look up parser objects, through the registry if available
+        KvpParserRegistry registry = KvpParserRegistry.get();
+        KvpParserRegistry.Parsers registered = null;
+        List<KvpParser> parsers = null;
+        if (registry != null) {
+            registered = registry.getParsers(service, version, request);
+        } else {
+            parsers = GeoServerExtensions.extensions(KvpParser.class);
+
+            //strip out parsers which do not match current service/request/version
+            purgeParsers(parsers, service, version, request);
+        }
 
         // parser the kvp's
         ArrayList<Throwable> errors = new ArrayList<Throwable>();
@@ -409,7 +415,8 @@ public class KvpUtils {
             String key = (String) entry.getKey();
 
             // find the parser for this key value pair
-            KvpParser parser = findParser(key, service, request, version, parsers);
+            KvpParser parser = registered != null ? registered.getParser(key) : findParser(key,
+                    service, request, version, parsers);
 
             // parse the value
             Object parsed = null;
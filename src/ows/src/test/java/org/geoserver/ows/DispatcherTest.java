@@ -21,11 +21,16 @@ import javax.servlet.http.HttpServletResponse;
 
 import junit.framework.TestCase;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
 import org.geoserver.test.CodeExpectingHttpServletResponse;
 import org.geotools.util.Version;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
 
 import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
@@ -450,4 +455,45 @@ public class DispatcherTest extends TestCase {
         dispatcher.handleRequest(request, response);
         assertEquals("Hello world!:V2", response.getOutputStreamContent());
     }
+
+    public void testIndex() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+        FileSystemXmlApplicationContext context = 
+                new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        DispatcherIndex index = dispatcher.getIndex();
+        assertSame(index, dispatcher.getIndex());
+
+        assertEquals(1, index.getServices("HELLO").size());
+        assertTrue(index.getServices("foo").isEmpty());
+        assertSame(context.getBean("messageKvpReader"), index.getKvpReader(Message.class));
+        assertNull(index.getKvpReader(String.class));
+        assertEquals(Collections.singletonList(context.getBean("messageResponse")),
+                index.getResponses(Message.class, "text/plain"));
+        assertTrue(index.getResponses(String.class, null).isEmpty());
+
+        // dropped on refresh
+        dispatcher.onApplicationEvent(new ContextRefreshedEvent(context));
+        assertNotSame(index, dispatcher.getIndex());
+    }
+
+    public void testIndexPrototypes() throws Exception {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBeanDefinition("extensions", 
+                new RootBeanDefinition(GeoServerExtensions.class));
+        context.registerBeanDefinition("dispatcher", new RootBeanDefinition(Dispatcher.class));
+        RootBeanDefinition response = new RootBeanDefinition(MessageResponse.class);
+        response.setScope(BeanDefinition.SCOPE_PROTOTYPE);
+        context.registerBeanDefinition("messageResponse", response);
+        context.refresh();
+
+        // each request gets its own response
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        Object r1 = dispatcher.getIndex().getResponses(Message.class, null).get(0);
+        Object r2 = dispatcher.getIndex().getResponses(Message.class, null).get(0);
+        assertTrue(r1 instanceof MessageResponse);
+        assertTrue(r2 instanceof MessageResponse);
+        assertNotSame(r1, r2);
+    }
 }
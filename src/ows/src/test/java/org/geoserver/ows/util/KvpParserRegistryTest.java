@@ -0,0 +1,116 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.geoserver.ows.KvpParser;
+import org.geotools.util.Version;
+
+public class KvpParserRegistryTest extends TestCase {
+
+    KvpParser generic = parser("format", null, null, null);
+
+    KvpParser wms = parser("format", "WMS", null, null);
+
+    KvpParser wms130 = parser("format", "wms", "1.3.0", null);
+
+    KvpParser getMap = parser("bbox", null, null, "GetMap");
+
+    KvpParser wfsBbox = parser("bbox", "WFS", null, null);
+
+    KvpParser other1 = parser("other", "WCS", null, null);
+
+    KvpParser other2 = parser("other", "WCS", null, null);
+
+    List<KvpParser> parsers = Arrays.asList(generic, wms, wms130, getMap, wfsBbox, other1,
+            other2);
+
+    KvpParserRegistry registry = new KvpParserRegistry(parsers);
+
+    public void testSelection() {
+        assertSame(generic, registry.getParsers(null, null, null).getParser("format"));
+        assertSame(generic, registry.getParsers("wfs", null, null).getParser("FORMAT"));
+        assertSame(wms, registry.getParsers("wms", "1.1.1", null).getParser("Format"));
+        assertSame(wms130, registry.getParsers("WMS", "1.3.0", null).getParser("format"));
+
+        assertSame(getMap, registry.getParsers("wms", null, "getmap").getParser("bbox"));
+        assertNull(registry.getParsers("wms", null, "GetFeatureInfo").getParser("bbox"));
+        assertSame(wfsBbox, registry.getParsers("wfs", null, "GetFeature").getParser("bbox"));
+        assertNull(registry.getParsers(null, null, null).getParser("notAKey"));
+    }
+
+    public void testAmbiguous() {
+        try {
+            registry.getParsers("wcs", null, null).getParser("other");
+            fail("Expected an ambiguity error");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+        // the other keys are not affected
+        assertSame(generic, registry.getParsers("wcs", null, null).getParser("format"));
+    }
+
+    public void testSameAsScan() {
+        String[] services = { null, "wms", "WFS", "wcs", "foo" };
+        String[] versions = { null, "1.1.1", "1.3.0", "9.9" };
+        String[] requests = { null, "GetMap", "getfeature", "bar" };
+        String[] keys = { "format", "BBOX", "other", "none" };
+        for (String service : services) {
+            for (String version : versions) {
+                for (String request : requests) {
+                    KvpParserRegistry.Parsers registered = registry.getParsers(service,
+                            version, request);
+                    List<KvpParser> purged = new ArrayList<KvpParser>(parsers);
+                    KvpUtils.purgeParsers(purged, service, version, request);
+                    for (String key : keys) {
+                        Object expected;
+                        try {
+                            expected = KvpUtils.findParser(key, service, request, version,
+                                    purged);
+                        } catch (IllegalStateException e) {
+                            expected = e.getMessage();
+                        }
+                        Object actual;
+                        try {
+                            actual = registered.getParser(key);
+                        } catch (IllegalStateException e) {
+                            actual = e.getMessage();
+                        }
+                        assertEquals(service + "," + version + "," + request + "," + key,
+                                expected, actual);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testCachedSelection() {
+        assertSame(registry.getParsers("wms", "1.3.0", "GetMap"),
+                registry.getParsers("WMS", "1.3.0", "getmap"));
+        // undeclared values behave as missing ones
+        assertSame(registry.getParsers(null, null, null),
+                registry.getParsers("foo", "9.9", "bar"));
+    }
+
+    static KvpParser parser(String key, String service, String version, String request) {
+        KvpParser parser = new KvpParser(key, String.class) {
+            @Override
+            public Object parse(String value) throws Exception {
+                return value;
+            }
+        };
+        parser.setService(service);
+        if (version != null) {
+            parser.setVersion(new Version(version));
+        }
+        parser.setRequest(request);
+        return parser;
+    }
+}
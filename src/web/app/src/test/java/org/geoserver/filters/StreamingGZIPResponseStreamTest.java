@@ -0,0 +1,126 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class StreamingGZIPResponseStreamTest {
+
+    DeflaterPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new DeflaterPool(Deflater.BEST_SPEED, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.dispose();
+    }
+
+    @Test
+    public void testCompressed() throws Exception {
+        CapturingResponse response = new CapturingResponse(new MockHttpServletResponse());
+        StreamingGZIPResponseStream stream = new StreamingGZIPResponseStream(response, pool, 0);
+        stream.write("Hello world!".getBytes());
+        stream.flush();
+        stream.close();
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Hello world!", new String(unzip(response.toByteArray())));
+        // the deflater went back to the pool
+        assertEquals(1, pool.size.get());
+    }
+
+    @Test
+    public void testBelowThreshold() throws Exception {
+        CapturingResponse response = new CapturingResponse(new MockHttpServletResponse());
+        StreamingGZIPResponseStream stream = new StreamingGZIPResponseStream(response, pool, 100);
+        stream.write("Hello world!".getBytes());
+        stream.close();
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Hello world!", new String(response.toByteArray()));
+        assertEquals(0, pool.size.get());
+    }
+
+    @Test
+    public void testLargeOutput() throws Exception {
+        CapturingResponse response = new CapturingResponse(new MockHttpServletResponse());
+        StreamingGZIPResponseStream stream = new StreamingGZIPResponseStream(response, pool, 1024);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 100000; i++) {
+            byte[] line = ("Line number " + i + "\n").getBytes();
+            expected.write(line);
+            stream.write(line);
+        }
+        stream.close();
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertArrayEquals(expected.toByteArray(), unzip(response.toByteArray()));
+    }
+
+    private byte[] unzip(byte[] zipped) throws Exception {
+        InputStream stream = new GZIPInputStream(new ByteArrayInputStream(zipped));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            bos.write(buffer, 0, read);
+        }
+        return bos.toByteArray();
+    }
+
+    private static class CapturingByteOutputStream extends ServletOutputStream {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        public void write(int b) {
+            bos.write(b);
+        }
+
+        public byte[] toByteArray() {
+            return bos.toByteArray();
+        }
+    }
+
+    private static class CapturingResponse extends HttpServletResponseWrapper {
+        CapturingByteOutputStream myOutputStream;
+
+        public CapturingResponse(HttpServletResponse r) {
+            super(r);
+        }
+
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (myOutputStream == null)
+                myOutputStream = new CapturingByteOutputStream();
+            return myOutputStream;
+        }
+
+        public String getHeader(String name) {
+            return ((MockHttpServletResponse) getResponse()).getHeader(name);
+        }
+
+        public byte[] toByteArray() {
+            return myOutputStream.toByteArray();
+        }
+    }
+}
@@ -50,6 +50,15 @@ public class LayerGroupProvider extends GeoServerDataProvider<LayerGroupInfo> {
         return groups;
     }
 
+    /**
+     * The group filter is evaluated in memory, so the catalog is only queried directly when
+     * there is none
+     */
+    @Override
+    protected Class<LayerGroupInfo> getCatalogType() {
+        return groupFilter == null ? LayerGroupInfo.class : null;
+    }
+
     @Override
     protected List<Property<LayerGroupInfo>> getProperties() {
         return PROPERTIES;
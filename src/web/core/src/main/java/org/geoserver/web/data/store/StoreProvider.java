@@ -16,6 +16,7 @@ import org.apache.wicket.model.Model;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageStoreInfo;
 import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.ResourcePool;
 import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.WorkspaceInfo;
@@ -23,6 +24,7 @@ import org.geoserver.web.GeoServerApplication;
 import org.geoserver.web.wicket.GeoServerDataProvider;
 import org.geotools.data.DataAccessFactory;
 import org.opengis.coverage.grid.Format;
+import org.opengis.filter.Filter;
 
 /**
  * Data providers for the {@link StorePanel}
@@ -107,6 +109,17 @@ public class StoreProvider extends GeoServerDataProvider<StoreInfo> {
             : getCatalog().getStoresByWorkspace( workspace, StoreInfo.class );
     }
 
+    @Override
+    protected Class<StoreInfo> getCatalogType() {
+        return StoreInfo.class;
+    }
+
+    @Override
+    protected Filter getBaseFilter() {
+        return workspace == null ? Predicates.acceptAll() 
+            : Predicates.equal("workspace.id", workspace.getId());
+    }
+
     @Override
     protected List<Property<StoreInfo>> getProperties() {
         return PROPERTIES;
@@ -25,8 +25,13 @@ import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
 import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.web.GeoServerApplication;
 import org.geotools.util.logging.Logging;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -179,12 +184,96 @@ public abstract class GeoServerDataProvider<T> extends SortableDataProvider {
         return getApplication().getCatalog();
     }
 
+    /**
+     * Returns the type of the catalog objects served by this provider, or {@code null} if the
+     * provider does not serve catalog objects, which is the default.
+     * <p>
+     * When not {@code null} the keyword filtering, sorting and paging are delegated to the
+     * catalog through {@link Catalog#count(Class, Filter)} and
+     * {@link Catalog#list(Class, Filter, Integer, Integer, SortBy)}, so that only the requested
+     * page of objects is loaded and the catalog backend can use its indexes, and
+     * {@link #getItems()} is not called at all. The keywords are then matched against all the
+     * text properties of the objects, see {@link Predicates#fullTextSearch(String)}.
+     * </p>
+     * 
+     * @return
+     */
+    protected Class<? extends CatalogInfo> getCatalogType() {
+        return null;
+    }
+
+    /**
+     * Returns the filter selecting the catalog objects served by this provider before any
+     * keyword filtering, used when {@link #getCatalogType()} is not null. Defaults to all objects
+     * 
+     * @return
+     */
+    protected Filter getBaseFilter() {
+        return Predicates.acceptAll();
+    }
+
+    /**
+     * Returns the {@link #getBaseFilter() base filter} restricted to the objects matching any of
+     * the keywords
+     * 
+     * @return
+     */
+    protected Filter getFilter() {
+        Filter filter = getBaseFilter();
+        if (keywords != null && keywords.length > 0) {
+            List<Filter> matches = new ArrayList<Filter>(keywords.length);
+            for (String keyword : keywords) {
+                matches.add(Predicates.fullTextSearch(keyword));
+            }
+            Filter keywordFilter = matches.size() == 1 ? matches.get(0) : Predicates.or(matches
+                    .toArray(new Filter[matches.size()]));
+            filter = Filter.INCLUDE.equals(filter) ? keywordFilter : Predicates.and(filter,
+                    keywordFilter);
+        }
+        return filter;
+    }
+
+    /**
+     * Returns the catalog sort order for the given sort parameter, or {@code null} if the sort
+     * property can't be expressed as a catalog property. The default implementation handles the
+     * {@link BeanProperty} instances by their property path.
+     * 
+     * @param sort
+     * @return
+     */
+    protected SortBy getSortBy(SortParam sort) {
+        Property<T> property = getProperty(sort);
+        if (property instanceof BeanProperty) {
+            String path = ((BeanProperty<T>) property).getPropertyPath();
+            return Predicates.sortBy(path, sort.isAscending());
+        }
+        return null;
+    }
+
     /**
      * @see org.apache.wicket.markup.repeater.data.IDataProvider#iterator(int, int)
      */
     @Override
     public Iterator<T> iterator(int first, int count) {
-        List<T> items = getFilteredItems();
+        List<T> items;
+        Class<? extends CatalogInfo> type = getCatalogType();
+        if (type != null) {
+            SortParam sort = getSort();
+            SortBy sortBy = getSortBy(sort);
+            if (sort == null || sortBy != null) {
+                try {
+                    return catalogItems(type, first, count, sortBy).iterator();
+                } catch (UnsupportedOperationException e) {
+                    LOGGER.log(Level.FINE, "Catalog can't sort on " + sortBy, e);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.log(Level.FINE, "Catalog can't sort on " + sortBy, e);
+                }
+            }
+            // the sort property is not known to the catalog, sort the filtered objects below
+            items = catalogItems(type, null, null, null);
+        } else {
+            items = getFilteredItems();
+        }
 
         // global sorting
         Comparator<T> comparator = getComparator(getSort());
@@ -199,6 +288,22 @@ public abstract class GeoServerDataProvider<T> extends SortableDataProvider {
         return items.subList(first, last).iterator();
     }
 
+    /**
+     * Loads the catalog objects matching the {@link #getFilter() filter}. The catalog iterator is
+     * copied and closed right away, as there is no way to have wicket close it
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> catalogItems(Class<? extends CatalogInfo> type, Integer first, Integer count,
+            SortBy sortBy) {
+        CloseableIterator<? extends CatalogInfo> it = getCatalog().list(type, getFilter(), first,
+                count, sortBy);
+        try {
+            return (List<T>) Lists.newArrayList(it);
+        } finally {
+            it.close();
+        }
+    }
+
     /**
      * Returns a filtered list of items. Subclasses can override if they have a more efficient way
      * of filtering than in memory keyword comparison
@@ -224,6 +329,10 @@ public abstract class GeoServerDataProvider<T> extends SortableDataProvider {
      */
     @Override
     public int size() {
+        Class<? extends CatalogInfo> type = getCatalogType();
+        if (type != null) {
+            return getCatalog().count(type, getFilter());
+        }
         return getFilteredItems().size();
     }
 
@@ -233,6 +342,10 @@ public abstract class GeoServerDataProvider<T> extends SortableDataProvider {
      * @return
      */
     public int fullSize() {
+        Class<? extends CatalogInfo> type = getCatalogType();
+        if (type != null) {
+            return getCatalog().count(type, getBaseFilter());
+        }
         return getItems().size();
     }
 
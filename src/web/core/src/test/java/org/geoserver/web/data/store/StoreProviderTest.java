@@ -0,0 +1,87 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.web.data.store;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.web.GeoServerWicketTestSupport;
+import org.junit.Test;
+
+public class StoreProviderTest extends GeoServerWicketTestSupport {
+
+    @Test
+    public void testSize() {
+        StoreProvider provider = new StoreProvider();
+        int stores = getCatalog().getStores(StoreInfo.class).size();
+        assertEquals(stores, provider.size());
+        assertEquals(stores, provider.fullSize());
+
+        WorkspaceInfo cite = getCatalog().getWorkspaceByName(MockData.CITE_PREFIX);
+        provider = new StoreProvider(cite);
+        int citeStores = getCatalog().getStoresByWorkspace(cite, StoreInfo.class).size();
+        assertEquals(citeStores, provider.size());
+        assertEquals(citeStores, provider.fullSize());
+    }
+
+    @Test
+    public void testKeywords() {
+        StoreProvider provider = new StoreProvider();
+        provider.setKeywords(new String[] { MockData.CITE_PREFIX });
+        int stores = getCatalog().getStores(StoreInfo.class).size();
+        assertTrue(provider.size() > 0);
+        assertTrue(provider.size() < stores);
+        assertEquals(stores, provider.fullSize());
+        for (StoreInfo store : list(provider.iterator(0, provider.size()))) {
+            assertTrue(store.getName().toLowerCase().contains(MockData.CITE_PREFIX)
+                    || store.getWorkspace().getName().contains(MockData.CITE_PREFIX));
+        }
+
+        provider.setKeywords(new String[] { "notAStoreKeyword" });
+        assertEquals(0, provider.size());
+        assertFalse(provider.iterator(0, 10).hasNext());
+    }
+
+    @Test
+    public void testSortAndPage() {
+        StoreProvider provider = new StoreProvider();
+        int size = provider.size();
+
+        // sorted by the catalog
+        provider.setSort(StoreProvider.NAME.getName(), false);
+        List<StoreInfo> all = list(provider.iterator(0, size));
+        assertEquals(size, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getName().compareTo(all.get(i).getName()) >= 0);
+        }
+        List<StoreInfo> page = list(provider.iterator(1, 2));
+        assertEquals(all.subList(1, 3), page);
+
+        // sorted in memory, the data type is not a catalog property
+        provider.setSort(StoreProvider.DATA_TYPE.getName(), true);
+        all = list(provider.iterator(0, size));
+        assertEquals(size, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            String previous = (String) StoreProvider.DATA_TYPE.getPropertyValue(all.get(i - 1));
+            String current = (String) StoreProvider.DATA_TYPE.getPropertyValue(all.get(i));
+            assertTrue(previous.compareTo(current) <= 0);
+        }
+        assertEquals(all.subList(1, 3), list(provider.iterator(1, 2)));
+    }
+
+    List<StoreInfo> list(Iterator<StoreInfo> it) {
+        List<StoreInfo> result = new ArrayList<StoreInfo>();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+}
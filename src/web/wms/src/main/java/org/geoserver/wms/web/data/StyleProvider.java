@@ -35,6 +35,11 @@ public class StyleProvider extends GeoServerDataProvider<StyleInfo> {
         return getCatalog().getStyles();
     }
 
+    @Override
+    protected Class<StyleInfo> getCatalogType() {
+        return StyleInfo.class;
+    }
+
     @Override
     protected List<Property<StyleInfo>> getProperties() {
         return PROPERTIES;
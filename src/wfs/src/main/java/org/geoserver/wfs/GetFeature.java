@@ -328,6 +328,40 @@ public class GetFeature {
         }
         int offset = totalOffset;
 
+        // keyset paging, the resume token locates the page in place of the start index
+        String resumeParam = getResumeTokenParameter();
+        ResumeToken resumeToken = null;
+        ResumeToken nextToken = null;
+        if (resumeParam != null) {
+            if (!request.getVersion().startsWith("2") || queries.size() != 1
+                    || !ResumeToken.isSupported(queries.get(0).getSortBy())) {
+                throw new WFSException(request, "Paging with " + ResumeToken.KEY
+                        + " requires a WFS 2.0 request with a single query sorted by "
+                        + "one or more properties", "InvalidParameterValue")
+                        .locator(ResumeToken.KEY);
+            }
+            if (resumeParam.trim().length() > 0) {
+                if (request.getStartIndex() != null) {
+                    throw new WFSException(request, "startIndex and " + ResumeToken.KEY
+                            + " cannot be used together", "InvalidParameterValue")
+                            .locator(ResumeToken.KEY);
+                }
+                try {
+                    resumeToken = ResumeToken.decode(resumeParam);
+                } catch (IllegalArgumentException e) {
+                    throw new WFSException(request, "Invalid resume token", e,
+                            "InvalidParameterValue").locator(ResumeToken.KEY);
+                }
+                // the end of the previous page is known if it was read from this instance,
+                // otherwise the page is located by its position
+                if (resumeToken.resolve()) {
+                    offset = resumeToken.getSkip();
+                } else {
+                    offset = (int) Math.min(resumeToken.getPosition(), Integer.MAX_VALUE);
+                }
+            }
+        }
+
         List results = new ArrayList();
         try {
             for (int i = 0; (i < queries.size()) && (count < maxFeatures); i++) {
@@ -463,6 +497,44 @@ public class GetFeature {
                     }
                 }
 
+                // seek to the features following the ones already returned
+                int fingerprint = 0;
+                if (resumeParam != null) {
+                    if (!(meta.getFeatureType() instanceof SimpleFeatureType)) {
+                        throw new WFSException(request, "Paging with " + ResumeToken.KEY
+                                + " is supported only for simple feature types",
+                                "InvalidParameterValue").locator(ResumeToken.KEY);
+                    }
+                    fingerprint = ResumeToken.fingerprint(query.getTypeNames().get(0), filter,
+                            query.getSortBy());
+                    if (resumeToken != null) {
+                        if (!resumeToken.matches(query.getTypeNames().get(0), filter,
+                                query.getSortBy())) {
+                            throw new WFSException(request, "The resume token was generated "
+                                    + "for a different query", "InvalidParameterValue")
+                                    .locator(ResumeToken.KEY);
+                        }
+                        if (resumeToken.isResolved()) {
+                            Filter seek = resumeToken.getSeekFilter(query.getSortBy(),
+                                    filterFactory);
+                            filter = filter == null ? seek : filterFactory.and(filter, seek);
+                        }
+                    }
+
+                    // the sort keys are recorded for the next token, load them even if not
+                    // requested, they get shaved off the returned features below
+                    List<PropertyName> queryPropNames = allPropNames.get(0);
+                    if (queryPropNames != null) {
+                        queryPropNames = new ArrayList<PropertyName>(queryPropNames);
+                        for (SortBy sort : query.getSortBy()) {
+                            if (!containsProperty(queryPropNames, sort.getPropertyName())) {
+                                queryPropNames.add(sort.getPropertyName());
+                            }
+                        }
+                        allPropNames.set(0, queryPropNames);
+                    }
+                }
+
                 // load primary feature source
                 Hints hints = null;
                 if (joins != null) {
@@ -540,7 +612,10 @@ public class GetFeature {
                 }
 
                 //numberMatched/totalSize
-                if (totalCount > -1) {
+                if (totalCount > -1 && resumeToken != null) {
+                    // computed on the first page, counting again would scan the whole result
+                    totalCount = resumeToken.getTotal();
+                } else if (totalCount > -1) {
                     //check maxFeatures and offset, if they are unset we can use the size we 
                     // calculated above
                     if (calculateSize && queryMaxFeatures == Integer.MAX_VALUE && offset == 0) {
@@ -553,6 +628,14 @@ public class GetFeature {
                     }
                 }
 
+                if (resumeParam != null && size > 0 && size == queryMaxFeatures) {
+                    // the sort keys of the last feature get recorded while it's encoded
+                    long position = resumeToken != null ? resumeToken.getPosition() : 0;
+                    nextToken = ResumeToken.next(fingerprint, totalCount, position + size);
+                    features = new ResumeTokenFeatureCollection((SimpleFeatureCollection) features,
+                            query.getSortBy(), resumeToken, nextToken);
+                }
+
                 // we may need to shave off geometries we did load only to make bounds
                 // computation happy
                 // TODO: support non-SimpleFeature geometry shaving
@@ -625,9 +708,35 @@ public class GetFeature {
             lockId = response.getLockId();
         }
 
+        if (resumeParam != null) {
+            return buildResults(request, resumeToken, nextToken, maxFeatures, count, totalCount,
+                    results, lockId);
+        }
         return buildResults(request, totalOffset, maxFeatures, count, totalCount, results, lockId);
     }
 
+    /**
+     * Returns the value of the resume token vendor parameter, or null if the client did not
+     * ask for keyset paging
+     */
+    String getResumeTokenParameter() {
+        Request req = Dispatcher.REQUEST.get();
+        if (req == null || req.getRawKvp() == null) {
+            return null;
+        }
+        Object value = new KvpMap(req.getRawKvp()).get(ResumeToken.KEY);
+        return value != null ? value.toString() : null;
+    }
+
+    static boolean containsProperty(List<PropertyName> properties, PropertyName property) {
+        for (PropertyName p : properties) {
+            if (p.getPropertyName().equals(property.getPropertyName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected void processStoredQueries(GetFeatureRequest request) {
         List queries = request.getAdaptedQueries();
         for (int i = 0; i < queries.size(); i++) {
@@ -719,6 +828,49 @@ public class GetFeature {
         return result;
     }
 
+    /**
+     * Builds the results of a keyset paged request, the link to the next page carries the resume
+     * token, while the previous one falls back on the start index
+     */
+    protected FeatureCollectionResponse buildResults(GetFeatureRequest request,
+            ResumeToken resumeToken, ResumeToken nextToken, int maxFeatures, int count, int total,
+            List results, String lockId) {
+        FeatureCollectionResponse result = request.createResponse();
+        result.setNumberOfFeatures(BigInteger.valueOf(count));
+        result.setTotalNumberOfFeatures(BigInteger.valueOf(total));
+        result.setTimeStamp(Calendar.getInstance());
+        result.setLockId(lockId);
+        result.getFeature().addAll(results);
+
+        Request req = Dispatcher.REQUEST.get();
+        Map<String, String> kvp = null;
+        if (req.isGet()) {
+            kvp = new KvpMap(req.getRawKvp());
+        } else {
+            kvp = buildKvpFromRequest(request);
+        }
+        kvp.remove(ResumeToken.KEY);
+        kvp.remove("startIndex");
+
+        long position = resumeToken != null ? resumeToken.getPosition() : 0;
+        if (position > 0) {
+            long prevOffset = Math.max(position - maxFeatures, 0);
+            kvp.put("startIndex", String.valueOf(prevOffset));
+            kvp.put("count", String.valueOf(position - prevOffset));
+            result.setPrevious(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
+            kvp.remove("startIndex");
+        }
+
+        long nextPosition = position + count;
+        if (nextToken != null && (total < 0 || nextPosition < total)) {
+            kvp.put(ResumeToken.KEY, nextToken.encode());
+            kvp.put("count", String.valueOf(maxFeatures));
+            result.setNext(buildURL(request.getBaseUrl(), "wfs", kvp, URLType.SERVICE));
+        }
+
+        return result;
+    }
+
     KvpMap buildKvpFromRequest(GetFeatureRequest request) {
         
         // FILTER_LANGUAGE
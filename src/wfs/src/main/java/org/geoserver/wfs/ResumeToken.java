@@ -0,0 +1,363 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.namespace.QName;
+
+import org.apache.commons.codec.binary.Base64;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * An opaque token allowing a client to resume a sorted GetFeature request right after the last
+ * feature it received (keyset paging). Instead of skipping all the features before the requested
+ * page, as done with <code>startIndex</code>, the next page is located by a filter on the values
+ * of the sort keys of the last feature returned, which allows the store to seek straight to it
+ * using its indexes, making the cost of a page independent of its position.
+ * <p>
+ * The link to the next page is written before the features of the current one are encoded, so
+ * the token cannot carry the sort key values of its last feature. It carries instead:
+ * <ul>
+ * <li>a random id, the sort key values are recorded under it while the page is streamed</li>
+ * <li>the number of features returned so far, used to locate the page when the values are not
+ * known, and to build the link to the previous page</li>
+ * <li>the total number of features matched, computed on the first page only</li>
+ * <li>a fingerprint of the type name, filter and sort of the query, so that the token cannot be
+ * used with a different query</li>
+ * </ul>
+ * The recorded values are kept in memory for the last {@link #MAX_PAGES} pages. When they are
+ * not available, because the page was not fully read, the sort key values could not be recorded
+ * (e.g., they are null), or the token was generated by another GeoServer instance, the page is
+ * located by its position as with <code>startIndex</code>.
+ * </p>
+ * <p>
+ * Features with the same values for all the sort keys must be returned in a stable order by the
+ * store for the paging to be consistent, adding a unique attribute as the last sort key is
+ * recommended.
+ * </p>
+ */
+public class ResumeToken {
+
+    /**
+     * The GetFeature vendor parameter carrying the token, an empty value asks for the first page
+     */
+    public static final String KEY = "resumeToken";
+
+    static final byte VERSION = 2;
+
+    static final int MAX_STRING_LENGTH = 1024;
+
+    /**
+     * The number of page ends kept in memory
+     */
+    static final int MAX_PAGES = 1000;
+
+    static final Map<Long, ResumeToken> PAGES = Collections
+            .synchronizedMap(new LinkedHashMap<Long, ResumeToken>(MAX_PAGES + 1, 1.1f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, ResumeToken> eldest) {
+                    return size() > MAX_PAGES;
+                }
+            });
+
+    static final Random IDS = new SecureRandom();
+
+    int fingerprint;
+
+    int total;
+
+    long position;
+
+    long id;
+
+    /**
+     * The sort key values of the last feature before the page, null if not known
+     */
+    Object[] values;
+
+    /**
+     * How many features with exactly those values have been already returned
+     */
+    int skip;
+
+    ResumeToken(int fingerprint, int total, long position, long id) {
+        this.fingerprint = fingerprint;
+        this.total = total;
+        this.position = position;
+        this.id = id;
+    }
+
+    /**
+     * The fingerprint of the query the token was issued for
+     */
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The total number of features matched by the query, or -1 if not known
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * The number of features returned in the previous pages
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * The number of features matching the sort key values that have already been returned, to be
+     * skipped after applying the {@link #getSeekFilter(List, FilterFactory2) seek filter}
+     */
+    public int getSkip() {
+        return skip;
+    }
+
+    /**
+     * Returns true if the fingerprint of the specified query matches the one of the token
+     */
+    public boolean matches(QName typeName, Filter filter, List<SortBy> sortBy) {
+        return fingerprint == fingerprint(typeName, filter, sortBy);
+    }
+
+    /**
+     * Looks up the sort key values of the last feature before the page, recorded while the
+     * previous page was streamed
+     *
+     * @return true if the page can be located with the {@link #getSeekFilter(List, FilterFactory2)
+     *         seek filter}, false if it has to be located by its position
+     */
+    public boolean resolve() {
+        ResumeToken recorded = PAGES.get(id);
+        if (recorded != null && recorded.fingerprint == fingerprint
+                && recorded.position == position) {
+            values = recorded.values;
+            skip = recorded.skip;
+        }
+        return isResolved();
+    }
+
+    /**
+     * True if the sort key values of the last feature before the page are known
+     */
+    public boolean isResolved() {
+        return values != null;
+    }
+
+    /**
+     * Records the end of the page preceding this token, once it has been read
+     *
+     * @param previous the token used to get the page, or null if it was the first one
+     * @param read the number of features in the page
+     * @param last the sort key values of the last feature in the page
+     * @param ties the number of features at the end of the page having the same sort key values
+     *        as the last one
+     * @return false if the end of the page cannot be recorded (e.g., the values are null), in
+     *         that case the next page will be located by its position
+     */
+    boolean record(ResumeToken previous, int read, Object[] last, int ties) {
+        if (read == 0 || last == null) {
+            return false;
+        }
+        Object[] normalized = new Object[last.length];
+        for (int i = 0; i < last.length; i++) {
+            normalized[i] = normalize(last[i]);
+            if (normalized[i] == null) {
+                return false;
+            }
+        }
+
+        int skip = ties;
+        if (ties == read && position > read) {
+            // the whole page had the same values, the previous pages might have had them too
+            if (previous == null || !previous.isResolved()) {
+                return false;
+            }
+            if (Arrays.equals(previous.values, normalized)) {
+                skip += previous.skip;
+            }
+        }
+        this.values = normalized;
+        this.skip = skip;
+        PAGES.put(id, this);
+        return true;
+    }
+
+    /**
+     * Builds the filter locating the features following the ones already returned, for sort keys
+     * k1..kn and values v1..vn it's
+     * <code>(k1 > v1) or (k1 = v1 and k2 > v2) or ... or (k1 = v1 and ... and kn >= vn)</code>,
+     * with the comparisons reversed for the descending keys. Requires the token to be
+     * {@link #resolve() resolved}.
+     */
+    public Filter getSeekFilter(List<SortBy> sortBy, FilterFactory2 ff) {
+        List<Filter> alternatives = new ArrayList<Filter>();
+        List<Filter> equalities = new ArrayList<Filter>();
+        for (int i = 0; i < values.length; i++) {
+            SortBy sort = sortBy.get(i);
+            PropertyName property = sort.getPropertyName();
+            Literal value = ff.literal(values[i]);
+            boolean last = i == values.length - 1;
+            boolean ascending = sort.getSortOrder() != SortOrder.DESCENDING;
+
+            Filter comparison;
+            if (ascending) {
+                comparison = last ? ff.greaterOrEqual(property, value) : ff.greater(property,
+                        value);
+            } else {
+                comparison = last ? ff.lessOrEqual(property, value) : ff.less(property, value);
+            }
+
+            if (equalities.isEmpty()) {
+                alternatives.add(comparison);
+            } else {
+                List<Filter> terms = new ArrayList<Filter>(equalities);
+                terms.add(comparison);
+                alternatives.add(ff.and(terms));
+            }
+            equalities.add(ff.equals(property, value));
+        }
+
+        return alternatives.size() == 1 ? alternatives.get(0) : ff.or(alternatives);
+    }
+
+    /**
+     * Encodes the token in an opaque, url friendly string
+     */
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeInt(fingerprint);
+            out.writeInt(total);
+            out.writeLong(position);
+            out.writeLong(id);
+            out.flush();
+            return new String(Base64.encodeBase64(bytes.toByteArray()), "ASCII");
+        } catch (IOException e) {
+            // cannot happen writing in memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses a token previously built by {@link #encode()}
+     *
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static ResumeToken decode(String token) {
+        try {
+            // clients not url encoding the token turn the plus signs into spaces
+            byte[] bytes = Base64.decodeBase64(token.trim().replace(' ', '+').getBytes("ASCII"));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readByte() != VERSION) {
+                throw new IllegalArgumentException("Unsupported resume token version");
+            }
+            int fingerprint = in.readInt();
+            int total = in.readInt();
+            long position = in.readLong();
+            long id = in.readLong();
+            if (position <= 0 || in.read() != -1) {
+                throw new IllegalArgumentException("Invalid resume token");
+            }
+            return new ResumeToken(fingerprint, total, position, id);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid resume token", e);
+        }
+    }
+
+    /**
+     * Builds the token pointing to the page starting at the specified position, the end of the
+     * page before it is to be {@link #record(ResumeToken, int, Object[], int) recorded} once read
+     *
+     * @param fingerprint the query fingerprint, see
+     *        {@link #fingerprint(QName, Filter, List)}
+     * @param total the total number of features matched, or -1 if unknown
+     * @param position the number of features returned before the page
+     */
+    public static ResumeToken next(int fingerprint, int total, long position) {
+        return new ResumeToken(fingerprint, total, position, IDS.nextLong());
+    }
+
+    /**
+     * Computes a fingerprint of the query the token refers to
+     */
+    public static int fingerprint(QName typeName, Filter filter, List<SortBy> sortBy) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(typeName).append('|').append(filter != null ? filter : Filter.INCLUDE);
+        for (SortBy sort : sortBy) {
+            sb.append('|').append(sort.getPropertyName().getPropertyName());
+            sb.append(' ').append(sort.getSortOrder().name());
+        }
+        return sb.toString().hashCode();
+    }
+
+    /**
+     * Returns true if the sort can be used for keyset paging, that is, it sorts on a list of
+     * properties and not on the natural order of the features
+     */
+    public static boolean isSupported(List<SortBy> sortBy) {
+        if (sortBy == null || sortBy.isEmpty() || sortBy.size() > Byte.MAX_VALUE) {
+            return false;
+        }
+        for (SortBy sort : sortBy) {
+            if (sort == SortBy.NATURAL_ORDER || sort == SortBy.REVERSE_ORDER
+                    || sort.getPropertyName() == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the value to one of the types that can be used in the seek filter, or returns
+     * null if that's not possible
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer
+                || value instanceof Long) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float || value instanceof Double) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        } else if (value instanceof String) {
+            // keep the recorded page ends reasonably small
+            return ((String) value).length() <= MAX_STRING_LENGTH ? value : null;
+        } else if (value instanceof BigDecimal || value instanceof Boolean) {
+            return value;
+        } else if (value instanceof Character) {
+            return value.toString();
+        } else if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        }
+        return null;
+    }
+}
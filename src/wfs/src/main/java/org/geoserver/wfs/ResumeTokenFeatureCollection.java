@@ -0,0 +1,102 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.filter.sort.SortBy;
+
+/**
+ * Records the sort key values of the last feature of a keyset paged response while it is being
+ * encoded, so that the token in the link to the next page, written before the features, can
+ * locate it.
+ *
+ * @see ResumeToken
+ */
+class ResumeTokenFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+    final List<PropertyName> properties = new ArrayList<PropertyName>();
+
+    final ResumeToken previous;
+
+    final ResumeToken next;
+
+    /**
+     * @param delegate The page being returned
+     * @param sortBy The sort of the query
+     * @param previous The token used to get the page, or null if it's the first one
+     * @param next The token in the link to the next page
+     */
+    ResumeTokenFeatureCollection(SimpleFeatureCollection delegate, List<SortBy> sortBy,
+            ResumeToken previous, ResumeToken next) {
+        super(delegate);
+        for (SortBy sort : sortBy) {
+            properties.add(sort.getPropertyName());
+        }
+        this.previous = previous;
+        this.next = next;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new RecordingIterator(delegate.features());
+    }
+
+    class RecordingIterator implements SimpleFeatureIterator {
+
+        SimpleFeatureIterator delegate;
+
+        Object[] last;
+
+        int ties;
+
+        int read;
+
+        RecordingIterator(SimpleFeatureIterator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = delegate.hasNext();
+            if (!hasNext && read > 0) {
+                // the whole page has been read
+                next.record(previous, read, last, ties);
+                read = 0;
+            }
+            return hasNext;
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            SimpleFeature feature = delegate.next();
+            read++;
+            Object[] values = new Object[properties.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = properties.get(i).evaluate(feature);
+            }
+            if (last != null && Arrays.equals(last, values)) {
+                ties++;
+            } else {
+                last = values;
+                ties = 1;
+            }
+            return feature;
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
@@ -4,7 +4,6 @@
  */
 package org.geoserver.wfs.json;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -17,6 +16,8 @@ import java.util.logging.Logger;
 
 import net.sf.json.JSONException;
 
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.Request;
@@ -92,19 +93,19 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         boolean featureBounding = wfs.isFeatureBounding();
 
         // prepare to write out
-        OutputStreamWriter osw = null;
         Writer outWriter = null;
         boolean hasGeom = false;
 
         try {
-            osw = new OutputStreamWriter(output, gs.getSettings().getCharset());
-            outWriter = new BufferedWriter(osw);
+            // the json writer does its own buffering
+            outWriter = new OutputStreamWriter(output, gs.getSettings().getCharset());
 
             if (jsonp) {
                 outWriter.write(getCallbackFunction() + "(");
             }
 
-            final GeoJSONBuilder jsonWriter = new GeoJSONBuilder(outWriter);
+            final GeoJSONWriter jsonWriter = new GeoJSONWriter(outWriter,
+                    getNumDecimals(featureCollection.getFeature()));
             jsonWriter.object().key("type").value("FeatureCollection");
             jsonWriter.key("features");
             jsonWriter.array();
@@ -250,6 +251,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
             }
 
             jsonWriter.endObject(); // end featurecollection
+            jsonWriter.flush();
 
             if (jsonp) {
                 outWriter.write(")");
@@ -265,6 +267,30 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
 
+    /**
+     * Returns the number of decimals used to encode the coordinates, the max of the ones configured
+     * on the feature types or the global one if none is configured
+     */
+    int getNumDecimals(List resultsList) {
+        int numDecimals = -1;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+            // might not be a vector layer, GetFeatureInfo reuses this class
+            ResourceInfo meta = gs.getCatalog().getResourceByName(
+                    collection.getSchema().getName(), ResourceInfo.class);
+            if (meta instanceof FeatureTypeInfo) {
+                int ftiDecimals = ((FeatureTypeInfo) meta).getNumDecimals();
+                if (ftiDecimals > 0) {
+                    numDecimals = Math.max(numDecimals, ftiDecimals);
+                }
+            }
+        }
+        if (numDecimals == -1) {
+            numDecimals = gs.getSettings().getNumDecimals();
+        }
+        return numDecimals;
+    }
+
     private String getCallbackFunction() {
         Request request = Dispatcher.REQUEST.get();
         if (request == null) {
@@ -0,0 +1,432 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+
+import net.sf.json.JSONException;
+import net.sf.json.util.JSONUtils;
+
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A streaming GeoJSON writer, a faster alternative to {@link GeoJSONBuilder} for large outputs.
+ * <p>
+ * The output is accumulated in a reusable char buffer, and the coordinates are formatted straight
+ * into it with the configured number of decimals, walking the geometries coordinate sequences
+ * without creating {@link com.vividsolutions.jts.geom.Coordinate} objects or strings. The other
+ * values are encoded the same way {@link GeoJSONBuilder} does.
+ * </p>
+ * <p>
+ * The writer does not flush the underlying {@link Writer} on its own, call {@link #flush()} once
+ * done.
+ * </p>
+ */
+public class GeoJSONWriter {
+
+    static final int BUFFER_SIZE = 8192;
+
+    static final int MAX_DEPTH = 200;
+
+    /**
+     * Past this size the scaled ordinates have no more precision to round, and are written as is
+     */
+    static final double MAX_SCALED = 1e17;
+
+    static final long[] POWERS_OF_TEN = new long[18];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    Writer out;
+
+    char[] buffer = new char[BUFFER_SIZE];
+
+    int position;
+
+    /** Scratch space for the digits of a number, written backwards */
+    char[] digits = new char[20];
+
+    int numDecimals;
+
+    double scale;
+
+    /** The open objects ('o') and arrays ('a') */
+    char[] stack = new char[MAX_DEPTH];
+
+    int top = -1;
+
+    /** True if a value has been written at the current level and the next needs a comma */
+    boolean comma;
+
+    /** True if a key has been written and its value is expected */
+    boolean afterKey;
+
+    /**
+     * Creates a writer formatting the ordinates with the specified number of decimals
+     */
+    public GeoJSONWriter(Writer out, int numDecimals) {
+        this.out = out;
+        this.numDecimals = Math.max(0, Math.min(numDecimals, POWERS_OF_TEN.length - 1));
+        this.scale = POWERS_OF_TEN[this.numDecimals];
+    }
+
+    public GeoJSONWriter object() throws IOException {
+        beginValue();
+        push('o');
+        write('{');
+        return this;
+    }
+
+    public GeoJSONWriter endObject() throws IOException {
+        pop('o');
+        write('}');
+        return this;
+    }
+
+    public GeoJSONWriter array() throws IOException {
+        beginValue();
+        push('a');
+        write('[');
+        return this;
+    }
+
+    public GeoJSONWriter endArray() throws IOException {
+        pop('a');
+        write(']');
+        return this;
+    }
+
+    public GeoJSONWriter key(String key) throws IOException {
+        if (key == null) {
+            throw new JSONException("Null key.");
+        }
+        if (top < 0 || stack[top] != 'o' || afterKey) {
+            throw new JSONException("Misplaced key.");
+        }
+        if (comma) {
+            write(',');
+        }
+        writeString(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a value. Dates and calendars are encoded as ISO 8601 strings, as done by
+     * {@link GeoJSONBuilder}, other values follow the json-lib rules.
+     */
+    public GeoJSONWriter value(Object value) throws IOException {
+        beginValue();
+        if (value == null) {
+            write("null");
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Boolean) {
+            write(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof java.util.Date || value instanceof Calendar) {
+            writeString(Converters.convert(value, String.class));
+        } else {
+            write(JSONUtils.valueToString(value));
+        }
+        comma = true;
+        return this;
+    }
+
+    /**
+     * Writes a geometry, with the same structure as {@link GeoJSONBuilder#writeGeom(Geometry)}
+     */
+    public GeoJSONWriter writeGeom(Geometry geometry) throws IOException {
+        object();
+        key("type");
+        value(GeoJSONBuilder.getGeometryName(geometry));
+
+        final int geometryType = GeoJSONBuilder.getGeometryType(geometry);
+        if (geometryType != GeoJSONBuilder.MULTIGEOMETRY) {
+            key("coordinates");
+            switch (geometryType) {
+            case GeoJSONBuilder.POINT:
+                CoordinateSequence cs = ((Point) geometry).getCoordinateSequence();
+                if (cs.size() > 0) {
+                    writeCoordinate(cs, 0);
+                } else {
+                    array().endArray();
+                }
+                break;
+            case GeoJSONBuilder.LINESTRING:
+                writeCoordinates(((LineString) geometry).getCoordinateSequence());
+                break;
+            case GeoJSONBuilder.MULTIPOINT:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    CoordinateSequence point = ((Point) geometry.getGeometryN(i))
+                            .getCoordinateSequence();
+                    for (int j = 0; j < point.size(); j++) {
+                        writeCoordinate(point, j);
+                    }
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.POLYGON:
+                writePolygon((Polygon) geometry);
+                break;
+            case GeoJSONBuilder.MULTILINESTRING:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writeCoordinates(((LineString) geometry.getGeometryN(i))
+                            .getCoordinateSequence());
+                }
+                endArray();
+                break;
+            case GeoJSONBuilder.MULTIPOLYGON:
+                array();
+                for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                    writePolygon((Polygon) geometry.getGeometryN(i));
+                }
+                endArray();
+                break;
+            }
+        } else {
+            GeometryCollection collection = (GeometryCollection) geometry;
+            key("geometries");
+            array();
+            for (int i = 0, n = collection.getNumGeometries(); i < n; i++) {
+                writeGeom(collection.getGeometryN(i));
+            }
+            endArray();
+        }
+
+        return endObject();
+    }
+
+    /**
+     * Writes the envelope as a <code>bbox</code> key with a [minX,minY,maxX,maxY] array
+     */
+    public GeoJSONWriter writeBoundingBox(Envelope env) throws IOException {
+        key("bbox");
+        array();
+        writeOrdinate(env.getMinX());
+        writeOrdinate(env.getMinY());
+        writeOrdinate(env.getMaxX());
+        writeOrdinate(env.getMaxY());
+        return endArray();
+    }
+
+    /**
+     * Writes out the buffered contents and flushes the underlying writer
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    void writePolygon(Polygon polygon) throws IOException {
+        array();
+        writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+            writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        endArray();
+    }
+
+    void writeCoordinates(CoordinateSequence cs) throws IOException {
+        array();
+        for (int i = 0, n = cs.size(); i < n; i++) {
+            writeCoordinate(cs, i);
+        }
+        endArray();
+    }
+
+    void writeCoordinate(CoordinateSequence cs, int i) throws IOException {
+        array();
+        writeOrdinate(cs.getX(i));
+        writeOrdinate(cs.getY(i));
+        endArray();
+    }
+
+    /**
+     * Writes a number rounded to the configured decimals, without trailing zeroes
+     */
+    void writeOrdinate(double value) throws IOException {
+        beginValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+
+        double scaled = value * scale;
+        if (Math.abs(scaled) >= MAX_SCALED) {
+            write(JSONUtils.numberToString(value));
+            comma = true;
+            return;
+        }
+
+        long units = Math.round(scaled);
+        ensure(digits.length + 2);
+        if (units < 0) {
+            buffer[position++] = '-';
+            units = -units;
+        }
+        long power = POWERS_OF_TEN[numDecimals];
+        writeDigits(units / power, 0);
+        long fraction = units % power;
+        if (fraction != 0) {
+            int decimals = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            buffer[position++] = '.';
+            writeDigits(fraction, decimals);
+        }
+        comma = true;
+    }
+
+    /**
+     * Writes the digits of a non negative number, left padding with zeroes up to the specified
+     * length. The caller must ensure there is enough room in the buffer.
+     */
+    void writeDigits(long value, int minLength) {
+        int count = 0;
+        do {
+            digits[count++] = (char) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (count < minLength) {
+            digits[count++] = '0';
+        }
+        while (count > 0) {
+            buffer[position++] = digits[--count];
+        }
+    }
+
+    /**
+     * Writes a quoted string, escaping it like json-lib does
+     */
+    void writeString(String s) throws IOException {
+        write('"');
+        char previous = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '\\':
+            case '"':
+                write('\\');
+                write(c);
+                break;
+            case '/':
+                if (previous == '<') {
+                    write('\\');
+                }
+                write(c);
+                break;
+            case '\b':
+                write("\\b");
+                break;
+            case '\t':
+                write("\\t");
+                break;
+            case '\n':
+                write("\\n");
+                break;
+            case '\f':
+                write("\\f");
+                break;
+            case '\r':
+                write("\\r");
+                break;
+            default:
+                if (c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+                    ensure(6);
+                    buffer[position++] = '\\';
+                    buffer[position++] = 'u';
+                    buffer[position++] = HEX[(c >> 12) & 0xf];
+                    buffer[position++] = HEX[(c >> 8) & 0xf];
+                    buffer[position++] = HEX[(c >> 4) & 0xf];
+                    buffer[position++] = HEX[c & 0xf];
+                } else {
+                    write(c);
+                }
+            }
+            previous = c;
+        }
+        write('"');
+    }
+
+    void beginValue() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else if (top >= 0 && stack[top] == 'o') {
+            throw new JSONException("Value out of sequence, a key is expected.");
+        } else if (comma) {
+            write(',');
+        }
+    }
+
+    void push(char mode) {
+        if (top + 1 >= MAX_DEPTH) {
+            throw new JSONException("Nesting too deep.");
+        }
+        stack[++top] = mode;
+        comma = false;
+    }
+
+    void pop(char mode) {
+        if (top < 0 || stack[top] != mode || afterKey) {
+            throw new JSONException("Nesting error.");
+        }
+        top--;
+        comma = true;
+    }
+
+    void write(char c) throws IOException {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = c;
+    }
+
+    void write(String s) throws IOException {
+        int length = s.length();
+        int offset = 0;
+        while (offset < length) {
+            if (position == buffer.length) {
+                drain();
+            }
+            int count = Math.min(length - offset, buffer.length - position);
+            s.getChars(offset, offset + count, buffer, position);
+            position += count;
+            offset += count;
+        }
+    }
+
+    void ensure(int size) throws IOException {
+        if (position + size > buffer.length) {
+            drain();
+        }
+    }
+
+    void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
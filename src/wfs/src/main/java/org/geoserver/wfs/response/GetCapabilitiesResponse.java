@@ -13,6 +13,7 @@ import javax.xml.transform.TransformerException;
 
 import net.opengis.wfs.GetCapabilitiesType;
 
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.platform.Operation;
@@ -58,12 +59,23 @@ public class GetCapabilitiesResponse extends Response {
 
     public void write(Object value, OutputStream output, Operation operation)
         throws IOException {
-        TransformerBase tx = (TransformerBase) value;
+        final TransformerBase tx = (TransformerBase) value;
+        final Object request = operation.getParameters()[0];
 
-        try {
-            tx.transform(operation.getParameters()[0], output);
-        } catch (TransformerException e) {
-            throw (IOException) new IOException().initCause(e);
+        CapabilitiesCache.Encoder encoder = new CapabilitiesCache.Encoder() {
+            public void encode(OutputStream output) throws IOException {
+                try {
+                    tx.transform(request, output);
+                } catch (TransformerException e) {
+                    throw (IOException) new IOException().initCause(e);
+                }
+            }
+        };
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            encoder.encode(output);
+        } else {
+            cache.write(operation, output, encoder);
         }
     }
 }
@@ -0,0 +1,165 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.DataStoreFinder;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.jdbc.JDBCDataStore;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.filter.sort.SortOrder;
+
+/**
+ * Compares the per page latency of offset based paging (startIndex) and keyset paging (resume
+ * tokens) while walking a large H2 table. Not a unit test, run it manually with:
+ *
+ * <pre>
+ * java org.geoserver.wfs.ResumeTokenPagingBenchmark [rows] [pageSize] [directory]
+ * </pre>
+ *
+ * The table is created on the first run (10M rows by default, it takes a few minutes) and reused
+ * afterwards. For each tenth of the table the benchmark reports the time to get a page with
+ * startIndex, and the average time of the keyset pages in that tenth. The first grows linearly
+ * with the page position, the second should stay flat.
+ */
+public class ResumeTokenPagingBenchmark {
+
+    static final String TABLE = "PAGING_BENCH";
+
+    static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2(null);
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int pageSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        File directory = new File(args.length > 2 ? args[2] : "target/paging-benchmark");
+        directory.mkdirs();
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("dbtype", "h2");
+        params.put("database", new File(directory, "paging").getAbsolutePath());
+        JDBCDataStore store = (JDBCDataStore) DataStoreFinder.getDataStore(params);
+        try {
+            createTable(store, rows);
+            SimpleFeatureSource fs = store.getFeatureSource(TABLE);
+
+            List<SortBy> sortBy = Arrays.asList(FF.sort("ID", SortOrder.ASCENDING));
+            int pages = rows / pageSize;
+            int tenth = Math.max(1, pages / 10);
+
+            System.out.println("Paging through " + rows + " rows, " + pageSize
+                    + " rows per page");
+            System.out.println("position\tstartIndex (ms)\tresumeToken avg (ms)");
+
+            ResumeToken token = null;
+            long keysetTime = 0;
+            int keysetPages = 0;
+            for (int page = 0; page < pages; page++) {
+                // keyset paging, as done by GetFeature
+                Query query = new Query(TABLE, Filter.INCLUDE);
+                query.setSortBy(sortBy.toArray(new SortBy[sortBy.size()]));
+                query.setMaxFeatures(pageSize);
+                if (token != null) {
+                    if (token.resolve()) {
+                        query.setFilter(token.getSeekFilter(sortBy, FF));
+                        query.setStartIndex(token.getSkip());
+                    } else {
+                        query.setStartIndex((int) token.getPosition());
+                    }
+                }
+                long start = System.nanoTime();
+                Object[] last = null;
+                int ties = 0;
+                int read = 0;
+                SimpleFeatureIterator it = fs.getFeatures(query).features();
+                try {
+                    while (it.hasNext()) {
+                        SimpleFeature f = it.next();
+                        read++;
+                        Object[] values = new Object[] { f.getAttribute("ID") };
+                        if (last != null && Arrays.equals(last, values)) {
+                            ties++;
+                        } else {
+                            last = values;
+                            ties = 1;
+                        }
+                    }
+                } finally {
+                    it.close();
+                }
+                long position = token != null ? token.getPosition() : 0;
+                ResumeToken next = ResumeToken.next(0, rows, position + read);
+                next.record(token, read, last, ties);
+                token = next;
+                keysetTime += System.nanoTime() - start;
+                keysetPages++;
+
+                if (page % tenth == 0) {
+                    // same page with an offset
+                    query = new Query(TABLE, Filter.INCLUDE);
+                    query.setSortBy(sortBy.toArray(new SortBy[sortBy.size()]));
+                    query.setMaxFeatures(pageSize);
+                    query.setStartIndex(page * pageSize);
+                    start = System.nanoTime();
+                    it = fs.getFeatures(query).features();
+                    try {
+                        while (it.hasNext()) {
+                            it.next();
+                        }
+                    } finally {
+                        it.close();
+                    }
+                    long offsetTime = System.nanoTime() - start;
+
+                    System.out.println(page * pageSize + "\t" + (offsetTime / 1000000) + "\t"
+                            + (keysetTime / keysetPages / 1000000.0));
+                    keysetTime = 0;
+                    keysetPages = 0;
+                }
+            }
+        } finally {
+            store.dispose();
+        }
+    }
+
+    static void createTable(JDBCDataStore store, int rows) throws Exception {
+        Connection cx = store.getDataSource().getConnection();
+        try {
+            Statement st = cx.createStatement();
+            try {
+                try {
+                    st.executeQuery("SELECT COUNT(*) FROM \"" + TABLE + "\"").close();
+                    return;
+                } catch (Exception e) {
+                    // not there yet
+                }
+                System.out.println("Creating a table with " + rows + " rows");
+                // the primary key is not exposed as an attribute, sort on an indexed copy
+                st.execute("CREATE TABLE \"" + TABLE + "\" (\"FID\" BIGINT PRIMARY KEY, "
+                        + "\"ID\" BIGINT NOT NULL, \"NAME\" VARCHAR(32), \"VALUE\" DOUBLE)");
+                st.execute("INSERT INTO \"" + TABLE + "\" SELECT X, X, 'name' || X, RAND() "
+                        + "FROM SYSTEM_RANGE(1, " + rows + ")");
+                st.execute("CREATE UNIQUE INDEX \"" + TABLE + "_ID\" ON \"" + TABLE
+                        + "\" (\"ID\")");
+            } finally {
+                st.close();
+            }
+        } finally {
+            cx.close();
+        }
+    }
+}
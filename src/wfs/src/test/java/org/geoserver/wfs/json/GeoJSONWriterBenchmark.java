@@ -0,0 +1,163 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+
+/**
+ * Compares the encoding time of {@link GeoJSONBuilder} and {@link GeoJSONWriter} on point, line
+ * and polygon datasets. Not a unit test, run it manually with:
+ *
+ * <pre>
+ * java org.geoserver.wfs.json.GeoJSONWriterBenchmark [features] [vertices] [iterations]
+ * </pre>
+ *
+ * Each dataset is encoded as a feature collection with a few attributes per feature, into a
+ * writer that just counts the chars. A few warm up rounds run before the measured ones.
+ */
+public class GeoJSONWriterBenchmark {
+
+    static final int WARMUP = 5;
+
+    public static void main(String[] args) throws Exception {
+        int features = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int vertices = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        GeometryFactory gf = new GeometryFactory();
+        Random random = new Random(0);
+        Geometry[] points = new Geometry[features];
+        Geometry[] lines = new Geometry[features];
+        Geometry[] polygons = new Geometry[features];
+        for (int i = 0; i < features; i++) {
+            points[i] = gf.createPoint(randomCoordinate(random));
+            lines[i] = gf.createLineString(randomCoordinates(random, vertices, false));
+            LinearRing shell = gf.createLinearRing(randomCoordinates(random, vertices, true));
+            polygons[i] = gf.createPolygon(shell, null);
+        }
+
+        System.out.println("Encoding " + features + " features, " + vertices
+                + " vertices per line and polygon");
+        System.out.println("dataset\tbuilder (ms)\twriter (ms)\tspeedup");
+        run("point", points, iterations);
+        run("line", lines, iterations);
+        run("polygon", polygons, iterations);
+    }
+
+    static void run(String name, Geometry[] geometries, int iterations) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            encodeWithBuilder(geometries);
+            encodeWithWriter(geometries);
+        }
+
+        long builderTime = 0;
+        long writerTime = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            long builderChars = encodeWithBuilder(geometries);
+            builderTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long writerChars = encodeWithWriter(geometries);
+            writerTime += System.nanoTime() - start;
+
+            if (i == 0) {
+                System.out.println(name + ": " + builderChars + " chars with the builder, "
+                        + writerChars + " with the writer");
+            }
+        }
+
+        double builderAvg = builderTime / iterations / 1000000.0;
+        double writerAvg = writerTime / iterations / 1000000.0;
+        System.out.println(name + "\t" + builderAvg + "\t" + writerAvg + "\t"
+                + (builderAvg / writerAvg));
+    }
+
+    static long encodeWithBuilder(Geometry[] geometries) throws Exception {
+        CountingWriter out = new CountingWriter();
+        GeoJSONBuilder json = new GeoJSONBuilder(out);
+        json.object().key("type").value("FeatureCollection");
+        json.key("features").array();
+        for (int i = 0; i < geometries.length; i++) {
+            json.object().key("type").value("Feature").key("id").value("bench." + i);
+            json.key("geometry");
+            json.writeGeom(geometries[i]);
+            json.key("geometry_name").value("the_geom");
+            json.key("properties").object();
+            json.key("name").value("feature " + i).key("value").value(i * 0.5);
+            json.endObject().endObject();
+        }
+        json.endArray().endObject();
+        out.flush();
+        return out.count;
+    }
+
+    static long encodeWithWriter(Geometry[] geometries) throws Exception {
+        CountingWriter out = new CountingWriter();
+        GeoJSONWriter json = new GeoJSONWriter(out, 8);
+        json.object().key("type").value("FeatureCollection");
+        json.key("features").array();
+        for (int i = 0; i < geometries.length; i++) {
+            json.object().key("type").value("Feature").key("id").value("bench." + i);
+            json.key("geometry");
+            json.writeGeom(geometries[i]);
+            json.key("geometry_name").value("the_geom");
+            json.key("properties").object();
+            json.key("name").value("feature " + i).key("value").value(i * 0.5);
+            json.endObject().endObject();
+        }
+        json.endArray().endObject();
+        json.flush();
+        return out.count;
+    }
+
+    static Coordinate randomCoordinate(Random random) {
+        return new Coordinate(random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90);
+    }
+
+    static Coordinate[] randomCoordinates(Random random, int count, boolean closed) {
+        Coordinate[] coordinates = new Coordinate[Math.max(count, 4)];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = randomCoordinate(random);
+        }
+        if (closed) {
+            coordinates[coordinates.length - 1] = new Coordinate(coordinates[0]);
+        }
+        return coordinates;
+    }
+
+    /**
+     * Counts the chars written and discards them
+     */
+    static class CountingWriter extends Writer {
+
+        long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
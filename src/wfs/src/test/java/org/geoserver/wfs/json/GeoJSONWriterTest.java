@@ -0,0 +1,172 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import net.sf.json.JSONException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class GeoJSONWriterTest {
+
+    StringWriter writer;
+
+    GeoJSONWriter json;
+
+    @Before
+    public void setUp() {
+        writer = new StringWriter();
+        json = new GeoJSONWriter(writer, 4);
+    }
+
+    @Test
+    public void testWritePoint() throws Exception {
+        assertGeometry("{\"type\":\"Point\",\"coordinates\":[1,2]}", "POINT(1 2)");
+    }
+
+    @Test
+    public void testWriteLineString() throws Exception {
+        assertGeometry("{\"type\":\"LineString\",\"coordinates\":[[0,0],[1.5,-2.25]]}",
+                "LINESTRING(0 0, 1.5 -2.25)");
+    }
+
+    @Test
+    public void testWritePolygon() throws Exception {
+        assertGeometry("{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[0,10],[10,10],[10,0],[0,0]],"
+                + "[[1,1],[1,2],[2,2],[1,1]]]}",
+                "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0),(1 1, 1 2, 2 2, 1 1))");
+    }
+
+    @Test
+    public void testWriteMultiGeometries() throws Exception {
+        assertGeometry("{\"type\":\"MultiPoint\",\"coordinates\":[[0,0],[1,1]]}",
+                "MULTIPOINT((0 0), (1 1))");
+        assertGeometry("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]],[[2,2],[3,3]]]}",
+                "MULTILINESTRING((0 0, 1 1),(2 2, 3 3))");
+        assertGeometry("{\"type\":\"MultiPolygon\",\"coordinates\":[[[[0,0],[0,1],[1,1],[0,0]]]]}",
+                "MULTIPOLYGON(((0 0, 0 1, 1 1, 0 0)))");
+    }
+
+    @Test
+    public void testWriteGeomCollection() throws Exception {
+        assertGeometry("{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\","
+                + "\"coordinates\":[2,0]},{\"type\":\"Point\",\"coordinates\":[7,1]}]}",
+                "GEOMETRYCOLLECTION(POINT(2 0),POINT(7 1))");
+    }
+
+    @Test
+    public void testSameAsBuilder() throws Exception {
+        Geometry g = new WKTReader().read("MULTIPOLYGON(((0 0, 0 10, 10 10, 10 0, 0 0),"
+                + "(1 1, 1 2, 2 2, 1 1)),((20 20, 20 21, 21 21, 20 20)))");
+        StringWriter builderWriter = new StringWriter();
+        new GeoJSONBuilder(builderWriter).writeGeom(g);
+
+        json.writeGeom(g);
+        json.flush();
+        assertEquals(builderWriter.toString(), writer.toString());
+    }
+
+    @Test
+    public void testDecimals() throws Exception {
+        assertGeometry("{\"type\":\"LineString\",\"coordinates\":[[1.2346,-1.2346],[0.1,0],"
+                + "[-0.0001,1000000.5]]}",
+                "LINESTRING(1.23456789 -1.23456789, 0.1 0.00001, -0.00009 1000000.5)");
+
+        json = new GeoJSONWriter(writer, 0);
+        assertGeometry("{\"type\":\"Point\",\"coordinates\":[2,-1]}", "POINT(1.5 -1.2)");
+    }
+
+    @Test
+    public void testBoundingBox() throws Exception {
+        json.object().writeBoundingBox(new Envelope(-180, 180, -90.00001, 90.123456)).endObject();
+        json.flush();
+        assertEquals("{\"bbox\":[-180,-90,180,90.1235]}", writer.toString());
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        json.object();
+        json.key("string").value("a \"quoted\" \\ </tag>\n");
+        json.key("int").value(10);
+        json.key("double").value(1.5d);
+        json.key("boolean").value(Boolean.TRUE);
+        json.key("null").value(null);
+        json.endObject();
+        json.flush();
+
+        assertEquals("{\"string\":\"a \\\"quoted\\\" \\\\ <\\/tag>\\n\",\"int\":10,"
+                + "\"double\":1.5,\"boolean\":true,\"null\":null}", writer.toString());
+    }
+
+    @Test
+    public void testWriteDate() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        java.sql.Date date = new java.sql.Date(cal.getTimeInMillis());
+        json.object().key("date").value(date).key("cal").value(cal).endObject();
+        json.flush();
+        assertEquals("{\"date\":\"2011-10-25Z\",\"cal\":\"2011-10-25T00:00:00Z\"}",
+                writer.toString());
+    }
+
+    @Test
+    public void testLargeOutput() throws Exception {
+        // goes past the internal buffer size several times
+        StringBuilder expected = new StringBuilder("[");
+        json.array();
+        for (int i = 0; i < 10000; i++) {
+            json.value("value" + i);
+            expected.append(i > 0 ? "," : "").append("\"value").append(i).append("\"");
+        }
+        json.endArray();
+        json.flush();
+        assertEquals(expected.append("]").toString(), writer.toString());
+    }
+
+    @Test
+    public void testMisplacedValue() throws Exception {
+        json.object();
+        try {
+            json.value("no key");
+            fail("Should have failed, a key is expected");
+        } catch (JSONException e) {
+            // fine
+        }
+    }
+
+    @Test
+    public void testNonFiniteOrdinate() throws Exception {
+        try {
+            json.writeOrdinate(Double.NaN);
+            fail("NaN is not valid JSON");
+        } catch (JSONException e) {
+            // fine
+        }
+    }
+
+    void assertGeometry(String expected, String wkt) throws Exception {
+        // a fresh writer for each geometry, or they would be comma separated
+        StringWriter geometryWriter = new StringWriter();
+        GeoJSONWriter geometryJson = new GeoJSONWriter(geometryWriter, json.numDecimals);
+        geometryJson.writeGeom(new WKTReader().read(wkt));
+        geometryJson.flush();
+        assertEquals(expected, geometryWriter.toString());
+    }
+}
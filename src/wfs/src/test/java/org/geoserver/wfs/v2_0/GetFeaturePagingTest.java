@@ -7,9 +7,11 @@ package org.geoserver.wfs.v2_0;
 import static org.junit.Assert.*;
 import java.io.ByteArrayInputStream;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,6 +22,7 @@ import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.wfs.ResumeToken;
 import org.geotools.data.DataStore;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -39,6 +42,7 @@ import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.Identifier;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 
 public class GetFeaturePagingTest extends WFS20TestSupport {
 
@@ -71,6 +75,14 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         tb.add("num", Integer.class);
         tb.remove("boundedBy");
         store.createSchema(tb.buildFeatureType());
+
+        // same as fifteen, with a sort key that cannot go in a resume token
+        tb.init((SimpleFeatureType) fs1.getSchema());
+        tb.setName("Unlabeled");
+        tb.add("num", Integer.class);
+        tb.add("label", String.class);
+        tb.remove("boundedBy");
+        store.createSchema(tb.buildFeatureType());
         
         CatalogBuilder cb = new CatalogBuilder(cat);
         cb.setStore(ds);
@@ -86,6 +98,12 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         
         ft = cb.buildFeatureType(fs);
         cat.add(ft);
+
+        fs = (FeatureStore) store.getFeatureSource("Unlabeled");
+        addFeatures(fs, fs1.getFeatures());
+
+        ft = cb.buildFeatureType(fs);
+        cat.add(ft);
     }
 
     void addFeatures(FeatureStore fs, FeatureCollection features) throws Exception {
@@ -562,4 +580,125 @@ public class GetFeaturePagingTest extends WFS20TestSupport {
         XMLAssert.assertXpathEvaluatesTo("0", "/wfs:FeatureCollection/@numberReturned", doc);
     }
 
+
+    @Test
+    public void testResumeTokenGET() throws Exception {
+        String request = "wfs?service=WFS&version=2.0.0&request=GetFeature&typeName=gs:Fifteen"
+                + "&sortBy=num ASC&count=4";
+        Document doc = getAsDOM(request + "&resumeToken=");
+        assertFalse(doc.getDocumentElement().hasAttribute("previous"));
+
+        List<String> nums = new ArrayList<String>();
+        int pages = 1;
+        while (true) {
+            XMLAssert.assertXpathEvaluatesTo("15", "/wfs:FeatureCollection/@numberMatched", doc);
+            NodeList nodes = doc.getElementsByTagName("gs:num");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                nums.add(nodes.item(i).getTextContent());
+            }
+            if (!doc.getDocumentElement().hasAttribute("next")) {
+                break;
+            }
+
+            // the next link carries the token instead of the start index
+            KvpMap next = toKvpMap(doc.getDocumentElement().getAttribute("next"));
+            assertFalse(next.containsKey("startIndex"));
+            String token = (String) next.get("resumeToken");
+            assertNotNull(token);
+            doc = getAsDOM(request + "&resumeToken=" + token);
+            pages++;
+
+            // previous falls back on the start index
+            assertStartIndexCount(doc, "previous", (pages - 2) * 4, 4);
+        }
+
+        assertEquals(4, pages);
+        assertEquals(15, nums.size());
+        for (int i = 0; i < nums.size(); i++) {
+            assertEquals(String.valueOf(i), nums.get(i));
+        }
+    }
+
+    @Test
+    public void testResumeTokenDescending() throws Exception {
+        String request = "wfs?service=WFS&version=2.0.0&request=GetFeature&typeName=gs:Fifteen"
+                + "&sortBy=num DESC&count=10";
+        Document doc = getAsDOM(request + "&resumeToken=");
+        XMLAssert.assertXpathEvaluatesTo("10", "count(//gs:Fifteen)", doc);
+        KvpMap next = toKvpMap(doc.getDocumentElement().getAttribute("next"));
+
+        doc = getAsDOM(request + "&resumeToken=" + next.get("resumeToken"));
+        XMLAssert.assertXpathEvaluatesTo("5", "count(//gs:Fifteen)", doc);
+        XMLAssert.assertXpathExists("//gs:Fifteen/gs:num[text() = '4']", doc);
+        XMLAssert.assertXpathNotExists("//gs:Fifteen/gs:num[text() = '5']", doc);
+        assertFalse(doc.getDocumentElement().hasAttribute("next"));
+    }
+
+    @Test
+    public void testResumeTokenInvalid() throws Exception {
+        // no sorting
+        Document doc = getAsDOM("wfs?service=WFS&version=2.0.0&request=GetFeature"
+                + "&typeName=gs:Fifteen&count=4&resumeToken=");
+        checkOws11Exception(doc, "InvalidParameterValue");
+
+        // garbage
+        doc = getAsDOM("wfs?service=WFS&version=2.0.0&request=GetFeature"
+                + "&typeName=gs:Fifteen&sortBy=num&count=4&resumeToken=abcd");
+        checkOws11Exception(doc, "InvalidParameterValue");
+
+        // token generated for another query
+        doc = getAsDOM("wfs?service=WFS&version=2.0.0&request=GetFeature&typeName=gs:Fifteen"
+                + "&sortBy=num ASC&count=4&resumeToken=");
+        KvpMap next = toKvpMap(doc.getDocumentElement().getAttribute("next"));
+        doc = getAsDOM("wfs?service=WFS&version=2.0.0&request=GetFeature&typeName=gs:Fifteen"
+                + "&sortBy=num DESC&count=4&resumeToken=" + next.get("resumeToken"));
+        checkOws11Exception(doc, "InvalidParameterValue");
+    }
+
+    @Test
+    public void testResumeTokenNullSortKey() throws Exception {
+        // the labels are all null, the next page can only be located by its position
+        doTestResumeTokenPaging("gs:Unlabeled", "label ASC,num ASC", false);
+    }
+
+    @Test
+    public void testResumeTokenUnknown() throws Exception {
+        // tokens whose page end is not known, e.g. issued by another instance, fall back on the
+        // position of the page
+        doTestResumeTokenPaging("gs:Fifteen", "num ASC", true);
+    }
+
+    void doTestResumeTokenPaging(String typeName, String sortBy, boolean forget)
+            throws Exception {
+        String request = "wfs?service=WFS&version=2.0.0&request=GetFeature&typeName=" + typeName
+                + "&sortBy=" + sortBy + "&count=4";
+        Document doc = getAsDOM(request + "&resumeToken=");
+
+        List<String> nums = new ArrayList<String>();
+        while (true) {
+            NodeList nodes = doc.getElementsByTagName("gs:num");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                nums.add(nodes.item(i).getTextContent());
+            }
+            if (!doc.getDocumentElement().hasAttribute("next")) {
+                break;
+            }
+            KvpMap next = toKvpMap(doc.getDocumentElement().getAttribute("next"));
+            assertFalse(next.containsKey("startIndex"));
+            String token = (String) next.get("resumeToken");
+            if (forget) {
+                // same page, but an id this instance never issued
+                ResumeToken t = ResumeToken.decode(URLDecoder.decode(token, "UTF-8"));
+                token = ResumeToken.next(t.getFingerprint(), t.getTotal(), t.getPosition())
+                        .encode();
+            }
+            doc = getAsDOM(request + "&resumeToken=" + token);
+        }
+
+        assertEquals(15, nums.size());
+        for (int i = 0; i < nums.size(); i++) {
+            assertEquals(String.valueOf(i), nums.get(i));
+        }
+    }
+
 }
@@ -9,7 +9,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.opengis.wfs.FeatureCollectionType;
 
@@ -21,6 +23,7 @@ import org.geoserver.wms.animate.Animator;
 import org.geoserver.wms.capabilities.Capabilities_1_3_0_Transformer;
 import org.geoserver.wms.capabilities.GetCapabilitiesTransformer;
 import org.geoserver.wms.describelayer.DescribeLayerModel;
+import org.geoserver.wms.map.png.PNGEncoder;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
@@ -137,6 +140,28 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Number of threads used to render the layers of a map in parallel, 0 to disable
+     */
+    private static Integer PARALLEL_LAYER_RENDERING = null;
+
+    /**
+     * The bounded pool used to render layers in parallel
+     */
+    private static ExecutorService LAYER_RENDERING_POOL;
+
+    /**
+     * The built-in PNG encoder profile, null to use the ImageIO/JAI encoders
+     */
+    private static PNGEncoder.Profile PNG_ENCODER = null;
+
+    private static boolean PNG_ENCODER_INITIALIZED = false;
+
+    /**
+     * The pool used by the built-in PNG encoder to encode row blocks in parallel
+     */
+    private static ExecutorService PNG_ENCODING_POOL;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -246,6 +271,24 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // parallel layer rendering, disabled by default
+        if (PARALLEL_LAYER_RENDERING == null) {
+            String threads = GeoServerExtensions.getProperty("PARALLEL_LAYER_RENDERING", context);
+            if (threads == null)
+                PARALLEL_LAYER_RENDERING = 0;
+            else
+                PARALLEL_LAYER_RENDERING = Integer.valueOf(threads);
+        }
+
+        // built-in PNG encoder, disabled by default
+        if (!PNG_ENCODER_INITIALIZED) {
+            String encoder = GeoServerExtensions.getProperty("PNG_ENCODER", context);
+            if (encoder != null && !"JAI".equalsIgnoreCase(encoder.trim())) {
+                PNG_ENCODER = PNGEncoder.Profile.valueOf(encoder.trim().toUpperCase());
+            }
+            PNG_ENCODER_INITIALIZED = true;
+        }
     }
 
     /**
@@ -688,7 +731,94 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the number of threads used to render the layers of a GetMap in parallel (0 or 1
+     * means parallel layer rendering is disabled, the default, set the PARALLEL_LAYER_RENDERING
+     * property to enable it)
+     * 
+     * @return
+     */
+    public static int getParallelLayerRendering() {
+        return PARALLEL_LAYER_RENDERING == null ? 0 : PARALLEL_LAYER_RENDERING;
+    }
+
+    /**
+     * Returns the app wide, bounded pool used to render layers in parallel, or null if parallel
+     * layer rendering is disabled
+     * 
+     * @return
+     */
+    public static ExecutorService getLayerRenderingPool() {
+        final int threads = getParallelLayerRendering();
+        if (threads > 1 && LAYER_RENDERING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (LAYER_RENDERING_POOL == null) {
+                    LAYER_RENDERING_POOL = Executors.newFixedThreadPool(threads,
+                            new ThreadFactory() {
+                                AtomicInteger count = new AtomicInteger();
+
+                                public Thread newThread(Runnable r) {
+                                    Thread t = new Thread(r, "GeoServer layer rendering-"
+                                            + count.incrementAndGet());
+                                    t.setDaemon(true);
+                                    return t;
+                                }
+                            });
+                }
+            }
+        }
+
+        return LAYER_RENDERING_POOL;
+    }
+
+    /**
+     * Returns the profile of the built-in PNG encoder, or null if PNG images are to be encoded with
+     * the ImageIO/JAI encoders (the default, set the PNG_ENCODER property to SPEED, BALANCED or
+     * SIZE to enable the built-in encoder)
+     * 
+     * @return
+     */
+    public static PNGEncoder.Profile getPNGEncoderProfile() {
+        return PNG_ENCODER;
+    }
+
+    /**
+     * Returns the app wide pool used by the built-in PNG encoder, sized after the number of
+     * available processors
+     * 
+     * @return
+     */
+    public static ExecutorService getPNGEncodingPool() {
+        if (PNG_ENCODING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (PNG_ENCODING_POOL == null) {
+                    PNG_ENCODING_POOL = Executors.newFixedThreadPool(Runtime.getRuntime()
+                            .availableProcessors(), new ThreadFactory() {
+                        AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "GeoServer PNG encoding-"
+                                    + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+                }
+            }
+        }
+
+        return PNG_ENCODING_POOL;
+    }
+
     public void destroy() throws Exception {
+        if (LAYER_RENDERING_POOL != null) {
+            LAYER_RENDERING_POOL.shutdownNow();
+            LAYER_RENDERING_POOL = null;
+        }
+        if (PNG_ENCODING_POOL != null) {
+            PNG_ENCODING_POOL.shutdownNow();
+            PNG_ENCODING_POOL = null;
+        }
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
@@ -14,6 +14,7 @@ import javax.media.jai.RenderedImageList;
 
 import org.geoserver.ows.AbstractDispatcherCallback;
 import org.geoserver.ows.Request;
+import org.geoserver.wms.map.DrawingSurfacePool;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.resources.image.ImageUtilities;
 
@@ -22,6 +23,8 @@ public class RasterCleaner extends AbstractDispatcherCallback {
 
     static final ThreadLocal<List<GridCoverage2D>> coverages = new ThreadLocal<List<GridCoverage2D>>();
 
+    static final ThreadLocal<List<BufferedImage>> surfaces = new ThreadLocal<List<BufferedImage>>();
+
     /**
      * Schedules a RenderedImage for cleanup at the end of the request
      * 
@@ -58,10 +61,43 @@ public class RasterCleaner extends AbstractDispatcherCallback {
         list.add(coverage);
     }
 
+    /**
+     * Schedules a drawing surface to be given back to the {@link DrawingSurfacePool} at the end of
+     * the request. Only the owner of the surface should call this method, once nothing is going to
+     * use the image past the request end (other images are ignored by the pool).
+     * 
+     * @param image
+     */
+    public static void addSurface(RenderedImage image) {
+        if (!(image instanceof BufferedImage)) {
+            return;
+        }
+
+        List<BufferedImage> list = surfaces.get();
+        if (list == null) {
+            list = new ArrayList<BufferedImage>();
+            surfaces.set(list);
+        }
+        list.add((BufferedImage) image);
+    }
+
     @Override
     public void finished(Request request) {
         disposeCoverages();
         disposeImages();
+        releaseSurfaces();
+    }
+
+    private void releaseSurfaces() {
+        List<BufferedImage> list = surfaces.get();
+        if (list != null) {
+            surfaces.remove();
+            DrawingSurfacePool pool = DrawingSurfacePool.get();
+            for (BufferedImage image : list) {
+                pool.release(image);
+            }
+            list.clear();
+        }
     }
 
     private void disposeImages() {
@@ -4,6 +4,10 @@
  */
 package org.geoserver.wms.capabilities;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -48,4 +52,18 @@ public abstract class BaseCapabilitiesResponse extends Response {
                 + "/" + operation.getId());
     }
 
-}
\ No newline at end of file
+    /**
+     * Writes the document produced by the encoder, going through the {@link CapabilitiesCache}
+     * if there is one
+     */
+    protected void write(Operation operation, OutputStream output,
+            CapabilitiesCache.Encoder encoder) throws IOException {
+        CapabilitiesCache cache = CapabilitiesCache.get();
+        if (cache == null) {
+            encoder.encode(output);
+        } else {
+            cache.write(operation, output, encoder);
+        }
+    }
+
+}
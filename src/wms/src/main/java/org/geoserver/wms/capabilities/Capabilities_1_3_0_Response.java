@@ -9,6 +9,7 @@ import java.io.OutputStream;
 
 import javax.xml.transform.TransformerException;
 
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -40,14 +41,18 @@ public class Capabilities_1_3_0_Response extends BaseCapabilitiesResponse {
     public void write(final Object value, final OutputStream output, final Operation operation)
             throws IOException, ServiceException {
 
-        Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
-
-        try {
-            GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
-            transformer.transform(request, output);
-        } catch (TransformerException e) {
-            throw new ServiceException(e);
-        }
+        final Capabilities_1_3_0_Transformer transformer = (Capabilities_1_3_0_Transformer) value;
+        final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
+
+        write(operation, output, new CapabilitiesCache.Encoder() {
+            public void encode(OutputStream output) throws IOException {
+                try {
+                    transformer.transform(request, output);
+                } catch (TransformerException e) {
+                    throw new ServiceException(e);
+                }
+            }
+        });
     }
 
 }
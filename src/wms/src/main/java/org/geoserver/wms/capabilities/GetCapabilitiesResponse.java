@@ -24,6 +24,7 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import org.geoserver.ows.CapabilitiesCache;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
@@ -105,6 +106,16 @@ public class GetCapabilitiesResponse extends BaseCapabilitiesResponse {
         final GetCapabilitiesTransformer transformer = (GetCapabilitiesTransformer) value;
         final GetCapabilitiesRequest request = (GetCapabilitiesRequest) operation.getParameters()[0];
 
+        write(operation, output, new CapabilitiesCache.Encoder() {
+            public void encode(OutputStream output) throws IOException {
+                encodeCapabilities(transformer, request, output);
+            }
+        });
+    }
+
+    void encodeCapabilities(final GetCapabilitiesTransformer transformer,
+            final GetCapabilitiesRequest request, final OutputStream output) throws IOException,
+            ServiceException {
         final String internalDTDDeclaration = getInternalDTDDeclaration(request);
 
         if (internalDTDDeclaration == null) {
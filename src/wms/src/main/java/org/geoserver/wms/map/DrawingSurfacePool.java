@@ -0,0 +1,299 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A pool of {@link BufferedImage} drawing surfaces, used to avoid allocating a new large image for
+ * each map being rendered. The images are keyed by size, sample model and color model (palettes are
+ * compared by identity).
+ * <p>
+ * Only the images acquired from the pool can be released back into it, and only once per
+ * acquisition: the owner of a surface should release it when nothing else is referencing it
+ * anymore, e.g. after the response has been encoded. Released images are cleared, so that an
+ * acquired image is always zero filled, like a newly allocated one.
+ * </p>
+ * <p>
+ * The pool keeps at most {@link #getMaxMemory()} bytes of idle images, dropping the least recently
+ * used ones when full. The default pool size is 64MB, use the DRAWING_SURFACE_POOL_SIZE property to
+ * set another value in megabytes, 0 disables pooling.
+ * </p>
+ */
+public class DrawingSurfacePool {
+
+    static final Logger LOGGER = Logging.getLogger(DrawingSurfacePool.class);
+
+    static final long MB = 1024 * 1024;
+
+    static final DrawingSurfacePool INSTANCE = new DrawingSurfacePool(getConfiguredMaxMemory());
+
+    /**
+     * Returns the application wide drawing surface pool
+     */
+    public static DrawingSurfacePool get() {
+        return INSTANCE;
+    }
+
+    static long getConfiguredMaxMemory() {
+        String size = GeoServerExtensions.getProperty("DRAWING_SURFACE_POOL_SIZE");
+        if (size != null) {
+            try {
+                return Long.parseLong(size.trim()) * MB;
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Invalid DRAWING_SURFACE_POOL_SIZE value: " + size
+                        + ", should be an amount of megabytes");
+            }
+        }
+        return 64 * MB;
+    }
+
+    final long maxMemory;
+
+    /** The idle images, in least recently used order */
+    final LinkedHashMap<Key, LinkedList<BufferedImage>> pool = new LinkedHashMap<Key, LinkedList<BufferedImage>>(
+            16, 0.75f, true);
+
+    /** The images handed out and not released yet */
+    final Map<BufferedImage, Key> acquired = new WeakHashMap<BufferedImage, Key>();
+
+    long memory;
+
+    public DrawingSurfacePool(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Returns a zero filled image of one of the predefined {@link BufferedImage} types
+     */
+    public BufferedImage acquire(int width, int height, int imageType) {
+        Key key = new Key(width, height, imageType, null, null);
+        BufferedImage image = take(key);
+        if (image == null) {
+            image = new BufferedImage(width, height, imageType);
+        }
+        return register(image, key);
+    }
+
+    /**
+     * Returns a zero filled image with the given color model and sample model, the image size is
+     * the one of the sample model
+     */
+    public BufferedImage acquire(ColorModel colorModel, SampleModel sampleModel) {
+        Key key = new Key(sampleModel.getWidth(), sampleModel.getHeight(),
+                BufferedImage.TYPE_CUSTOM, colorModel, sampleModel);
+        BufferedImage image = take(key);
+        if (image == null) {
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, null);
+            image = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+        }
+        return register(image, key);
+    }
+
+    /**
+     * Gives back an image to the pool. Images that were not acquired from the pool, or have already
+     * been released, are ignored.
+     *
+     * @return true if the image was released
+     */
+    public boolean release(BufferedImage image) {
+        if (image == null) {
+            return false;
+        }
+        Key key;
+        synchronized (this) {
+            key = acquired.remove(image);
+        }
+        if (key == null || maxMemory <= 0 || key.getMemory() > maxMemory) {
+            return key != null;
+        }
+
+        // clear outside of the lock
+        if (!clear(image)) {
+            return true;
+        }
+
+        synchronized (this) {
+            LinkedList<BufferedImage> images = pool.get(key);
+            if (images == null) {
+                images = new LinkedList<BufferedImage>();
+                pool.put(key, images);
+            }
+            images.addFirst(image);
+            memory += key.getMemory();
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Drops all the idle images
+     */
+    public synchronized void clear() {
+        pool.clear();
+        memory = 0;
+    }
+
+    /**
+     * The max amount of memory used by idle images, in bytes
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * The amount of memory currently used by idle images, in bytes
+     */
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    synchronized BufferedImage take(Key key) {
+        LinkedList<BufferedImage> images = pool.get(key);
+        if (images == null || images.isEmpty()) {
+            return null;
+        }
+        BufferedImage image = images.removeFirst();
+        if (images.isEmpty()) {
+            pool.remove(key);
+        }
+        memory -= key.getMemory();
+        return image;
+    }
+
+    synchronized BufferedImage register(BufferedImage image, Key key) {
+        if (maxMemory > 0) {
+            acquired.put(image, key);
+        }
+        return image;
+    }
+
+    /**
+     * Drops the least recently used images until the pool fits its max memory
+     */
+    void evict() {
+        Iterator<Map.Entry<Key, LinkedList<BufferedImage>>> it = pool.entrySet().iterator();
+        while (memory > maxMemory && it.hasNext()) {
+            Map.Entry<Key, LinkedList<BufferedImage>> entry = it.next();
+            LinkedList<BufferedImage> images = entry.getValue();
+            while (memory > maxMemory && !images.isEmpty()) {
+                images.removeLast();
+                memory -= entry.getKey().getMemory();
+            }
+            if (images.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Zero fills the image data, returns false if the data buffer type is not supported
+     */
+    static boolean clear(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        for (int i = 0; i < buffer.getNumBanks(); i++) {
+            if (buffer instanceof DataBufferByte) {
+                Arrays.fill(((DataBufferByte) buffer).getData(i), (byte) 0);
+            } else if (buffer instanceof DataBufferInt) {
+                Arrays.fill(((DataBufferInt) buffer).getData(i), 0);
+            } else if (buffer instanceof DataBufferUShort) {
+                Arrays.fill(((DataBufferUShort) buffer).getData(i), (short) 0);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static final class Key {
+        final int width;
+
+        final int height;
+
+        final int imageType;
+
+        final ColorModel colorModel;
+
+        final SampleModel sampleModel;
+
+        Key(int width, int height, int imageType, ColorModel colorModel, SampleModel sampleModel) {
+            this.width = width;
+            this.height = height;
+            this.imageType = imageType;
+            this.colorModel = colorModel;
+            this.sampleModel = sampleModel;
+        }
+
+        /**
+         * The image memory footprint, in bytes
+         */
+        long getMemory() {
+            int bits;
+            if (sampleModel != null) {
+                bits = 0;
+                for (int size : sampleModel.getSampleSize()) {
+                    bits += size;
+                }
+            } else if (imageType == BufferedImage.TYPE_3BYTE_BGR) {
+                bits = 24;
+            } else {
+                bits = 32;
+            }
+            return (long) width * height * ((bits + 7) / 8);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + imageType;
+            // palettes are compared by identity, see equals
+            result = 31 * result + (colorModel == null ? 0 : colorModel.getClass().hashCode());
+            result = 31 * result + (sampleModel == null ? 0 : sampleModel.hashCode());
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (width != other.width || height != other.height || imageType != other.imageType) {
+                return false;
+            }
+            if (sampleModel == null ? other.sampleModel != null : !sampleModel
+                    .equals(other.sampleModel)) {
+                return false;
+            }
+            // ColorModel.equals does not compare the palette entries
+            if (colorModel instanceof IndexColorModel || other.colorModel instanceof IndexColorModel) {
+                return colorModel == other.colorModel;
+            }
+            return colorModel == null ? other.colorModel == null : colorModel
+                    .equals(other.colorModel);
+        }
+    }
+}
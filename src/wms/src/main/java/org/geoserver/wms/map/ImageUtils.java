@@ -13,10 +13,10 @@ import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.IndexColorModel;
-import java.awt.image.Raster;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.awt.image.VolatileImage;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
@@ -100,23 +100,27 @@ public class ImageUtils {
             final IndexColorModel palette, final boolean transparent) {
         // WARNING: whenever this method is changed, change getDrawingSurfaceMemoryUse
         // accordingly
+        // The images come from the drawing surface pool, the map producers give them back
+        // once the map has been encoded (see DrawingSurfacePool)
+        final DrawingSurfacePool pool = DrawingSurfacePool.get();
         if (palette != null) {
             // unfortunately we can't use packed rasters because line rendering
             // gets completely
             // broken, see GEOS-1312 (http://jira.codehaus.org/browse/GEOS-1312)
             // final WritableRaster raster =
             // palette.createCompatibleWritableRaster(width, height);
-            final WritableRaster raster = Raster.createInterleavedRaster(palette.getTransferType(),
-                    width, height, 1, null);
-            return new BufferedImage(palette, raster, false, null);
+            // (same layout as Raster.createInterleavedRaster(type, width, height, 1, null))
+            final SampleModel sampleModel = new PixelInterleavedSampleModel(
+                    palette.getTransferType(), width, height, 1, width, new int[] { 0 });
+            return pool.acquire(palette, sampleModel);
         }
 
         if (transparent) {
-            return new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+            return pool.acquire(width, height, BufferedImage.TYPE_4BYTE_ABGR);
         }
         // don't use alpha channel if the image is not transparent (load testing shows this
         // image setup is the fastest to draw and encode on
-        return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        return pool.acquire(width, height, BufferedImage.TYPE_3BYTE_BGR);
 
     }
     
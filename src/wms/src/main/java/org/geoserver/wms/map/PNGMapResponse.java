@@ -13,14 +13,18 @@ import java.io.OutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.media.jai.RenderedOp;
+
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
+import org.geoserver.wms.map.png.PNGEncoder;
 import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
@@ -108,6 +112,14 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         // check to see if we have to see a translucent or bitmask quantizer
         image = applyPalette(image, mapContent, "image/png8", true);
 
+        PNGEncoder.Profile profile = DefaultWebMapService.getPNGEncoderProfile();
+        if (profile != null && encode(image, profile, outStream)) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
+        }
+
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         SampleModel sm = image.getSampleModel();
@@ -123,6 +135,34 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         }
     }
 
+    /**
+     * Encodes the image with the built-in PNG encoder, returns false if the image layout is not
+     * supported by it. Color indexing operations are not run, the encoder indexes the colors
+     * while reading the rows of their source image.
+     */
+    boolean encode(RenderedImage image, PNGEncoder.Profile profile, OutputStream outStream)
+            throws IOException {
+        RenderedImage source = image;
+        ColorIndexer indexer = null;
+        if (image instanceof RenderedOp
+                && ColorIndexerDescriptor.OPERATION_NAME.equalsIgnoreCase(((RenderedOp) image)
+                        .getOperationName())) {
+            RenderedOp op = (RenderedOp) image;
+            indexer = (ColorIndexer) op.getParameterBlock().getObjectParameter(0);
+            source = op.getSourceImage(0);
+        }
+        if (!PNGEncoder.isSupported(source, indexer)) {
+            return false;
+        }
+
+        int compressionLevel = Math.round(wms.getPngCompression() * 9 / 100f);
+        PNGEncoder encoder = new PNGEncoder(profile, compressionLevel,
+                DefaultWebMapService.getPNGEncodingPool());
+        encoder.encode(source, indexer, outStream);
+        RasterCleaner.addImage(image);
+        return true;
+    }
+
     @Override
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
@@ -0,0 +1,362 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wms.DefaultWebMapService;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.LiteShape2;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.renderer.label.LabelCacheImpl;
+import org.geotools.renderer.label.LabelCacheImpl.LabelRenderingMode;
+import org.geotools.renderer.label.LabelCacheItem;
+import org.geotools.renderer.lite.LabelCache;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.NumberRange;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * Renders the layers of a map concurrently, each one with its own {@link StreamingRenderer} on its
+ * own transparent back buffer, and composites the buffers in layer order on the target graphics.
+ * <p>
+ * The labels are not painted by the layer renderers, they are collected and resolved in a single
+ * label cache once all layers are composited, so that conflicts and priorities are handled as if
+ * the map had been painted by a single renderer.
+ * </p>
+ *
+ * @see DefaultWebMapService#getParallelLayerRendering()
+ */
+class ParallelLayerRenderer {
+
+    final WMSMapContent mapContent;
+
+    final Rectangle paintArea;
+
+    final RenderingHints java2dHints;
+
+    final Map<Object, Object> rendererParams;
+
+    final int maxErrors;
+
+    final List<LayerTask> tasks = new ArrayList<LayerTask>();
+
+    /**
+     * @param mapContent The map to be rendered
+     * @param paintArea The area to be painted
+     * @param java2dHints The hints used by each layer renderer
+     * @param rendererParams The renderer hints used by each layer renderer
+     * @param maxErrors The max number of rendering errors, summed over all layers
+     */
+    public ParallelLayerRenderer(WMSMapContent mapContent, Rectangle paintArea,
+            RenderingHints java2dHints, Map<Object, Object> rendererParams, int maxErrors) {
+        this.mapContent = mapContent;
+        this.paintArea = paintArea;
+        this.java2dHints = java2dHints;
+        this.rendererParams = rendererParams;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Returns the extra memory used by the layer back buffers, on top of the target image and of
+     * the renderer own back buffers
+     */
+    static long getBackBuffersMemoryUse(int width, int height, int layers) {
+        return layers * ImageUtils.getDrawingSurfaceMemoryUse(width, height, null, true);
+    }
+
+    /**
+     * Renders all layers in the provided executor, and paints them on the graphics in order. The
+     * layer renderers are registered in the timeout enforcer as they get created.
+     */
+    public void paint(Graphics2D graphic, ExecutorService executor,
+            RenderingTimeoutEnforcer timeout) {
+        // set up all renderers before starting so that a timeout can stop all of them
+        List<Layer> layers = mapContent.layers();
+        for (int i = 0; i < layers.size(); i++) {
+            LayerTask task = new LayerTask(layers.get(i), i, timeout);
+            timeout.add(task.renderer, null);
+            tasks.add(task);
+        }
+
+        List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>();
+        boolean completed = false;
+        try {
+            for (LayerTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            // composite in layer order, as soon as each layer is available
+            for (Future<BufferedImage> future : futures) {
+                BufferedImage image = future.get();
+                if (image != null) {
+                    if (!timeout.isTimedOut()) {
+                        graphic.drawImage(image, 0, 0, null);
+                    }
+                    DrawingSurfacePool.get().release(image);
+                }
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while rendering the map layers", e);
+        } catch (ExecutionException e) {
+            throw new ServiceException("Rendering process failed", e.getCause(), "internalError");
+        } finally {
+            if (!completed) {
+                // don't leave the other layers running in the background
+                for (LayerTask task : tasks) {
+                    task.renderer.stopRendering();
+                }
+                for (Future<BufferedImage> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        if (!timeout.isTimedOut() && getException() == null) {
+            paintLabels(graphic);
+        }
+    }
+
+    /**
+     * Replays the labels collected by each layer, in layer order, into a single label cache
+     */
+    void paintLabels(Graphics2D graphic) {
+        LabelCacheImpl labelCache = new LabelCacheImpl();
+        Object textRendering = rendererParams.get(StreamingRenderer.TEXT_RENDERING_KEY);
+        if (textRendering != null) {
+            labelCache.setLabelRenderingMode(LabelRenderingMode.valueOf((String) textRendering));
+        }
+
+        labelCache.start();
+        for (LayerTask task : tasks) {
+            String layerId = String.valueOf(task.index);
+            labelCache.startLayer(layerId);
+            for (CollectingLabelCache.Label label : task.labels.labels) {
+                labelCache.put(layerId, label.symbolizer, label.feature, label.shape,
+                        label.scaleRange);
+            }
+            for (Rectangle2D area : task.labels.reserved) {
+                labelCache.put(area);
+            }
+            labelCache.endLayer(layerId, graphic, paintArea);
+        }
+        labelCache.end(graphic, paintArea);
+    }
+
+    /**
+     * Returns the first non ignorable exception occurred in a layer renderer, or null
+     */
+    public Exception getException() {
+        for (LayerTask task : tasks) {
+            if (task.exceptions.exceptionOccurred()) {
+                return task.exceptions.getException();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if the rendering errors, summed over all layers, exceed the max errors threshold
+     */
+    public boolean exceedsMaxErrors() {
+        if (maxErrors <= 0) {
+            return false;
+        }
+        int errors = 0;
+        for (LayerTask task : tasks) {
+            errors += task.errors.errors;
+        }
+        return errors > maxErrors;
+    }
+
+    /**
+     * Returns the last rendering error occurred in any layer, or null
+     */
+    public Exception getLastError() {
+        Exception last = null;
+        for (LayerTask task : tasks) {
+            if (task.errors.getLastException() != null) {
+                last = task.errors.getLastException();
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Renders a single layer on its own back buffer
+     */
+    class LayerTask implements Callable<BufferedImage> {
+
+        final Layer layer;
+
+        final int index;
+
+        final StreamingRenderer renderer;
+
+        final CollectingLabelCache labels = new CollectingLabelCache();
+
+        final MaxErrorEnforcer errors;
+
+        final RenderExceptionStrategy exceptions;
+
+        final RenderingTimeoutEnforcer timeout;
+
+        /**
+         * The request thread locals, such as the env function values, used while evaluating the
+         * styles. Pool threads would otherwise see none, or the ones of an older request.
+         */
+        final ThreadLocalsTransfer threadLocals;
+
+        LayerTask(Layer layer, int index, RenderingTimeoutEnforcer timeout) {
+            this.layer = layer;
+            this.index = index;
+            this.timeout = timeout;
+            this.threadLocals = new ThreadLocalsTransfer();
+
+            renderer = new StreamingRenderer();
+            renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
+            renderer.setJava2DHints(java2dHints);
+            Map<Object, Object> params = new HashMap<Object, Object>(rendererParams);
+            params.put(StreamingRenderer.LABEL_CACHE_KEY, labels);
+            renderer.setRendererHints(params);
+
+            errors = new MaxErrorEnforcer(renderer, maxErrors);
+            exceptions = new RenderExceptionStrategy(renderer);
+            renderer.addRenderListener(exceptions);
+        }
+
+        public BufferedImage call() throws Exception {
+            if (timeout.isTimedOut()) {
+                return null;
+            }
+
+            threadLocals.apply();
+            try {
+                return paintLayer();
+            } finally {
+                threadLocals.cleanup();
+            }
+        }
+
+        BufferedImage paintLayer() {
+            // a content holding just this layer, removed before disposal as it's still in use
+            // by the request map content
+            MapContent layerContent = new MapContent();
+            layerContent.addLayer(layer);
+            renderer.setMapContent(layerContent);
+
+            BufferedImage image = ImageUtils.createImage(paintArea.width, paintArea.height, null,
+                    true);
+            Color bgColor = mapContent.getBgColor();
+            Graphics2D graphics = ImageUtils.prepareTransparency(true,
+                    bgColor != null ? bgColor : Color.WHITE, image, null);
+            graphics.setRenderingHints(java2dHints);
+            timeout.add(null, graphics);
+            try {
+                renderer.paint(graphics, paintArea, mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            } finally {
+                graphics.dispose();
+                layerContent.removeLayer(layer);
+                layerContent.dispose();
+            }
+
+            return image;
+        }
+    }
+
+    /**
+     * A label cache that just collects the labels of a layer, to be replayed later in the map wide
+     * label cache
+     */
+    static class CollectingLabelCache implements LabelCache {
+
+        static class Label {
+            TextSymbolizer symbolizer;
+
+            Feature feature;
+
+            LiteShape2 shape;
+
+            NumberRange<Double> scaleRange;
+        }
+
+        List<Label> labels = Collections.synchronizedList(new ArrayList<Label>());
+
+        List<Rectangle2D> reserved = Collections.synchronizedList(new ArrayList<Rectangle2D>());
+
+        public void put(String layerId, TextSymbolizer symbolizer, Feature feature,
+                LiteShape2 shape, NumberRange<Double> scaleRange) {
+            Label label = new Label();
+            label.symbolizer = symbolizer;
+            // readers are allowed to reuse the feature objects, keep a copy around
+            label.feature = feature instanceof SimpleFeature ? SimpleFeatureBuilder
+                    .copy((SimpleFeature) feature) : feature;
+            label.shape = shape;
+            label.scaleRange = scaleRange;
+            labels.add(label);
+        }
+
+        public void put(Rectangle2D area) {
+            reserved.add(area);
+        }
+
+        public void start() {
+        }
+
+        public void startLayer(String layerId) {
+        }
+
+        public void endLayer(String layerId, Graphics2D graphics, Rectangle displayArea) {
+        }
+
+        public void end(Graphics2D graphics, Rectangle displayArea) {
+        }
+
+        public void stop() {
+        }
+
+        public void clear() {
+            labels.clear();
+            reserved.clear();
+        }
+
+        public void clear(String layerId) {
+            clear();
+        }
+
+        public void disableLayer(String layerId) {
+        }
+
+        public void enableLayers(List<String> layerIds) {
+        }
+
+        public List<LabelCacheItem> orderedLabels() {
+            return Collections.emptyList();
+        }
+    }
+}
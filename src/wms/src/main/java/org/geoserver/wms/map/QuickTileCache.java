@@ -6,17 +6,39 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
@@ -27,14 +49,46 @@ import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMSInfo;
+import org.geotools.feature.NameImpl;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
 import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Caches the tiles of the meta-tiles rendered for tiled GetMap requests, so that the other tiles
+ * of the same meta-tile can be served without rendering it again.
+ * <p>
+ * The cache is bounded by the estimated size in bytes of the cached tiles, evicting the least
+ * recently used meta-tiles, and by a time to live. Meta-tiles are invalidated on a per layer basis
+ * when the layers they contain, their resources, stores or styles are modified, or when a WFS
+ * transaction modifies their data.
+ * </p>
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * Default max size of the cached tiles, in bytes
+     */
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default time to live of a cached meta-tile, in seconds
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 300;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -58,30 +112,141 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      */
     private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    private volatile Cache<MetaTileKey, CacheElement> tileCache;
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private Catalog catalog;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    final AtomicLong size = new AtomicLong();
 
     public QuickTileCache(GeoServer geoServer) {
+        this();
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                // the update sequence gets bumped on every configuration save, but does 
+                // not affect the maps
+                for (String property : propertyNames) {
+                    if (!"updateSequence".equalsIgnoreCase(property)) {
+                        clear();
+                        return;
+                    }
+                }
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                if (service instanceof WMSInfo) {
+                    clear();
+                }
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
+        this.catalog = geoServer.getCatalog();
+        this.catalog.addListener(new CacheInvalidator());
     }
 
     /**
      * For testing only
      */
     QuickTileCache() {
+        tileCache = buildCache();
+    }
+
+    Cache<MetaTileKey, CacheElement> buildCache() {
+        return CacheBuilder.newBuilder().maximumWeight(maxSize)
+                .expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                .weigher(new Weigher<MetaTileKey, CacheElement>() {
+                    public int weigh(MetaTileKey key, CacheElement value) {
+                        return (int) Math.min(value.size, Integer.MAX_VALUE);
+                    }
+                }).removalListener(new RemovalListener<MetaTileKey, CacheElement>() {
+                    public void onRemoval(RemovalNotification<MetaTileKey, CacheElement> n) {
+                        if (n.getValue() != null) {
+                            size.addAndGet(-n.getValue().size);
+                        }
+                        if (n.wasEvicted()) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                }).build();
+    }
+
+    /**
+     * Sets the max size of the cached tiles, in bytes. Changing it empties the cache.
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        rebuild();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets how long, in seconds, a meta-tile is kept in the cache. Changing it empties the cache.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+        rebuild();
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    void rebuild() {
+        Cache<MetaTileKey, CacheElement> old = tileCache;
+        tileCache = buildCache();
+        old.invalidateAll();
+    }
+
+    /**
+     * Number of tile lookups that found the meta-tile in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of tile lookups that did not find the meta-tile in the cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of meta-tiles evicted because of size or time constraints
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of meta-tiles currently in the cache
+     */
+    public long getMetaTileCount() {
+        return tileCache.size();
+    }
+
+    /**
+     * Estimated size of the cached tiles, in bytes
+     */
+    public long getSize() {
+        return size.get();
     }
 
     /**
@@ -111,6 +276,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
         MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        key.catalogIds = getCatalogIds(request);
 
         // since this will be used for thread synchronization, we have to make
         // sure two thread asking for the same meta tile will get the same key
@@ -118,6 +284,22 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return (MetaTileKey) metaTileKeys.unique(key);
     }
 
+    /**
+     * Collects the ids of the layers and resources making up the map, used to invalidate the
+     * cached meta-tiles when they change
+     */
+    Set<String> getCatalogIds(GetMapRequest request) {
+        Set<String> ids = new HashSet<String>();
+        for (MapLayerInfo layer : request.getLayers()) {
+            LayerInfo info = layer.getLayerInfo();
+            if (info != null) {
+                ids.add(info.getId());
+                ids.add(info.getResource().getId());
+            }
+        }
+        return ids;
+    }
+
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
         double minx = bbox.getMinX() + (metaTileCoords.x - tileCoords.x) * bbox.getWidth();
         double miny = bbox.getMinY() + (metaTileCoords.y - tileCoords.y) * bbox.getHeight();
@@ -262,6 +444,11 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /**
+         * Ids of the catalog objects the meta-tile depends on, not part of the key identity
+         */
+        Set<String> catalogIds = Collections.emptySet();
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
             super();
             this.mapKey = mapKey;
@@ -316,13 +503,15 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.getIfPresent(key);
 
         if (ce == null) {
+            misses.incrementAndGet();
             return null;
         }
 
+        hits.incrementAndGet();
         return getTile(key, request, ce.tiles);
     }
 
@@ -353,39 +542,141 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        CacheElement ce = new CacheElement(tiles);
+        size.addAndGet(ce.size);
+        tileCache.put(key, ce);
+    }
+
+    /**
+     * Removes all the meta-tiles depending on the specified catalog objects
+     * 
+     * @param ids the ids of the layers and resources that changed
+     */
+    public void invalidate(Set<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (MetaTileKey key : tileCache.asMap().keySet()) {
+            if (!Collections.disjoint(key.catalogIds, ids)) {
+                tileCache.invalidate(key);
+            }
+        }
     }
 
-    class CacheElement {
+    /**
+     * Empties the cache
+     */
+    public void clear() {
+        tileCache.invalidateAll();
+    }
+
+    static class CacheElement {
         RenderedImage[] tiles;
 
+        long size;
+
         public CacheElement(RenderedImage[] tiles) {
             this.tiles = tiles;
+            for (RenderedImage tile : tiles) {
+                if (tile != null) {
+                    SampleModel sm = tile.getSampleModel();
+                    long pixelBits = 0;
+                    for (int i = 0; i < sm.getNumBands(); i++) {
+                        pixelBits += sm.getSampleSize(i);
+                    }
+                    if (pixelBits == 0) {
+                        pixelBits = DataBuffer.getDataTypeSize(sm.getDataType());
+                    }
+                    size += tile.getWidth() * (long) tile.getHeight() * pixelBits / 8;
+                }
+            }
         }
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        QName name = event.getLayerName();
+        FeatureTypeInfo ft = null;
+        if (catalog != null && name != null) {
+            ft = catalog.getFeatureTypeByName(new NameImpl(name.getNamespaceURI(),
+                    name.getLocalPart()));
+        }
+        if (ft != null) {
+            invalidate(Collections.singleton(ft.getId()));
+        } else {
+            // can't tell what layer it is, play it safe
+            clear();
+        }
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        clear();
+    }
+
+    /**
+     * Invalidates the meta-tiles depending on the catalog objects being modified or removed
+     */
+    class CacheInvalidator implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+            // nothing to do, no cached meta-tile can depend on a new object
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+            invalidate(event.getSource());
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+            // before the change, catches the layers a group or style is no longer associated to
+            invalidate(event.getSource());
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+            invalidate(event.getSource());
+        }
+
+        public void reloaded() {
+            clear();
+        }
+
+        void invalidate(CatalogInfo info) {
+            Set<String> ids = new HashSet<String>();
+            try {
+                if (info instanceof LayerInfo || info instanceof ResourceInfo) {
+                    ids.add(info.getId());
+                } else if (info instanceof StyleInfo) {
+                    for (LayerInfo layer : catalog.getLayers((StyleInfo) info)) {
+                        ids.add(layer.getId());
+                    }
+                } else if (info instanceof LayerGroupInfo) {
+                    for (LayerInfo layer : ((LayerGroupInfo) info).layers()) {
+                        ids.add(layer.getId());
+                    }
+                } else if (info instanceof StoreInfo) {
+                    for (ResourceInfo resource : catalog.getResourcesByStore((StoreInfo) info,
+                            ResourceInfo.class)) {
+                        ids.add(resource.getId());
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to collect the layers affected by a change, "
+                        + "clearing the whole meta-tile cache", e);
+                clear();
+                return;
+            }
+            QuickTileCache.this.invalidate(ids);
+        }
     }
 }
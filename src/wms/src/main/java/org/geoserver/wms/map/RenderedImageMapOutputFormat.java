@@ -303,7 +303,9 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         // multiple featureTypeStyles against the same layer
         StreamingRenderer testRenderer = new StreamingRenderer();
         testRenderer.setMapContent(mapContent);
-        memory += testRenderer.getMaxBackBufferMemory(paintArea.width, paintArea.height);
+        long backBufferMemory = testRenderer.getMaxBackBufferMemory(paintArea.width,
+                paintArea.height);
+        memory += backBufferMemory;
         if (maxMemory > 0 && memory > maxMemory) {
             long kbUsed = memory / KB;
             long kbMax = maxMemory / KB;
@@ -311,6 +313,25 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                     + "maximum memory allowed is " + kbMax + "KB");
         }
 
+        // parallel layer rendering needs a back buffer per layer, and each concurrent renderer
+        // might use its own feature type style buffers too, fall back on sequential rendering if
+        // that does not fit in the memory limits. Palettes are not supported, compositing would
+        // dither the colors.
+        boolean parallelLayers = false;
+        int layerThreads = DefaultWebMapService.getParallelLayerRendering();
+        int layerCount = mapContent.layers().size();
+        if (layerThreads > 1 && layerCount > 1 && palette == null) {
+            long parallelMemory = memory
+                    + ParallelLayerRenderer.getBackBuffersMemoryUse(paintArea.width,
+                            paintArea.height, layerCount)
+                    + backBufferMemory * (Math.min(layerThreads, layerCount) - 1);
+            parallelLayers = maxMemory <= 0 || parallelMemory <= maxMemory;
+            if (!parallelLayers && LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Rendering the layers sequentially, parallel rendering would use "
+                        + parallelMemory / KB + "KB");
+            }
+        }
+
         // TODO: allow rendering to continue with vector layers
         // TODO: allow rendering to continue with layout
         // TODO: handle rotated rasters
@@ -471,6 +492,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         nonIgnorableExceptionListener = new RenderExceptionStrategy(renderer);
         renderer.addRenderListener(nonIgnorableExceptionListener);
 
+        // when rendering in parallel each layer gets its own renderer, set up with the same hints
+        ParallelLayerRenderer parallelRenderer = null;
+        if (parallelLayers) {
+            parallelRenderer = new ParallelLayerRenderer(mapContent, paintArea, hints,
+                    rendererParams, maxErrors);
+        }
+
         // setup the timeout enforcer (the enforcer is neutral when the timeout is 0)
         int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
         RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime, renderer,
@@ -478,8 +506,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         timeout.start();
         try {
             // finally render the image;
-            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
-                    mapContent.getRenderingTransform());
+            if (parallelRenderer != null) {
+                parallelRenderer.paint(graphic, DefaultWebMapService.getLayerRenderingPool(),
+                        timeout);
+            } else {
+                renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            }
 
             // apply watermarking
             if (layout != null) {
@@ -506,6 +539,10 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             Exception renderError = nonIgnorableExceptionListener.getException();
             throw new ServiceException("Rendering process failed", renderError, "internalError");
         }
+        if (parallelRenderer != null && parallelRenderer.getException() != null) {
+            throw new ServiceException("Rendering process failed", parallelRenderer.getException(),
+                    "internalError");
+        }
 
         // check if too many errors occurred
         if (errorChecker.exceedsMaxErrors()) {
@@ -513,6 +550,11 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                     + " rendering errors occurred, bailing out.", errorChecker.getLastException(),
                     "internalError");
         }
+        if (parallelRenderer != null && parallelRenderer.exceedsMaxErrors()) {
+            throw new ServiceException("More than " + maxErrors
+                    + " rendering errors occurred, bailing out.", parallelRenderer.getLastError(),
+                    "internalError");
+        }
 
         // if (!this.abortRequested) {
         if (palette != null && palette.getMapSize() < 256)
@@ -21,10 +21,9 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
 import org.geoserver.wms.map.PNGMapResponse.QuantizeMethod;
-import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
-import org.geoserver.wms.map.quantize.LRUColorIndexer;
+import org.geoserver.wms.map.quantize.InverseColorMapIndexer;
 import org.geoserver.wms.map.quantize.Quantizer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
@@ -127,6 +126,8 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                     RasterCleaner.addCoverage(coverage);
                 }
                 RasterCleaner.addImage(image);
+                // the drawing surface can be reused once the response is written
+                RasterCleaner.addSurface(image);
             }
         } finally {
             imageMap.dispose();
@@ -174,7 +175,7 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                 
                 // user provided palette?
                 if (mapContent.getPalette() != null) {
-                    indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+                    indexer = InverseColorMapIndexer.get(icm);
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
                     // build the palette and grab the optimized color indexer
                     indexer = new Quantizer(256).subsample().buildColorIndexer(image);
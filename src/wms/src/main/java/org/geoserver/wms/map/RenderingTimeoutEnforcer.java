@@ -5,6 +5,8 @@
 package org.geoserver.wms.map;
 
 import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -19,15 +21,38 @@ import org.geotools.renderer.GTRenderer;
 public class RenderingTimeoutEnforcer {
     
     long timeout;
-    GTRenderer renderer;
-    Graphics graphics;
+    List<GTRenderer> renderers = new ArrayList<GTRenderer>();
+    List<Graphics> graphics = new ArrayList<Graphics>();
     Timer timer;
-    boolean timedOut = false;
+    volatile boolean timedOut = false;
 
     public RenderingTimeoutEnforcer(long timeout, GTRenderer renderer, Graphics graphics) {
+        this(timeout);
+        add(renderer, graphics);
+    }
+
+    /**
+     * Builds an enforcer without renderers, use {@link #add(GTRenderer, Graphics)} to register
+     * them (e.g., when rendering layers in parallel)
+     */
+    public RenderingTimeoutEnforcer(long timeout) {
         this.timeout = timeout;
-        this.renderer = renderer;
-        this.graphics = graphics;
+    }
+
+    /**
+     * Registers a renderer and/or the graphics it paints on, either can be null. If the timeout
+     * already elapsed they are stopped right away.
+     */
+    public synchronized void add(GTRenderer renderer, Graphics graphics) {
+        if (renderer != null) {
+            renderers.add(renderer);
+        }
+        if (graphics != null) {
+            this.graphics.add(graphics);
+        }
+        if (timedOut) {
+            stop(renderer, graphics);
+        }
     }
 
     /**
@@ -67,18 +92,32 @@ public class RenderingTimeoutEnforcer {
 
         @Override
         public void run() {
-            // mark as timed out
-            timedOut = true;
-            
-            // ask gently...
+            synchronized (RenderingTimeoutEnforcer.this) {
+                // mark as timed out
+                timedOut = true;
+
+                for (GTRenderer renderer : renderers) {
+                    stop(renderer, null);
+                }
+                for (Graphics g : graphics) {
+                    stop(null, g);
+                }
+            }
+        }
+        
+    }
+
+    void stop(GTRenderer renderer, Graphics graphics) {
+        // ask gently...
+        if (renderer != null) {
             renderer.stopRendering();
-            // ... but also be rude for extra measure (coverage rendering is
-            // an atomic call to the graphics, it cannot be stopped
-            // by the above)
+        }
+        // ... but also be rude for extra measure (coverage rendering is
+        // an atomic call to the graphics, it cannot be stopped
+        // by the above)
+        if (graphics != null) {
             graphics.dispose();
-            
         }
-        
     }
 
 }
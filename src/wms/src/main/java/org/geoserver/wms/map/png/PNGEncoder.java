@@ -0,0 +1,653 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.geoserver.wms.map.quantize.ColorIndexer;
+
+/**
+ * A PNG encoder reading the image rows straight from the {@link RenderedImage} tiles, without
+ * copying the whole raster first.
+ * <p>
+ * The image is split in blocks of rows, which are read, filtered and deflated in parallel when an
+ * executor is provided. Each block is deflated on its own, using the tail of the previous block as
+ * the dictionary, and the blocks are then chained into a single zlib stream. Deflating blocks on
+ * their own requires the sync flush support found in Java 7, on older runtimes the blocks are
+ * still read and filtered in parallel, but deflated sequentially.
+ * </p>
+ * <p>
+ * Only 8 bits per sample images are supported: gray, gray alpha, RGB and RGBA images with a
+ * component or packed int layout, and palette images. Palette images can also be produced on the
+ * fly from a RGB(A) image and a {@link ColorIndexer}. Use {@link #isSupported(RenderedImage,
+ * ColorIndexer)} to check whether an image can be encoded.
+ * </p>
+ */
+public class PNGEncoder {
+
+    /**
+     * The encoding profiles, trading speed for output size
+     */
+    public enum Profile {
+        /** Fast deflate and the cheapest useful filter */
+        SPEED(1, FILTER_SUB),
+        /** Configurable deflate level, Paeth filter */
+        BALANCED(-1, FILTER_PAETH),
+        /** Best deflate level, adaptive filtering choosing the best filter for each row */
+        SIZE(9, FILTER_NONE, FILTER_SUB, FILTER_UP, FILTER_AVERAGE, FILTER_PAETH);
+
+        final int compressionLevel;
+
+        final int[] filters;
+
+        Profile(int compressionLevel, int... filters) {
+            this.compressionLevel = compressionLevel;
+            this.filters = filters;
+        }
+
+        /**
+         * The deflate level used by this profile, or -1 if the level is configurable
+         */
+        public int getCompressionLevel() {
+            return compressionLevel;
+        }
+    }
+
+    static final int FILTER_NONE = 0;
+
+    static final int FILTER_SUB = 1;
+
+    static final int FILTER_UP = 2;
+
+    static final int FILTER_AVERAGE = 3;
+
+    static final int FILTER_PAETH = 4;
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    /** The deflate window size, and the size of the dictionary handed to each block */
+    static final int WINDOW = 32 * 1024;
+
+    /** The target size of a block, in filtered bytes */
+    static final int BLOCK_SIZE = 256 * 1024;
+
+    /** The max size of an IDAT chunk */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Deflater.SYNC_FLUSH, only available in Java 7 and newer */
+    static final int SYNC_FLUSH = 2;
+
+    static final Method DEFLATE_WITH_FLUSH;
+    static {
+        Method method = null;
+        try {
+            method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class,
+                    int.class);
+        } catch (NoSuchMethodException e) {
+            // Java 6, blocks will be deflated sequentially
+        }
+        DEFLATE_WITH_FLUSH = method;
+    }
+
+    final Profile profile;
+
+    final int compressionLevel;
+
+    final Executor executor;
+
+    int blockSize = BLOCK_SIZE;
+
+    /**
+     * @param profile The encoding profile
+     * @param compressionLevel The deflate level, 0 to 9, used only if the profile level is
+     *        configurable
+     * @param executor The executor running the block encoding, or null to encode in the calling
+     *        thread only
+     */
+    public PNGEncoder(Profile profile, int compressionLevel, Executor executor) {
+        this.profile = profile;
+        this.compressionLevel = profile.compressionLevel >= 0 ? profile.compressionLevel : Math
+                .max(0, Math.min(9, compressionLevel));
+        this.executor = executor;
+    }
+
+    /**
+     * Returns true if the image can be encoded, as is or through the color indexer
+     *
+     * @param indexer The color indexer, or null
+     */
+    public static boolean isSupported(RenderedImage image, ColorIndexer indexer) {
+        return ScanlineReader.create(image, indexer) != null;
+    }
+
+    /**
+     * Encodes the image into the stream
+     */
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        encode(image, null, out);
+    }
+
+    /**
+     * Encodes the image into the stream, the pixels are turned into palette indexes with the
+     * indexer, if not null
+     */
+    public void encode(RenderedImage image, ColorIndexer indexer, OutputStream out)
+            throws IOException {
+        ScanlineReader reader = ScanlineReader.create(image, indexer);
+        if (reader == null) {
+            throw new IllegalArgumentException("Unsupported image layout, color model: "
+                    + image.getColorModel() + ", sample model: " + image.getSampleModel());
+        }
+
+        out.write(SIGNATURE);
+        writeHeader(reader, out);
+        IndexColorModel palette = reader.getPalette();
+        if (palette != null) {
+            writePalette(palette, out);
+        }
+        writeData(reader, out);
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    void writeHeader(ScanlineReader reader, OutputStream out) throws IOException {
+        byte[] header = new byte[13];
+        writeInt(header, 0, reader.width);
+        writeInt(header, 4, reader.height);
+        header[8] = 8;
+        header[9] = (byte) reader.colorType;
+        // compression, filter and interlace methods, all defaults
+        writeChunk(out, "IHDR", header, header.length);
+    }
+
+    void writePalette(IndexColorModel palette, OutputStream out) throws IOException {
+        int size = palette.getMapSize();
+        byte[] entries = new byte[size * 3];
+        byte[] alphas = new byte[size];
+        int alphaCount = 0;
+        for (int i = 0; i < size; i++) {
+            int rgb = palette.getRGB(i);
+            entries[i * 3] = (byte) (rgb >> 16);
+            entries[i * 3 + 1] = (byte) (rgb >> 8);
+            entries[i * 3 + 2] = (byte) rgb;
+            alphas[i] = (byte) (rgb >>> 24);
+            if (alphas[i] != (byte) 255) {
+                alphaCount = i + 1;
+            }
+        }
+        writeChunk(out, "PLTE", entries, entries.length);
+        // only the entries up to the last translucent one are needed
+        if (alphaCount > 0) {
+            writeChunk(out, "tRNS", alphas, alphaCount);
+        }
+    }
+
+    void writeData(ScanlineReader reader, OutputStream out) throws IOException {
+        int rowBytes = reader.getRowBytes() + 1;
+        int rowsPerBlock = Math.max(1, blockSize / rowBytes);
+        int blocks = (reader.height + rowsPerBlock - 1) / rowsPerBlock;
+        boolean parallel = executor != null && blocks > 1;
+        boolean deflateBlocks = parallel && DEFLATE_WITH_FLUSH != null;
+
+        IDATOutputStream idat = new IDATOutputStream(out);
+        writeZlibHeader(idat);
+        Deflater deflater = null;
+        if (!deflateBlocks) {
+            deflater = newDeflater(reader);
+        }
+        long adler = 1;
+        try {
+            // keep a bounded number of blocks in flight, the caller runs the blocks that no
+            // executor thread picked up yet
+            int maxPending = parallel ? Runtime.getRuntime().availableProcessors() * 2 : 1;
+            LinkedList<FutureTask<Block>> pending = new LinkedList<FutureTask<Block>>();
+            int next = 0;
+            while (next < blocks || !pending.isEmpty()) {
+                while (next < blocks && pending.size() < maxPending) {
+                    int start = next * rowsPerBlock;
+                    int end = Math.min(reader.height, start + rowsPerBlock);
+                    FutureTask<Block> task = new FutureTask<Block>(new BlockTask(reader, start,
+                            end, deflateBlocks, next == blocks - 1));
+                    if (parallel) {
+                        try {
+                            executor.execute(task);
+                        } catch (RejectedExecutionException e) {
+                            // will be run by this thread
+                        }
+                    }
+                    pending.add(task);
+                    next++;
+                }
+
+                FutureTask<Block> task = pending.removeFirst();
+                task.run();
+                Block block = getBlock(task);
+                if (deflateBlocks) {
+                    idat.write(block.data, 0, block.length);
+                } else {
+                    deflate(deflater, block, idat);
+                }
+                adler = combineAdler32(adler, block.adler, block.filteredLength);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        // zlib trailer, the checksum of the uncompressed data
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) adler);
+        idat.write(trailer, 0, 4);
+        idat.flush();
+    }
+
+    Block getBlock(FutureTask<Block> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding the PNG image");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException("Failed to encode the PNG image").initCause(cause);
+        }
+    }
+
+    /**
+     * Deflates a filtered block in the stream wide deflater
+     */
+    void deflate(Deflater deflater, Block block, OutputStream out) throws IOException {
+        deflater.setInput(block.data, 0, block.length);
+        if (block.last) {
+            deflater.finish();
+        }
+        byte[] buffer = new byte[CHUNK_SIZE];
+        while (!deflater.needsInput() || (block.last && !deflater.finished())) {
+            int count = deflater.deflate(buffer);
+            out.write(buffer, 0, count);
+        }
+    }
+
+    Deflater newDeflater(ScanlineReader reader) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        // as libpng does, filtered data compresses better with the filtered strategy
+        int[] filters = getFilters(reader);
+        if (filters.length > 1 || filters[0] != FILTER_NONE) {
+            deflater.setStrategy(Deflater.FILTERED);
+        }
+        return deflater;
+    }
+
+    int[] getFilters(ScanlineReader reader) {
+        // palette indexes are not a continuous scale, filtering them usually hurts
+        if (reader.colorType == ScanlineReader.PALETTE) {
+            return new int[] { FILTER_NONE };
+        }
+        return profile.filters;
+    }
+
+    void writeZlibHeader(OutputStream out) throws IOException {
+        // deflate with a 32k window, the compression level hint, no preset dictionary
+        int cmf = 0x78;
+        int level = compressionLevel <= 1 ? 0 : compressionLevel <= 5 ? 1
+                : compressionLevel == 6 ? 2 : 3;
+        int flg = level << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        out.write(cmf);
+        out.write(flg);
+    }
+
+    /**
+     * Reads, filters and optionally deflates a block of rows
+     */
+    class BlockTask implements Callable<Block> {
+
+        final ScanlineReader reader;
+
+        final int startRow;
+
+        final int endRow;
+
+        final boolean deflate;
+
+        final boolean last;
+
+        BlockTask(ScanlineReader reader, int startRow, int endRow, boolean deflate, boolean last) {
+            this.reader = reader;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.deflate = deflate;
+            this.last = last;
+        }
+
+        public Block call() throws Exception {
+            int rowBytes = reader.getRowBytes() + 1;
+            // the rows of the previous block making up the deflate dictionary
+            int dictionaryRows = deflate ? Math.min(startRow, (WINDOW + rowBytes - 1) / rowBytes)
+                    : 0;
+            int firstRow = startRow - dictionaryRows;
+            byte[] filtered = new byte[(endRow - firstRow) * rowBytes];
+            RowFilter filter = new RowFilter(reader, getFilters(reader));
+            if (firstRow > 0) {
+                filter.setPrevious(firstRow - 1);
+            }
+            for (int row = firstRow, offset = 0; row < endRow; row++, offset += rowBytes) {
+                filter.filter(row, filtered, offset);
+            }
+
+            Block block = new Block();
+            block.last = last;
+            int dictionaryLength = dictionaryRows * rowBytes;
+            block.filteredLength = filtered.length - dictionaryLength;
+            Adler32 adler = new Adler32();
+            adler.update(filtered, dictionaryLength, block.filteredLength);
+            block.adler = adler.getValue();
+            if (!deflate) {
+                block.data = filtered;
+                block.length = filtered.length;
+            } else {
+                Deflater deflater = newDeflater(reader);
+                try {
+                    if (dictionaryLength > 0) {
+                        int length = Math.min(WINDOW, dictionaryLength);
+                        deflater.setDictionary(filtered, dictionaryLength - length, length);
+                    }
+                    deflater.setInput(filtered, dictionaryLength, block.filteredLength);
+                    deflateBlock(deflater, block);
+                } finally {
+                    deflater.end();
+                }
+            }
+            return block;
+        }
+
+        void deflateBlock(Deflater deflater, Block block) throws Exception {
+            byte[] data = new byte[Math.max(1024, block.filteredLength / 2)];
+            int length = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (length == data.length) {
+                        data = grow(data);
+                    }
+                    length += deflater.deflate(data, length, data.length - length);
+                }
+            } else {
+                // flush to a byte boundary so that the next block can be appended, keep going
+                // while there is input left or the output buffer gets filled
+                do {
+                    if (length == data.length) {
+                        data = grow(data);
+                    }
+                    int space = data.length - length;
+                    length += (Integer) DEFLATE_WITH_FLUSH.invoke(deflater, data, length, space,
+                            SYNC_FLUSH);
+                } while (!deflater.needsInput() || length == data.length);
+            }
+            block.data = data;
+            block.length = length;
+        }
+
+        byte[] grow(byte[] data) {
+            byte[] grown = new byte[data.length * 2];
+            System.arraycopy(data, 0, grown, 0, data.length);
+            return grown;
+        }
+    }
+
+    /**
+     * A block of rows, filtered or deflated
+     */
+    static class Block {
+        byte[] data;
+
+        int length;
+
+        int filteredLength;
+
+        long adler;
+
+        boolean last;
+    }
+
+    /**
+     * Applies the PNG filters to the image rows, picking the one minimizing the sum of absolute
+     * differences when more than one filter is available
+     */
+    static class RowFilter {
+
+        final ScanlineReader reader;
+
+        final int[] filters;
+
+        final int bpp;
+
+        byte[] previous;
+
+        byte[] current;
+
+        final byte[][] candidates;
+
+        RowFilter(ScanlineReader reader, int[] filters) {
+            this.reader = reader;
+            this.filters = filters;
+            this.bpp = reader.channels;
+            int rowBytes = reader.getRowBytes();
+            this.previous = new byte[rowBytes];
+            this.current = new byte[rowBytes];
+            this.candidates = new byte[filters.length][];
+            if (filters.length > 1) {
+                for (int i = 0; i < filters.length; i++) {
+                    candidates[i] = new byte[rowBytes];
+                }
+            }
+        }
+
+        /**
+         * Loads the row preceding the first filtered one
+         */
+        void setPrevious(int row) {
+            reader.read(row, previous, 0);
+        }
+
+        /**
+         * Filters the row into the target, filter type byte included
+         */
+        void filter(int row, byte[] target, int offset) {
+            reader.read(row, current, 0);
+            int length = current.length;
+            if (filters.length == 1) {
+                target[offset] = (byte) filters[0];
+                apply(filters[0], target, offset + 1);
+            } else {
+                int best = 0;
+                long bestSum = Long.MAX_VALUE;
+                for (int i = 0; i < filters.length; i++) {
+                    apply(filters[i], candidates[i], 0);
+                    long sum = 0;
+                    byte[] candidate = candidates[i];
+                    for (int j = 0; j < length && sum < bestSum; j++) {
+                        sum += Math.abs(candidate[j]);
+                    }
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        best = i;
+                    }
+                }
+                target[offset] = (byte) filters[best];
+                System.arraycopy(candidates[best], 0, target, offset + 1, length);
+            }
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        void apply(int filter, byte[] out, int offset) {
+            byte[] cur = current;
+            byte[] prev = previous;
+            int length = cur.length;
+            switch (filter) {
+            case FILTER_NONE:
+                System.arraycopy(cur, 0, out, offset, length);
+                break;
+            case FILTER_SUB:
+                for (int i = 0; i < bpp; i++) {
+                    out[offset + i] = cur[i];
+                }
+                for (int i = bpp; i < length; i++) {
+                    out[offset + i] = (byte) (cur[i] - cur[i - bpp]);
+                }
+                break;
+            case FILTER_UP:
+                for (int i = 0; i < length; i++) {
+                    out[offset + i] = (byte) (cur[i] - prev[i]);
+                }
+                break;
+            case FILTER_AVERAGE:
+                for (int i = 0; i < bpp; i++) {
+                    out[offset + i] = (byte) (cur[i] - ((prev[i] & 0xFF) >> 1));
+                }
+                for (int i = bpp; i < length; i++) {
+                    out[offset + i] = (byte) (cur[i] - (((cur[i - bpp] & 0xFF) + (prev[i] & 0xFF)) >> 1));
+                }
+                break;
+            case FILTER_PAETH:
+                for (int i = 0; i < bpp; i++) {
+                    out[offset + i] = (byte) (cur[i] - prev[i]);
+                }
+                for (int i = bpp; i < length; i++) {
+                    int a = cur[i - bpp] & 0xFF;
+                    int b = prev[i] & 0xFF;
+                    int c = prev[i - bpp] & 0xFF;
+                    int p = a + b - c;
+                    int pa = Math.abs(p - a);
+                    int pb = Math.abs(p - b);
+                    int pc = Math.abs(p - c);
+                    int predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                    out[offset + i] = (byte) (cur[i] - predictor);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown filter " + filter);
+            }
+        }
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive sequences, as zlib adler32_combine does
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(OutputStream out, String type, byte[] data, int length)
+            throws IOException {
+        byte[] header = new byte[8];
+        writeInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) crc.getValue());
+
+        out.write(header);
+        out.write(data, 0, length);
+        out.write(trailer);
+    }
+
+    /**
+     * Splits the zlib stream into IDAT chunks
+     */
+    static class IDATOutputStream extends OutputStream {
+
+        final OutputStream out;
+
+        final byte[] buffer = new byte[CHUNK_SIZE];
+
+        int count;
+
+        IDATOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flush();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                writeChunk(out, "IDAT", buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import org.geoserver.wms.map.quantize.ColorIndexer;
+
+/**
+ * Reads the rows of a {@link RenderedImage} straight from its tiles, in the PNG 8 bits per sample
+ * layout. Readers are stateless, and can be used by many threads at the same time.
+ */
+abstract class ScanlineReader {
+
+    /** PNG color types */
+    static final int GRAY = 0;
+
+    static final int RGB = 2;
+
+    static final int PALETTE = 3;
+
+    static final int GRAY_ALPHA = 4;
+
+    static final int RGBA = 6;
+
+    final RenderedImage image;
+
+    final int width;
+
+    final int height;
+
+    final int colorType;
+
+    final int channels;
+
+    ScanlineReader(RenderedImage image, int colorType, int channels) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.colorType = colorType;
+        this.channels = channels;
+    }
+
+    /**
+     * Returns a reader for the image, or null if the image layout is not supported. When an
+     * indexer is provided the image must be a gray or RGB one, and the reader will return the
+     * palette indexes of its pixels.
+     */
+    static ScanlineReader create(RenderedImage image, ColorIndexer indexer) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        ScanlineReader reader = null;
+        if (sm instanceof ComponentSampleModel && sm.getDataType() == DataBuffer.TYPE_BYTE) {
+            if (cm instanceof IndexColorModel && sm.getNumBands() == 1
+                    && cm.getPixelSize() == 8) {
+                reader = new ComponentReader(image, PALETTE);
+            } else if (cm instanceof ComponentColorModel && !cm.isAlphaPremultiplied()) {
+                int bands = sm.getNumBands();
+                int csType = cm.getColorSpace().getType();
+                if (bands == 1 && csType == ColorSpace.TYPE_GRAY) {
+                    reader = new ComponentReader(image, GRAY);
+                } else if (bands == 2 && csType == ColorSpace.TYPE_GRAY && cm.hasAlpha()) {
+                    reader = new ComponentReader(image, GRAY_ALPHA);
+                } else if (bands == 3 && csType == ColorSpace.TYPE_RGB) {
+                    reader = new ComponentReader(image, RGB);
+                } else if (bands == 4 && csType == ColorSpace.TYPE_RGB && cm.hasAlpha()) {
+                    reader = new ComponentReader(image, RGBA);
+                }
+            }
+        } else if (sm instanceof SinglePixelPackedSampleModel
+                && sm.getDataType() == DataBuffer.TYPE_INT && cm instanceof DirectColorModel
+                && !cm.isAlphaPremultiplied() && cm.getColorSpace().isCS_sRGB()) {
+            boolean eightBits = true;
+            for (int size : sm.getSampleSize()) {
+                eightBits &= size == 8;
+            }
+            if (eightBits) {
+                reader = new PackedReader(image, cm.hasAlpha() ? RGBA : RGB);
+            }
+        }
+
+        if (indexer != null) {
+            if (reader == null || reader.colorType == PALETTE) {
+                return null;
+            }
+            return new IndexingReader(reader, indexer);
+        }
+        return reader;
+    }
+
+    /**
+     * The palette of the output image, or null if not a palette image
+     */
+    IndexColorModel getPalette() {
+        return colorType == PALETTE ? (IndexColorModel) image.getColorModel() : null;
+    }
+
+    /**
+     * The size of a row, in bytes
+     */
+    int getRowBytes() {
+        return width * channels;
+    }
+
+    /**
+     * Reads the specified image row, 0 based, into the target array
+     */
+    void read(int row, byte[] target, int offset) {
+        int y = image.getMinY() + row;
+        int minX = image.getMinX();
+        int maxX = minX + width;
+        int tileHeight = image.getTileHeight();
+        int ty = y - image.getTileGridYOffset();
+        ty = ty >= 0 ? ty / tileHeight : (ty - tileHeight + 1) / tileHeight;
+        for (int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx++) {
+            Raster tile = image.getTile(tx, ty);
+            int x0 = Math.max(minX, tile.getMinX());
+            int x1 = Math.min(maxX, tile.getMinX() + tile.getWidth());
+            if (x1 > x0) {
+                read(tile, x0, x1, y, target, offset + (x0 - minX) * channels);
+            }
+        }
+    }
+
+    /**
+     * Reads the pixels of the tile row y, from x0 included to x1 excluded
+     */
+    abstract void read(Raster tile, int x0, int x1, int y, byte[] target, int offset);
+
+    /**
+     * Reads byte based component rasters, either pixel interleaved or banded
+     */
+    static class ComponentReader extends ScanlineReader {
+
+        ComponentReader(RenderedImage image, int colorType) {
+            super(image, colorType, image.getSampleModel().getNumBands());
+        }
+
+        @Override
+        void read(Raster tile, int x0, int x1, int y, byte[] target, int offset) {
+            ComponentSampleModel sm = (ComponentSampleModel) tile.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) tile.getDataBuffer();
+            int pixelStride = sm.getPixelStride();
+            int[] bankIndices = sm.getBankIndices();
+            int[] bandOffsets = sm.getBandOffsets();
+            int position = (y - tile.getSampleModelTranslateY()) * sm.getScanlineStride()
+                    + (x0 - tile.getSampleModelTranslateX()) * pixelStride;
+            int count = x1 - x0;
+            for (int b = 0; b < channels; b++) {
+                byte[] data = buffer.getData(bankIndices[b]);
+                int src = buffer.getOffsets()[bankIndices[b]] + position + bandOffsets[b];
+                if (channels == 1 && pixelStride == 1) {
+                    System.arraycopy(data, src, target, offset, count);
+                } else {
+                    for (int i = 0, dst = offset + b; i < count; i++, src += pixelStride, dst += channels) {
+                        target[dst] = data[src];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads int packed rasters, with 8 bits per sample
+     */
+    static class PackedReader extends ScanlineReader {
+
+        PackedReader(RenderedImage image, int colorType) {
+            super(image, colorType, colorType == RGBA ? 4 : 3);
+        }
+
+        @Override
+        void read(Raster tile, int x0, int x1, int y, byte[] target, int offset) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) tile.getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) tile.getDataBuffer();
+            int[] data = buffer.getData();
+            int[] shifts = sm.getBitOffsets();
+            int src = buffer.getOffset() + (y - tile.getSampleModelTranslateY())
+                    * sm.getScanlineStride() + (x0 - tile.getSampleModelTranslateX());
+            int dst = offset;
+            for (int x = x0; x < x1; x++, src++) {
+                int pixel = data[src];
+                for (int b = 0; b < channels; b++) {
+                    target[dst++] = (byte) (pixel >>> shifts[b]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns gray or RGB rows into palette indexes
+     */
+    static class IndexingReader extends ScanlineReader {
+
+        final ScanlineReader delegate;
+
+        final ColorIndexer indexer;
+
+        final IndexColorModel palette;
+
+        IndexingReader(ScanlineReader delegate, ColorIndexer indexer) {
+            super(delegate.image, PALETTE, 1);
+            this.delegate = delegate;
+            this.indexer = indexer;
+            this.palette = indexer.toIndexColorModel();
+        }
+
+        @Override
+        IndexColorModel getPalette() {
+            return palette;
+        }
+
+        @Override
+        void read(Raster tile, int x0, int x1, int y, byte[] target, int offset) {
+            int bands = delegate.channels;
+            byte[] pixels = new byte[(x1 - x0) * bands];
+            delegate.read(tile, x0, x1, y, pixels, 0);
+            // same band interpretation as the ColorIndexer operation
+            for (int i = 0, p = 0; i < x1 - x0; i++, p += bands) {
+                int r, g, b, a;
+                if (bands <= 2) {
+                    r = g = b = pixels[p] & 0xFF;
+                    a = bands == 2 ? pixels[p + 1] & 0xFF : 255;
+                } else {
+                    r = pixels[p] & 0xFF;
+                    g = pixels[p + 1] & 0xFF;
+                    b = pixels[p + 2] & 0xFF;
+                    a = bands == 4 ? pixels[p + 3] & 0xFF : 255;
+                }
+                target[offset + i] = (byte) indexer.getClosestIndex(r, g, b, a);
+            }
+        }
+    }
+}
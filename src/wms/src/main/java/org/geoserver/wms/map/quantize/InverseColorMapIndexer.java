@@ -0,0 +1,314 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import java.awt.image.IndexColorModel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A color indexer backed by an inverse color map: a reduced precision RGBA cube (4 bits per
+ * component) whose cells hold the palette entries that can be the closest to any color in the
+ * cell. Cells with too many candidates are split again in a finer cube. Most cells end up with a
+ * single candidate, making the lookup a couple of array accesses, the others require a linear
+ * search on just a few entries.
+ * <p>
+ * The results are the same as {@link SimpleColorIndexer}, same distance and same tie breaking. The
+ * cells are filled lazily as colors are looked up, without locking, so the indexer can be shared
+ * among threads and reused across images using the same palette.
+ * </p>
+ */
+public class InverseColorMapIndexer implements ColorIndexer {
+
+    static final int BITS = 4;
+
+    static final int SHIFT = 8 - BITS;
+
+    static final int SIDE = 1 << BITS;
+
+    static final int CELL = 1 << SHIFT;
+
+    /**
+     * Cells with more candidates than this are split in a finer cube
+     */
+    static final int MAX_CANDIDATES = 4;
+
+    static final int SUB_BITS = 2;
+
+    static final int SUB_SHIFT = SHIFT - SUB_BITS;
+
+    static final int SUB_MASK = (1 << SUB_BITS) - 1;
+
+    /**
+     * Max number of user provided palette indexers kept around
+     */
+    static final int MAX_PALETTE_INDEXERS = 16;
+
+    /**
+     * The indexers for the user provided palettes, which are usually shared among requests, most
+     * recently used first. Palettes are compared by identity, as ColorModel.equals does not compare
+     * the palette entries
+     */
+    static final LinkedList<InverseColorMapIndexer> PALETTE_INDEXERS = new LinkedList<InverseColorMapIndexer>();
+
+    /**
+     * Returns an indexer for the given palette, shared with the other requests using the same
+     * palette instance
+     */
+    public static InverseColorMapIndexer get(IndexColorModel icm) {
+        synchronized (PALETTE_INDEXERS) {
+            for (Iterator<InverseColorMapIndexer> it = PALETTE_INDEXERS.iterator(); it.hasNext();) {
+                InverseColorMapIndexer indexer = it.next();
+                if (indexer.icm == icm) {
+                    it.remove();
+                    PALETTE_INDEXERS.addFirst(indexer);
+                    return indexer;
+                }
+            }
+            InverseColorMapIndexer indexer = new InverseColorMapIndexer(icm);
+            PALETTE_INDEXERS.addFirst(indexer);
+            if (PALETTE_INDEXERS.size() > MAX_PALETTE_INDEXERS) {
+                PALETTE_INDEXERS.removeLast();
+            }
+            return indexer;
+        }
+    }
+
+    final byte[][] colors;
+
+    final int size;
+
+    final IndexColorModel icm;
+
+    /**
+     * Colors with an alpha lower or equal to this one are looked up as transparent white, -1 to
+     * disable the normalization
+     */
+    final int alphaThreshold;
+
+    /**
+     * The single candidate cell contents, shared among all cells
+     */
+    final byte[][] singles;
+
+    /**
+     * All the palette entries, the candidates of a cell before looking at the cell position
+     */
+    final byte[] all;
+
+    /**
+     * The cube, split in alpha slices created on demand, as most images use just a few alpha
+     * values. Each cell contains either the candidates list, or a {@link SubCube}
+     */
+    final AtomicReferenceArray<AtomicReferenceArray<Object>> slices = new AtomicReferenceArray<AtomicReferenceArray<Object>>(
+            SIDE);
+
+    public InverseColorMapIndexer(IndexColorModel icm) {
+        this(toColors(icm), icm, -1);
+    }
+
+    public InverseColorMapIndexer(byte[][] colors) {
+        this(colors, -1);
+    }
+
+    /**
+     * Builds an indexer normalizing the colors whose alpha is at or below the threshold to
+     * transparent white before looking them up
+     */
+    InverseColorMapIndexer(byte[][] colors, int alphaThreshold) {
+        this(colors, new SimpleColorIndexer(colors).toIndexColorModel(), alphaThreshold);
+    }
+
+    InverseColorMapIndexer(byte[][] colors, IndexColorModel icm, int alphaThreshold) {
+        if (colors[0].length > 256) {
+            throw new IllegalArgumentException("At most 256 palette entries are supported, got "
+                    + colors[0].length);
+        }
+        this.colors = colors;
+        this.size = colors[0].length;
+        this.icm = icm;
+        this.alphaThreshold = alphaThreshold;
+        this.singles = new byte[size][];
+        this.all = new byte[size];
+        for (int i = 0; i < size; i++) {
+            singles[i] = new byte[] { (byte) i };
+            all[i] = (byte) i;
+        }
+    }
+
+    static byte[][] toColors(IndexColorModel icm) {
+        byte[][] colors = new byte[4][icm.getMapSize()];
+        icm.getReds(colors[0]);
+        icm.getGreens(colors[1]);
+        icm.getBlues(colors[2]);
+        icm.getAlphas(colors[3]);
+        return colors;
+    }
+
+    @Override
+    public IndexColorModel toIndexColorModel() {
+        return icm;
+    }
+
+    @Override
+    public int getClosestIndex(int r, int g, int b, int a) {
+        if (a <= alphaThreshold) {
+            r = g = b = 255;
+            a = 0;
+        }
+
+        int as = a >> SHIFT;
+        AtomicReferenceArray<Object> slice = slices.get(as);
+        if (slice == null) {
+            slices.compareAndSet(as, null, new AtomicReferenceArray<Object>(SIDE * SIDE * SIDE));
+            slice = slices.get(as);
+        }
+        int rs = r >> SHIFT;
+        int gs = g >> SHIFT;
+        int bs = b >> SHIFT;
+        int cell = (rs << (BITS * 2)) | (gs << BITS) | bs;
+        Object contents = slice.get(cell);
+        if (contents == null) {
+            // racing threads compute the same contents, no need to lock
+            contents = computeCell(rs, gs, bs, as);
+            slice.set(cell, contents);
+        }
+
+        byte[] candidates;
+        if (contents instanceof byte[]) {
+            candidates = (byte[]) contents;
+        } else {
+            candidates = ((SubCube) contents).getCandidates(r, g, b, a);
+        }
+        if (candidates.length == 1) {
+            return candidates[0] & 0xFF;
+        }
+
+        // same distance as SimpleColorIndexer, candidates are sorted so ties are resolved the
+        // same way
+        int idx = 0;
+        int distance = Integer.MAX_VALUE;
+        for (int c = 0; c < candidates.length; c++) {
+            int i = candidates[c] & 0xFF;
+            int dr = r - (colors[0][i] & 0xFF);
+            int dg = g - (colors[1][i] & 0xFF);
+            int db = b - (colors[2][i] & 0xFF);
+            int da = a - (colors[3][i] & 0xFF);
+            int d = 3 * dr * dr + 4 * dg * dg + 2 * db * db + 4 * da * da;
+            if (d < distance) {
+                distance = d;
+                idx = i;
+                if (distance == 0) {
+                    break;
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Computes the contents of a cube cell, either the candidates list, or a finer sub cube if
+     * there are too many candidates
+     */
+    Object computeCell(int rc, int gc, int bc, int ac) {
+        byte[] candidates = computeCandidates(all, rc << SHIFT, gc << SHIFT, bc << SHIFT,
+                ac << SHIFT, CELL);
+        if (candidates.length > MAX_CANDIDATES) {
+            return new SubCube(candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Collects the palette entries that can be the closest one to a color in the cell starting
+     * at the given components, with the given side: an entry cannot be the closest if its minimum
+     * distance from the cell is greater than the maximum distance of another entry from the cell
+     */
+    byte[] computeCandidates(byte[] entries, int r0, int g0, int b0, int a0, int side) {
+        int count = entries.length;
+        int[] minDistances = new int[count];
+        int minMax = Integer.MAX_VALUE;
+        for (int c = 0; c < count; c++) {
+            int i = entries[c] & 0xFF;
+            int r = colors[0][i] & 0xFF;
+            int g = colors[1][i] & 0xFF;
+            int b = colors[2][i] & 0xFF;
+            int a = colors[3][i] & 0xFF;
+            minDistances[c] = 3 * minDelta2(r, r0, side) + 4 * minDelta2(g, g0, side) + 2
+                    * minDelta2(b, b0, side) + 4 * minDelta2(a, a0, side);
+            int max = 3 * maxDelta2(r, r0, side) + 4 * maxDelta2(g, g0, side) + 2
+                    * maxDelta2(b, b0, side) + 4 * maxDelta2(a, a0, side);
+            if (max < minMax) {
+                minMax = max;
+            }
+        }
+
+        int found = 0;
+        byte[] candidates = new byte[count];
+        for (int c = 0; c < count; c++) {
+            if (minDistances[c] <= minMax) {
+                candidates[found++] = entries[c];
+            }
+        }
+        if (found == 1) {
+            return singles[candidates[0] & 0xFF];
+        }
+        byte[] result = new byte[found];
+        System.arraycopy(candidates, 0, result, 0, found);
+        return result;
+    }
+
+    /**
+     * Squared distance between the value and the closest value in the range
+     */
+    static int minDelta2(int value, int low, int side) {
+        int high = low + side - 1;
+        int delta = value < low ? low - value : value > high ? value - high : 0;
+        return delta * delta;
+    }
+
+    /**
+     * Squared distance between the value and the farthest value in the range
+     */
+    static int maxDelta2(int value, int low, int side) {
+        int high = low + side - 1;
+        int delta = Math.max(Math.abs(value - low), Math.abs(value - high));
+        return delta * delta;
+    }
+
+    /**
+     * A finer cube splitting a crowded cell, with 2 more bits per component, whose cells
+     * candidates are picked among the ones of the parent cell
+     */
+    final class SubCube {
+
+        final byte[] candidates;
+
+        final AtomicReferenceArray<byte[]> cells = new AtomicReferenceArray<byte[]>(
+                1 << (SUB_BITS * 4));
+
+        SubCube(byte[] candidates) {
+            this.candidates = candidates;
+        }
+
+        byte[] getCandidates(int r, int g, int b, int a) {
+            int rs = (r >> SUB_SHIFT) & SUB_MASK;
+            int gs = (g >> SUB_SHIFT) & SUB_MASK;
+            int bs = (b >> SUB_SHIFT) & SUB_MASK;
+            int as = (a >> SUB_SHIFT) & SUB_MASK;
+            int cell = (((((as << SUB_BITS) | rs) << SUB_BITS) | gs) << SUB_BITS) | bs;
+            byte[] result = cells.get(cell);
+            if (result == null) {
+                int side = 1 << SUB_SHIFT;
+                int mask = ~(side - 1);
+                result = computeCandidates(candidates, r & mask, g & mask, b & mask, a & mask,
+                        side);
+                cells.set(cell, result);
+            }
+            return result;
+        }
+    }
+}
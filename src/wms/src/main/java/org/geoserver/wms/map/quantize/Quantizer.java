@@ -7,15 +7,19 @@ package org.geoserver.wms.map.quantize;
 import static org.geoserver.wms.map.quantize.ColorUtils.*;
 
 import java.awt.image.RenderedImage;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
 import org.geoserver.wms.map.quantize.PackedHistogram.SortComponent;
 
 /**
@@ -26,6 +30,22 @@ public class Quantizer {
 
     static final Logger LOGGER = Logger.getLogger("Quantizer");
 
+    /**
+     * Max number of palettes kept in the cache
+     */
+    static final int MAX_CACHED_PALETTES = 64;
+
+    /**
+     * The recently built palettes, by histogram signature. Tiles with the same contents (e.g.,
+     * empty areas, or the same tile at different times) end up with the same histogram
+     */
+    static final Map<ByteBuffer, ColorIndexer> PALETTES = new LinkedHashMap<ByteBuffer, ColorIndexer>(
+            16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ColorIndexer> eldest) {
+            return size() > MAX_CACHED_PALETTES;
+        }
+    };
+
     boolean MEDIAN_SPLIT = true;
 
     boolean MEDIAN_BOX = true;
@@ -70,6 +90,24 @@ public class Quantizer {
             LOGGER.fine("Histogram count " + histogram.pixelCount() + " and pixels "
                     + totalPixelCount);
         }
+
+        // images with the same histogram get the same palette, reuse it along with its
+        // inverse color map
+        ByteBuffer signature = getSignature(histogram, totalPixelCount);
+        synchronized (PALETTES) {
+            ColorIndexer cached = PALETTES.get(signature);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ColorIndexer indexer = buildColorIndexer(histogram, totalPixelCount);
+        synchronized (PALETTES) {
+            PALETTES.put(signature, indexer);
+        }
+        return indexer;
+    }
+
+    ColorIndexer buildColorIndexer(PackedHistogram histogram, long totalPixelCount) {
         int colors = Math.min(histogram.size(), maxColors);
 
         // setup the first box, that median cut will split in parts
@@ -149,7 +187,6 @@ public class Quantizer {
         // in such case we do a weighted sum of each component.
         // In this phase we use the real colors (so far we worked with the packed ones)
         PaletteEntry[] palette = new PaletteEntry[boxes.size()];
-        int shift = histogram.getShift();
         for (int i = 0; i < boxes.size(); i++) {
             Box box = boxes.get(i);
             byte r, g, b, a;
@@ -204,29 +241,36 @@ public class Quantizer {
             rgba[3][i] = pe.a;
         }
 
-        // prepare the reverse map
-        ColorIndexer simpleMapper = new SimpleColorIndexer(rgba);
-        ColorMap colorMap = histogram.colorMap;
-        for (ColorEntry ce : colorMap) {
-            int color = ce.color;
-            int r = red(color);
-            int g = green(color);
-            int b = blue(color);
-            int a = alpha(color);
-            if (shift > 0) {
-                r = unshift(r, shift);
-                g = unshift(g, shift);
-                b = unshift(b, shift);
-                a = unshift(a, shift);
-            }
-            int idx = simpleMapper.getClosestIndex(r, g, b, a) & 0xFF;
-            ce.value = idx;
-        }
-
         // dumpPalette(rgba);
 
-        ColorIndexer delegate = new MappedColorIndexer(rgba, colorMap, shift);
-        return new CachingColorIndexer(delegate);
+        // the inverse color map is exact, no need to go through the histogram colors
+        return new InverseColorMapIndexer(rgba, PackedHistogram.ALPHA_THRESHOLD);
+    }
+
+    /**
+     * Computes a signature of the histogram contents and of the settings affecting the palette
+     * construction. The signature does not depend on the order in which the colors were found
+     */
+    ByteBuffer getSignature(PackedHistogram histogram, long totalPixelCount) {
+        final int size = histogram.size();
+        long[] bins = new long[size];
+        for (int i = 0; i < size; i++) {
+            // the pixel count of a single color fits in a int
+            bins[i] = ((long) histogram.getPackedColor(i) << 32)
+                    | (histogram.getCount(i) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(bins);
+
+        ByteBuffer bb = ByteBuffer.allocate(bins.length * 8 + 24);
+        bb.putLong(totalPixelCount).putInt(histogram.getShift()).putInt(maxColors)
+                .putInt(MEDIAN_SPLIT ? 1 : 0).putInt(MEDIAN_BOX ? 1 : 0);
+        bb.asLongBuffer().put(bins);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return ByteBuffer.wrap(digest.digest(bb.array()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 digest is not available", e);
+        }
     }
 
     /**
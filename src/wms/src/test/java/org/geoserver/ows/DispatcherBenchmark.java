@@ -0,0 +1,85 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Service;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.WMSTestSupport;
+import org.geoserver.wms.map.RenderedImageMap;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+/**
+ * Measures the dispatch overhead of a 256x256 GetMap, comparing the lookups of the service, kvp
+ * reader and response through the {@link DispatcherIndex} with a scan of all the extensions, and
+ * reports the time of the whole request for reference. Not a unit test, run it manually from the
+ * module directory with:
+ *
+ * <pre>
+ * mvn test -Dtest=DispatcherBenchmark
+ * </pre>
+ */
+public class DispatcherBenchmark extends WMSTestSupport {
+
+    static final int WARMUP = 1000;
+
+    static final int ITERATIONS = 10000;
+
+    static final int REQUESTS = 100;
+
+    @Test
+    public void benchmark() throws Exception {
+        Dispatcher dispatcher = (Dispatcher) applicationContext.getBean("dispatcher");
+
+        long scanTime = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            List<Service> services = GeoServerExtensions.extensions(Service.class);
+            assertFalse(services.isEmpty());
+            assertNotNull(Dispatcher.findKvpRequestReader(GetMapRequest.class));
+            assertFalse(DispatcherIndex.match(GeoServerExtensions.extensions(Response.class),
+                    RenderedImageMap.class, "image/png").isEmpty());
+            if (i >= WARMUP) {
+                scanTime += System.nanoTime() - start;
+            }
+        }
+
+        long indexTime = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            long start = System.nanoTime();
+            DispatcherIndex index = dispatcher.getIndex();
+            assertFalse(index.getServices("wms").isEmpty());
+            assertNotNull(index.getKvpReader(GetMapRequest.class));
+            assertFalse(index.getResponses(RenderedImageMap.class, "image/png").isEmpty());
+            if (i >= WARMUP) {
+                indexTime += System.nanoTime() - start;
+            }
+        }
+
+        String path = "wms?service=WMS&version=1.1.1&request=GetMap&layers="
+                + getLayerId(MockData.BASIC_POLYGONS) + "&styles=&format=image/png"
+                + "&srs=EPSG:4326&bbox=-2,-1,2,6&width=256&height=256";
+        long requestTime = 0;
+        for (int i = 0; i < 2 * REQUESTS; i++) {
+            long start = System.nanoTime();
+            MockHttpServletResponse response = getAsServletResponse(path);
+            assertEquals("image/png", response.getContentType());
+            if (i >= REQUESTS) {
+                requestTime += System.nanoTime() - start;
+            }
+        }
+
+        System.out.println("scan lookup us\tindex lookup us\tGetMap ms");
+        System.out.println(scanTime / ITERATIONS / 1000.0 + "\t" + indexTime / ITERATIONS
+                / 1000.0 + "\t" + requestTime / REQUESTS / 1000000.0);
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.DataBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DrawingSurfacePoolTest {
+
+    static final long ARGB_100 = 100 * 100 * 4;
+
+    DrawingSurfacePool pool;
+
+    @Before
+    public void setUp() {
+        // room for two 100x100 ARGB images
+        pool = new DrawingSurfacePool(ARGB_100 * 2);
+    }
+
+    @Test
+    public void testReuse() {
+        BufferedImage image = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        assertEquals(0, pool.getMemory());
+        assertTrue(pool.release(image));
+        assertEquals(ARGB_100, pool.getMemory());
+
+        // same structure, same image
+        assertSame(image, pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR));
+        assertEquals(0, pool.getMemory());
+        pool.release(image);
+
+        // different size or type, new image
+        assertNotSame(image, pool.acquire(100, 101, BufferedImage.TYPE_4BYTE_ABGR));
+        assertNotSame(image, pool.acquire(100, 100, BufferedImage.TYPE_3BYTE_BGR));
+    }
+
+    @Test
+    public void testClearedOnRelease() {
+        BufferedImage image = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        image.setRGB(10, 10, 0xFFFF0000);
+        pool.release(image);
+
+        BufferedImage reused = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        assertSame(image, reused);
+        assertEquals(0, reused.getRGB(10, 10));
+    }
+
+    @Test
+    public void testReleaseOnlyOnce() {
+        BufferedImage image = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        assertTrue(pool.release(image));
+        assertFalse(pool.release(image));
+        assertEquals(ARGB_100, pool.getMemory());
+
+        // images not coming from the pool are ignored
+        assertFalse(pool.release(new BufferedImage(100, 100, BufferedImage.TYPE_4BYTE_ABGR)));
+        assertEquals(ARGB_100, pool.getMemory());
+    }
+
+    @Test
+    public void testMaxMemory() {
+        BufferedImage i1 = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage i2 = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage i3 = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        pool.release(i1);
+        pool.release(i2);
+        pool.release(i3);
+        assertEquals(ARGB_100 * 2, pool.getMemory());
+
+        // images larger than the whole pool are not kept
+        BufferedImage large = pool.acquire(1000, 1000, BufferedImage.TYPE_4BYTE_ABGR);
+        assertTrue(pool.release(large));
+        assertEquals(ARGB_100 * 2, pool.getMemory());
+        assertNotSame(large, pool.acquire(1000, 1000, BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        BufferedImage argb = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage bgr1 = pool.acquire(100, 100, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage bgr2 = pool.acquire(100, 100, BufferedImage.TYPE_3BYTE_BGR);
+        pool.release(argb);
+        pool.release(bgr1);
+        // the argb image is the least recently used, and gets evicted
+        pool.release(bgr2);
+
+        assertNotSame(argb, pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR));
+        BufferedImage bgr = pool.acquire(100, 100, BufferedImage.TYPE_3BYTE_BGR);
+        assertTrue(bgr == bgr1 || bgr == bgr2);
+    }
+
+    @Test
+    public void testPaletteIdentity() {
+        IndexColorModel p1 = palette();
+        IndexColorModel p2 = palette();
+        SampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, 100, 100, 1, 100,
+                new int[] { 0 });
+
+        BufferedImage image = pool.acquire(p1, sm);
+        assertSame(p1, image.getColorModel());
+        pool.release(image);
+
+        // an equal but different palette cannot reuse the image
+        BufferedImage other = pool.acquire(p2, sm);
+        assertNotSame(image, other);
+        assertSame(p2, other.getColorModel());
+        assertSame(image, pool.acquire(p1, sm));
+    }
+
+    @Test
+    public void testDisabled() {
+        pool = new DrawingSurfacePool(0);
+        BufferedImage image = pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR);
+        assertFalse(pool.release(image));
+        assertNotSame(image, pool.acquire(100, 100, BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    @Test
+    public void testCreateImage() {
+        BufferedImage image = ImageUtils.createImage(10, 10, null, true);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, image.getType());
+        image = ImageUtils.createImage(10, 10, null, false);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+        IndexColorModel palette = palette();
+        image = ImageUtils.createImage(10, 10, palette, false);
+        assertSame(palette, image.getColorModel());
+        assertEquals(1, image.getSampleModel().getNumBands());
+    }
+
+    IndexColorModel palette() {
+        byte[] gray = new byte[256];
+        for (int i = 0; i < gray.length; i++) {
+            gray[i] = (byte) i;
+        }
+        return new IndexColorModel(8, 256, gray, gray, gray);
+    }
+}
@@ -8,6 +8,9 @@ import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
 
 import org.junit.Test;
 
@@ -57,4 +60,50 @@ public class QuickTileCacheTest {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    @Test
+    public void testInvalidateByLayer() {
+        QuickTileCache.MetaTileKey k1 = key("layers=a", 0, "a");
+        QuickTileCache.MetaTileKey k2 = key("layers=b", 0, "b");
+        cache.storeTiles(k1, tiles());
+        cache.storeTiles(k2, tiles());
+        assertEquals(2, cache.getMetaTileCount());
+        // 9 tiles, 256x256, 4 bytes per pixel
+        assertEquals(2 * 9 * 256 * 256 * 4, cache.getSize());
+
+        cache.invalidate(Collections.singleton("a"));
+        assertNull(cache.tileCache.getIfPresent(k1));
+        assertNotNull(cache.tileCache.getIfPresent(k2));
+        assertEquals(9 * 256 * 256 * 4, cache.getSize());
+    }
+
+    @Test
+    public void testSizeBound() {
+        // room for at most 10 meta tiles
+        cache.setMaxSize(10 * 9 * 256 * 256 * 4);
+        for (int i = 0; i < 40; i++) {
+            cache.storeTiles(key("layers=a", i, "a"), tiles());
+        }
+        long count = cache.getMetaTileCount();
+        assertTrue(count <= 10);
+        assertEquals(40 - count, cache.getEvictionCount());
+        assertEquals(count * 9 * 256 * 256 * 4, cache.getSize());
+    }
+
+    QuickTileCache.MetaTileKey key(String definition, int x, String layerId) {
+        QuickTileCache.MapKey mapKey = new QuickTileCache.MapKey(definition, 1,
+                new Point2D.Double(0, 0));
+        QuickTileCache.MetaTileKey key = new QuickTileCache.MetaTileKey(mapKey,
+                new Point(x, 0), null);
+        key.catalogIds = Collections.singleton(layerId);
+        return key;
+    }
+
+    RenderedImage[] tiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
 }
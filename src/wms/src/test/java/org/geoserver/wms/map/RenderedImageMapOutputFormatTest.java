@@ -5,16 +5,26 @@
 package org.geoserver.wms.map;
 
 import static org.geoserver.data.test.SystemTestData.STREAMS;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.image.BufferedImage;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +35,8 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.data.test.MockData;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
 import org.geoserver.wms.GetMapRequest;
@@ -37,10 +49,15 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.feature.IllegalAttributeException;
 import org.geotools.filter.IllegalFilterException;
+import org.geotools.filter.function.EnvFunction;
+import org.geotools.filter.text.ecql.ECQL;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
 import org.geotools.util.logging.Logging;
 import org.junit.After;
 import org.junit.Before;
@@ -251,6 +268,132 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         }
     }
 
+    @Test
+    public void testParallelLayerRendering() throws Exception {
+        Catalog catalog = getCatalog();
+        WMSMapContent map = new WMSMapContent();
+        map.setRequest(new GetMapRequest());
+        ReferencedEnvelope bounds = null;
+        for (QName name : new QName[] { MockData.LAKES, MockData.FORESTS, MockData.STREAMS,
+                MockData.BUILDINGS }) {
+            LayerInfo layer = catalog.getLayerByName(getLayerId(name));
+            FeatureTypeInfo info = (FeatureTypeInfo) layer.getResource();
+            FeatureSource fs = info.getFeatureSource(null, null);
+            if (bounds == null) {
+                bounds = new ReferencedEnvelope(fs.getBounds());
+            } else {
+                bounds.expandToInclude(fs.getBounds());
+            }
+            map.addLayer(new FeatureLayer(fs, layer.getDefaultStyle().getStyle()));
+        }
+        map.getViewport().setBounds(bounds);
+        map.setMapWidth(300);
+        map.setMapHeight(300);
+
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        Map<Object, Object> params = new HashMap<Object, Object>();
+        params.put("optimizedDataLoadingEnabled", Boolean.TRUE);
+        Rectangle paintArea = new Rectangle(0, 0, 300, 300);
+
+        // the layers end up composited in order
+        BufferedImage parallel = ImageUtils.createImage(300, 300, null, false);
+        Graphics2D graphics = ImageUtils.prepareTransparency(false, Color.WHITE, parallel, null);
+        graphics.setRenderingHints(hints);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ParallelLayerRenderer renderer = new ParallelLayerRenderer(map, paintArea, hints, params,
+                0);
+        try {
+            renderer.paint(graphics, executor, new RenderingTimeoutEnforcer(0));
+        } finally {
+            executor.shutdown();
+            graphics.dispose();
+        }
+        assertTrue(renderer.getException() == null);
+        assertNotBlank("testParallelLayerRendering", parallel, Color.WHITE);
+
+        // same as rendering them in one go, and the layers are still usable
+        BufferedImage sequential = ImageUtils.createImage(300, 300, null, false);
+        graphics = ImageUtils.prepareTransparency(false, Color.WHITE, sequential, null);
+        graphics.setRenderingHints(hints);
+        StreamingRenderer sr = new StreamingRenderer();
+        sr.setMapContent(map);
+        sr.setJava2DHints(hints);
+        sr.setRendererHints(params);
+        try {
+            sr.paint(graphics, paintArea, map.getRenderingArea(), map.getRenderingTransform());
+        } finally {
+            graphics.dispose();
+        }
+
+        int differences = 0;
+        for (int x = 0; x < 300; x++) {
+            for (int y = 0; y < 300; y++) {
+                // compositing antialiased pixels can be off by a rounding error
+                Color c1 = new Color(parallel.getRGB(x, y));
+                Color c2 = new Color(sequential.getRGB(x, y));
+                if (Math.abs(c1.getRed() - c2.getRed()) > 2
+                        || Math.abs(c1.getGreen() - c2.getGreen()) > 2
+                        || Math.abs(c1.getBlue() - c2.getBlue()) > 2) {
+                    differences++;
+                }
+            }
+        }
+        assertEquals(0, differences);
+        map.dispose();
+    }
+
+    @Test
+    public void testParallelLayerRenderingEnv() throws Exception {
+        // a rule only painting when the request env says so
+        StyleBuilder sb = new StyleBuilder();
+        Rule rule = sb.createRule(sb.createPolygonSymbolizer(Color.RED));
+        rule.setFilter(ECQL.toFilter("env('paint', 'false') = 'true'"));
+        Style style = sb.createStyle();
+        style.featureTypeStyles().add(sb.createFeatureTypeStyle("Feature", rule));
+
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(getLayerId(MockData.LAKES));
+        FeatureSource fs = info.getFeatureSource(null, null);
+        WMSMapContent map = new WMSMapContent();
+        map.setRequest(new GetMapRequest());
+        map.addLayer(new FeatureLayer(fs, style));
+        map.getViewport().setBounds(new ReferencedEnvelope(fs.getBounds()));
+        map.setMapWidth(100);
+        map.setMapHeight(100);
+
+        RenderingHints hints = new RenderingHints(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        Rectangle paintArea = new Rectangle(0, 0, 100, 100);
+        BufferedImage image = ImageUtils.createImage(100, 100, null, false);
+        Graphics2D graphics = ImageUtils.prepareTransparency(false, Color.WHITE, image, null);
+
+        // the pool threads are created during the paint, and inherit the request seen here
+        Dispatcher.REQUEST.set(new Request());
+        EnvFunction.setLocalValue("paint", "true");
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            ParallelLayerRenderer renderer = new ParallelLayerRenderer(map, paintArea, hints,
+                    new HashMap<Object, Object>(), 0);
+            renderer.paint(graphics, executor, new RenderingTimeoutEnforcer(0));
+            assertTrue(renderer.getException() == null);
+            assertNotBlank("testParallelLayerRenderingEnv", image, Color.WHITE);
+
+            // and the pool thread does not keep the request around once done
+            Request leftover = executor.submit(new Callable<Request>() {
+                public Request call() throws Exception {
+                    return Dispatcher.REQUEST.get();
+                }
+            }).get();
+            assertNull(leftover);
+        } finally {
+            executor.shutdown();
+            graphics.dispose();
+            EnvFunction.clearLocalValues();
+            Dispatcher.REQUEST.remove();
+            map.dispose();
+        }
+    }
+
     /**
      * Sets up a rendering loop and throws {@code renderExceptionToThrow} wrapped to a
      * RuntimeException when the renderer tries to get a Feature to render.
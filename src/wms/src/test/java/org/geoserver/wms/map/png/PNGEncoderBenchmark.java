@@ -0,0 +1,107 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.geoserver.wms.map.png.PNGEncoder.Profile;
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
+import org.geoserver.wms.map.quantize.Quantizer;
+import org.geotools.image.ImageWorker;
+
+/**
+ * Compares the encoding time and output size of the ImageIO/JAI PNG encoder, as used by
+ * PNGMapResponse, against the {@link PNGEncoder} profiles. Not a unit test, run it manually with:
+ *
+ * <pre>
+ * java org.geoserver.wms.map.png.PNGEncoderBenchmark [tileSize] [tiles]
+ * </pre>
+ *
+ * The tiles are painted to resemble basemap tiles, and encoded both as RGBA and as 8 bit palette
+ * images. A few warm up rounds run before the measured ones.
+ */
+public class PNGEncoderBenchmark {
+
+    static final int WARMUP = 3;
+
+    public static void main(String[] args) throws Exception {
+        int tileSize = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int tiles = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        ColorIndexerDescriptor.register();
+        BufferedImage tile = PNGEncoderTest.drawMap(tileSize, tileSize,
+                BufferedImage.TYPE_4BYTE_ABGR);
+        ColorIndexer indexer = new Quantizer(256).subsample().buildColorIndexer(tile);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime()
+                .availableProcessors());
+        try {
+            System.out.println("Encoding " + tiles + " tiles of " + tileSize + "x" + tileSize);
+            System.out.println("encoder\tmode\ttime (ms)\tsize (bytes)");
+            for (boolean palette : new boolean[] { false, true }) {
+                run("jai", palette, tile, indexer, tiles, null);
+                for (Profile profile : Profile.values()) {
+                    run(profile.name(), palette, tile, indexer, tiles, new PNGEncoder(profile,
+                            2, executor));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static void run(String name, boolean palette, BufferedImage tile, ColorIndexer indexer,
+            int tiles, PNGEncoder encoder) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            encode(tile, palette ? indexer : null, tiles, encoder);
+        }
+        long start = System.nanoTime();
+        long size = encode(tile, palette ? indexer : null, tiles, encoder);
+        long time = (System.nanoTime() - start) / 1000000;
+        System.out.println(name + "\t" + (palette ? "png8" : "rgba") + "\t" + time + "\t"
+                + (size / tiles));
+    }
+
+    static long encode(BufferedImage tile, ColorIndexer indexer, int tiles, PNGEncoder encoder)
+            throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        for (int i = 0; i < tiles; i++) {
+            if (encoder != null) {
+                encoder.encode(tile, indexer, out);
+            } else {
+                // what PNGMapResponse does, with the default 25% compression
+                RenderedImage image = tile;
+                if (indexer != null) {
+                    image = ColorIndexerDescriptor.create(tile, indexer, null);
+                }
+                new ImageWorker(image).writePNG(out, "FILTERED", 0.75f, false, false);
+            }
+        }
+        return out.count;
+    }
+
+    /**
+     * Counts the bytes written and discards them
+     */
+    static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
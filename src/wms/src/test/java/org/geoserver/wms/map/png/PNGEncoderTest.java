@@ -0,0 +1,202 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+import javax.media.jai.TiledImage;
+
+import org.geoserver.wms.map.png.PNGEncoder.Profile;
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
+import org.geoserver.wms.map.quantize.Quantizer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PNGEncoderTest {
+
+    static ExecutorService executor;
+
+    @BeforeClass
+    public static void setupExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+        ColorIndexerDescriptor.register();
+    }
+
+    @AfterClass
+    public static void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testImageTypes() throws Exception {
+        int[] types = { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED };
+        for (int type : types) {
+            BufferedImage image = drawMap(256, 256, type);
+            for (Profile profile : Profile.values()) {
+                assertRoundTrip(image, new PNGEncoder(profile, 6, null));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBlocks() throws Exception {
+        BufferedImage image = drawMap(300, 700, BufferedImage.TYPE_4BYTE_ABGR);
+        for (Profile profile : Profile.values()) {
+            PNGEncoder encoder = new PNGEncoder(profile, 6, executor);
+            // many small blocks, with dictionaries spanning more than one block
+            encoder.blockSize = 10000;
+            assertRoundTrip(image, encoder);
+            encoder.blockSize = 100000;
+            assertRoundTrip(image, encoder);
+        }
+    }
+
+    @Test
+    public void testSubImage() throws Exception {
+        BufferedImage image = drawMap(300, 300, BufferedImage.TYPE_4BYTE_ABGR);
+        PNGEncoder encoder = new PNGEncoder(Profile.BALANCED, 6, executor);
+        encoder.blockSize = 10000;
+        assertRoundTrip(image.getSubimage(17, 23, 200, 250), encoder);
+    }
+
+    @Test
+    public void testTiledImage() throws Exception {
+        BufferedImage image = drawMap(300, 300, BufferedImage.TYPE_4BYTE_ABGR);
+        TiledImage tiled = new TiledImage(0, 0, 300, 300, 0, 0, image.getSampleModel()
+                .createCompatibleSampleModel(64, 64), image.getColorModel());
+        tiled.setData(image.getRaster());
+        PNGEncoder encoder = new PNGEncoder(Profile.SPEED, 6, executor);
+        encoder.blockSize = 10000;
+        assertRoundTrip(tiled, encoder);
+    }
+
+    @Test
+    public void testColorIndexer() throws Exception {
+        BufferedImage image = drawMap(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        ColorIndexer indexer = new Quantizer(256).subsample().buildColorIndexer(image);
+        RenderedImage expected = ColorIndexerDescriptor.create(image, indexer, null);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new PNGEncoder(Profile.BALANCED, 6, executor).encode(image, indexer, bos);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertTrue(decoded.getColorModel() instanceof IndexColorModel);
+        assertSamePixels(expected, decoded);
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_INT_ARGB_PRE), null));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_USHORT_GRAY), null));
+        assertFalse(PNGEncoder.isSupported(new BufferedImage(10, 10,
+                BufferedImage.TYPE_BYTE_BINARY), null));
+        // a palette image cannot be indexed again
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_BYTE_INDEXED);
+        ColorIndexer indexer = new Quantizer(256).buildColorIndexer(drawMap(10, 10,
+                BufferedImage.TYPE_4BYTE_ABGR));
+        assertFalse(PNGEncoder.isSupported(image, indexer));
+    }
+
+    @Test
+    public void testCombineAdler32() {
+        byte[] data = new byte[100000];
+        new Random(0).nextBytes(data);
+        Adler32 full = new Adler32();
+        full.update(data);
+        Adler32 head = new Adler32();
+        head.update(data, 0, 70000);
+        Adler32 tail = new Adler32();
+        tail.update(data, 70000, 30000);
+        assertEquals(full.getValue(),
+                PNGEncoder.combineAdler32(head.getValue(), tail.getValue(), 30000));
+    }
+
+    void assertRoundTrip(RenderedImage image, PNGEncoder encoder) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        encoder.encode(image, bos);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        assertNotNull(decoded);
+        assertSamePixels(image, decoded);
+    }
+
+    void assertSamePixels(RenderedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        WritableRaster data = Raster.createWritableRaster(expected.getSampleModel()
+                .createCompatibleSampleModel(expected.getWidth(), expected.getHeight()),
+                new Point(expected.getMinX(), expected.getMinY()));
+        expected.copyData(data);
+        BufferedImage reference = new BufferedImage(expected.getColorModel(), data
+                .createWritableTranslatedChild(0, 0), expected.getColorModel()
+                .isAlphaPremultiplied(), null);
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                int e = reference.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                // fully transparent pixels can have any color
+                if (e != a && ((e >>> 24) != 0 || (a >>> 24) != 0)) {
+                    fail("Pixel " + x + "," + y + " differs, expected "
+                            + Integer.toHexString(e) + " but was " + Integer.toHexString(a));
+                }
+            }
+        }
+    }
+
+    /**
+     * Paints something resembling a basemap tile: a background, polygons, roads and labels
+     */
+    static BufferedImage drawMap(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(0);
+        if (image.getColorModel().hasAlpha()) {
+            g.setColor(new Color(220, 230, 210, 128));
+        } else {
+            g.setColor(new Color(220, 230, 210));
+        }
+        g.fillRect(0, 0, width / 2, height);
+        for (int i = 0; i < 20; i++) {
+            g.setColor(new Color(150 + random.nextInt(100), 150 + random.nextInt(100), 200));
+            g.fillRect(random.nextInt(width), random.nextInt(height), 10 + random.nextInt(60),
+                    10 + random.nextInt(60));
+        }
+        g.setStroke(new BasicStroke(3));
+        for (int i = 0; i < 30; i++) {
+            g.setColor(i % 2 == 0 ? Color.WHITE : new Color(250, 200, 80));
+            g.drawLine(random.nextInt(width), random.nextInt(height), random.nextInt(width),
+                    random.nextInt(height));
+        }
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < 10; i++) {
+            g.drawString("Label " + i, random.nextInt(width), random.nextInt(height));
+        }
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,144 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.geoserver.wms.map.quantize.ColorUtils.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
+
+/**
+ * Compares the throughput of the color indexers on tile (256x256) and metatile (1024x1024) sized
+ * images, and the time needed to build a palette with and without the palette cache. Not a unit
+ * test, run it manually with:
+ *
+ * <pre>
+ * java org.geoserver.wms.map.quantize.ColorIndexerBenchmark [iterations]
+ * </pre>
+ */
+public class ColorIndexerBenchmark {
+
+    static final int WARMUP = 3;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        for (int size : new int[] { 256, 1024 }) {
+            BufferedImage image = drawMap(size);
+            int[] pixels = image.getRGB(0, 0, size, size, null, 0, size);
+
+            // the indexer Quantizer used to build, and the one it builds now
+            Quantizer.PALETTES.clear();
+            InverseColorMapIndexer inverse = (InverseColorMapIndexer) new Quantizer(256)
+                    .buildColorIndexer(image);
+            ColorIndexer mapped = buildMappedIndexer(image, inverse.colors);
+            IndexColorModel icm = inverse.toIndexColorModel();
+
+            System.out.println("Image " + size + "x" + size + ", ms per image");
+            run("simple", new SimpleColorIndexer(icm), pixels, iterations);
+            run("lru", new CachingColorIndexer(new LRUColorIndexer(icm, 1024)), pixels,
+                    iterations);
+            run("mapped", mapped, pixels, iterations);
+            // a fresh indexer for each image, as happens with a new palette
+            run("inverse (new)", null, pixels, iterations, icm);
+            run("inverse (shared)", InverseColorMapIndexer.get(icm), pixels, iterations);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                Quantizer.PALETTES.clear();
+                new Quantizer(256).buildColorIndexer(image);
+            }
+            long uncached = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                new Quantizer(256).buildColorIndexer(image);
+            }
+            long cached = System.nanoTime() - start;
+            System.out.println("palette build\t" + uncached / iterations / 1000000.0
+                    + "\tcached\t" + cached / iterations / 1000000.0);
+        }
+    }
+
+    static void run(String name, ColorIndexer indexer, int[] pixels, int iterations) {
+        run(name, indexer, pixels, iterations, null);
+    }
+
+    static void run(String name, ColorIndexer indexer, int[] pixels, int iterations,
+            IndexColorModel icm) {
+        long time = 0;
+        long checksum = 0;
+        for (int i = 0; i < WARMUP + iterations; i++) {
+            ColorIndexer current = indexer != null ? indexer : new InverseColorMapIndexer(icm);
+            long start = System.nanoTime();
+            for (int pixel : pixels) {
+                checksum += current.getClosestIndex(red(pixel), green(pixel), blue(pixel),
+                        alpha(pixel));
+            }
+            if (i >= WARMUP) {
+                time += System.nanoTime() - start;
+            }
+        }
+        System.out.println(name + "\t" + time / iterations / 1000000.0 + "\t(" + checksum + ")");
+    }
+
+    /**
+     * Builds the histogram based indexer used by Quantizer before the inverse color map one
+     */
+    static ColorIndexer buildMappedIndexer(BufferedImage image, byte[][] rgba) {
+        PackedHistogram histogram = new PackedHistogram(image, 1, 1);
+        int shift = histogram.getShift();
+        ColorIndexer simple = new SimpleColorIndexer(rgba);
+        for (ColorEntry ce : histogram.colorMap) {
+            int color = ce.color;
+            int r = red(color);
+            int g = green(color);
+            int b = blue(color);
+            int a = alpha(color);
+            if (shift > 0) {
+                r = unshift(r, shift);
+                g = unshift(g, shift);
+                b = unshift(b, shift);
+                a = unshift(a, shift);
+            }
+            ce.value = simple.getClosestIndex(r, g, b, a) & 0xFF;
+        }
+        return new CachingColorIndexer(new MappedColorIndexer(rgba, histogram.colorMap, shift));
+    }
+
+    /**
+     * Paints an antialiased, semi transparent, basemap like image
+     */
+    static BufferedImage drawMap(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(0);
+        int features = size / 4;
+        for (int i = 0; i < features; i++) {
+            g.setColor(new Color(100 + random.nextInt(150), 150 + random.nextInt(100),
+                    100 + random.nextInt(150), 128 + random.nextInt(128)));
+            g.fillOval(random.nextInt(size), random.nextInt(size), 20 + random.nextInt(80),
+                    20 + random.nextInt(80));
+        }
+        g.setStroke(new BasicStroke(2));
+        for (int i = 0; i < features; i++) {
+            g.setColor(i % 3 == 0 ? Color.WHITE : new Color(250, 200, 80));
+            g.drawLine(random.nextInt(size), random.nextInt(size), random.nextInt(size),
+                    random.nextInt(size));
+        }
+        g.setColor(Color.BLACK);
+        for (int i = 0; i < features / 4; i++) {
+            g.drawString("Label " + i, random.nextInt(size), random.nextInt(size));
+        }
+        g.dispose();
+        return image;
+    }
+}
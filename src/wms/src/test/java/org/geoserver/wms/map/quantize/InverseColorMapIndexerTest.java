@@ -0,0 +1,101 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InverseColorMapIndexerTest {
+
+    @Test
+    public void testSameAsSimpleIndexer() {
+        Random random = new Random(0);
+        for (int size : new int[] { 2, 16, 255, 256 }) {
+            byte[][] colors = new byte[4][size];
+            for (byte[] component : colors) {
+                random.nextBytes(component);
+            }
+            SimpleColorIndexer simple = new SimpleColorIndexer(colors);
+            InverseColorMapIndexer inverse = new InverseColorMapIndexer(colors);
+            for (int i = 0; i < 100000; i++) {
+                int r = random.nextInt(256);
+                int g = random.nextInt(256);
+                int b = random.nextInt(256);
+                int a = random.nextInt(256);
+                assertEquals(simple.getClosestIndex(r, g, b, a), inverse.getClosestIndex(r, g, b, a));
+            }
+        }
+    }
+
+    @Test
+    public void testPaletteColors() {
+        // close colors in the same cell must still be told apart
+        byte[][] colors = new byte[][] { { 0, 1, 2, (byte) 255 }, { 0, 1, 2, (byte) 255 },
+                { 0, 1, 2, (byte) 255 }, { (byte) 255, (byte) 255, (byte) 255, (byte) 255 } };
+        InverseColorMapIndexer indexer = new InverseColorMapIndexer(colors);
+        for (int i = 0; i < 4; i++) {
+            int c = colors[0][i] & 0xFF;
+            assertEquals(i, indexer.getClosestIndex(c, c, c, 255));
+        }
+    }
+
+    @Test
+    public void testAlphaThreshold() {
+        byte[][] colors = new byte[][] { { (byte) 255, 0 }, { (byte) 255, 0 }, { (byte) 255, 0 },
+                { 0, 10 } };
+        assertEquals(1, new InverseColorMapIndexer(colors).getClosestIndex(0, 0, 0, 5));
+        // almost transparent colors are all the same transparent white
+        InverseColorMapIndexer indexer = new InverseColorMapIndexer(colors,
+                PackedHistogram.ALPHA_THRESHOLD);
+        assertEquals(0, indexer.getClosestIndex(0, 0, 0, 5));
+        assertEquals(1, indexer.getClosestIndex(0, 0, 0, 6));
+    }
+
+    @Test
+    public void testSharedPaletteIndexer() {
+        IndexColorModel icm = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 },
+                new byte[] { 0, (byte) 255 }, new byte[] { 0, (byte) 255 });
+        InverseColorMapIndexer indexer = InverseColorMapIndexer.get(icm);
+        assertSame(icm, indexer.toIndexColorModel());
+        assertSame(indexer, InverseColorMapIndexer.get(icm));
+
+        // an equal palette is not the same palette
+        IndexColorModel other = new IndexColorModel(1, 2, new byte[] { 0, (byte) 255 },
+                new byte[] { 0, (byte) 255 }, new byte[] { 0, (byte) 255 });
+        assertNotSame(indexer, InverseColorMapIndexer.get(other));
+    }
+
+    @Test
+    public void testQuantizerPaletteCache() {
+        BufferedImage image = paint(Color.RED, Color.BLUE);
+        ColorIndexer indexer = new Quantizer(256).buildColorIndexer(image);
+        // same contents, same palette
+        assertSame(indexer, new Quantizer(256).buildColorIndexer(paint(Color.RED, Color.BLUE)));
+        // same colors but different counts, different palette
+        assertNotSame(indexer, new Quantizer(256).buildColorIndexer(paint(Color.BLUE, Color.RED)));
+        // same histogram, but asking for less colors
+        assertNotSame(indexer, new Quantizer(2).buildColorIndexer(image));
+    }
+
+    BufferedImage paint(Color background, Color foreground) {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        g.setColor(background);
+        g.fillRect(0, 0, 64, 64);
+        g.setColor(foreground);
+        g.fillRect(0, 0, 16, 16);
+        g.setColor(Color.GREEN);
+        g.drawLine(0, 63, 63, 0);
+        g.dispose();
+        return image;
+    }
+}